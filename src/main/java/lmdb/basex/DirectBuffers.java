@@ -0,0 +1,63 @@
+package lmdb.basex;
+
+import org.fusesource.lmdbjni.DirectBuffer;
+
+/**
+ * Clock-based management of page views pointing straight into the LMDB memory map,
+ * the read-only counterpart of {@link org.basex.io.random.Buffers}. A view stays valid
+ * for the lifetime of the read transaction it was obtained from.
+ */
+final class DirectBuffers {
+    /** Number of buffers (must be 1 << n). */
+    private static final int BUFFERS = 1 << 4;
+    /** Page views. */
+    private final DirectBuffer[] buf = new DirectBuffer[BUFFERS];
+    /** Page positions of the views. */
+    private final long[] pos = new long[BUFFERS];
+    /** Current buffer offset. */
+    private int off;
+
+    DirectBuffers() {
+        for(int b = 0; b < BUFFERS; ++b) {
+            buf[b] = new DirectBuffer();
+            pos[b] = -1;
+        }
+    }
+
+    /**
+     * Returns the current page view.
+     * @return page view
+     */
+    DirectBuffer current() {
+        return buf[off];
+    }
+
+    /**
+     * Chooses a view and sets the offset.
+     * @param p page position
+     * @return true if cursor has changed and the view has to be (re)mapped
+     */
+    boolean cursor(final long p) {
+        final int o = off;
+        do {
+            if(pos[off] == p) return false;
+        } while((off = off + 1 & BUFFERS - 1) != o);
+        off = o + 1 & BUFFERS - 1;
+        pos[off] = p;
+        return true;
+    }
+
+    /**
+     * Forgets all mapped pages, e.g. after the transaction has changed.
+     */
+    void reset() {
+        for(int b = 0; b < BUFFERS; ++b) pos[b] = -1;
+    }
+
+    /**
+     * Marks the current view as unmapped.
+     */
+    void invalidate() {
+        pos[off] = -1;
+    }
+}
@@ -1,11 +1,12 @@
 package lmdb.basex;
 
 
-import org.basex.core.MainOptions;
-import org.basex.io.IOContent;
 import org.basex.query.QueryException;
 import org.basex.query.expr.Expr;
+import org.basex.query.iter.ValueIter;
 import org.basex.query.value.Value;
+import org.basex.query.value.ValueBuilder;
+import org.basex.query.value.item.Bln;
 import org.basex.query.value.item.Item;
 import org.basex.query.value.node.DBNode;
 import org.basex.query.value.seq.Empty;
@@ -14,32 +15,59 @@ import org.basex.query.value.type.NodeType;
 import org.basex.query.value.type.SeqType;
 import org.basex.util.InputInfo;
 import org.basex.util.Util;
-import org.fusesource.lmdbjni.Transaction;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Documents of a collection, which are opened when they are accessed.
+ *
+ * A document is opened once per query (see {@link LmdbQueryResources#openDocument}), so all items and
+ * sequences of the same document share its nodes. Sub-sequences, reversed sequences and sequences with a
+ * removed document only rearrange the names and open nothing. An iterator opens the next {@link #PREFETCH}
+ * documents in the background, and releases the cached structures of the documents it has moved on from.
+ */
 public class LazyDBNodeSeq extends Seq {
 
-    private List<String> doc;
-    private MainOptions options;
-    private Transaction tx;
+    /** Number of documents opened ahead of an iterator. */
+    private static final int PREFETCH = 2;
 
-    public LazyDBNodeSeq(List<String> docs, MainOptions opt, Transaction tx) {
-        super(docs.size(), NodeType.DOC);
+    private final String[] doc;
+    private final LmdbQueryResources resources;
+
+    public LazyDBNodeSeq(List<String> docs, LmdbQueryResources res) {
+        this(docs.toArray(new String[docs.size()]), res);
+    }
+
+    private LazyDBNodeSeq(String[] docs, LmdbQueryResources res) {
+        super(docs.length, NodeType.DOC);
         doc = docs;
-        options = opt;
-        this.tx = tx;
+        resources = res;
+    }
+
+    /** Returns the documents with the given names, which may be empty or a single document. */
+    private Value get(String[] docs) {
+        return docs.length == 0 ? Empty.SEQ : docs.length == 1 ? open(docs[0]) : new LazyDBNodeSeq(docs, resources);
+    }
+
+    private DBNode open(final String name) {
+        try {
+            return new DBNode(resources.openDocument(name));
+        } catch(IOException ioe) {
+            throw Util.notExpected(ioe);
+        }
     }
 
     @Override
     public Item ebv(final org.basex.query.QueryContext ctx, final InputInfo ii) {
-        return itemAt(0);
+        // a sequence starting with a node is true
+        return Bln.TRUE;
     }
 
     @Override
     public SeqType seqType() {
-        return SeqType.DOC_O;
+        return SeqType.get(NodeType.DOC, SeqType.Occ.ONE_MORE);
     }
 
     @Override
@@ -51,58 +79,72 @@ public class LazyDBNodeSeq extends Seq {
     public boolean sameAs(final Expr cmp) {
         if(!(cmp instanceof LazyDBNodeSeq)) return false;
         final LazyDBNodeSeq seq = (LazyDBNodeSeq)cmp;
-        return doc.equals(seq.doc);
+        return resources == seq.resources && Arrays.equals(doc, seq.doc);
     }
 
     @Override
-    public int writeTo(final Item[] arr, final int start) {
-        int w = 0;
-        for(String d: doc) {
-            DBNode dbn = null;
-            try {
-                arr[start+w] = new DBNode(LmdbDataManager.openDocument(d, options, tx));
-                w++;
-            } catch(IOException ioe) {
-                try {
-                    dbn = new DBNode(new IOContent("<error>" + ioe.getMessage() + "</error>"));
-                    arr[start+w] = dbn;
-                    w++;
-                } catch(Exception e) {}
-                throw Util.notExpected(ioe);
+    public DBNode itemAt(final long pos) {
+        return open(doc[(int) pos]);
+    }
+
+    @Override
+    public ValueIter iter() {
+        return new ValueIter() {
+            int c;
+            @Override
+            public Item get(final long i) { return itemAt(i); }
+            @Override
+            public Item next() {
+                if(c > 0) resources.release(doc[c - 1]);
+                if(c == doc.length) return null;
+                for(int p = c + 1; p <= c + PREFETCH && p < doc.length; p++) resources.prefetch(doc[p]);
+                return itemAt(c++);
             }
-        }
+            @Override
+            public long size() { return size; }
+            @Override
+            public Value value() { return LazyDBNodeSeq.this; }
+        };
+    }
+
+    @Override
+    public int writeTo(final Item[] arr, final int start) {
+        final int w = Math.min(doc.length, arr.length - start);
+        for(int i = 0; i < w; i++) arr[start + i] = itemAt(i);
         return w;
     }
 
     @Override
-    public DBNode itemAt(final long pos) {
-        try {
-            return new DBNode(LmdbDataManager.openDocument(doc.get((int) pos), options, tx));
-        } catch(IOException ioe) {
-            try {
-                return new DBNode(new IOContent("<error>" + ioe.getMessage() + "</error>"));
-            } catch(Exception i) {}
-            throw Util.notExpected(ioe);
-        }
+    public Value subSeq(final long start, final long len) {
+        if(len >= size) return this;
+        return get(Arrays.copyOfRange(doc, (int) start, (int) (start + len)));
     }
 
+    @Override
     public Value reverse() {
-        return Empty.SEQ;
-    };
+        final int n = doc.length;
+        final String[] docs = new String[n];
+        for(int i = 0; i < n; i++) docs[i] = doc[n - i - 1];
+        return new LazyDBNodeSeq(docs, resources);
+    }
 
     @Override
-    public Value materialize(InputInfo ii) throws QueryException {
-        return null;
+    public Value materialize(InputInfo ii) {
+        // documents are database nodes, which stay valid until the query is closed
+        return this;
     }
 
     @Override
     public Value atomValue(InputInfo ii) throws QueryException {
-        return null;
+        final ValueBuilder vb = new ValueBuilder();
+        for(int i = 0; i < doc.length; i++) vb.add(itemAt(i).atomValue(ii));
+        return vb.value();
     }
 
     @Override
     public long atomSize() {
-        return 0;
+        // a document is atomized to a single untyped value
+        return size;
     }
 
     @Override
@@ -112,12 +154,18 @@ public class LazyDBNodeSeq extends Seq {
 
     @Override
     public Value insert(long pos, Item val) {
-        return null;
+        final ValueBuilder vb = new ValueBuilder();
+        for(int i = 0; i < pos; i++) vb.add(itemAt(i));
+        vb.add(val);
+        for(int i = (int) pos; i < doc.length; i++) vb.add(itemAt(i));
+        return vb.value();
     }
 
     @Override
     public Value remove(long pos) {
-        doc.remove((int)pos);
-        return this;
+        final String[] docs = new String[doc.length - 1];
+        System.arraycopy(doc, 0, docs, 0, (int) pos);
+        System.arraycopy(doc, (int) pos + 1, docs, (int) pos, docs.length - (int) pos);
+        return get(docs);
     }
 }
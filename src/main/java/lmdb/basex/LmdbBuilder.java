@@ -1,7 +1,5 @@
 package lmdb.basex;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.basex.build.Builder;
 import org.basex.build.Parser;
@@ -11,18 +9,17 @@ import org.basex.data.Data;
 import org.basex.data.DataClip;
 import org.basex.index.IdPreMap;
 import org.basex.index.name.Names;
-import org.basex.io.IO;
-import org.basex.io.IOFile;
+import org.basex.index.path.PathSummary;
+import org.basex.io.IOContent;
 import org.basex.io.in.DataInput;
 import org.basex.io.out.DataOutput;
+import org.fusesource.lmdbjni.Cursor;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.GetOp;
 import org.fusesource.lmdbjni.Transaction;
 
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.io.EOFException;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -34,23 +31,24 @@ import static lmdb.basex.LmdbDataManager.tableaccessdb;
 import static lmdb.basex.LmdbDataManager.textdatadb;
 import static lmdb.util.Byte.lmdbkey;
 import static org.basex.core.StaticOptions.DBPATH;
+import static org.fusesource.lmdbjni.Constants.APPEND;
 import static org.fusesource.lmdbjni.Constants.bytes;
 
 public class LmdbBuilder extends Builder {
 
     private DataOutput tout;
-    private DataOutput sout;
+    private LmdbTableOutput table;
     private StaticOptions sopts;
     private boolean closed;
 
     private byte[] docid;
-    private DataOutputStream tempBuffer;
-    private File tmpFile;
+    private Transaction tx;
+    private int textFlags;
+    private int attrFlags;
+    private int compression;
     private long txtref = 1;
     private long attref = 1;
 
-    private final static int batchsz = 10000;
-
     private LmdbBuilder(final String name, final byte[] docid, final Parser parser,
                         final MainOptions opts, final StaticOptions sopts) throws IOException {
 
@@ -60,16 +58,15 @@ public class LmdbBuilder extends Builder {
         sopts.set(DBPATH, System.getProperty("java.io.tmpdir", "/tmp"));
 
         meta = new LmdbMetaData(name, opts, sopts);
-        meta.updindex = false; //true;
+        meta.updindex = LmdbDataManager.updindex();
         meta.textindex = false; //true;
         meta.attrindex = false; //true;
         meta.maxlen = opts.get(MainOptions.MAXLEN);
+        ((LmdbMetaData) meta).tablepower = LmdbDataManager.tablePower();
+        ((LmdbMetaData) meta).indexpower = LmdbDataManager.indexPower();
+        ((LmdbMetaData) meta).compression = LmdbDataManager.compression();
 
         this.docid = docid;
-
-        this.tmpFile = new File(System.getProperty("java.io.tmpdir", "/tmp"),  "blx." + meta.name.replace('/', '.') + ".txt");
-        this.tmpFile.deleteOnExit();
-        this.tempBuffer = new DataOutputStream(new FileOutputStream(tmpFile));
     }
 
 
@@ -78,83 +75,147 @@ public class LmdbBuilder extends Builder {
         return new LmdbBuilder(name, docid, parser, opts, sopts).build();
     }
 
+    /**
+     * Builds a document inside the write transaction of the caller, which commits it.
+     */
+    static void build(final String name, final byte[] docid, final Parser parser, final MainOptions opts,
+                      final StaticOptions sopts, final Transaction tx) throws IOException {
+        final LmdbBuilder b = new LmdbBuilder(name, docid, parser, opts, sopts);
+        b.tx = tx;
+        b.build();
+    }
+
+    /**
+     * Streams node records and values into a single write transaction. Keys of a new document
+     * arrive in ascending order and are appended if they sort behind all existing keys.
+     * The document becomes visible with the commit, together with its name.
+     */
     @Override
     public LmdbData build() throws IOException {
         meta.assign(parser);
         meta.dirty = true;
-
-        // calculate optimized output buffer sizes to reduce disk fragmentation
-        final Runtime rt = Runtime.getRuntime();
-        final long max = Math.min(1 << 22, rt.maxMemory() - rt.freeMemory() >> 2);
-        int bs = (int) Math.min(meta.filesize, max);
-        bs = Math.max(IO.BLOCKSIZE, bs - bs % IO.BLOCKSIZE);
-
-        String tblBaseName = sopts.get(DBPATH)+"/" + "blx." + meta.name.replace('/','.') + ".tbl";
-        String tblTmpName =  sopts.get(DBPATH)+"/" + "blx." + meta.name.replace('/','.') + ".tmp";
+        compression = ((LmdbMetaData) meta).compression;
 
         elemNames = new Names(meta);
         attrNames = new Names(meta);
+        final boolean own = tx == null;
+        if(own) tx = env.createWriteTransaction();
         try {
-            tout = new DataOutput(new LmdbTableOutput((LmdbMetaData)meta, tblBaseName, docid));
-            sout = new DataOutput(new IOFile(tblTmpName), bs);
+            table = new LmdbTableOutput((LmdbMetaData) meta, tx, docid, appendFlag(tableaccessdb));
+            textFlags = appendFlag(textdatadb);
+            attrFlags = appendFlag(attributevaldb);
+            tout = new DataOutput(table);
             parse();
+            close();
+
+            textdatadb.put(tx, LmdbData.LAST_REF_KEY, lmdb.util.Byte.getBytes((int) txtref));
+            attributevaldb.put(tx, LmdbData.LAST_REF_KEY, lmdb.util.Byte.getBytes((int) attref));
+            writeStruct(path);
+            coldb.put(tx, bytes(meta.name), docid);
+            LmdbCollectionIndex.changed(tx, meta.name, docid);
+            if(own) tx.commit();
         } catch(final IOException ex) {
             try { close(); } catch(final IOException ignored) { }
             throw ex;
+        } finally {
+            if(own) tx.close();
         }
-        close();
-
-        int p = 0;
-        Transaction tx = env.createWriteTransaction();
-        FileInputStream tbl = new FileInputStream(tblBaseName);
-        for(int i = 0; ; i++) {
-            byte[] b = new byte[IO.BLOCKSIZE];
-            if(IOUtils.read(tbl,b) == 0) break;
-            tableaccessdb.put(tx,lmdbkey(docid,i),b);
-            if(++p > batchsz) {
-                tx.commit();
-                tx = env.createWriteTransaction();
-                p = 0;
-            }
+
+        // just create it. do not use right away
+        return null;
+    }
+
+    /**
+     * Stores a document parsed into main memory, inside the write transaction of the caller.
+     * Records are copied in document order, so keys are appended as in {@link #build()}.
+     * The caller commits the transaction and thereby publishes the document.
+     * @param tx write transaction
+     * @param name document name
+     * @param docid document id
+     * @param data parsed document
+     * @throws IOException I/O exception
+     */
+    static void store(final Transaction tx, final String name, final byte[] docid, final Data data)
+            throws IOException {
+        new LmdbBuilder(name, docid, tx).copy(data);
+    }
+
+    private LmdbBuilder(final String name, final byte[] docid, final Transaction tx) {
+        super(name, null);
+        this.docid = docid;
+        this.tx = tx;
+    }
+
+    private void copy(final Data data) throws IOException {
+        // meta data of the main memory document, with the storage settings of this server
+        final LmdbMetaData md = new LmdbMetaData(dbname, new MainOptions(), new StaticOptions(false));
+        try(ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+            final DataOutput out = new DataOutput(bos);
+            data.meta.write(out);
+            out.flush();
+            md.read(new DataInput(new IOContent(bos.toByteArray())));
         }
-        if(p > 0) tx.commit();
-        else tx.close();
-
-        try(final DataInput in = new DataInput(new IOFile(tblTmpName))) {
-            p = 0;
-            tx = env.createWriteTransaction();
-            final TableLmdbAccess ta = new TableLmdbAccess(meta, tx, docid);
-            try {
-                for(; spos < ssize; ++spos) {
-                    ta.write4(in.readNum(), 8, in.readNum());
-                    ta.flush(false);
-                    if(++p > batchsz) {
-                        tx.commit();
-                        tx = env.createWriteTransaction();
-                        ta.setTx(tx);
-                        p = 0;
-                    }
-                }
-            } finally {
-                ta.close();
+        md.updindex = LmdbDataManager.updindex();
+        md.textindex = false;
+        md.attrindex = false;
+        md.tablepower = LmdbDataManager.tablePower();
+        md.indexpower = LmdbDataManager.indexPower();
+        md.compression = LmdbDataManager.compression();
+        meta = md;
+        compression = md.compression;
+        elemNames = data.elemNames;
+        attrNames = data.attrNames;
+        nspaces = data.nspaces;
+
+        table = new LmdbTableOutput(md, tx, docid, appendFlag(tableaccessdb));
+        textFlags = appendFlag(textdatadb);
+        attrFlags = appendFlag(attributevaldb);
+        tout = new DataOutput(table);
+        final int size = data.meta.size;
+        for(int pre = 0; pre < size; pre++) {
+            final int kind = data.kind(pre);
+            final int id = data.id(pre);
+            switch(kind) {
+                case Data.DOC:
+                    doc(data.size(pre, kind), id);
+                    break;
+                case Data.ELEM:
+                    elem(data.dist(pre, kind), data.nameId(pre), data.attSize(pre, kind), data.uriId(pre, kind),
+                            data.nsFlag(pre), data.size(pre, kind), id);
+                    break;
+                case Data.ATTR:
+                    attr(data.nameId(pre), data.text(pre, false), data.dist(pre, kind), data.uriId(pre, kind), id);
+                    break;
+                default:
+                    text(data.text(pre, true), data.dist(pre, kind), kind, id);
             }
-            if(p > 0) tx.commit();
-            else tx.close();
         }
+        tout.close();
+        tout = null;
 
-        writeTextData();
-        writeStruct();
-
-        FileUtils.deleteQuietly(new File(tblTmpName));
-        FileUtils.deleteQuietly(new File(tblBaseName));
-        FileUtils.deleteQuietly(tmpFile);
-
-        coldb.put(bytes(meta.name), docid);
+        textdatadb.put(tx, LmdbData.LAST_REF_KEY, lmdb.util.Byte.getBytes((int) txtref));
+        attributevaldb.put(tx, LmdbData.LAST_REF_KEY, lmdb.util.Byte.getBytes((int) attref));
+        writeStruct(data.paths);
+        coldb.put(tx, bytes(dbname), docid);
+        LmdbCollectionIndex.changed(tx, dbname, docid);
+    }
 
-        // just create it. do not use right away
-        return null;
+    // APPEND fails unless the key is larger than all keys of the database
+    private int appendFlag(final Database db) {
+        try(Cursor c = db.openCursor(tx)) {
+            final Entry last = c.get(GetOp.LAST);
+            return last == null || compare(last.getKey(), lmdbkey(docid, 0)) < 0 ? APPEND : 0;
+        }
     }
 
+    private static int compare(final byte[] a, final byte[] b) {
+        final int l = Math.min(a.length, b.length);
+        for(int i = 0; i < l; i++) {
+            final int d = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if(d != 0) return d;
+        }
+        return a.length - b.length;
+    }
 
     @Override
     public DataClip dataClip() throws IOException {
@@ -166,108 +227,82 @@ public class LmdbBuilder extends Builder {
         if(closed) return;
         closed = true;
         if(tout != null) tout.close();
-        if(sout != null) sout.close();
         parser.close();
         tout = null;
-        sout = null;
     }
 
     @Override
     protected void addDoc(final byte[] value) throws IOException {
-        tout.write1(Data.DOC);
-        tout.write2(0);
-        tout.write5(textRef(meta.name.getBytes(UTF_8), true));
-        tout.write4(0);
-        tout.write4(meta.size++);
+        doc(0, meta.size++);
     }
 
     @Override
     protected void addElem(final int dist, final int nameId, final int asize, final int uriId,
                            final boolean ne) throws IOException {
+        elem(dist, nameId, asize, uriId, ne, asize, meta.size++);
+    }
 
+    @Override
+    protected void addAttr(final int nameId, final byte[] value, final int dist, final int uriId)
+            throws IOException {
+        attr(nameId, value, dist, uriId, meta.size++);
+    }
+
+    @Override
+    protected void addText(final byte[] value, final int dist, final byte kind) throws IOException {
+        text(value, dist, kind, meta.size++);
+    }
+
+    private void doc(final int size, final int id) throws IOException {
+        tout.write1(Data.DOC);
+        tout.write2(0);
+        tout.write5(textRef(meta.name.getBytes(UTF_8), true));
+        tout.write4(size);
+        tout.write4(id);
+    }
+
+    private void elem(final int dist, final int nameId, final int asize, final int uriId,
+                      final boolean ne, final int size, final int id) throws IOException {
         tout.write1(asize << 3 | Data.ELEM);
         tout.write2((ne ? 1 << 15 : 0) | nameId);
         tout.write1(uriId);
         tout.write4(dist);
-        tout.write4(asize);
-        tout.write4(meta.size++);
-
+        tout.write4(size);
+        tout.write4(id);
     }
 
-    @Override
-    protected void addAttr(final int nameId, final byte[] value, final int dist, final int uriId)
-            throws IOException {
-
+    private void attr(final int nameId, final byte[] value, final int dist, final int uriId,
+                      final int id) throws IOException {
         tout.write1(dist << 3 | Data.ATTR);
         tout.write2(nameId);
         tout.write5(textRef(value, false));
         tout.write4(uriId);
-        tout.write4(meta.size++);
+        tout.write4(id);
     }
 
-    @Override
-    protected void addText(final byte[] value, final int dist, final byte kind) throws IOException {
+    private void text(final byte[] value, final int dist, final int kind, final int id) throws IOException {
         tout.write1(kind);
         tout.write2(0);
         tout.write5(textRef(value, true));
         tout.write4(dist);
-        tout.write4(meta.size++);
+        tout.write4(id);
     }
 
     @Override
     protected void setSize(final int pre, final int size) throws IOException {
-        sout.writeNum(pre);
-        sout.writeNum(size);
-        ++ssize;
+        table.size(pre, size);
     }
 
     private long textRef(final byte[] value, final boolean text) throws IOException {
-        long ref = text ? txtref++ : attref++;
-        tempBuffer.writeInt(value.length);
-        tempBuffer.write(lmdbkey(docid, (int)ref));
-        tempBuffer.write(value);
-        tempBuffer.writeBoolean(text);
+        final long v = LmdbValueCodec.inline(value);
+        if(v != -1) return v;
+        final long ref = text ? txtref++ : attref++;
+        (text ? textdatadb : attributevaldb).put(tx, lmdbkey(docid, (int) ref),
+                LmdbValueCodec.encode(value, compression), text ? textFlags : attrFlags);
         return ref;
     }
 
-
-    private void writeTextData() throws IOException {
-
-        tempBuffer.close();
-        Transaction tx = env.createWriteTransaction();
-        DataInputStream di = new DataInputStream(new FileInputStream(tmpFile));
-
-        int c = 0;
-        try {
-            boolean text = true;
-            while(true) try {
-                int len = di.readInt();
-                byte[] key = new byte[8];
-                di.readFully(key);
-                byte[] value = new byte[len];
-                di.readFully(value);
-                text = di.readBoolean();
-                (text ? textdatadb : attributevaldb).put(tx, key, value);
-                c++;
-                if (c > batchsz) {
-                    tx.commit();
-                    c = 0;
-                    tx = env.createWriteTransaction();
-                }
-            } catch (EOFException eofe) {
-                break;
-            }
-            tx.commit();
-        } finally {
-            tx.close();
-        }
-
-        textdatadb.put(LmdbData.LAST_REF_KEY, lmdb.util.Byte.getBytes((int) txtref));
-        attributevaldb.put(LmdbData.LAST_REF_KEY, lmdb.util.Byte.getBytes((int) attref));
-
-    }
-
-    private void writeStruct() {
+    private void writeStruct(final PathSummary paths) {
 
         try(ByteArrayOutputStream bos = new ByteArrayOutputStream(1024*32);
             DataOutputStream dos = new DataOutputStream(bos);
@@ -279,7 +314,7 @@ public class LmdbBuilder extends Builder {
             dos.write(b.toByteArray());
 
             b.reset();
-            path.write(new DataOutput(b));
+            paths.write(new DataOutput(b));
             dos.writeInt(b.size());
             dos.write(b.toByteArray());
 
@@ -303,7 +338,7 @@ public class LmdbBuilder extends Builder {
             dos.writeInt(b.size());
             dos.write(b.toByteArray());
 
-            structdb.put(docid, bos.toByteArray());
+            structdb.put(tx, docid, bos.toByteArray());
 
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
@@ -0,0 +1,429 @@
+package lmdb.basex;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.basex.build.MemBuilder;
+import org.basex.build.xml.XMLParser;
+import org.basex.core.MainOptions;
+import org.basex.data.Data;
+import org.basex.io.IOContent;
+import org.basex.io.in.TarEntry;
+import org.basex.io.in.TarInputStream;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static lmdb.basex.LmdbDataManager.coldb;
+import static lmdb.basex.LmdbDataManager.env;
+import static org.fusesource.lmdbjni.Constants.bytes;
+
+/**
+ * Loads many documents into a collection.
+ *
+ * Documents are read from the source on the calling thread, parsed into main memory on a pool of
+ * worker threads and stored by a single writer thread, which commits them in large batches. The write
+ * transaction of a batch is opened once all its documents have been parsed, so other writers do not wait
+ * for the parsers.
+ * Only a bounded number of parsed documents is held in memory. A document that cannot be parsed
+ * or stored is reported and skipped; if a batch fails to store, its documents are stored again
+ * one by one, so a single bad document does not cost the others of its batch.
+ */
+public class LmdbBulkLoader {
+
+    private static final Logger logger = Logger.getLogger(LmdbBulkLoader.class);
+
+    /** Maximum number of error messages kept by a report. */
+    private static final int MAX_ERRORS = 1000;
+
+    private final String collection;
+    private final int threads;
+    private int batchDocs = 1000;
+    private long batchBytes = 64L << 20;
+    private Listener listener;
+
+    public LmdbBulkLoader(final String collection, final int threads) {
+        if(threads < 1) throw new IllegalArgumentException("number of threads " + threads + " out of range");
+        this.collection = collection;
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the size of the batches committed by the writer.
+     * @param docs maximum number of documents per commit
+     * @param bytes maximum number of source bytes per commit
+     * @return self reference
+     */
+    public LmdbBulkLoader batch(final int docs, final long bytes) {
+        batchDocs = Math.max(1, docs);
+        batchBytes = Math.max(1, bytes);
+        return this;
+    }
+
+    /**
+     * Sets a listener, which is called by the writer thread after every batch.
+     * @param listener listener
+     * @return self reference
+     */
+    public LmdbBulkLoader listener(final Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public Report load(final Source source) throws IOException {
+        if(!LmdbDataManager.listCollections().contains(collection)) throw new IOException("unknown collection " + collection);
+
+        final Report report = new Report();
+        final Semaphore pending = new Semaphore(threads * 4);
+        final BlockingQueue<Parsed> queue = new LinkedBlockingQueue<Parsed>();
+        final Writer writer = new Writer(queue, pending, report);
+        final Thread wt = new Thread(writer, "bulk-writer-" + collection);
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        logger.info("bulk load into " + collection + " with " + threads + " parser threads");
+        wt.start();
+        try {
+            Document doc;
+            while((doc = source.next()) != null && writer.error == null) {
+                report.read.incrementAndGet();
+                report.bytes.addAndGet(doc.content.length);
+                pending.acquire();
+                final Document d = doc;
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            final Data data = new MemBuilder(d.name, new XMLParser(new IOContent(d.content, d.name),
+                                    new MainOptions())).dataClip().data;
+                            report.parsed.incrementAndGet();
+                            queue.add(new Parsed(d.name, data, d.content.length));
+                        } catch(IOException | RuntimeException e) {
+                            report.fail(d.name, e);
+                            pending.release();
+                        }
+                    }
+                });
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("bulk load into " + collection + " interrupted", e);
+        } finally {
+            workers.shutdown();
+            try {
+                while(!workers.awaitTermination(1, TimeUnit.SECONDS)) if(writer.error != null) workers.shutdownNow();
+                queue.add(Parsed.END);
+                wt.join();
+            } catch(InterruptedException e) {
+                workers.shutdownNow();
+                wt.interrupt();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if(writer.error != null) throw new IOException("bulk load into " + collection + " failed", writer.error);
+        logger.info("bulk load into " + collection + " finished: " + report);
+        index(writer.stored);
+        return report;
+    }
+
+    // documents are indexed after loading, in parallel, according to the index policy of the collection
+    private void index(final List<String> names) throws IOException {
+        if(LmdbIndexer.policy(collection).isEmpty() || names.isEmpty()) return;
+        logger.info("indexing " + names.size() + " documents of " + collection);
+        final ExecutorService indexers = Executors.newFixedThreadPool(threads);
+        for(final String name : names) {
+            indexers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    LmdbIndexer.loaded(collection + "/" + name);
+                }
+            });
+        }
+        indexers.shutdown();
+        try {
+            while(!indexers.awaitTermination(1, TimeUnit.SECONDS));
+        } catch(InterruptedException e) {
+            indexers.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("indexing of " + collection + " interrupted", e);
+        }
+    }
+
+    /** Stores parsed documents in batches. */
+    private final class Writer implements Runnable {
+        private final BlockingQueue<Parsed> queue;
+        private final Semaphore pending;
+        private final Report report;
+        private final List<Parsed> batch = new ArrayList<Parsed>();
+        /** Names of the stored documents. */
+        private final List<String> stored = new ArrayList<String>();
+        private long bytes;
+        private Transaction tx;
+        /** Unexpected error which stopped the writer. */
+        private volatile Throwable error;
+
+        Writer(final BlockingQueue<Parsed> queue, final Semaphore pending, final Report report) {
+            this.queue = queue;
+            this.pending = pending;
+            this.report = report;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(true) {
+                    final Parsed p = queue.take();
+                    if(p == Parsed.END) break;
+                    batch.add(p);
+                    bytes += p.length;
+                    pending.release();
+                    if(batch.size() >= batchDocs || bytes >= batchBytes) write();
+                }
+                write();
+            } catch(Throwable t) {
+                logger.error("bulk writer of " + collection + " stopped", t);
+                error = t;
+                if(tx != null) tx.abort();
+                // unblock the reader
+                pending.release(threads * 4);
+            }
+        }
+
+        /**
+         * Stores the collected batch. The write transaction is only opened when all documents of the batch
+         * have been parsed, so other writers do not wait for the parsers.
+         */
+        private void write() {
+            if(batch.isEmpty()) return;
+            final List<Parsed> rejected = new ArrayList<Parsed>();
+            Parsed p = null;
+            try {
+                tx = env.createWriteTransaction();
+                for(Parsed b : batch) {
+                    p = b;
+                    if(!store(tx, b)) rejected.add(b);
+                }
+            } catch(IOException | RuntimeException e) {
+                // the transaction is in an unknown state; store the batch again document by document
+                logger.warn("batch of " + collection + " failed" + (p == null ? "" : " at " + p.name) +
+                        ", storing documents one by one: " + e);
+                if(tx != null) tx.abort();
+                tx = null;
+                batch.removeAll(rejected);
+                retry();
+                return;
+            }
+            batch.removeAll(rejected);
+            commit();
+        }
+
+        private void commit() {
+            try {
+                tx.commit();
+                tx = null;
+            } catch(RuntimeException e) {
+                logger.warn("commit of " + collection + " failed, storing documents one by one: " + e);
+                tx = null;
+                retry();
+                return;
+            }
+            report.stored.addAndGet(batch.size());
+            for(Parsed p : batch) stored.add(p.name);
+            done();
+        }
+
+        private void retry() {
+            for(Parsed p : batch) {
+                try(Transaction t = env.createWriteTransaction()) {
+                    if(store(t, p)) {
+                        t.commit();
+                        report.stored.incrementAndGet();
+                        stored.add(p.name);
+                    }
+                } catch(IOException | RuntimeException e) {
+                    report.fail(p.name, e);
+                }
+            }
+            done();
+        }
+
+        private void done() {
+            LmdbResultCache.committed(collection);
+            batch.clear();
+            bytes = 0;
+            logger.info("bulk load into " + collection + ": " + report);
+            if(listener != null) listener.progress(report);
+        }
+
+        /** Returns false if the document was rejected and nothing was written. */
+        private boolean store(final Transaction t, final Parsed p) throws IOException {
+            final String name = collection + "/" + p.name;
+            if(p.name.isEmpty() || p.name.indexOf('/') != -1) {
+                report.fail(p.name, new IOException("document " + p.name + " name is malformed"));
+                return false;
+            }
+            if(coldb.get(t, bytes(name)) != null) {
+                report.fail(p.name, new IOException("document " + name + " exists"));
+                return false;
+            }
+            LmdbBuilder.store(t, name, LmdbDataManager.nextDocumentId(t), p.data);
+            return true;
+        }
+    }
+
+    /** Progress listener. */
+    public interface Listener {
+        void progress(Report report);
+    }
+
+    /** Counters and errors of a bulk load. */
+    public static final class Report {
+        public final AtomicLong read = new AtomicLong();
+        public final AtomicLong parsed = new AtomicLong();
+        public final AtomicLong stored = new AtomicLong();
+        public final AtomicLong failed = new AtomicLong();
+        public final AtomicLong bytes = new AtomicLong();
+        private final long start = System.nanoTime();
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+        void fail(final String name, final Exception e) {
+            failed.incrementAndGet();
+            if(errors.size() < MAX_ERRORS) errors.add(name + ": " + e.getMessage());
+            if(logger.isDebugEnabled()) logger.debug("bulk load of " + name + " failed", e);
+        }
+
+        /**
+         * Returns the messages of failed documents, at most {@value #MAX_ERRORS}.
+         * @return error messages
+         */
+        public List<String> errors() {
+            synchronized(errors) {
+                return new ArrayList<String>(errors);
+            }
+        }
+
+        @Override
+        public String toString() {
+            final long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+            return read.get() + " read, " + parsed.get() + " parsed, " + stored.get() + " stored, " + failed.get() +
+                    " failed, " + (bytes.get() >> 10) + " kb in " + ms + " ms, " + stored.get() * 1000 / ms + " docs/s";
+        }
+    }
+
+    /** A source of documents. Called by one thread only. */
+    public interface Source {
+        /**
+         * Returns the next document.
+         * @return document, or {@code null} if the source is exhausted
+         * @throws IOException I/O exception
+         */
+        Document next() throws IOException;
+    }
+
+    /** Unparsed document. */
+    public static final class Document {
+        final String name;
+        final byte[] content;
+
+        public Document(final String name, final byte[] content) {
+            this.name = name;
+            this.content = content;
+        }
+    }
+
+    private static final class Parsed {
+        static final Parsed END = new Parsed(null, null, 0);
+
+        final String name;
+        final Data data;
+        final int length;
+
+        Parsed(final String name, final Data data, final int length) {
+            this.name = name;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Returns the files of a directory and its subdirectories. Documents are named by their file name
+     * without {@code .xml} suffix; files of the same name in different directories are reported as existing.
+     */
+    public static Source directory(final File dir) throws IOException {
+        if(!dir.isDirectory()) throw new IOException(dir + " is not a directory");
+        final Deque<File> files = new ArrayDeque<File>();
+        files.push(dir);
+        return new Source() {
+            @Override
+            public Document next() throws IOException {
+                while(!files.isEmpty()) {
+                    final File f = files.pop();
+                    if(f.isDirectory()) {
+                        final File[] fs = f.listFiles();
+                        if(fs == null) continue;
+                        Arrays.sort(fs);
+                        for(int i = fs.length - 1; i >= 0; i--) files.push(fs[i]);
+                    } else if(f.isFile()) {
+                        return new Document(name(f.getName()),
+                                Files.readAllBytes(f.toPath()));
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /** Returns the files of a tar archive, named as in {@link #directory(File)}. */
+    public static Source tar(final InputStream in) {
+        final TarInputStream tar = new TarInputStream(in);
+        return new Source() {
+            @Override
+            public Document next() throws IOException {
+                TarEntry e;
+                while((e = tar.getNextEntry()) != null) {
+                    if(e.isDirectory()) continue;
+                    final byte[] content = new byte[(int) e.getSize()];
+                    IOUtils.readFully(tar, content);
+                    return new Document(name(e.getName()), content);
+                }
+                return null;
+            }
+        };
+    }
+
+    /** Returns the files of a zip archive, named as in {@link #directory(File)}. */
+    public static Source zip(final InputStream in) {
+        final ZipInputStream zip = new ZipInputStream(in);
+        return new Source() {
+            @Override
+            public Document next() throws IOException {
+                ZipEntry e;
+                while((e = zip.getNextEntry()) != null) {
+                    if(e.isDirectory()) continue;
+                    return new Document(name(e.getName()), IOUtils.toByteArray(zip));
+                }
+                return null;
+            }
+        };
+    }
+
+    private static String name(final String path) {
+        final String n = path.substring(path.lastIndexOf('/') + 1);
+        return n.endsWith(".xml") ? n.substring(0, n.length() - 4) : n;
+    }
+}
@@ -0,0 +1,381 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.apache.log4j.Logger;
+import org.basex.data.Data;
+import org.basex.query.util.CollectionFilter;
+import org.basex.util.TokenBuilder;
+import org.basex.util.hash.IntSet;
+import org.basex.util.hash.TokenObjMap;
+import org.basex.util.list.ByteList;
+import org.basex.util.list.IntList;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.EntryIterator;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static lmdb.Constants.string;
+import static lmdb.basex.LmdbDataManager.coldb;
+import static lmdb.basex.LmdbDataManager.colindexdb;
+import static lmdb.basex.LmdbDataManager.env;
+import static org.fusesource.lmdbjni.Constants.bytes;
+
+/**
+ * Value index spanning all documents of a collection.
+ *
+ * The text and attribute indexes of a document only answer queries on that document, so a comparison
+ * on a collection had to open every document. This index maps the values of text nodes, elements and
+ * attributes to the documents and nodes of a collection containing them, which lets collection queries
+ * open only documents with hits (see {@link CollectionFilter}).
+ *
+ * Keys start with the collection name and a zero byte, followed by a kind byte:
+ * <ul>
+ *   <li>{@code t} value 0 docid: pre values of text nodes and elements with this value</li>
+ *   <li>{@code a} value 0 docid: pre values of attributes with this value</li>
+ *   <li>{@code r} docid: values of a document, to remove its entries again</li>
+ *   <li>{@code d} docid: document changed since its entries were written</li>
+ *   <li>{@code v}: all documents of the collection are either indexed or marked as changed</li>
+ * </ul>
+ * Entries are written by the {@link LmdbIndexer} along with the value indexes of a document. Documents
+ * are marked as changed by the transaction creating or updating them and are returned by every lookup
+ * until they are indexed again.
+ */
+public class LmdbCollectionIndex {
+
+    private static final Logger logger = Logger.getLogger(LmdbCollectionIndex.class);
+
+    /** Maximum length of indexed values in bytes. */
+    static final int MAXLEN = 96;
+    /** Collections with longer names are not indexed, as keys are limited to 511 bytes. */
+    private static final int MAXNAME = 256;
+
+    private static final byte TEXT = 't';
+    private static final byte ATTRIBUTE = 'a';
+    private static final byte VALUES = 'r';
+    private static final byte CHANGED = 'd';
+    private static final byte COVERED = 'v';
+
+    protected LmdbCollectionIndex() {}
+
+    /** Values of a document, read from a snapshot. */
+    static final class Entries {
+        final TokenObjMap<IntList> texts = new TokenObjMap<IntList>();
+        final TokenObjMap<IntList> attributes = new TokenObjMap<IntList>();
+        /** Change mark of the document in the snapshot. */
+        final byte[] changed;
+
+        Entries(final byte[] changed) {
+            this.changed = changed;
+        }
+    }
+
+    /**
+     * Covers the collections of older versions: their documents are marked as changed, so they are
+     * returned by lookups until the indexer has processed them.
+     * @throws IOException I/O exception
+     */
+    static void open() throws IOException {
+        for(String c : LmdbDataManager.listCollections()) {
+            final byte[] ck = key(c, COVERED);
+            if(ck == null || colindexdb.get(ck) != null) continue;
+            final List<String> docs = new ArrayList<String>();
+            try(Transaction tx = env.createWriteTransaction()) {
+                try(EntryIterator ei = coldb.seek(tx, bytes(c + '/'))) {
+                    while(ei.hasNext()) {
+                        final Entry e = ei.next();
+                        final String name = string(e.getKey());
+                        if(!name.startsWith(c + '/')) break;
+                        if(name.endsWith("/r")) continue;
+                        changed(tx, name, e.getValue());
+                        docs.add(name);
+                    }
+                }
+                colindexdb.put(tx, ck, new byte[] { 1 });
+                tx.commit();
+            }
+            logger.info("collection index of " + c + ": " + docs.size() + " documents to index");
+            for(String d : docs) LmdbIndexer.changed(d);
+        }
+    }
+
+    /**
+     * Registers a new collection, which has no documents yet.
+     * @param tx write transaction
+     * @param collection collection name
+     */
+    static void cover(final Transaction tx, final String collection) {
+        final byte[] ck = key(collection, COVERED);
+        if(ck != null) colindexdb.put(tx, ck, new byte[] { 1 });
+    }
+
+    /**
+     * Marks a document as changed, so that lookups return it until it has been indexed again.
+     * @param tx write transaction
+     * @param name document name
+     * @param docid document id
+     */
+    static void changed(final Transaction tx, final String name, final byte[] docid) {
+        final byte[] k = key(collection(name), CHANGED, docid);
+        if(k == null) return;
+        final byte[] mark = new byte[8];
+        Byte.setLong(System.nanoTime(), mark);
+        colindexdb.put(tx, k, mark);
+    }
+
+    /**
+     * Reads the values of a document.
+     * @param tx read transaction of the snapshot
+     * @param data document
+     * @param docid document id
+     * @return values
+     */
+    static Entries collect(final Transaction tx, final Data data, final byte[] docid) {
+        final byte[] ck = key(collection(data.meta.name), CHANGED, docid);
+        final Entries entries = new Entries(ck == null ? null : colindexdb.get(tx, ck));
+
+        // values of elements with several text nodes, built while their descendants are read;
+        // values of elements with a single text node are found via the text node
+        final IntList ends = new IntList(), pres = new IntList(), counts = new IntList();
+        final ArrayList<TokenBuilder> values = new ArrayList<TokenBuilder>();
+        final int size = data.meta.size;
+        for(int pre = 0; pre < size; pre++) {
+            while(!ends.isEmpty() && ends.peek() <= pre) close(entries, ends, pres, counts, values);
+            final int kind = data.kind(pre);
+            if(kind == Data.ELEM) {
+                ends.push(pre + data.size(pre, kind));
+                pres.push(pre);
+                counts.push(0);
+                values.add(new TokenBuilder());
+            } else if(kind == Data.TEXT) {
+                final byte[] text = data.text(pre, true);
+                add(entries.texts, text, pre);
+                for(int e = values.size() - 1; e >= 0; e--) {
+                    final TokenBuilder tb = values.get(e);
+                    if(tb == null) continue;
+                    if(tb.size() + text.length > MAXLEN) {
+                        values.set(e, null);
+                    } else {
+                        tb.add(text);
+                        counts.set(e, counts.get(e) + 1);
+                    }
+                }
+            } else if(kind == Data.ATTR) {
+                add(entries.attributes, data.text(pre, false), pre);
+            }
+        }
+        while(!ends.isEmpty()) close(entries, ends, pres, counts, values);
+        return entries;
+    }
+
+    private static void close(final Entries entries, final IntList ends, final IntList pres, final IntList counts,
+                              final ArrayList<TokenBuilder> values) {
+        ends.pop();
+        final int pre = pres.pop(), count = counts.pop();
+        final TokenBuilder tb = values.remove(values.size() - 1);
+        if(tb != null && count > 1) add(entries.texts, tb.finish(), pre);
+    }
+
+    private static void add(final TokenObjMap<IntList> map, final byte[] value, final int pre) {
+        if(value.length == 0 || value.length > MAXLEN) return;
+        IntList il = map.get(value);
+        if(il == null) {
+            il = new IntList(1);
+            map.put(value, il);
+        }
+        il.add(pre);
+    }
+
+    /**
+     * Replaces the entries of a document, unless it has been changed since its values were read.
+     * @param tx write transaction
+     * @param name document name
+     * @param docid document id
+     * @param entries values
+     * @return {@code false} if the document has been changed
+     */
+    static boolean store(final Transaction tx, final String name, final byte[] docid, final Entries entries) {
+        final String c = collection(name);
+        final byte[] ck = key(c, CHANGED, docid);
+        if(ck == null) return true;
+        if(!Arrays.equals(entries.changed, colindexdb.get(tx, ck))) return false;
+        remove(tx, c, docid);
+
+        final ByteList list = new ByteList();
+        store(tx, c, docid, TEXT, entries.texts, list);
+        store(tx, c, docid, ATTRIBUTE, entries.attributes, list);
+        if(!list.isEmpty()) colindexdb.put(tx, key(c, VALUES, docid), list.finish());
+        return true;
+    }
+
+    private static void store(final Transaction tx, final String c, final byte[] docid, final byte kind,
+                              final TokenObjMap<IntList> map, final ByteList list) {
+        final int vs = map.size();
+        for(int v = 1; v <= vs; v++) {
+            final byte[] value = map.key(v);
+            final IntList il = map.get(value);
+            final int is = il.size();
+            final byte[] pres = new byte[is << 2];
+            for(int i = 0; i < is; i++) Byte.setInt(il.get(i), pres, i << 2);
+            colindexdb.put(tx, key(c, kind, value, docid), pres);
+            list.add(kind).add(value).add(0);
+        }
+    }
+
+    /**
+     * Removes the entries of a document.
+     * @param tx write transaction
+     * @param collection collection name
+     * @param docid document id
+     */
+    static void remove(final Transaction tx, final String collection, final byte[] docid) {
+        final byte[] vk = key(collection, VALUES, docid);
+        if(vk == null) return;
+        final byte[] list = colindexdb.get(tx, vk);
+        if(list != null) {
+            for(int i = 0; i < list.length;) {
+                final int e = end(list, i + 1);
+                colindexdb.delete(tx, key(collection, list[i], Arrays.copyOfRange(list, i + 1, e), docid));
+                i = e + 1;
+            }
+            colindexdb.delete(tx, vk);
+        }
+        colindexdb.delete(tx, key(collection, CHANGED, docid));
+    }
+
+    /**
+     * Moves the entries of a document to a new document id, e.g. after its storage has been migrated.
+     * Pre values are kept.
+     * @param tx write transaction
+     * @param name document name
+     * @param olddoc old document id
+     * @param newdoc new document id
+     */
+    static void move(final Transaction tx, final String name, final byte[] olddoc, final byte[] newdoc) {
+        final String c = collection(name);
+        final byte[] vk = key(c, VALUES, olddoc);
+        if(vk == null) return;
+        final byte[] list = colindexdb.get(tx, vk);
+        if(list != null) {
+            for(int i = 0; i < list.length;) {
+                final int e = end(list, i + 1);
+                final byte[] value = Arrays.copyOfRange(list, i + 1, e);
+                final byte[] ok = key(c, list[i], value, olddoc);
+                final byte[] pres = colindexdb.get(tx, ok);
+                if(pres != null) colindexdb.put(tx, key(c, list[i], value, newdoc), pres);
+                colindexdb.delete(tx, ok);
+                i = e + 1;
+            }
+            colindexdb.put(tx, key(c, VALUES, newdoc), list);
+            colindexdb.delete(tx, vk);
+        }
+        final byte[] ck = key(c, CHANGED, olddoc);
+        final byte[] mark = colindexdb.get(tx, ck);
+        if(mark != null) {
+            colindexdb.put(tx, key(c, CHANGED, newdoc), mark);
+            colindexdb.delete(tx, ck);
+        }
+    }
+
+    /**
+     * Checks if a document has been changed since it was indexed.
+     * @param tx transaction
+     * @param name document name
+     * @param docid document id
+     * @return result of check
+     */
+    static boolean isChanged(final Transaction tx, final String name, final byte[] docid) {
+        final byte[] ck = key(collection(name), CHANGED, docid);
+        return ck != null && colindexdb.get(tx, ck) != null;
+    }
+
+    /**
+     * Returns the documents of a collection which may contain one of the values of a filter:
+     * documents with index hits, and changed documents.
+     * @param tx read transaction of the query
+     * @param collection collection name
+     * @param filter values
+     * @return document names with collection, in the order of {@link LmdbDataManager#listDocuments},
+     *         or {@code null} if the index cannot answer the filter
+     */
+    static List<String> documents(final Transaction tx, final String collection, final CollectionFilter filter) {
+        final byte[] ck = key(collection, COVERED);
+        if(ck == null || colindexdb.get(tx, ck) == null) return null;
+        for(byte[] value : filter.values) if(value.length > MAXLEN) return null;
+
+        final IntSet docids = new IntSet();
+        for(byte[] value : filter.values) {
+            scan(tx, key(collection, filter.text ? TEXT : ATTRIBUTE, value, new byte[0]), docids);
+        }
+        scan(tx, key(collection, CHANGED), docids);
+
+        final ArrayList<String> docs = new ArrayList<String>();
+        final String prefix = collection + '/';
+        try(EntryIterator ei = coldb.seek(tx, bytes(prefix))) {
+            while(ei.hasNext()) {
+                final Entry e = ei.next();
+                final String name = string(e.getKey());
+                if(!name.startsWith(prefix)) break;
+                if(name.endsWith("/r")) continue;
+                if(docids.contains(Byte.getInt(e.getValue()))) docs.add(name);
+            }
+        }
+        return docs;
+    }
+
+    // adds the document ids of all keys starting with the prefix
+    private static void scan(final Transaction tx, final byte[] prefix, final IntSet docids) {
+        try(EntryIterator ei = colindexdb.seek(tx, prefix)) {
+            while(ei.hasNext()) {
+                final byte[] k = ei.next().getKey();
+                if(k.length != prefix.length + 4 || !startsWith(k, prefix)) break;
+                docids.add(Byte.getInt(k, prefix.length));
+            }
+        }
+    }
+
+    private static boolean startsWith(final byte[] key, final byte[] prefix) {
+        for(int i = 0; i < prefix.length; i++) if(key[i] != prefix[i]) return false;
+        return true;
+    }
+
+    private static int end(final byte[] list, final int start) {
+        int e = start;
+        while(list[e] != 0) e++;
+        return e;
+    }
+
+    private static String collection(final String name) {
+        final int i = name.indexOf('/');
+        return i <= 0 ? null : name.substring(0, i);
+    }
+
+    private static byte[] key(final String collection, final byte kind) {
+        if(collection == null) return null;
+        final byte[] c = bytes(collection);
+        if(c.length > MAXNAME) return null;
+        final byte[] k = Arrays.copyOf(c, c.length + 2);
+        k[c.length + 1] = kind;
+        return k;
+    }
+
+    private static byte[] key(final String collection, final byte kind, final byte[] docid) {
+        final byte[] k = key(collection, kind);
+        if(k == null) return null;
+        final byte[] kd = Arrays.copyOf(k, k.length + docid.length);
+        System.arraycopy(docid, 0, kd, k.length, docid.length);
+        return kd;
+    }
+
+    // value keys end with a zero byte, which does not occur in values, and the document id
+    private static byte[] key(final String collection, final byte kind, final byte[] value, final byte[] docid) {
+        final byte[] k = key(collection, kind);
+        final byte[] kv = Arrays.copyOf(k, k.length + value.length + 1 + docid.length);
+        System.arraycopy(value, 0, kv, k.length, value.length);
+        System.arraycopy(docid, 0, kv, k.length + value.length + 1, docid.length);
+        return kv;
+    }
+}
@@ -6,13 +6,17 @@ import org.basex.core.MainOptions;
 import org.basex.core.StaticOptions;
 import org.basex.data.Data;
 import org.basex.data.Namespaces;
+import org.basex.data.TextReader;
 import org.basex.index.IdPreMap;
 import org.basex.index.IndexType;
 import org.basex.index.name.Names;
 import org.basex.index.path.PathSummary;
+import org.basex.index.value.ValueIndex;
+import org.basex.io.IO;
 import org.basex.io.IOContent;
 import org.basex.io.in.DataInput;
 import org.basex.io.out.DataOutput;
+import org.basex.io.random.TableAccess;
 import org.basex.util.Token;
 import org.basex.util.Util;
 import org.fusesource.lmdbjni.Database;
@@ -33,9 +37,15 @@ import static lmdb.basex.LmdbDataManager.txtindexldb;
 import static lmdb.basex.LmdbDataManager.txtindexrdb;
 import static lmdb.basex.LmdbDataManager.attindexldb;
 import static lmdb.basex.LmdbDataManager.attindexrdb;
+import static lmdb.basex.LmdbDataManager.txtpostingsdb;
+import static lmdb.basex.LmdbDataManager.attpostingsdb;
+import static lmdb.basex.LmdbDataManager.txtrangedb;
+import static lmdb.basex.LmdbDataManager.attrangedb;
 import static lmdb.basex.LmdbDataManager.ftindexxdb;
 import static lmdb.basex.LmdbDataManager.ftindexydb;
 import static lmdb.basex.LmdbDataManager.ftindexzdb;
+import static lmdb.basex.LmdbDataManager.ftpostingsdb;
+import static lmdb.basex.LmdbDataManager.namesdb;
 
 import static lmdb.util.Byte.lmdbkey;
 
@@ -50,6 +60,10 @@ public class LmdbData extends Data implements AutoCloseable {
     private volatile int lastTxtRef;
     private volatile int lastAttRef;
 
+    private LmdbDataCache.Struct struct;
+    /** Whether this transaction has changed the document. */
+    private boolean modified;
+
     protected LmdbData(final String name, final MainOptions options) {
         super(new LmdbMetaData(name, options, null));
     }
@@ -62,7 +76,13 @@ public class LmdbData extends Data implements AutoCloseable {
         this.docid = docid;
         this.tx = tx;
 
-        readStruct();
+        // read transactions share decoded structures, writers need a private copy to update
+        if(tx.isReadOnly()) {
+            struct = LmdbDataCache.pin(this, tx);
+            assign(struct);
+        } else {
+            assign(decodeStruct(LmdbDataCache.generation(docid, tx)));
+        }
         initLastRefs();
 
         this.table = new TableLmdbAccess(meta, tx, docid);
@@ -71,20 +91,31 @@ public class LmdbData extends Data implements AutoCloseable {
         attrIndex = null;
         ftxtIndex = null;
 
+        // only indexes flagged in the meta data are complete and may be chosen by the optimizer
         if(openIndex) {
-            textIndex = new UpdatableLmdbValues(this, true, docid, tx);
-            attrIndex = new UpdatableLmdbValues(this, false, docid, tx);
-            ftxtIndex = new LmdbFTIndex(this, docid, tx);
+            if(meta.textindex) textIndex = openValues(true);
+            if(meta.attrindex) attrIndex = openValues(false);
+            if(meta.ftindex) ftxtIndex = ((LmdbMetaData) meta).ftPostings() ? new LmdbFTPostings(this, docid, tx) :
+                    new LmdbFTIndex(this, docid, tx);
+            if(((LmdbMetaData) meta).names) nameIndex = new LmdbNameIndex(this, docid, tx,
+                    struct != null ? struct.names : null);
         }
     }
 
+    TableAccess table() {
+        return table;
+    }
+
     @Override
     public void unpin() {
-
+        if(struct == null) return;
+        LmdbDataCache.unpin(struct);
+        struct = null;
     }
 
     @Override
     public void close() {
+        unpin();
         try {
             table.close();
         } catch(final IOException ex) {
@@ -95,22 +126,37 @@ public class LmdbData extends Data implements AutoCloseable {
         if(ftxtIndex != null) ftxtIndex.close();
         if(tx.isReadOnly()) return;
         writeStruct();
-        writeLastRefs();
+        if(modified) writeLastRefs();
+    }
+
+    private ValueIndex openValues(final boolean text) throws IOException {
+        final LmdbMetaData md = (LmdbMetaData) meta;
+        if(md.postings(text)) return new LmdbPostings(this, text, docid, tx);
+        return md.updindex ? new UpdatableLmdbValues(this, text, docid, tx) : new LmdbValues(this, text, docid, tx);
     }
 
+    /**
+     * Builds value and full-text indexes as LMDB postings if the longest indexed values fit into keys,
+     * see {@link LmdbIndexer}, which records the layout in the meta data. {@link IndexType#TAG} stands for
+     * the element-name index, see {@link LmdbNameIndex}.
+     */
     @Override
     public void createIndex(IndexType type, MainOptions options) throws IOException {
         dropIndex(type);
         meta.dirty = true;
         switch(type) {
             case TEXT:
-                new LmdbValuesBuilder(docid, this, options, true).build();
-                break;
             case ATTRIBUTE:
-                new LmdbValuesBuilder(docid, this, options, false).build();
+                final boolean text = type == IndexType.TEXT;
+                if(LmdbPostings.fits(meta)) new LmdbPostingsBuilder(docid, this, options, text).build();
+                else new LmdbValuesBuilder(docid, this, options, text).build();
                 break;
             case FULLTEXT:
-                new LmdbFTBuilder(docid, this, options).build();
+                if(LmdbPostings.fits(meta)) new LmdbFTPostingsBuilder(docid, this, options).build();
+                else new LmdbFTBuilder(docid, this, options).build();
+                break;
+            case TAG:
+                LmdbNameIndex.build(docid, this);
                 break;
             default:
                 throw new IOException("unknown index type while crating index");
@@ -123,19 +169,23 @@ public class LmdbData extends Data implements AutoCloseable {
         switch(type) {
             case TEXT:
                 if(textIndex != null) textIndex.close();
-                dropIndex(new Database[]{txtindexldb, txtindexrdb});
+                dropIndex(new Database[]{txtindexldb, txtindexrdb, txtpostingsdb, txtrangedb});
                 textIndex = null;
                 break;
             case ATTRIBUTE:
                 if(attrIndex != null) attrIndex.close();
-                dropIndex(new Database[]{attindexldb, attindexrdb});
+                dropIndex(new Database[]{attindexldb, attindexrdb, attpostingsdb, attrangedb});
                 attrIndex = null;
                 break;
             case FULLTEXT:
                 if(ftxtIndex != null) ftxtIndex.close();
-                dropIndex(new Database[]{ftindexxdb, ftindexydb, ftindexzdb});
+                dropIndex(new Database[]{ftindexxdb, ftindexydb, ftindexzdb, ftpostingsdb});
                 ftxtIndex = null;
                 break;
+            case TAG:
+                dropIndex(new Database[]{namesdb});
+                nameIndex = null;
+                break;
             default:
                 throw new IOException("unknown index type while dropping index");
         }
@@ -166,6 +216,11 @@ public class LmdbData extends Data implements AutoCloseable {
                 }
             }
         }
+        try(Transaction wtx = env.createWriteTransaction()) {
+            LmdbDataCache.generation(docid, wtx, LmdbDataCache.generation(docid, wtx) + 1);
+            wtx.commit();
+        }
+        LmdbPageCache.invalidate(docid);
     }
 
     @Override
@@ -186,43 +241,97 @@ public class LmdbData extends Data implements AutoCloseable {
             Util.stack(e);
         }
         writeStruct();
-        writeLastRefs();
+        if(modified) writeLastRefs();
     }
 
     @Override
     public byte[] text(int pre, boolean text) {
-        return (text ? textdatadb : attributevaldb).get(tx, lmdbkey(docid, (int) textRef(pre)));
+        final long r = textRef(pre);
+        return LmdbValueCodec.inlined(r) ? LmdbValueCodec.inlineValue(r) : LmdbValueCodec.decode(stored(r, text), compression());
+    }
+
+    @Override
+    public long textItr(int pre, boolean text) {
+        final long r = textRef(pre);
+        return LmdbValueCodec.number(r) ? r & IO.OFFNUM - 1 : Token.toLong(text(pre, text));
     }
 
     @Override
-    public long textItr(int pre, boolean text) { return Token.toLong(text(pre, text)); }
+    public double textDbl(int pre, boolean text) {
+        final long r = textRef(pre);
+        return LmdbValueCodec.number(r) ? r & IO.OFFNUM - 1 : Token.toDouble(text(pre, text));
+    }
 
     @Override
-    public double textDbl(int pre, boolean text) { return Token.toDouble(text(pre, text)); }
+    public int textLen(int pre, boolean text) {
+        final long r = textRef(pre);
+        if(LmdbValueCodec.number(r)) return Token.numDigits((int) r);
+        if(LmdbValueCodec.inlined(r)) return (int) (r >>> 32) & 0x7;
+        return LmdbValueCodec.length(stored(r, text), compression());
+    }
 
     @Override
-    public int textLen(int pre, boolean text) { return text(pre, text).length; }
+    public TextReader texts(int pre, int size) {
+        // writers may change values while they are read, so they use single lookups
+        return tx.isReadOnly() && size > 1 ? new LmdbTextReader(this) : super.texts(pre, size);
+    }
+
+    private byte[] stored(long ref, boolean text) {
+        return (text ? textdatadb : attributevaldb).get(tx, lmdbkey(docid, (int) ref));
+    }
+
+    int compression() {
+        return ((LmdbMetaData) meta).compression;
+    }
 
     @Override
     public boolean inMemory() { return false; }
 
+    /** Whether this transaction has changed the document, rather than only read it. */
+    boolean modified() { return modified; }
+
     @Override
     protected void updateText(int pre, byte[] value, int kind) {
-        (kind != ATTR ? textdatadb : attributevaldb).put(tx, lmdbkey(docid, (int) textRef(pre)), value);
+        indexDelete(pre, -1, 1);
+        final long old = textRef(pre);
+        final long v = LmdbValueCodec.inline(value);
+        if(v != -1) {
+            if(!LmdbValueCodec.inlined(old)) delete(pre, kind != ATTR);
+            textRef(pre, v);
+        } else if(LmdbValueCodec.inlined(old)) {
+            textRef(pre, textRef(value, kind != ATTR));
+        } else {
+            (kind != ATTR ? textdatadb : attributevaldb).put(tx, lmdbkey(docid, (int) old),
+                    LmdbValueCodec.encode(value, compression()));
+        }
+        indexAdd(pre, -1, 1, null);
     }
 
     @Override
     protected void delete(int pre, boolean text) {
-        (text ? textdatadb : attributevaldb).delete(tx, lmdbkey(docid, (int) textRef(pre)));
+        final long r = textRef(pre);
+        if(!LmdbValueCodec.inlined(r)) (text ? textdatadb : attributevaldb).delete(tx, lmdbkey(docid, (int) r));
     }
 
     @Override
     protected long textRef(byte[] value, boolean text) {
-        (text ? textdatadb : attributevaldb).put(tx, lmdbkey(docid, (text ? ++lastTxtRef : ++lastAttRef)), value);
+        final long v = LmdbValueCodec.inline(value);
+        if(v != -1) return v;
+        (text ? textdatadb : attributevaldb).put(tx, lmdbkey(docid, (text ? ++lastTxtRef : ++lastAttRef)),
+                LmdbValueCodec.encode(value, compression()));
         return (text ? lastTxtRef : lastAttRef);
     }
 
-    private void readStruct() throws IOException {
+    private void assign(final LmdbDataCache.Struct s) throws IOException {
+        meta.read(new DataInput(new IOContent(s.meta)));
+        paths = s.paths;
+        nspaces = s.nspaces;
+        elemNames = s.elemNames;
+        attrNames = s.attrNames;
+        idmap = s.idmap;
+    }
+
+    LmdbDataCache.Struct decodeStruct(final int generation) throws IOException {
 
         DataInputStream structin = new DataInputStream(new ByteArrayInputStream(structdb.get(tx,docid)));
 
@@ -232,20 +341,21 @@ public class LmdbData extends Data implements AutoCloseable {
 
         byte[] pathstruct = new byte[structin.readInt()];
         structin.readFully(pathstruct);
-        paths = new PathSummary(this, new DataInput(new IOContent(pathstruct)));
+        PathSummary paths = new PathSummary(this, new DataInput(new IOContent(pathstruct)));
 
         byte[] nspacestruct = new byte[structin.readInt()];
         structin.readFully(nspacestruct);
-        nspaces = new Namespaces(new DataInput(new IOContent(nspacestruct)));
+        Namespaces nspaces = new Namespaces(new DataInput(new IOContent(nspacestruct)));
 
         byte[] elementstruct = new byte[structin.readInt()];
         structin.readFully(elementstruct);
-        elemNames = new Names(new DataInput(new IOContent(elementstruct)),meta);
+        Names elemNames = new Names(new DataInput(new IOContent(elementstruct)),meta);
 
         byte[] attrstruct = new byte[structin.readInt()];
         structin.readFully(attrstruct);
-        attrNames = new Names(new DataInput(new IOContent(attrstruct)),meta);
+        Names attrNames = new Names(new DataInput(new IOContent(attrstruct)),meta);
 
+        IdPreMap idmap;
         try {
             byte[] idpmap = new byte[structin.readInt()];
             structin.readFully(idpmap);
@@ -253,9 +363,18 @@ public class LmdbData extends Data implements AutoCloseable {
         } catch(EOFException eofe) {
             idmap = new IdPreMap(meta.lastid);
         }
+
+        return new LmdbDataCache.Struct(docid, generation, metastruct, paths, nspaces, elemNames, attrNames, idmap);
     }
 
+    /**
+     * Writes the structures of a changed document, and marks it as changed for the collection index.
+     * Documents that an updating query has only read, or whose changes have already been written, are skipped.
+     */
     private void writeStruct() {
+        if(!meta.dirty) return;
+        modified = true;
+        if(nameIndex != null) ((LmdbNameIndex) nameIndex).write();
 
         try(ByteArrayOutputStream bos = new ByteArrayOutputStream(1024*32);
             DataOutputStream dos = new DataOutputStream(bos);
@@ -292,6 +411,8 @@ public class LmdbData extends Data implements AutoCloseable {
             dos.write(b.toByteArray());
 
             structdb.put(tx, docid, bos.toByteArray());
+            LmdbDataCache.generation(docid, tx, LmdbDataCache.generation(docid, tx) + 1);
+            LmdbCollectionIndex.changed(tx, meta.name, docid);
 
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
@@ -1,7 +1,6 @@
 package lmdb.basex;
 
 import lmdb.util.Byte;
-import org.basex.io.IO;
 import org.basex.io.random.Buffer;
 import org.basex.io.random.Buffers;
 import org.bouncycastle.util.Arrays;
@@ -14,18 +13,25 @@ import static lmdb.util.Byte.lmdbkey;
 
 public class LmdbDataAccess implements Closeable {
 
-    private final Buffers bm = new Buffers();
+    private final Buffers bm;
+    // block size of the index stream, see LmdbMetaData#indexpower
+    private final int blocksize;
     private long length;
     private boolean changed;
     private int off;
     private Database db;
     private byte[] docid;
     private Transaction tx;
+    // generation of the document in this snapshot; -1 for writers, which bypass the shared page cache
+    private int gen = -1;
 
-    public LmdbDataAccess(final byte[] docid, final Database db, Transaction tx) {
+    public LmdbDataAccess(final byte[] docid, final Database db, Transaction tx, final int blocksize) {
+        this.blocksize = blocksize;
+        bm = new Buffers(blocksize);
         this.db = db;
         this.docid = docid;
         this.tx = tx;
+        if(tx.isReadOnly()) gen = LmdbDataCache.generation(docid, tx);
         length = readLength();
         cursor(0);
     }
@@ -106,16 +112,16 @@ public class LmdbDataAccess implements Closeable {
 
     public synchronized byte[] readBytes(final int len) {
         int l = len;
-        int ll = IO.BLOCKSIZE - off;
+        int ll = blocksize - off;
         final byte[] b = new byte[l];
 
         System.arraycopy(buffer(false).data, off, b, 0, Math.min(l, ll));
         if(l > ll) {
             l -= ll;
-            while(l > IO.BLOCKSIZE) {
-                System.arraycopy(buffer(true).data, 0, b, ll, IO.BLOCKSIZE);
-                ll += IO.BLOCKSIZE;
-                l -= IO.BLOCKSIZE;
+            while(l > blocksize) {
+                System.arraycopy(buffer(true).data, 0, b, ll, blocksize);
+                ll += blocksize;
+                l -= blocksize;
             }
             System.arraycopy(buffer(true).data, 0, b, ll, l);
         }
@@ -124,14 +130,28 @@ public class LmdbDataAccess implements Closeable {
     }
 
     public void cursor(final long pos) {
-        off = (int) (pos & IO.BLOCKSIZE - 1);
+        off = (int) (pos & blocksize - 1);
         final long b = pos - off;
         if(!bm.cursor(b)) return;
 
         final Buffer bf = bm.current();
         if(bf.dirty) writeBlock(bf);
         bf.pos = b;
-        if(bf.pos < readLength()) System.arraycopy(db.get(tx, lmdbkey(docid, (int)(bf.pos/IO.BLOCKSIZE))), 0, bf.data, 0, (int)Math.min(length - bf.pos, IO.BLOCKSIZE));
+        if(gen != -1) {
+            // readers share immutable pages instead of copying into their own buffers
+            if(bf.pos < length) bf.data = page((int)(bf.pos/blocksize));
+        } else {
+            if(bf.pos < readLength()) System.arraycopy(db.get(tx, lmdbkey(docid, (int)(bf.pos/blocksize))), 0, bf.data, 0, (int)Math.min(length - bf.pos, blocksize));
+        }
+    }
+
+    private byte[] page(final int p) {
+        byte[] data = LmdbPageCache.get(db, docid, gen, p);
+        if(data == null) {
+            data = db.get(tx, lmdbkey(docid, p));
+            LmdbPageCache.put(db, docid, gen, p, data);
+        }
+        return data;
     }
 
     public synchronized int readNum() {
@@ -186,7 +206,7 @@ public class LmdbDataAccess implements Closeable {
 
         while(o < last) {
             final Buffer bf = buffer();
-            final int l = Math.min(last - o, IO.BLOCKSIZE - off);
+            final int l = Math.min(last - o, blocksize - off);
             System.arraycopy(buffer, o, bf.data, off, l);
             bf.dirty = true;
             off += l;
@@ -273,18 +293,18 @@ public class LmdbDataAccess implements Closeable {
 
     private void writeBlock(final Buffer buffer) {
         if(tx.isReadOnly()) return;
-        final long pos = buffer.pos, len = Math.min(IO.BLOCKSIZE, length - pos);
-        db.put(tx, lmdbkey(docid, (int)(pos/IO.BLOCKSIZE)), len < IO.BLOCKSIZE ? Arrays.copyOf(buffer.data,(int)len) : buffer.data);
+        final long pos = buffer.pos, len = Math.min(blocksize, length - pos);
+        db.put(tx, lmdbkey(docid, (int)(pos/blocksize)), len < blocksize ? Arrays.copyOf(buffer.data,(int)len) : buffer.data);
         buffer.dirty = false;
     }
 
     private Buffer buffer() {
-        return buffer(off == IO.BLOCKSIZE);
+        return buffer(off == blocksize);
     }
 
 
     private Buffer buffer(final boolean next) {
-        if(next) cursor(bm.current().pos + IO.BLOCKSIZE);
+        if(next) cursor(bm.current().pos + blocksize);
         return bm.current();
     }
 
@@ -0,0 +1,213 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.apache.log4j.Logger;
+import org.basex.data.Namespaces;
+import org.basex.index.IdPreMap;
+import org.basex.index.name.Names;
+import org.basex.index.path.PathSummary;
+import org.basex.util.hash.IntObjMap;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static lmdb.basex.LmdbDataManager.structdb;
+
+/**
+ * Process-wide cache of decoded document structures (meta data, path summary, namespaces,
+ * element/attribute names and id/pre map) read from the structure database.
+ *
+ * Entries are keyed by document id and commit generation. The generation is stored next to
+ * the structure blob and is incremented by every write transaction that rewrites it, so a
+ * reader always finds the structures matching its own snapshot. Entries in use are pinned
+ * and only unpinned entries are evicted once the cache grows beyond its capacity.
+ */
+public class LmdbDataCache {
+
+    private static final Logger logger = Logger.getLogger(LmdbDataCache.class);
+
+    private static volatile int capacity = 1024;
+
+    private static final LinkedHashMap<Long, Struct> cache = new LinkedHashMap<Long, Struct>(256, 0.75f, true);
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    protected LmdbDataCache() {}
+
+    public static void capacity(int entries) {
+        capacity = Math.max(0, entries);
+        synchronized(cache) {
+            evict();
+        }
+        logger.info("document structure cache capacity " + capacity);
+    }
+
+    public static int capacity() {
+        return capacity;
+    }
+
+    public static int size() {
+        synchronized(cache) {
+            return cache.size();
+        }
+    }
+
+    public static long hits() {
+        return hits.get();
+    }
+
+    public static long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the pinned structures of a document for the snapshot of the given
+     * read transaction, decoding and caching them on a miss.
+     * @param data data instance requesting the structures
+     * @param tx read transaction
+     * @return pinned structures
+     * @throws IOException I/O exception
+     */
+    static Struct pin(final LmdbData data, final Transaction tx) throws IOException {
+        final int gen = generation(data.docid, tx);
+        final Long key = key(data.docid, gen);
+        synchronized(cache) {
+            final Struct s = cache.get(key);
+            if(s != null) {
+                s.pins.incrementAndGet();
+                hits.incrementAndGet();
+                return s;
+            }
+        }
+        misses.incrementAndGet();
+        final Struct s = data.decodeStruct(gen);
+        s.pins.incrementAndGet();
+        synchronized(cache) {
+            final Struct o = cache.get(key);
+            if(o != null) {
+                // decoded concurrently by another reader: share the first one
+                o.pins.incrementAndGet();
+                return o;
+            }
+            if(capacity > 0) {
+                cache.put(key, s);
+                supersede(Byte.getInt(data.docid), gen);
+                evict();
+            }
+        }
+        return s;
+    }
+
+    static void unpin(final Struct s) {
+        if(s.pins.decrementAndGet() > 0 || !s.stale) return;
+        synchronized(cache) {
+            final Long key = key(s.docid, s.generation);
+            if(cache.get(key) == s && s.pins.get() == 0) cache.remove(key);
+        }
+    }
+
+    /**
+     * Drops all cached generations of a document.
+     * @param docid document id
+     */
+    public static void invalidate(final byte[] docid) {
+        final int id = Byte.getInt(docid);
+        synchronized(cache) {
+            for(Iterator<Map.Entry<Long, Struct>> i = cache.entrySet().iterator(); i.hasNext();) {
+                final Struct s = i.next().getValue();
+                if(Byte.getInt(s.docid) != id) continue;
+                s.stale = true;
+                i.remove();
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized(cache) {
+            for(Struct s : cache.values()) s.stale = true;
+            cache.clear();
+        }
+    }
+
+    static int generation(final byte[] docid, final Transaction tx) {
+        final byte[] g = structdb.get(tx, generationKey(docid));
+        return g == null ? 0 : Byte.getInt(g);
+    }
+
+    static void generation(final byte[] docid, final Transaction tx, final int gen) {
+        structdb.put(tx, generationKey(docid), Byte.getBytes(gen));
+    }
+
+    // the structure itself is stored under the bare 4 byte docid
+    static byte[] generationKey(final byte[] docid) {
+        return new byte[] {docid[0], docid[1], docid[2], docid[3], 0, 0, 0, 1};
+    }
+
+    private static Long key(final byte[] docid, final int gen) {
+        return (long) Byte.getInt(docid) << 32 | gen & 0xffffffffL;
+    }
+
+    /**
+     * Removes older generations of a document once no reader uses them anymore.
+     * Must be called while holding the cache lock.
+     */
+    private static void supersede(final int id, final int gen) {
+        for(Iterator<Struct> i = cache.values().iterator(); i.hasNext();) {
+            final Struct s = i.next();
+            if(Byte.getInt(s.docid) != id || s.generation >= gen) continue;
+            s.stale = true;
+            if(s.pins.get() == 0) i.remove();
+        }
+    }
+
+    /**
+     * Evicts least recently used unpinned entries. Must be called while holding the cache lock.
+     */
+    private static void evict() {
+        int over = cache.size() - capacity;
+        for(Iterator<Struct> i = cache.values().iterator(); over > 0 && i.hasNext();) {
+            final Struct s = i.next();
+            if(s.pins.get() > 0) continue;
+            s.stale = true;
+            i.remove();
+            over--;
+        }
+    }
+
+    /**
+     * Decoded structures of a single document generation. Shared between readers, so
+     * instances must never be modified.
+     */
+    static final class Struct {
+        final byte[] docid;
+        final int generation;
+        final byte[] meta;
+        final PathSummary paths;
+        final Namespaces nspaces;
+        final Names elemNames;
+        final Names attrNames;
+        final IdPreMap idmap;
+        /** Decoded lists of the element-name index, see LmdbNameIndex. */
+        final IntObjMap<int[]> names = new IntObjMap<int[]>();
+        final AtomicInteger pins = new AtomicInteger();
+        volatile boolean stale;
+
+        Struct(byte[] docid, int generation, byte[] meta, PathSummary paths, Namespaces nspaces,
+               Names elemNames, Names attrNames, IdPreMap idmap) {
+            this.docid = docid;
+            this.generation = generation;
+            this.meta = meta;
+            this.paths = paths;
+            this.nspaces = nspaces;
+            this.elemNames = elemNames;
+            this.attrNames = attrNames;
+            this.idmap = idmap;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import org.basex.core.StaticOptions;
 import org.basex.data.Data;
 import org.basex.index.IndexType;
 import org.basex.io.IOStream;
+import org.basex.query.QueryException;
 import org.basex.util.Util;
 import org.fusesource.lmdbjni.Database;
 import org.fusesource.lmdbjni.Entry;
@@ -19,11 +20,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 
 import static lmdb.Constants.string;
+import static org.fusesource.lmdbjni.Constants.CREATE;
+import static org.fusesource.lmdbjni.Constants.DUPFIXED;
+import static org.fusesource.lmdbjni.Constants.DUPSORT;
 import static org.fusesource.lmdbjni.Constants.FIXEDMAP;
+import static org.fusesource.lmdbjni.Constants.NOMETASYNC;
+import static org.fusesource.lmdbjni.Constants.NOSYNC;
+import static org.fusesource.lmdbjni.Constants.NOTLS;
 import static org.fusesource.lmdbjni.Constants.bytes;
 
 // TODO: basex-lmdb: add docname as col/name/c before creating check side effects here in Manager first
@@ -47,13 +55,40 @@ public class LmdbDataManager {
     static Database ftindexxdb;
     static Database ftindexydb;
     static Database ftindexzdb;
+    static Database colindexdb;
+    static Database txtpostingsdb;
+    static Database attpostingsdb;
+    static Database txtrangedb;
+    static Database attrangedb;
+    static Database ftpostingsdb;
+    static Database namesdb;
+
+    // block sizes of newly created documents as powers of two, see LmdbMetaData
+    private static volatile int tablePower = LmdbMetaData.LEGACY_POWER;
+    private static volatile int indexPower = LmdbMetaData.LEGACY_POWER;
+    private static volatile int compression = LmdbValueCodec.NONE;
+    private static volatile boolean updindex = false;
 
     private static volatile boolean cleanerRunning = true;
     private static volatile boolean cleanerStopped = false;
 
+    /** Commits sync data and meta pages. */
+    public static final int SYNC = 0;
+    /** Commits sync data pages only; a crash may lose the last commit, but leaves the database intact. */
+    public static final int METASYNC = 1;
+    /** Commits do not sync; the environment is synced periodically and a crash may lose the last interval. */
+    public static final int ASYNC = 2;
+
+    private static int durability = SYNC;
+    private static long syncInterval = 1000;
+    private static Thread syncer;
+
     private static final byte[] LAST_DOCUMENT_INDEX_KEY = new byte[]{0};
     private static final byte[] COLLECTION_LIST_KEY = new byte[]{1};
 
+    private static final int MIN_POWER = 9;
+    private static final int MAX_POWER = 20;
+
     public static void config(String home) { config(home, 100); }
 
     public static void config(String home, long size) {
@@ -61,8 +96,25 @@ public class LmdbDataManager {
         LmdbDataManager.home = home;
         env = new Env();
         env.setMapSize(size*1024000000000L);
-        env.setMaxDbs(16);
-        env.open(home, FIXEDMAP);
+        env.setMaxDbs(32);
+        // read transactions are not bound to threads, so the threads of a parallel query, and the serializer of a
+        // result stream, share them
+        env.open(home, FIXEDMAP | NOTLS | (durability == METASYNC ? NOMETASYNC : durability == ASYNC ? NOSYNC : 0));
+    }
+
+    /**
+     * Sets how commits are made durable. Takes effect when the environment is opened, see {@link #config(String, long)}.
+     * @param tier sync, metasync or async
+     * @param interval sync interval in milliseconds of the async tier
+     */
+    public static void durability(String tier, long interval) {
+        if("sync".equalsIgnoreCase(tier)) durability = SYNC;
+        else if("metasync".equalsIgnoreCase(tier)) durability = METASYNC;
+        else if("async".equalsIgnoreCase(tier)) durability = ASYNC;
+        else throw new IllegalArgumentException("unknown durability " + tier);
+        if(interval < 1) throw new IllegalArgumentException("sync interval " + interval + " out of range");
+        syncInterval = interval;
+        logger.info("durability " + tier.toLowerCase() + (durability == ASYNC ? ", sync every " + interval + " ms" : ""));
     }
 
     public static void start(boolean runCleaner) {
@@ -79,10 +131,18 @@ public class LmdbDataManager {
         ftindexxdb = env.openDatabase("ftindexxdb");
         ftindexydb = env.openDatabase("ftindexydb");
         ftindexzdb = env.openDatabase("ftindexzdb");
+        colindexdb = env.openDatabase("colindex");
+        txtpostingsdb = env.openDatabase("txtpostings", CREATE | DUPSORT | DUPFIXED);
+        attpostingsdb = env.openDatabase("attpostings", CREATE | DUPSORT | DUPFIXED);
+        txtrangedb = env.openDatabase("txtrange", CREATE | DUPSORT | DUPFIXED);
+        attrangedb = env.openDatabase("attrange", CREATE | DUPSORT | DUPFIXED);
+        ftpostingsdb = env.openDatabase("ftpostings", CREATE | DUPSORT | DUPFIXED);
+        namesdb = env.openDatabase("elemnames");
 
         try {
             String[] lc = _listCollections();
             if(lc != null) for(String c: _listCollections()) if(c.endsWith("/r")) removeAllDocuments(c.substring(0,c.indexOf('/')));
+            LmdbCollectionIndex.open();
         } catch (IOException e) {
             Util.notExpected(e);
         }
@@ -94,6 +154,12 @@ public class LmdbDataManager {
         } else {
             cleanerStopped = true;
         }
+
+        if(durability == ASYNC) {
+            syncer = new Thread(new Syncer(), "lmdb-sync");
+            syncer.setDaemon(true);
+            syncer.start();
+        }
     }
 
     public static void start() {
@@ -103,6 +169,18 @@ public class LmdbDataManager {
     public static void stop() {
         cleanerRunning = false;
         while(!cleanerStopped) try { Thread.sleep(500); } catch(InterruptedException ie) {}
+        LmdbGroupCommit.stop();
+        LmdbIndexer.stop();
+        if(syncer != null) {
+            syncer.interrupt();
+            try { syncer.join(); } catch(InterruptedException ie) {}
+            syncer = null;
+        }
+        logger.info(LmdbPageCache.stats());
+        logger.info(LmdbPlanCache.stats());
+        logger.info(LmdbResultCache.stats());
+        logger.info(LmdbQueryService.stats());
+        LmdbPlanCache.clear();
         env.sync(true);
         coldb.close();
         structdb.close();
@@ -116,10 +194,72 @@ public class LmdbDataManager {
         ftindexxdb.close();
         ftindexydb.close();
         ftindexzdb.close();
+        colindexdb.close();
+        txtpostingsdb.close();
+        attpostingsdb.close();
+        txtrangedb.close();
+        attrangedb.close();
+        ftpostingsdb.close();
+        namesdb.close();
         env.close();
+        LmdbPageCache.clear();
+        LmdbDataCache.clear();
         logger.info("stop");
     }
 
+    /**
+     * Sets the table and index block sizes of documents created from now on. Existing documents
+     * keep the layout they were built with until they are migrated.
+     * @param tablePower table block size as power of two
+     * @param indexPower index block size as power of two
+     */
+    public static void storage(int tablePower, int indexPower) {
+        LmdbDataManager.tablePower = checkPower(tablePower);
+        LmdbDataManager.indexPower = checkPower(indexPower);
+        logger.info("storage: " + (1 << tablePower) + " byte table blocks, " + (1 << indexPower) + " byte index blocks");
+    }
+
+    /**
+     * Sets the compression of text and attribute values of documents created from now on.
+     * @param compression none, pack (token packer) or deflate (packer, long values deflated)
+     */
+    public static void compression(String compression) {
+        LmdbDataManager.compression = LmdbValueCodec.mode(compression);
+        logger.info("storage: " + compression.toLowerCase() + " value compression");
+    }
+
+    static int compression() {
+        return compression;
+    }
+
+    /**
+     * Sets if documents created from now on keep an id/pre map, so that their value indexes and
+     * full-text postings are updated in place by XQuery Update instead of being rebuilt.
+     * @param updindex id/pre map flag
+     */
+    public static void updindex(boolean updindex) {
+        LmdbDataManager.updindex = updindex;
+        logger.info("storage: " + (updindex ? "" : "no ") + "incremental index updates");
+    }
+
+    static boolean updindex() {
+        return updindex;
+    }
+
+    public static int tablePower() {
+        return tablePower;
+    }
+
+    public static int indexPower() {
+        return indexPower;
+    }
+
+    static int checkPower(int power) {
+        if(power < MIN_POWER || power > MAX_POWER)
+            throw new IllegalArgumentException("block size power " + power + " not in [" + MIN_POWER + ".." + MAX_POWER + "]");
+        return power;
+    }
+
     public static synchronized void createCollection(final String name) throws IOException {
         try(Transaction tx = env.createWriteTransaction()) {
             byte[] cl = coldb.get(tx,COLLECTION_LIST_KEY);
@@ -132,8 +272,10 @@ public class LmdbDataManager {
             } else {
                 coldb.put(tx,COLLECTION_LIST_KEY, bytes("["+name+"]"));
             }
+            LmdbCollectionIndex.cover(tx, name);
             tx.commit();
         }
+        LmdbResultCache.committed(name);
     }
 
     private static String[] _listCollections() throws IOException {
@@ -160,34 +302,36 @@ public class LmdbDataManager {
             collection.add(name+"/r");
             coldb.put(COLLECTION_LIST_KEY, bytes(collection.toString()));
             removeAllDocuments(name);
+            LmdbResultCache.committed(name);
         }
     }
 
-    public static void createDocument(final String name, InputStream content) throws IOException {
-        byte[] docid = getNextDocumentId(name);
-        MainOptions opt = new MainOptions();
-        LmdbBuilder.build(name, docid, new XMLParser(new IOStream(content), opt), opt, new StaticOptions(false));
-        //indexDocument(name);
+    public static void createDocument(final String name, final InputStream content) throws IOException {
+        checkDocumentName(name);
+        final MainOptions opt = new MainOptions();
+        try {
+            LmdbGroupCommit.execute(new LmdbGroupCommit.Work<Void>() {
+                @Override
+                public Void run(Transaction tx) throws IOException {
+                    if(coldb.get(tx, bytes(name)) != null) throw new IOException("document " + name + " exists");
+                    LmdbBuilder.build(name, nextDocumentId(tx), new XMLParser(new IOStream(content), opt), opt,
+                            new StaticOptions(false), tx);
+                    return null;
+                }
+            });
+        } catch(QueryException qe) {
+            throw new IOException(qe);
+        }
+        LmdbResultCache.committed(name);
+        LmdbIndexer.loaded(name);
     }
 
     public static void indexDocument(final String name) throws IOException {
-        MainOptions opt = new MainOptions();
-        try(Transaction tx = env.createReadTransaction(); LmdbData data = (LmdbData)openDocument(name, opt, tx, false)) {
-            data.createIndex(IndexType.TEXT, opt);
-            data.createIndex(IndexType.ATTRIBUTE, opt);
-            data.createIndex(IndexType.FULLTEXT, opt);
-        }
-
+        LmdbIndexer.build(name, EnumSet.allOf(IndexType.class));
     }
 
     public static void dropDocumentIndex(final String name) throws IOException {
-        MainOptions opt = new MainOptions();
-        try(Transaction tx = env.createReadTransaction(); LmdbData data = (LmdbData)openDocument(name, opt, tx, false)) {
-            data.dropIndex(IndexType.TEXT);
-            data.dropIndex(IndexType.ATTRIBUTE);
-            data.dropIndex(IndexType.FULLTEXT);
-        }
-
+        LmdbIndexer.drop(name, EnumSet.allOf(IndexType.class));
     }
 
     public static List<String> listDocuments(String collection) throws IOException {
@@ -209,12 +353,21 @@ public class LmdbDataManager {
     }
 
     public static void removeDocument(final String name) throws IOException {
-        byte[] docid = coldb.get(bytes(name));
+        final byte[] docid = coldb.get(bytes(name));
         if(docid == null) return;
-        try(Transaction tx = env.createWriteTransaction()) {
-            if(coldb.delete(tx, bytes(name))) coldb.put(tx, bytes(name + "/r"), docid);
-            tx.commit();
+        try {
+            LmdbGroupCommit.execute(new LmdbGroupCommit.Work<Void>() {
+                @Override
+                public Void run(Transaction tx) {
+                    if(coldb.delete(tx, bytes(name))) coldb.put(tx, bytes(name + "/r"), docid);
+                    return null;
+                }
+            });
+        } catch(QueryException qe) {
+            throw new IOException(qe);
         }
+        LmdbDataCache.invalidate(docid);
+        LmdbResultCache.committed(name);
     }
 
     public static String home() {
@@ -222,17 +375,16 @@ public class LmdbDataManager {
     }
 
     static Data openDocument(String name, MainOptions options, Transaction tx) throws IOException {
-        return openDocument(name, options, tx, false); //true);
+        return openDocument(name, options, tx, true);
     }
 
-
-    private static Data openDocument(String name, MainOptions options, Transaction tx, boolean openIndex) throws IOException {
+    static Data openDocument(String name, MainOptions options, Transaction tx, boolean openIndex) throws IOException {
         byte[] docid = coldb.get(tx,bytes(name));
         if(docid == null) throw new IOException("document " + name + " not found");
         return new LmdbData(name, docid, tx, options, new LmdbStaticOptions(), openIndex);
     }
 
-    private static synchronized byte[] getNextDocumentId(final String name) throws IOException {
+    static void checkDocumentName(final String name) throws IOException {
         if(coldb.get(bytes(name)) != null) throw new IOException("document " + name + " exists");
         int i = name.indexOf('/');
         if(i > 0 && name.length() > 2) {
@@ -243,19 +395,30 @@ public class LmdbDataManager {
         } else {
             throw new IOException("malformed document name " + name +  " or unknown collection. 'collection_name/document_name' needed");
         }
+    }
+
+    static synchronized byte[] allocateDocumentId() {
         try(Transaction tx = env.createWriteTransaction()) {
-            byte[] docid = coldb.get(tx, LAST_DOCUMENT_INDEX_KEY);
-            if(docid == null) {
-                docid = new byte[]{0,0,0,0};
-            } else {
-                Byte.setInt(Byte.getInt(docid)+1,docid);
-            }
-            coldb.put(tx, LAST_DOCUMENT_INDEX_KEY, docid);
+            byte[] docid = nextDocumentId(tx);
             tx.commit();
             return docid;
         }
     }
 
+    /**
+     * Allocates a document id inside a write transaction, which is only taken if the transaction commits.
+     */
+    static byte[] nextDocumentId(final Transaction tx) {
+        byte[] docid = coldb.get(tx, LAST_DOCUMENT_INDEX_KEY);
+        if(docid == null) {
+            docid = new byte[]{0,0,0,0};
+        } else {
+            Byte.setInt(Byte.getInt(docid)+1,docid);
+        }
+        coldb.put(tx, LAST_DOCUMENT_INDEX_KEY, docid);
+        return docid;
+    }
+
     private static synchronized void removeAllDocuments(String collection) {
         try(Transaction tx = env.createReadTransaction(); EntryIterator ei = coldb.seek(tx, bytes(collection))) {
             try(Transaction wtx = env.createWriteTransaction()) {
@@ -269,6 +432,25 @@ public class LmdbDataManager {
         }
     }
 
+    // flushes commits of the async durability tier
+    private static class Syncer implements Runnable {
+        @Override
+        public void run() {
+            while(true) {
+                try {
+                    Thread.sleep(syncInterval);
+                } catch(InterruptedException ie) {
+                    break;
+                }
+                try {
+                    env.sync(true);
+                } catch(RuntimeException e) {
+                    logger.warn("sync failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
     private static class Cleaner implements Runnable {
 
         private int writeBatchSize = 10000;
@@ -277,7 +459,8 @@ public class LmdbDataManager {
 
         private Database[] dblist =  new Database[]{
                 tableaccessdb, textdatadb, attributevaldb, txtindexldb, txtindexrdb,
-                attindexldb, attindexrdb, ftindexxdb, ftindexydb, ftindexzdb
+                attindexldb, attindexrdb, ftindexxdb, ftindexydb, ftindexzdb, txtpostingsdb, attpostingsdb,
+                txtrangedb, attrangedb, ftpostingsdb, namesdb
         };
 
         @Override
@@ -292,6 +475,9 @@ public class LmdbDataManager {
                     String docName = string(dr.key);
                     logger.info("cleaner: removing document " + docName.substring(0, docName.length() - 2));
                     structdb.delete(dr.ref);
+                    structdb.delete(LmdbDataCache.generationKey(dr.ref));
+                    LmdbDataCache.invalidate(dr.ref);
+                    LmdbPageCache.invalidate(dr.ref);
                     for (Database db : dblist) {
                         try (Transaction tx = env.createReadTransaction(); EntryIterator dbei = db.seek(tx, dr.ref)) {
                             int c = 0;
@@ -317,6 +503,12 @@ public class LmdbDataManager {
                             retry = true;
                         }
                     }
+                    try(Transaction wtx = env.createWriteTransaction()) {
+                        LmdbCollectionIndex.remove(wtx, docName.substring(0, Math.max(docName.indexOf('/'), 0)), dr.ref);
+                        wtx.commit();
+                    } catch (Exception e) {
+                        retry = true;
+                    }
                     if(!retry) coldb.delete(dr.key);
                     dr = getNextRemovedDoc();
                 }
@@ -25,9 +25,10 @@ public class LmdbFTBuilder extends FTBuilder {
     @Override
     public FTIndex build() throws IOException {
         _build();
-        copyIndex(data.meta.dbfile(DATAFTX + 'x').file(), ftindexxdb, docid);
-        copyIndex(data.meta.dbfile(DATAFTX + 'y').file(), ftindexydb, docid);
-        copyIndex(data.meta.dbfile(DATAFTX + 'z').file(), ftindexzdb,docid);
+        final int bs = ((LmdbMetaData) data.meta).indexBlockSize();
+        copyIndex(data.meta.dbfile(DATAFTX + 'x').file(), ftindexxdb, docid, bs);
+        copyIndex(data.meta.dbfile(DATAFTX + 'y').file(), ftindexydb, docid, bs);
+        copyIndex(data.meta.dbfile(DATAFTX + 'z').file(), ftindexzdb, docid, bs);
         data.meta.dbfile("swl").file().delete();
         return null;
     }
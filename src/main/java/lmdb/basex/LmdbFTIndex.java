@@ -14,7 +14,6 @@ import org.basex.index.value.ValueIndex;
 import org.basex.query.expr.ft.FTWildcard;
 import org.basex.query.util.ft.FTMatches;
 import org.basex.util.Array;
-import org.basex.util.Levenshtein;
 import org.basex.util.Performance;
 import org.basex.util.TokenBuilder;
 import org.basex.util.Util;
@@ -46,8 +45,6 @@ public class LmdbFTIndex extends ValueIndex {
 
     /** Cached texts. Increases used memory, but speeds up repeated queries. */
     private final IntObjMap<byte[]> ctext = new IntObjMap<>();
-    /** Levenshtein reference. */
-    private final Levenshtein ls = new Levenshtein();
 
     /** Index storing each unique token length and pointer
      * on the first token with this length. */
@@ -70,9 +67,10 @@ public class LmdbFTIndex extends ValueIndex {
     public LmdbFTIndex(final Data data, final byte[] docid, final Transaction tx) throws IOException {
         super(data, true);
         // cache token length index
-        inX = new LmdbDataAccess(docid, ftindexxdb, tx);
-        inY = new LmdbDataAccess(docid, ftindexydb, tx);
-        inZ = new LmdbDataAccess(docid, ftindexzdb, tx);
+        final int bs = ((LmdbMetaData) data.meta).indexBlockSize();
+        inX = new LmdbDataAccess(docid, ftindexxdb, tx, bs);
+        inY = new LmdbDataAccess(docid, ftindexydb, tx, bs);
+        inZ = new LmdbDataAccess(docid, ftindexzdb, tx, bs);
         tp = new int[data.meta.maxlen + 3];
         final int tl = tp.length;
         for(int i = 0; i < tl; ++i) tp[i] = -1;
@@ -326,6 +324,7 @@ public class LmdbFTIndex extends ValueIndex {
      */
     private synchronized IndexIterator fuzzy(final byte[] token, final int k) {
         FTIndexIterator it = FTIndexIterator.FTEMPTY;
+        final LmdbTermMatcher m = LmdbTermMatcher.fuzzy(token, k);
         final int tokl = token.length, tl = tp.length;
         final int e = Math.min(tl - 1, tokl + k);
         int s = Math.max(1, tokl - k) - 1;
@@ -336,7 +335,16 @@ public class LmdbFTIndex extends ValueIndex {
             int t = s + 1, r = -1;
             while(t < tl && r == -1) r = tp[t++];
             while(p < r) {
-                if(ls.similar(inY.readBytes(p, s), token, k)) {
+                final byte[] tok = inY.readBytes(p, s);
+                final int d = m.dead(tok, 0);
+                if(d != -1) {
+                    // skip all tokens with a prefix that cannot be matched
+                    final byte[] next = LmdbTermMatcher.next(tok, d, 0);
+                    if(next == null) break;
+                    p = find(next, p, r, s);
+                    continue;
+                }
+                if(m.match(tok)) {
                     it = FTIndexIterator.union(iter(pointer(p, s), size(p, s), inZ, token), it);
                 }
                 p += s + ENTRY;
@@ -358,6 +366,7 @@ public class LmdbFTIndex extends ValueIndex {
         final IntList pr = new IntList();
         final IntList ps = new IntList();
         final byte[] pref = wc.prefix();
+        final LmdbTermMatcher m = LmdbTermMatcher.wildcard(wc);
         final int pl = pref.length, tl = tp.length;
         final int l = Math.min(tl - 1, wc.max());
         for(int ti = pl; ti <= l; ti++) {
@@ -371,6 +380,13 @@ public class LmdbFTIndex extends ValueIndex {
             while(i < e) {
                 final byte[] t = inY.readBytes(i, ti);
                 if(!startsWith(t, pref)) break;
+                final int dead = m.dead(t, 0);
+                if(dead != -1) {
+                    final byte[] next = LmdbTermMatcher.next(t, dead, pl);
+                    if(next == null) break;
+                    i = find(next, i, e, ti);
+                    continue;
+                }
                 if(wc.match(t)) {
                     inZ.cursor(pointer(i, ti));
                     final int s = size(i, ti);
@@ -405,6 +421,17 @@ public class LmdbFTIndex extends ValueIndex {
         return iter(new FTCache(pr, ps), token);
     }
 
+    /**
+     * Returns an iterator for pre values and positions.
+     * @param pr pre values
+     * @param ps positions
+     * @param token index token
+     * @return iterator
+     */
+    static FTIndexIterator iter(final IntList pr, final IntList ps, final byte[] token) {
+        return iter(new FTCache(pr, ps), token);
+    }
+
     /**
      * Returns an iterator for an index entry.
      * @param ftc id cache
@@ -0,0 +1,270 @@
+package lmdb.basex;
+
+import org.basex.core.MainOptions;
+import org.basex.data.Data;
+import org.basex.data.MetaData;
+import org.basex.index.query.EntryIterator;
+import org.basex.index.query.FTIndexIterator;
+import org.basex.index.query.IndexIterator;
+import org.basex.index.query.IndexToken;
+import org.basex.index.stats.IndexStats;
+import org.basex.io.IO;
+import org.basex.query.expr.ft.FTWildcard;
+import org.basex.util.Token;
+import org.basex.util.TokenBuilder;
+import org.basex.util.ft.FTCase;
+import org.basex.util.ft.FTFlag;
+import org.basex.util.ft.FTLexer;
+import org.basex.util.ft.FTOpt;
+import org.basex.util.ft.StopWords;
+import org.basex.util.hash.TokenObjMap;
+import org.basex.util.list.IntList;
+import org.basex.util.list.LongList;
+import org.basex.util.list.TokenList;
+import org.fusesource.lmdbjni.Cursor;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.GetOp;
+import org.fusesource.lmdbjni.SeekOp;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.util.Arrays;
+
+import static lmdb.basex.LmdbDataManager.ftpostingsdb;
+import static org.basex.core.Text.LI_NAMES;
+import static org.basex.core.Text.LI_STRUCTURE;
+import static org.basex.core.Text.NL;
+import static org.basex.data.DataText.DATAFTX;
+import static org.basex.util.Token.startsWith;
+import static org.basex.util.ft.FTFlag.FZ;
+import static org.basex.util.ft.FTFlag.WC;
+
+/**
+ * Full-text index stored as LMDB postings.
+ *
+ * Every token of a document is a key (docid, token) in a DUPSORT/DUPFIXED database, its duplicates are
+ * 8 byte (id, position) pairs. Single tokens of a text node can thus be added and deleted, and the index is
+ * kept current by Data#indexAdd and Data#indexDelete if the document has an id/pre map (updindex).
+ * Key iteration and counts are shared with the value index postings, see {@link LmdbPostings}.
+ *
+ * Indexes built before this layout are read by {@link LmdbFTIndex}.
+ */
+public class LmdbFTPostings extends LmdbPostings {
+
+    public LmdbFTPostings(final Data data, final byte[] docid, final Transaction tx) {
+        super(data, true, docid, tx, ftpostingsdb);
+    }
+
+    /**
+     * Returns a lexer with the full-text options the index of a document was built with.
+     * @param data document
+     * @return lexer
+     */
+    static FTLexer lexer(final Data data) {
+        final MetaData meta = data.meta;
+        final FTOpt fto = new FTOpt();
+        fto.set(FTFlag.DC, meta.diacritics);
+        fto.set(FTFlag.ST, meta.stemming);
+        fto.cs = meta.casesens ? FTCase.SENSITIVE : FTCase.INSENSITIVE;
+        fto.sw = new StopWords();
+        if(!meta.stopwords.isEmpty()) fto.sw.read(IO.get(meta.stopwords), false);
+        fto.ln = meta.language;
+        return new FTLexer(fto);
+    }
+
+    /**
+     * Adds the tokens of a text to a map.
+     * @param lexer lexer
+     * @param text text
+     * @param id id or pre value of the text node
+     * @param maxlen maximum token length
+     * @param tokens (id, position) pairs per token
+     * @return number of added pairs
+     */
+    static int tokens(final FTLexer lexer, final byte[] text, final int id, final int maxlen,
+                      final TokenObjMap<LongList> tokens) {
+        final StopWords sw = lexer.ftOpt().sw;
+        lexer.init(text);
+        int pos = -1, count = 0;
+        while(lexer.hasNext()) {
+            final byte[] tok = lexer.nextToken();
+            ++pos;
+            // skip too long and stopword tokens
+            if(tok.length > maxlen || !sw.isEmpty() && sw.contains(tok)) continue;
+            LongList ps = tokens.get(tok);
+            if(ps == null) {
+                ps = new LongList(1);
+                tokens.put(tok, ps);
+            }
+            ps.add((long) id << 32 | pos);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Adds postings to the database.
+     * @param db database
+     * @param tx write transaction
+     * @param docid document id
+     * @param tokens (id, position) pairs per token
+     * @return number of new keys
+     */
+    static int writeTokens(final Database db, final Transaction tx, final byte[] docid,
+                           final TokenObjMap<LongList> tokens) {
+        int keys = 0;
+        for(final byte[] tok : new TokenList(tokens).sort(true)) {
+            final byte[] k = key(docid, tok);
+            if(db.get(tx, k) == null) keys++;
+            for(long p : tokens.get(tok).sort().finish()) db.put(tx, k, value(p));
+        }
+        return keys;
+    }
+
+    private static byte[] value(final long p) {
+        final byte[] v = new byte[8];
+        lmdb.util.Byte.setInt((int) (p >>> 32), v, 0);
+        lmdb.util.Byte.setInt((int) p, v, 4);
+        return v;
+    }
+
+    @Override
+    public byte[] info(final MainOptions options) {
+        final TokenBuilder tb = new TokenBuilder();
+        tb.add(LI_STRUCTURE).add("LMDB postings").add(NL);
+        tb.add(LI_NAMES).add(data.meta.ftinclude).add(NL);
+        final IndexStats stats = new IndexStats(options.get(MainOptions.MAXSTAT));
+        final EntryIterator ei = keys(Token.EMPTY, true, false, null);
+        for(byte[] key; (key = ei.next()) != null;) {
+            final int oc = ei.count();
+            if(stats.adding(oc)) stats.add(key, oc);
+        }
+        stats.print(tb);
+        return tb.finish();
+    }
+
+    @Override
+    public int costs(final IndexToken it) {
+        final byte[] tok = it.get();
+        if(tok.length > data.meta.maxlen) return Integer.MAX_VALUE;
+
+        // estimate costs for queries which stretch over multiple index entries
+        final FTOpt opt = ((FTLexer) it).ftOpt();
+        if(opt.is(FZ) || opt.is(WC)) return Math.max(1, data.meta.size >> 4);
+        return count(tok);
+    }
+
+    @Override
+    public IndexIterator iter(final IndexToken it) {
+        final byte[] tok = it.get();
+        final FTLexer lexer = (FTLexer) it;
+        final FTOpt opt = lexer.ftOpt();
+        if(opt.is(WC)) return wc(tok);
+        if(opt.is(FZ)) return fuzzy(tok, lexer.lserror(tok));
+
+        final IntList pr = new IntList(), ps = new IntList();
+        try(Cursor c = db.openCursor(tx)) {
+            for(Entry e = c.seek(SeekOp.KEY, key(docid, tok)); e != null; e = c.get(GetOp.NEXT_DUP)) {
+                add(e.getValue(), pr, ps);
+            }
+        }
+        return pr.isEmpty() ? FTIndexIterator.FTEMPTY : LmdbFTIndex.iter(pr, ps, tok);
+    }
+
+    /**
+     * Performs a wildcard search: scans the tokens starting with the prefix of the wildcard expression.
+     */
+    private IndexIterator wc(final byte[] token) {
+        final FTWildcard wc = new FTWildcard(token);
+        if(!wc.parse()) return FTIndexIterator.FTEMPTY;
+        return scan(LmdbTermMatcher.wildcard(wc), wc.prefix(), token);
+    }
+
+    /**
+     * Performs a fuzzy search: scans the tokens that are similar to the query token.
+     */
+    private IndexIterator fuzzy(final byte[] token, final int k) {
+        return scan(LmdbTermMatcher.fuzzy(token, k), Token.EMPTY, token);
+    }
+
+    /**
+     * Scans the tokens with the specified prefix. Tokens starting with a prefix the matcher rejects are
+     * skipped by seeking to the next prefix.
+     * @param m matcher
+     * @param pref prefix of all matching tokens
+     * @param token query token
+     * @return iterator
+     */
+    private IndexIterator scan(final LmdbTermMatcher m, final byte[] pref, final byte[] token) {
+        final IntList pr = new IntList(), ps = new IntList();
+        final byte[] start = key(docid, pref);
+        try(Cursor c = db.openCursor(tx)) {
+            Entry e = c.seek(SeekOp.RANGE, start);
+            while(e != null) {
+                final byte[] key = e.getKey();
+                if(!own(key) || !startsWith(key, start)) break;
+                final int dead = m.dead(key, 4);
+                if(dead != -1) {
+                    final byte[] next = LmdbTermMatcher.next(key, dead, start.length);
+                    e = next == null ? null : c.seek(SeekOp.RANGE, next);
+                    continue;
+                }
+                if(m.match(Arrays.copyOfRange(key, 4, key.length))) {
+                    for(; e != null; e = c.get(GetOp.NEXT_DUP)) add(e.getValue(), pr, ps);
+                }
+                e = c.get(GetOp.NEXT_NODUP);
+            }
+        }
+        return LmdbFTIndex.iter(pr, ps, token);
+    }
+
+    private void add(final byte[] value, final IntList pr, final IntList ps) {
+        pr.add(pre(lmdb.util.Byte.getInt(value, 0)));
+        ps.add(lmdb.util.Byte.getInt(value, 4));
+    }
+
+    @Override
+    public void add(final TokenObjMap<IntList> map) {
+        final TokenObjMap<LongList> tokens = tokens(map);
+        final int keys = writeTokens(db, tx, docid, tokens);
+        for(final byte[] tok : tokens) cache.delete(tok);
+        if(keys > 0) count(db, tx, docid, size() + keys);
+    }
+
+    @Override
+    public void delete(final TokenObjMap<IntList> map) {
+        final TokenObjMap<LongList> tokens = tokens(map);
+        int keys = 0;
+        for(final byte[] tok : tokens) {
+            final byte[] k = key(docid, tok);
+            for(long p : tokens.get(tok).toArray()) db.delete(tx, k, value(p));
+            if(db.get(tx, k) == null) keys++;
+            cache.delete(tok);
+        }
+        if(keys > 0) count(db, tx, docid, size() - keys);
+    }
+
+    /**
+     * Tokenizes the texts of updated nodes.
+     * @param map ids per text
+     * @return (id, position) pairs per token
+     */
+    private TokenObjMap<LongList> tokens(final TokenObjMap<IntList> map) {
+        final FTLexer lexer = lexer(data);
+        final TokenObjMap<LongList> tokens = new TokenObjMap<>();
+        for(final byte[] text : map) {
+            for(int id : map.get(text).toArray()) tokens(lexer, text, id, data.meta.maxlen, tokens);
+        }
+        return tokens;
+    }
+
+    @Override
+    public boolean drop() {
+        return data.meta.drop(DATAFTX + '.');
+    }
+
+    @Override
+    public String toString() {
+        return "FULLTEXT POSTINGS, '" + data.meta.name + "': " + size() + " keys";
+    }
+}
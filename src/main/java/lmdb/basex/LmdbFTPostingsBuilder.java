@@ -0,0 +1,73 @@
+package lmdb.basex;
+
+import org.basex.core.MainOptions;
+import org.basex.data.Data;
+import org.basex.index.ft.FTBuilder;
+import org.basex.index.ft.FTIndex;
+import org.basex.util.hash.TokenObjMap;
+import org.basex.util.list.LongList;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.IOException;
+
+import static lmdb.basex.LmdbDataManager.env;
+import static lmdb.basex.LmdbDataManager.ftpostingsdb;
+
+/**
+ * Builds a full-text index as LMDB postings, see {@link LmdbFTPostings}.
+ *
+ * Tokens are collected in memory and written whenever the memory limit or split size of the
+ * index builder is reached.
+ */
+public class LmdbFTPostingsBuilder extends FTBuilder {
+
+    private final byte[] docid;
+    private TokenObjMap<LongList> tokens = new TokenObjMap<LongList>();
+    private int keys;
+
+    public LmdbFTPostingsBuilder(final byte[] docid, final Data data, final MainOptions options) throws IOException {
+        super(data, options);
+        this.docid = docid;
+    }
+
+    @Override
+    public FTIndex build() throws IOException {
+        final int maxlen = data.meta.maxlen;
+        for(pre = 0; pre < size; ++pre) {
+            if((pre & 0x0FFF) == 0) check();
+            if(!indexEntry()) continue;
+            count += LmdbFTPostings.tokens(lexer, data.text(pre, true), data.meta.updindex ? data.id(pre) : pre,
+                    maxlen, tokens);
+        }
+        store(true);
+        data.meta.dbfile("swl").file().delete();
+        finishIndex();
+        return null;
+    }
+
+    @Override
+    protected void check() throws IOException {
+        super.check();
+        if(split()) {
+            store(false);
+            splits++;
+            finishSplit();
+        }
+    }
+
+    /**
+     * Writes the collected tokens in a write transaction of their own.
+     * @param last last call: store the number of keys
+     */
+    private void store(final boolean last) {
+        try(Transaction tx = env.createWriteTransaction()) {
+            keys += LmdbFTPostings.writeTokens(ftpostingsdb, tx, docid, tokens);
+            if(last) {
+                LmdbPostings.count(ftpostingsdb, tx, docid, keys);
+                LmdbDataCache.generation(docid, tx, LmdbDataCache.generation(docid, tx) + 1);
+            }
+            tx.commit();
+        }
+        tokens = new TokenObjMap<LongList>();
+    }
+}
@@ -0,0 +1,241 @@
+package lmdb.basex;
+
+import org.apache.log4j.Logger;
+import org.basex.query.QueryException;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static lmdb.basex.LmdbDataManager.env;
+
+/**
+ * Runs the writes of concurrent callers in shared LMDB write transactions.
+ *
+ * LMDB allows a single writer only, so small writes used to queue up behind each other's commit
+ * and sync. A dedicated thread now takes all pending writes, runs each of them in a nested
+ * transaction of one group transaction and commits the group once. A write that fails only aborts
+ * its nested transaction; the other writes of the group are not affected. Callers wait until the
+ * group has been committed and get their own result or exception.
+ *
+ * Groups are closed when the queue is empty, or, if a window is configured, when the window has
+ * passed since the group was opened or the group is full.
+ */
+public class LmdbGroupCommit {
+
+    private static final Logger logger = Logger.getLogger(LmdbGroupCommit.class);
+
+    private static final LinkedBlockingQueue<Request<?>> queue = new LinkedBlockingQueue<Request<?>>();
+
+    private static volatile int window = 0;
+    private static volatile int size = 64;
+
+    private static Thread writer;
+    private static volatile boolean running;
+    /** Actions to run after the current group has been committed; only used by the writer thread. */
+    private static List<Runnable> hooks;
+
+    private static final AtomicLong groups = new AtomicLong();
+    private static final AtomicLong writes = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+
+    protected LmdbGroupCommit() {}
+
+    /** A write, run by the writer thread inside a nested transaction. */
+    public interface Work<T> {
+        T run(Transaction tx) throws Exception;
+    }
+
+    /**
+     * Sets the size of groups.
+     * @param windowMillis time to wait for further writes after the first write of a group
+     *        ({@code 0} closes the group as soon as no writes are pending)
+     * @param maxWrites maximum number of writes per group
+     */
+    public static void config(int windowMillis, int maxWrites) {
+        if(windowMillis < 0) throw new IllegalArgumentException("group commit window " + windowMillis + " out of range");
+        if(maxWrites < 1) throw new IllegalArgumentException("group commit size " + maxWrites + " out of range");
+        window = windowMillis;
+        size = maxWrites;
+        logger.info("group commit window " + windowMillis + " ms, " + maxWrites + " writes");
+    }
+
+    public static String stats() {
+        final long g = groups.get(), w = writes.get();
+        return "group commit: " + w + " writes in " + g + " groups (" + (g == 0 ? 0 : w * 10 / g / 10.0) +
+                " per group), " + failures.get() + " failed";
+    }
+
+    /**
+     * Runs a write and waits until it has been committed.
+     * @param work write
+     * @return result of the write
+     * @throws IOException exception of the write or of the commit; other checked exceptions are wrapped
+     * @throws QueryException exception of the write
+     */
+    public static <T> T execute(final Work<T> work) throws IOException, QueryException {
+        if(Thread.currentThread() == writer) throw new IllegalStateException("nested group commit");
+        start();
+        final Request<T> r = new Request<T>(work);
+        queue.add(r);
+        return r.get();
+    }
+
+    /**
+     * Runs an action after the group of the current write has been committed, e.g. to drop cached
+     * structures of changed documents. Outside of a group the action is run right away.
+     * @param action action
+     */
+    static void afterCommit(final Runnable action) {
+        if(Thread.currentThread() == writer && hooks != null) hooks.add(action);
+        else action.run();
+    }
+
+    private static synchronized void start() {
+        if(running) return;
+        running = true;
+        writer = new Thread(new Writer(), "group-commit");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Commits the pending writes and stops the writer thread.
+     */
+    static void stop() {
+        final Thread w;
+        synchronized(LmdbGroupCommit.class) {
+            if(!running) return;
+            running = false;
+            w = writer;
+        }
+        try {
+            w.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+        logger.info(stats());
+    }
+
+    private static final class Writer implements Runnable {
+        @Override
+        public void run() {
+            final ArrayList<Request<?>> group = new ArrayList<Request<?>>();
+            final ArrayList<Runnable> after = new ArrayList<Runnable>();
+            while(running || !queue.isEmpty()) {
+                try {
+                    final Request<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if(first == null) continue;
+                    group.add(first);
+                    commit(group, after);
+                } catch(InterruptedException e) {
+                    fail(group, new IOException("group commit interrupted"));
+                    break;
+                } finally {
+                    for(Request<?> r : group) r.done.countDown();
+                    group.clear();
+                    after.clear();
+                }
+            }
+            Request<?> r;
+            while((r = queue.poll()) != null) {
+                r.error = new IOException("group commit stopped");
+                r.done.countDown();
+            }
+        }
+
+        private void fail(final List<Request<?>> group, final Throwable t) {
+            for(Request<?> r : group) if(r.error == null) r.error = t;
+            failures.addAndGet(group.size());
+        }
+
+        private void commit(final List<Request<?>> group, final List<Runnable> after) throws InterruptedException {
+            try(Transaction parent = env.createWriteTransaction()) {
+                run(parent, group.get(0), after);
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(window);
+                while(group.size() < size) {
+                    final long wait = deadline - System.nanoTime();
+                    final Request<?> r = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if(r == null) break;
+                    group.add(r);
+                    run(parent, r, after);
+                }
+                parent.commit();
+            } catch(RuntimeException e) {
+                logger.warn("group commit of " + group.size() + " writes failed: " + e.getMessage());
+                fail(group, e);
+                return;
+            }
+            groups.incrementAndGet();
+            writes.addAndGet(group.size());
+            for(Runnable a : after) {
+                try {
+                    a.run();
+                } catch(RuntimeException e) {
+                    logger.warn("action after group commit failed", e);
+                }
+            }
+        }
+
+        private <T> void run(final Transaction parent, final Request<T> r, final List<Runnable> after) {
+            final Transaction tx = env.createTransaction(parent, false);
+            hooks = new ArrayList<Runnable>();
+            try {
+                r.result = r.work.run(tx);
+            } catch(Throwable t) {
+                tx.abort();
+                r.error = t;
+                failures.incrementAndGet();
+                return;
+            } finally {
+                if(r.error != null) hooks = null;
+            }
+            try {
+                tx.commit();
+                after.addAll(hooks);
+            } catch(RuntimeException e) {
+                r.error = e;
+                failures.incrementAndGet();
+            } finally {
+                hooks = null;
+            }
+        }
+    }
+
+    private static final class Request<T> {
+        final Work<T> work;
+        final CountDownLatch done = new CountDownLatch(1);
+        T result;
+        Throwable error;
+
+        Request(final Work<T> work) {
+            this.work = work;
+        }
+
+        T get() throws IOException, QueryException {
+            boolean interrupted = false;
+            while(true) {
+                try {
+                    done.await();
+                    break;
+                } catch(InterruptedException e) {
+                    // the write may be committed in any case, so its outcome is awaited
+                    interrupted = true;
+                }
+            }
+            if(interrupted) Thread.currentThread().interrupt();
+            if(error == null) return result;
+            if(error instanceof IOException) throw (IOException) error;
+            if(error instanceof QueryException) throw (QueryException) error;
+            if(error instanceof RuntimeException) throw (RuntimeException) error;
+            if(error instanceof Error) throw (Error) error;
+            throw new IOException(error);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package lmdb.basex;
+
+import org.apache.log4j.Logger;
+import org.basex.core.MainOptions;
+import org.basex.index.IndexType;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static lmdb.basex.LmdbDataManager.coldb;
+import static lmdb.basex.LmdbDataManager.env;
+import static lmdb.basex.LmdbDataManager.structdb;
+import static org.fusesource.lmdbjni.Constants.bytes;
+
+/**
+ * Builds the value and full-text indexes of documents according to the index policy of their collection.
+ *
+ * Indexes are built from a read snapshot. Their meta data flags, which let the query optimizer choose
+ * index plans, are only set if the document has not changed in the meantime. Updates clear the flags
+ * (value indexes are not updatable yet), so changed documents are indexed again in the background.
+ * The entries of a document in the {@link LmdbCollectionIndex} are replaced along with its value indexes.
+ */
+public class LmdbIndexer {
+
+    private static final Logger logger = Logger.getLogger(LmdbIndexer.class);
+
+    private static final Map<String, Policy> policies = new ConcurrentHashMap<String, Policy>();
+    private static volatile Policy defaultPolicy = Policy.NONE;
+
+    /** Documents waiting for the background indexer, in order of arrival. */
+    private static final Set<String> pending = new LinkedHashSet<String>();
+    /** Documents being indexed; a document is indexed by one thread at a time. */
+    private static final Set<String> building = new HashSet<String>();
+    private static Thread worker;
+    private static volatile boolean running;
+
+    protected LmdbIndexer() {}
+
+    /**
+     * Index policy of a collection: the indexes to build and whether to build them when a document
+     * is loaded, before the load returns, or lazily in the background.
+     */
+    public static final class Policy {
+        public static final Policy NONE = new Policy(EnumSet.noneOf(IndexType.class), false, false);
+
+        final Set<IndexType> types;
+        final boolean lazy;
+        /** Typed range indexes along with the value indexes, see LmdbRangeIndex. */
+        final boolean range;
+
+        Policy(final Set<IndexType> types, final boolean lazy, final boolean range) {
+            this.types = Collections.unmodifiableSet(types);
+            this.lazy = lazy;
+            this.range = range;
+        }
+
+        /**
+         * Parses a policy.
+         * @param types space or comma separated list of text, attribute, range, fulltext and names
+         * @param build load or lazy
+         * @return policy
+         */
+        public static Policy parse(final String types, final String build) {
+            final EnumSet<IndexType> ts = EnumSet.noneOf(IndexType.class);
+            boolean range = false;
+            if(types != null) {
+                for(String t : types.trim().split("[\\s,]+")) {
+                    if(t.isEmpty() || t.equalsIgnoreCase("none")) continue;
+                    if(t.equalsIgnoreCase("text")) ts.add(IndexType.TEXT);
+                    else if(t.equalsIgnoreCase("attribute")) ts.add(IndexType.ATTRIBUTE);
+                    else if(t.equalsIgnoreCase("fulltext")) ts.add(IndexType.FULLTEXT);
+                    else if(t.equalsIgnoreCase("names")) ts.add(IndexType.TAG);
+                    else if(t.equalsIgnoreCase("range")) range = true;
+                    else throw new IllegalArgumentException("unknown index type " + t);
+                }
+            }
+            final boolean lazy;
+            if(build == null || build.isEmpty() || build.equalsIgnoreCase("load")) lazy = false;
+            else if(build.equalsIgnoreCase("lazy")) lazy = true;
+            else throw new IllegalArgumentException("unknown index build " + build + ", use load or lazy");
+            if(range && !ts.contains(IndexType.TEXT) && !ts.contains(IndexType.ATTRIBUTE)) {
+                throw new IllegalArgumentException("range indexes need a text or attribute index");
+            }
+            return new Policy(ts, lazy, range);
+        }
+
+        public boolean isEmpty() {
+            return types.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return types + (range ? " with ranges" : "") + (lazy ? " lazy" : " on load");
+        }
+    }
+
+    /**
+     * Sets the index policy of a collection.
+     * @param collection collection name, or {@code null} for collections without a policy of their own
+     * @param policy policy
+     */
+    public static void policy(final String collection, final Policy policy) {
+        if(collection == null) defaultPolicy = policy;
+        else policies.put(collection, policy);
+        logger.info("index policy of " + (collection == null ? "collections" : collection) + ": " + policy);
+    }
+
+    public static Policy policy(final String collection) {
+        final Policy p = policies.get(collection);
+        return p == null ? defaultPolicy : p;
+    }
+
+    private static Policy policyOf(final String name) {
+        final int i = name.indexOf('/');
+        return policy(i == -1 ? name : name.substring(0, i));
+    }
+
+    /**
+     * Indexes a new document according to its policy, either right away or in the background.
+     * A failed index build is logged; the document stays usable without index.
+     * @param name document name
+     */
+    static void loaded(final String name) {
+        final Policy p = policyOf(name);
+        if(p.isEmpty()) return;
+        if(p.lazy) {
+            schedule(name);
+            return;
+        }
+        try {
+            build(name, p.types);
+        } catch(IOException | RuntimeException e) {
+            logger.warn("indexing " + name + " failed: " + e.getMessage());
+            if(logger.isDebugEnabled()) logger.debug("", e);
+        }
+    }
+
+    /**
+     * Indexes a changed document in the background, if its policy asks for indexes.
+     * @param name document name
+     */
+    static void changed(final String name) {
+        if(!policyOf(name).isEmpty()) schedule(name);
+    }
+
+    private static void schedule(final String name) {
+        synchronized(pending) {
+            pending.add(name);
+            if(!running) {
+                running = true;
+                worker = new Thread(new Worker(), "lmdb-indexer");
+                worker.setDaemon(true);
+                worker.start();
+            }
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * Number of documents waiting for the background indexer.
+     * @return number of documents
+     */
+    public static int pending() {
+        synchronized(pending) {
+            return pending.size();
+        }
+    }
+
+    static void stop() {
+        final Thread w;
+        synchronized(pending) {
+            if(!running) return;
+            running = false;
+            pending.notifyAll();
+            w = worker;
+        }
+        try {
+            w.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+    }
+
+    /**
+     * Returns the indexes of the policy of a document which are not flagged as complete.
+     * @param name document name
+     * @return index types (empty if the document does not exist anymore)
+     * @throws IOException I/O exception
+     */
+    static Set<IndexType> missing(final String name) throws IOException {
+        final EnumSet<IndexType> types = EnumSet.noneOf(IndexType.class);
+        try(Transaction tx = env.createReadTransaction()) {
+            final byte[] docid = coldb.get(tx, bytes(name));
+            if(docid == null) return types;
+            final LmdbMetaData meta = LmdbMetaData.fromStruct(name, structdb.get(tx, docid));
+            // the collection index is maintained along with the value indexes
+            final boolean changed = LmdbCollectionIndex.isChanged(tx, name, docid);
+            final Policy p = policyOf(name);
+            for(IndexType type : p.types) {
+                // the element-name index is kept current by updates
+                if(type == IndexType.TAG) {
+                    if(!meta.names) types.add(type);
+                    continue;
+                }
+                if(!(type == IndexType.TEXT ? meta.textindex : type == IndexType.ATTRIBUTE ? meta.attrindex :
+                        meta.ftindex) || changed && type != IndexType.FULLTEXT) types.add(type);
+                else if(type != IndexType.FULLTEXT && p.range != meta.ranges(type == IndexType.TEXT)) types.add(type);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Builds indexes of a document.
+     * @param name document name
+     * @param types index types
+     * @throws IOException I/O exception, or if the document changed while it was indexed
+     */
+    public static void build(final String name, final Set<IndexType> types) throws IOException {
+        if(types.isEmpty()) return;
+        lock(name);
+        try {
+            // readers of newer snapshots must not use the indexes while they are rebuilt
+            final byte[] docid = flags(name, null, types, false, false, null);
+            final boolean range = policyOf(name).range;
+            final MainOptions opt = new MainOptions();
+            final byte[] struct;
+            LmdbCollectionIndex.Entries entries = null;
+            try(Transaction tx = env.createReadTransaction();
+                LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, opt, tx, false)) {
+                if(!Arrays.equals(docid, data.docid)) throw new IOException("document " + name + " was replaced");
+                struct = structdb.get(tx, docid);
+                if(types.contains(IndexType.TEXT) || types.contains(IndexType.ATTRIBUTE)) {
+                    entries = LmdbCollectionIndex.collect(tx, data, docid);
+                }
+                for(IndexType type : types) {
+                    data.createIndex(type, opt);
+                    if(range && (type == IndexType.TEXT || type == IndexType.ATTRIBUTE)) {
+                        LmdbRangeIndex.build(docid, data, type == IndexType.TEXT);
+                    }
+                }
+            }
+            if(flags(name, struct, types, true, range, entries) == null) {
+                throw new IOException("document " + name + " was changed while it was indexed");
+            }
+            logger.info("indexed " + name + ": " + types);
+        } finally {
+            unlock(name);
+        }
+    }
+
+    /**
+     * Drops indexes of a document.
+     * @param name document name
+     * @param types index types
+     * @throws IOException I/O exception
+     */
+    public static void drop(final String name, final Set<IndexType> types) throws IOException {
+        lock(name);
+        try {
+            flags(name, null, types, false, false, null);
+            try(Transaction tx = env.createReadTransaction();
+                LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, new MainOptions(), tx, false)) {
+                for(IndexType type : types) data.dropIndex(type);
+            }
+        } finally {
+            unlock(name);
+        }
+    }
+
+    /**
+     * Sets the index flags in the meta data of a document.
+     * @param name document name
+     * @param expected structures the document must still have, or {@code null}
+     * @param types index types
+     * @param value flag value
+     * @param range typed range indexes have been built along with the value indexes
+     * @param entries collection index entries to store along with the flags, or {@code null}
+     * @return document id, or {@code null} if the document has changed
+     * @throws IOException I/O exception
+     */
+    private static byte[] flags(final String name, final byte[] expected, final Set<IndexType> types,
+                                final boolean value, final boolean range, final LmdbCollectionIndex.Entries entries)
+            throws IOException {
+        final byte[] docid;
+        try(Transaction tx = env.createWriteTransaction()) {
+            docid = coldb.get(tx, bytes(name));
+            if(docid == null) throw new IOException("document " + name + " not found");
+            final byte[] struct = structdb.get(tx, docid);
+            if(expected != null && !Arrays.equals(expected, struct)) return null;
+            if(entries != null && !LmdbCollectionIndex.store(tx, name, docid, entries)) return null;
+            final LmdbMetaData meta = LmdbMetaData.fromStruct(name, struct);
+            boolean changed = false;
+            if(types.contains(IndexType.TEXT) && meta.textindex != value) { meta.textindex = value; changed = true; }
+            if(types.contains(IndexType.ATTRIBUTE) && meta.attrindex != value) { meta.attrindex = value; changed = true; }
+            // value indexes have been built in the layout chosen by LmdbData#createIndex, with or without ranges
+            if(value) {
+                final boolean fits = LmdbPostings.fits(meta);
+                for(final boolean text : new boolean[] { true, false }) {
+                    if(!types.contains(text ? IndexType.TEXT : IndexType.ATTRIBUTE)) continue;
+                    if(meta.postings(text) != fits) {
+                        meta.postings(text, fits);
+                        changed = true;
+                    }
+                    if(meta.ranges(text) != range) {
+                        meta.ranges(text, range);
+                        changed = true;
+                    }
+                }
+            }
+            if(types.contains(IndexType.FULLTEXT) && meta.ftindex != value) { meta.ftindex = value; changed = true; }
+            if(types.contains(IndexType.TAG) && meta.names != value) { meta.names = value; changed = true; }
+            if(value && types.contains(IndexType.FULLTEXT) && meta.ftPostings() != LmdbPostings.fits(meta)) {
+                meta.ftPostings(LmdbPostings.fits(meta));
+                changed = true;
+            }
+            if(changed) {
+                structdb.put(tx, docid, LmdbStorageMigration.struct(meta, struct));
+                LmdbDataCache.generation(docid, tx, LmdbDataCache.generation(docid, tx) + 1);
+            } else if(entries == null) {
+                return docid;
+            }
+            tx.commit();
+            if(!changed) return docid;
+        }
+        LmdbDataCache.invalidate(docid);
+        return docid;
+    }
+
+    static void lock(final String name) throws IOException {
+        synchronized(building) {
+            while(!building.add(name)) {
+                try {
+                    building.wait();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for the index build of " + name);
+                }
+            }
+        }
+    }
+
+    static void unlock(final String name) {
+        synchronized(building) {
+            building.remove(name);
+            building.notifyAll();
+        }
+    }
+
+    private static final class Worker implements Runnable {
+        @Override
+        public void run() {
+            while(true) {
+                final String name;
+                synchronized(pending) {
+                    while(running && pending.isEmpty()) {
+                        try {
+                            pending.wait();
+                        } catch(InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if(!running) return;
+                    name = pending.iterator().next();
+                    pending.remove(name);
+                }
+                try {
+                    build(name, missing(name));
+                } catch(IOException | RuntimeException e) {
+                    // a document changed while it was indexed has been scheduled again by its update
+                    logger.warn("indexing " + name + " failed: " + e.getMessage());
+                    if(logger.isDebugEnabled()) logger.debug("", e);
+                }
+            }
+        }
+    }
+}
@@ -3,12 +3,15 @@ package lmdb.basex;
 import org.basex.core.MainOptions;
 import org.basex.core.StaticOptions;
 import org.basex.data.MetaData;
+import org.basex.io.IOContent;
 import org.basex.io.IOFile;
 import org.basex.io.in.DataInput;
+import org.basex.io.out.DataOutput;
 import org.basex.util.Token;
 import org.basex.util.ft.Language;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import static org.basex.data.DataText.DBATVIDX;
 import static org.basex.data.DataText.DBATVINC;
@@ -44,10 +47,109 @@ import static org.basex.util.Strings.toLong;
 
 public class LmdbMetaData extends MetaData {
 
+    /** Block power of documents stored before block sizes became configurable (4 KB blocks). */
+    static final int LEGACY_POWER = 12;
+
+    static final String DBTBLPOW = "TABLEPOWER";
+    static final String DBIDXPOW = "INDEXPOWER";
+    static final String DBVALCMP = "VALUECOMPRESSION";
+    static final String DBPOSTINGS = "POSTINGS";
+    static final String DBRANGES = "RANGES";
+    static final String DBNAMES = "NAMEINDEX";
+
+    /** The text index is stored as LMDB postings. */
+    static final int TEXT_POSTINGS = 1;
+    /** The attribute index is stored as LMDB postings. */
+    static final int ATTRIBUTE_POSTINGS = 2;
+    /** The full-text index is stored as LMDB postings. */
+    static final int FULLTEXT_POSTINGS = 4;
+
+    /** Table block size of this document as power of two. */
+    public int tablepower = LEGACY_POWER;
+    /** Index block size of this document as power of two. */
+    public int indexpower = LEGACY_POWER;
+    /** Compression of text and attribute values, see LmdbValueCodec. */
+    public int compression = LmdbValueCodec.NONE;
+    /** Value indexes stored as LMDB postings (others are stored in blocks), see LmdbPostings. */
+    public int postings;
+    /** Value indexes with typed ranges of their numbers and dates, see LmdbRangeIndex. */
+    public int ranges;
+    /** Element-name index, see LmdbNameIndex. It is kept current by updates. */
+    public boolean names;
+
     LmdbMetaData(final String name, final MainOptions options, final StaticOptions sopts) {
         super(name, options, sopts);
     }
 
+    /**
+     * Reads the meta data from the stored structures of a document.
+     * @param name document name
+     * @param struct structures, starting with the length of the meta data
+     * @return meta data
+     * @throws IOException I/O exception
+     */
+    static LmdbMetaData fromStruct(final String name, final byte[] struct) throws IOException {
+        final LmdbMetaData meta = new LmdbMetaData(name, new MainOptions(), null);
+        meta.read(new DataInput(new IOContent(Arrays.copyOfRange(struct, 4, 4 + lmdb.util.Byte.getInt(struct)))));
+        return meta;
+    }
+
+    public int tableBlockSize() {
+        return 1 << tablepower;
+    }
+
+    public int indexBlockSize() {
+        return 1 << indexpower;
+    }
+
+    public boolean postings(final boolean text) {
+        return (postings & (text ? TEXT_POSTINGS : ATTRIBUTE_POSTINGS)) != 0;
+    }
+
+    void postings(final boolean text, final boolean value) {
+        final int flag = text ? TEXT_POSTINGS : ATTRIBUTE_POSTINGS;
+        postings = value ? postings | flag : postings & ~flag;
+    }
+
+    public boolean ftPostings() {
+        return (postings & FULLTEXT_POSTINGS) != 0;
+    }
+
+    void ftPostings(final boolean value) {
+        postings = value ? postings | FULLTEXT_POSTINGS : postings & ~FULLTEXT_POSTINGS;
+    }
+
+    /**
+     * Full-text postings of documents with an id/pre map are updated in place, see Data#indexAdd,
+     * so the full-text index stays valid. Typed ranges are never updated in place.
+     */
+    @Override
+    public void update() {
+        final boolean ft = ftindex;
+        super.update();
+        if(updindex && ftPostings()) ftindex = ft;
+        ranges = 0;
+    }
+
+    public boolean ranges(final boolean text) {
+        return (ranges & (text ? TEXT_POSTINGS : ATTRIBUTE_POSTINGS)) != 0;
+    }
+
+    void ranges(final boolean text, final boolean value) {
+        final int flag = text ? TEXT_POSTINGS : ATTRIBUTE_POSTINGS;
+        ranges = value ? ranges | flag : ranges & ~flag;
+    }
+
+    @Override
+    protected void writeExtra(final DataOutput out) throws IOException {
+        writeInfo(out, DBTBLPOW, tablepower);
+        writeInfo(out, DBIDXPOW, indexpower);
+        writeInfo(out, DBVALCMP, compression);
+        writeInfo(out, DBPOSTINGS, postings);
+        writeInfo(out, DBRANGES, ranges);
+        writeInfo(out, DBNAMES, names);
+    }
+
     public void read(final DataInput in) throws IOException {
         String storage = "", istorage = "";
         while(true) {
@@ -87,6 +189,12 @@ public class LmdbMetaData extends MetaData {
                 else if(k.equals(DBFTST))     stemming    = toBool(v);
                 else if(k.equals(DBFTCS))     casesens    = toBool(v);
                 else if(k.equals(DBUPTODATE)) uptodate    = toBool(v);
+                else if(k.equals(DBTBLPOW))   tablepower  = toInt(v);
+                else if(k.equals(DBIDXPOW))   indexpower  = toInt(v);
+                else if(k.equals(DBVALCMP))   compression = toInt(v);
+                else if(k.equals(DBPOSTINGS)) postings    = toInt(v);
+                else if(k.equals(DBRANGES))   ranges      = toInt(v);
+                else if(k.equals(DBNAMES))    names       = toBool(v);
                     // legacy: set up-to-date flag to false if path index does not exist
                 else if(k.equals(DBPTHIDX) && !toBool(v)) uptodate = false;
             }
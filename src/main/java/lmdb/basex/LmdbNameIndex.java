@@ -0,0 +1,231 @@
+package lmdb.basex;
+
+import org.basex.data.Data;
+import org.basex.index.name.NameIndex;
+import org.basex.io.IOContent;
+import org.basex.io.in.DataInput;
+import org.basex.io.out.ArrayOutput;
+import org.basex.io.out.DataOutput;
+import org.basex.util.Token;
+import org.basex.util.hash.IntObjMap;
+import org.basex.util.hash.TokenObjMap;
+import org.basex.util.list.IntList;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static lmdb.basex.LmdbDataManager.env;
+import static lmdb.basex.LmdbDataManager.namesdb;
+import static lmdb.util.Byte.lmdbkey;
+
+/**
+ * Element-name index: the ascending pre values of all elements with the same name id,
+ * stored as distance-compressed list under the key (docid, name id).
+ *
+ * Decoded lists are shared by the readers of a document generation, see {@link LmdbDataCache}.
+ * Writers update private copies, which are written with the structures of the document.
+ * Insertions and deletions shift the pre values of all following elements, so every list
+ * with entries after the update position is rewritten.
+ */
+public class LmdbNameIndex implements NameIndex {
+
+    private static final int[] EMPTY = {};
+
+    private final LmdbData data;
+    private final byte[] docid;
+    private final Transaction tx;
+    /** Decoded lists. */
+    private final IntObjMap<int[]> lists;
+    /** Ids of changed lists. */
+    private final IntList dirty = new IntList();
+    /** Merged lists of local names, which are dropped by updates. */
+    private final TokenObjMap<int[]> locals = new TokenObjMap<int[]>();
+
+    LmdbNameIndex(final LmdbData data, final byte[] docid, final Transaction tx, final IntObjMap<int[]> shared) {
+        this.data = data;
+        this.docid = docid;
+        this.tx = tx;
+        lists = shared != null ? shared : new IntObjMap<int[]>();
+    }
+
+    /**
+     * Builds the index of a document in a write transaction of its own.
+     * @param docid document id
+     * @param data document
+     */
+    static void build(final byte[] docid, final Data data) {
+        final IntObjMap<IntList> pres = new IntObjMap<IntList>();
+        final int size = data.meta.size;
+        for(int pre = 0; pre < size; pre++) {
+            if(data.kind(pre) != Data.ELEM) continue;
+            final int id = data.nameId(pre);
+            IntList list = pres.get(id);
+            if(list == null) {
+                list = new IntList();
+                pres.put(id, list);
+            }
+            list.add(pre);
+        }
+        try(Transaction tx = env.createWriteTransaction()) {
+            for(int i = 1; i <= pres.size(); i++) {
+                final int id = pres.key(i);
+                write(namesdb, tx, docid, id, pres.get(id).finish());
+            }
+            LmdbDataCache.generation(docid, tx, LmdbDataCache.generation(docid, tx) + 1);
+            tx.commit();
+        }
+    }
+
+    @Override
+    public int[] pres(final int id) {
+        synchronized(lists) {
+            int[] pres = lists.get(id);
+            if(pres == null) {
+                pres = read(id);
+                lists.put(id, pres);
+            }
+            return pres;
+        }
+    }
+
+    @Override
+    public int[] pres(final byte[] local) {
+        synchronized(locals) {
+            int[] pres = locals.get(local);
+            if(pres == null) {
+                final IntList list = new IntList();
+                int merged = 0;
+                final int ns = data.elemNames.size();
+                for(int id = 1; id <= ns; id++) {
+                    final byte[] key = data.elemNames.key(id);
+                    if(key == null || !Token.eq(Token.local(key), local)) continue;
+                    list.add(pres(id));
+                    merged++;
+                }
+                pres = merged > 1 ? list.sort().finish() : list.finish();
+                locals.put(local, pres);
+            }
+            return pres;
+        }
+    }
+
+    @Override
+    public void insert(final int pre, final int size, final Data d) {
+        final IntObjMap<IntList> added = new IntObjMap<IntList>();
+        for(int p = pre; p < pre + size; p++) {
+            if(d.kind(p) != Data.ELEM) continue;
+            final int id = d.nameId(p);
+            IntList list = added.get(id);
+            if(list == null) {
+                list = new IntList();
+                added.put(id, list);
+            }
+            list.add(p);
+        }
+        final int ns = d.elemNames.size();
+        for(int id = 1; id <= ns; id++) {
+            final int[] pres = pres(id);
+            final IntList add = added.get(id);
+            final int i = position(pres, pre);
+            if(i == pres.length && add == null) continue;
+
+            final IntList list = new IntList(pres.length + (add == null ? 0 : add.size()));
+            for(int p = 0; p < i; p++) list.add(pres[p]);
+            if(add != null) list.add(add.finish());
+            for(int p = i; p < pres.length; p++) list.add(pres[p] + size);
+            update(id, list.finish());
+        }
+    }
+
+    @Override
+    public void delete(final int pre, final int size) {
+        final int ns = data.elemNames.size();
+        for(int id = 1; id <= ns; id++) {
+            final int[] pres = pres(id);
+            final int i = position(pres, pre);
+            if(i == pres.length) continue;
+
+            final IntList list = new IntList(pres.length);
+            for(int p = 0; p < i; p++) list.add(pres[p]);
+            for(int p = i; p < pres.length; p++) {
+                if(pres[p] >= pre + size) list.add(pres[p] - size);
+            }
+            update(id, list.finish());
+        }
+    }
+
+    @Override
+    public void rename(final int pre, final int old, final int id) {
+        if(old == id) return;
+        final int[] o = pres(old);
+        final int i = Arrays.binarySearch(o, pre);
+        if(i >= 0) {
+            final int[] pres = new int[o.length - 1];
+            System.arraycopy(o, 0, pres, 0, i);
+            System.arraycopy(o, i + 1, pres, i, pres.length - i);
+            update(old, pres);
+        }
+        final int[] n = pres(id);
+        final int j = position(n, pre);
+        final int[] pres = new int[n.length + 1];
+        System.arraycopy(n, 0, pres, 0, j);
+        pres[j] = pre;
+        System.arraycopy(n, j, pres, j + 1, n.length - j);
+        update(id, pres);
+    }
+
+    /**
+     * Writes the changed lists.
+     */
+    void write() {
+        for(int i = 0; i < dirty.size(); i++) {
+            final int id = dirty.get(i);
+            write(namesdb, tx, docid, id, lists.get(id));
+        }
+        dirty.reset();
+    }
+
+    private void update(final int id, final int[] pres) {
+        synchronized(locals) {
+            locals.clear();
+        }
+        lists.put(id, pres);
+        if(!dirty.contains(id)) dirty.add(id);
+    }
+
+    private int[] read(final int id) {
+        final byte[] value = namesdb.get(tx, lmdbkey(docid, id));
+        if(value == null) return EMPTY;
+        try {
+            return new DataInput(new IOContent(value)).readDiffs().finish();
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void write(final Database db, final Transaction tx, final byte[] docid, final int id,
+                              final int[] pres) {
+        final byte[] key = lmdbkey(docid, id);
+        if(pres.length == 0) {
+            db.delete(tx, key);
+            return;
+        }
+        final ArrayOutput ao = new ArrayOutput();
+        try {
+            new DataOutput(ao).writeDiffs(new IntList(pres));
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+        db.put(tx, key, ao.finish());
+    }
+
+    /**
+     * Returns the position of the first entry that is equal to or greater than a pre value.
+     */
+    private static int position(final int[] pres, final int pre) {
+        final int i = Arrays.binarySearch(pres, pre);
+        return i < 0 ? -i - 1 : i;
+    }
+}
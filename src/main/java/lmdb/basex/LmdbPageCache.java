@@ -0,0 +1,167 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.apache.log4j.Logger;
+import org.fusesource.lmdbjni.Database;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of pages copied out of LMDB, shared by all read transactions.
+ *
+ * Pages are keyed by database, document id, document commit generation and page number,
+ * so a reader never sees pages of another snapshot. Eviction follows the CLOCK algorithm:
+ * pages enter the cache unreferenced and only get a second chance after being hit again,
+ * so a single large scan cannot flush the pages of hot documents.
+ *
+ * Cached pages are shared and must never be modified.
+ */
+public class LmdbPageCache {
+
+    private static final Logger logger = Logger.getLogger(LmdbPageCache.class);
+
+    private static final ConcurrentHashMap<Key, Page> pages = new ConcurrentHashMap<Key, Page>();
+    private static final Object lock = new Object();
+
+    private static Page[] clock = new Page[4096];
+    private static int hand;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    protected LmdbPageCache() {}
+
+    /**
+     * Sets the number of pages held by the cache. Resizing drops all cached pages.
+     * @param size number of pages ({@code 0} disables the cache)
+     */
+    public static void capacity(int size) {
+        synchronized(lock) {
+            clock = new Page[Math.max(0, size)];
+            hand = 0;
+            pages.clear();
+        }
+        logger.info("page cache capacity " + size + " pages");
+    }
+
+    public static int capacity() {
+        return clock.length;
+    }
+
+    public static int size() {
+        return pages.size();
+    }
+
+    public static long hits() {
+        return hits.get();
+    }
+
+    public static long misses() {
+        return misses.get();
+    }
+
+    public static long evictions() {
+        return evictions.get();
+    }
+
+    public static String stats() {
+        final long h = hits.get(), m = misses.get();
+        return "page cache: " + pages.size() + "/" + clock.length + " pages, " + h + " hits, " + m + " misses, " +
+                evictions.get() + " evictions, hit rate " + (h + m == 0 ? 0 : h * 100 / (h + m)) + "%";
+    }
+
+    static byte[] get(final Database db, final byte[] docid, final int gen, final int page) {
+        final Page p = pages.get(new Key(db, Byte.getInt(docid), gen, page));
+        if(p == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        p.referenced = true;
+        hits.incrementAndGet();
+        return p.data;
+    }
+
+    static void put(final Database db, final byte[] docid, final int gen, final int page, final byte[] data) {
+        if(clock.length == 0) return;
+        final Page p = new Page(new Key(db, Byte.getInt(docid), gen, page), data);
+        synchronized(lock) {
+            if(clock.length == 0 || pages.putIfAbsent(p.key, p) != null) return;
+            final Page[] c = clock;
+            while(true) {
+                final Page o = c[hand];
+                if(o == null || o.dead) break;
+                if(!o.referenced) {
+                    pages.remove(o.key, o);
+                    evictions.incrementAndGet();
+                    break;
+                }
+                o.referenced = false;
+                hand = (hand + 1) % c.length;
+            }
+            c[hand] = p;
+            hand = (hand + 1) % c.length;
+        }
+    }
+
+    /**
+     * Drops all pages of a document, e.g. after a write transaction changed it.
+     * Readers of older snapshots are not affected as their generation differs.
+     * @param docid document id
+     */
+    public static void invalidate(final byte[] docid) {
+        final int id = Byte.getInt(docid);
+        for(Page p : pages.values()) {
+            if(p.key.docid != id) continue;
+            p.dead = true;
+            pages.remove(p.key, p);
+        }
+    }
+
+    public static void clear() {
+        synchronized(lock) {
+            pages.clear();
+            clock = new Page[clock.length];
+            hand = 0;
+        }
+    }
+
+    private static final class Key {
+        final Database db;
+        final int docid;
+        final int gen;
+        final int page;
+
+        Key(Database db, int docid, int gen, int page) {
+            this.db = db;
+            this.docid = docid;
+            this.gen = gen;
+            this.page = page;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) return false;
+            final Key k = (Key) o;
+            return page == k.page && docid == k.docid && gen == k.gen && db == k.db;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((System.identityHashCode(db) * 31 + docid) * 31 + gen) * 31 + page;
+        }
+    }
+
+    private static final class Page {
+        final Key key;
+        final byte[] data;
+        volatile boolean referenced;
+        volatile boolean dead;
+
+        Page(Key key, byte[] data) {
+            this.key = key;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package lmdb.basex;
+
+import org.apache.log4j.Logger;
+import org.basex.core.MainOptions;
+import org.basex.query.QueryException;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of parsed queries, keyed by query text and options.
+ *
+ * Compiling a query binds the values of its external variables, pre-evaluates expressions like
+ * {@code doc('c/d')} or {@code current-dateTime()} in the snapshot of its transaction and rewrites
+ * the plan in place, so compiled plans cannot be shared by requests. The cache keeps a few parsed,
+ * not yet compiled instances of each recently used query instead. A request takes one, binds its
+ * variables and compiles it, and a background thread parses a replacement.
+ *
+ * Every request is still parsed once, so a hit saves parse latency, not parse time: if the parser
+ * thread cannot keep up, requests find no instance and parse their query themselves. A miss parses
+ * inline and queues nothing. Only the instance a hit has taken is replaced, so each request costs one
+ * parse. A query is only cached when it is seen the second time; queries seen once are remembered by
+ * their keys alone, so ad-hoc queries neither hold parsed instances nor push templates out of the cache.
+ * Queries are keyed by their text and by the values of their options, so requests with equal options
+ * share entries even if each builds its own options.
+ *
+ * All entries are dropped if a file in the module directory changes.
+ */
+public class LmdbPlanCache {
+
+    private static final Logger logger = Logger.getLogger(LmdbPlanCache.class);
+
+    /** Minimum time between two checks of the module directory. */
+    private static final long CHECK = 1000;
+
+    private static volatile int capacity = 256;
+    private static volatile int depth = 2;
+
+    private static final LinkedHashMap<Key, Pool> plans = new LinkedHashMap<Key, Pool>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, Pool> eldest) {
+            if(size() <= capacity) return false;
+            eldest.getValue().close();
+            evictions.incrementAndGet();
+            return true;
+        }
+    };
+    /** Queries seen once, which are cached when they are seen again. */
+    private static final LinkedHashMap<Key, Boolean> seen = new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, Boolean> eldest) {
+            return size() > capacity;
+        }
+    };
+    private static final LinkedBlockingQueue<Key> refills = new LinkedBlockingQueue<Key>();
+    private static Thread parser;
+
+    /** Stamps of the module directories, and time of the last check. */
+    private static final HashMap<String, Long> modules = new HashMap<String, Long>();
+    private static long checked;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong parsed = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    protected LmdbPlanCache() {}
+
+    /**
+     * Sets the size of the cache. Resizing drops all cached queries.
+     * @param queries number of queries ({@code 0} disables the cache)
+     * @param instances parsed instances kept per query
+     */
+    public static void capacity(int queries, int instances) {
+        if(instances < 1) throw new IllegalArgumentException("plan cache instances " + instances + " out of range");
+        capacity = Math.max(0, queries);
+        depth = instances;
+        clear();
+        logger.info("plan cache capacity " + capacity + " queries, " + instances + " instances");
+    }
+
+    public static int capacity() {
+        return capacity;
+    }
+
+    public static int instances() {
+        return depth;
+    }
+
+    public static long hits() {
+        return hits.get();
+    }
+
+    public static long misses() {
+        return misses.get();
+    }
+
+    public static String stats() {
+        final long h = hits.get(), m = misses.get();
+        final int s;
+        synchronized(plans) {
+            s = plans.size();
+        }
+        return "plan cache: " + s + "/" + capacity + " queries, " + h + " hits, " + m + " misses, " +
+                evictions.get() + " evictions, " + invalidations.get() + " invalidations, hit rate " +
+                (h + m == 0 ? 0 : h * 100 / (h + m)) + "%, " + parsed.get() + " parsed ahead (latency only)";
+    }
+
+    /**
+     * Returns a compiled query context. A parsed instance is taken from the cache if possible.
+     * @param query query
+     * @param context context document (may be {@code null})
+     * @param var external variables (may be {@code null})
+     * @param opt options
+     * @param tx transaction of the caller (may be {@code null})
+     * @return query context, which must be closed by the caller
+     * @throws QueryException query exception
+     */
+    public static LmdbQueryContext context(final String query, final String context, final Map<String,Object> var,
+                                           final MainOptions opt, final Transaction tx) throws QueryException {
+        if(capacity == 0) return new LmdbQueryContext(query, context, var, opt, tx);
+        final LmdbQueryContext ctx = parsed(query, opt);
+        ctx.prepare(context, var, tx);
+        return ctx;
+    }
+
+    /**
+     * Returns a parsed query context, which is compiled by {@link LmdbQueryContext#prepare}, e.g. on
+     * another thread. A parsed instance is taken from the cache if possible.
+     * @param query query
+     * @param opt options
+     * @return query context, which must be closed by the caller
+     * @throws QueryException query exception
+     */
+    public static LmdbQueryContext parsed(final String query, final MainOptions opt) throws QueryException {
+        if(capacity == 0) return LmdbQueryContext.parsed(query, opt);
+        check(opt);
+        final Key key = new Key(query, opt);
+        final LmdbQueryContext ctx = take(key, opt);
+        return ctx != null ? ctx : LmdbQueryContext.parsed(query, opt);
+    }
+
+    /**
+     * Drops all cached queries, e.g. after modules have been changed.
+     */
+    public static void clear() {
+        synchronized(plans) {
+            for(Pool e : plans.values()) e.close();
+            plans.clear();
+            seen.clear();
+        }
+        refills.clear();
+    }
+
+    /**
+     * Takes a parsed instance of a query, and queues the parsing of a replacement. A query seen the second
+     * time is cached, and its first instance is queued.
+     * @return instance, or {@code null} if the caller parses the query
+     */
+    private static LmdbQueryContext take(final Key key, final MainOptions opt) {
+        synchronized(plans) {
+            Pool e = plans.get(key);
+            if(e == null) {
+                if(seen.remove(key) != null) {
+                    e = new Pool(opt);
+                    plans.put(key, e);
+                    refill(key, e);
+                } else {
+                    seen.put(key, Boolean.TRUE);
+                }
+                misses.incrementAndGet();
+                return null;
+            }
+            final LmdbQueryContext ctx = e.ready.poll();
+            if(ctx == null) {
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+                refill(key, e);
+            }
+            return ctx;
+        }
+    }
+
+    /** Queues the parsing of an instance, unless enough instances are ready or queued. Called with the lock. */
+    private static void refill(final Key key, final Pool e) {
+        if(e.ready.size() + e.queued >= depth) return;
+        e.queued++;
+        if(parser == null) {
+            parser = new Thread(new Parser(), "query-parser");
+            parser.setDaemon(true);
+            parser.start();
+        }
+        refills.add(key);
+    }
+
+    /**
+     * Drops the cache if a file in the module directory has been changed, added or removed.
+     */
+    private static void check(final MainOptions opt) {
+        final String dir = opt.get(MainOptions.MODPATH);
+        final long now = System.currentTimeMillis();
+        synchronized(modules) {
+            if(now - checked < CHECK && modules.containsKey(dir)) return;
+            checked = now;
+            final long stamp = stamp(new File(dir));
+            final Long old = modules.put(dir, stamp);
+            if(old == null || old == stamp) return;
+        }
+        invalidations.incrementAndGet();
+        logger.info("modules changed, dropping cached queries");
+        clear();
+    }
+
+    private static long stamp(final File file) {
+        final File[] files = file.listFiles();
+        long stamp = file.lastModified();
+        if(files != null) {
+            for(File f : files) stamp = stamp * 31 + (f.isDirectory() ? stamp(f) : f.lastModified() + f.length());
+        }
+        return stamp;
+    }
+
+    private static final class Parser implements Runnable {
+        @Override
+        public void run() {
+            while(true) {
+                final Key key;
+                try {
+                    key = refills.take();
+                } catch(InterruptedException ie) {
+                    return;
+                }
+                final MainOptions opt;
+                synchronized(plans) {
+                    final Pool e = plans.get(key);
+                    opt = e == null ? null : e.opt;
+                }
+                if(opt == null) continue;
+                LmdbQueryContext ctx = null;
+                try {
+                    ctx = LmdbQueryContext.parsed(key.query, opt);
+                    parsed.incrementAndGet();
+                } catch(QueryException qe) {
+                    if(logger.isDebugEnabled()) logger.debug("", qe);
+                }
+                synchronized(plans) {
+                    final Pool e = plans.get(key);
+                    if(e != null) {
+                        e.queued--;
+                        if(ctx != null && e.ready.size() < depth) {
+                            e.ready.add(ctx);
+                            ctx = null;
+                        }
+                    }
+                }
+                if(ctx != null) close(ctx);
+            }
+        }
+    }
+
+    private static void close(final LmdbQueryContext ctx) {
+        try {
+            ctx.close();
+        } catch(Exception e) {
+            logger.warn(e.getMessage());
+        }
+    }
+
+    private static final class Pool {
+        final ArrayDeque<LmdbQueryContext> ready = new ArrayDeque<LmdbQueryContext>();
+        /** Copy of the options of the first request, which later changes of the caller do not affect. */
+        final MainOptions opt;
+        /** Number of queued parses. */
+        int queued;
+
+        Pool(MainOptions opt) {
+            this.opt = new MainOptions(opt);
+        }
+
+        void close() {
+            for(LmdbQueryContext ctx : ready) LmdbPlanCache.close(ctx);
+            ready.clear();
+        }
+    }
+
+    /** Query text and the values of the options that differ from their defaults. */
+    private static final class Key {
+        final String query;
+        final String values;
+
+        Key(String query, MainOptions opt) {
+            this.query = query;
+            values = opt.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) return false;
+            final Key k = (Key) o;
+            return query.equals(k.query) && values.equals(k.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return query.hashCode() * 31 + values.hashCode();
+        }
+    }
+}
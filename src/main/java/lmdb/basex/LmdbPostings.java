@@ -0,0 +1,362 @@
+package lmdb.basex;
+
+import org.basex.core.MainOptions;
+import org.basex.data.Data;
+import org.basex.data.MetaData;
+import org.basex.index.IndexCache;
+import org.basex.index.IndexEntry;
+import org.basex.index.query.EntryIterator;
+import org.basex.index.query.IndexEntries;
+import org.basex.index.query.IndexIterator;
+import org.basex.index.query.IndexToken;
+import org.basex.index.query.NumericRange;
+import org.basex.index.query.StringRange;
+import org.basex.index.query.TypedRange;
+import org.basex.index.stats.IndexStats;
+import org.basex.index.value.ValueIndex;
+import org.basex.util.Token;
+import org.basex.util.TokenBuilder;
+import org.basex.util.hash.TokenObjMap;
+import org.basex.util.list.IntList;
+import org.basex.util.list.TokenList;
+import org.fusesource.lmdbjni.Cursor;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.GetOp;
+import org.fusesource.lmdbjni.SeekOp;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.util.Arrays;
+
+import static lmdb.basex.LmdbDataManager.attpostingsdb;
+import static lmdb.basex.LmdbDataManager.txtpostingsdb;
+import static org.basex.core.Text.LI_NAMES;
+import static org.basex.core.Text.LI_STRUCTURE;
+import static org.basex.core.Text.NL;
+import static org.basex.data.DataText.DATAATV;
+import static org.basex.data.DataText.DATATXT;
+import static org.basex.util.Token.diff;
+import static org.basex.util.Token.startsWith;
+
+/**
+ * Text or attribute index stored as LMDB postings.
+ *
+ * Every indexed value of a document is an LMDB key (docid, value) in a DUPSORT/DUPFIXED database,
+ * the pre values (or ids, if the index is updatable) of its nodes are the sorted 4 byte duplicates of
+ * the key. Lookups, prefix and range scans are cursor operations, and updates add or delete single
+ * duplicates. The key (docid, 0xFF), which sorts behind all values as 0xFF does not occur in UTF-8,
+ * holds the number of keys of the document.
+ *
+ * Indexes built before this layout emulate the index files of BaseX in blocks, see {@link LmdbValues}.
+ * {@link LmdbMetaData#postings} tells which layout an index of a document has.
+ */
+public class LmdbPostings extends ValueIndex {
+
+    /** Number of keys read per cursor by key iterators. */
+    private static final int BATCH = 256;
+    /** Maximum length of LMDB keys. */
+    private static final int MAXKEY = 511;
+
+    final Database db;
+    final byte[] docid;
+    final Transaction tx;
+    /** Cached numbers of postings per key. */
+    final IndexCache cache = new IndexCache();
+
+    public LmdbPostings(final Data data, final boolean text, final byte[] docid, final Transaction tx) {
+        this(data, text, docid, tx, database(text));
+    }
+
+    LmdbPostings(final Data data, final boolean text, final byte[] docid, final Transaction tx, final Database db) {
+        super(data, text);
+        this.db = db;
+        this.docid = docid;
+        this.tx = tx;
+    }
+
+    static Database database(final boolean text) {
+        return text ? txtpostingsdb : attpostingsdb;
+    }
+
+    /**
+     * Checks if all values of a document that may be indexed fit into LMDB keys.
+     * @param meta meta data
+     * @return result of check
+     */
+    static boolean fits(final MetaData meta) {
+        return meta.maxlen + 5 <= MAXKEY;
+    }
+
+    static byte[] key(final byte[] docid, final byte[] value) {
+        final byte[] k = Arrays.copyOf(docid, 4 + value.length);
+        System.arraycopy(value, 0, k, 4, value.length);
+        return k;
+    }
+
+    static byte[] countKey(final byte[] docid) {
+        final byte[] k = Arrays.copyOf(docid, 5);
+        k[4] = (byte) 0xFF;
+        return k;
+    }
+
+    /**
+     * Adds postings to the database.
+     * @param db database
+     * @param tx write transaction
+     * @param docid document id
+     * @param map ids per value
+     * @return number of new keys
+     */
+    static int write(final Database db, final Transaction tx, final byte[] docid, final TokenObjMap<IntList> map) {
+        int keys = 0;
+        final byte[] id = new byte[4];
+        for(final byte[] value : new TokenList(map).sort(true)) {
+            final byte[] k = key(docid, value);
+            if(db.get(tx, k) == null) keys++;
+            final int[] ids = map.get(value).sort().finish();
+            for(int i : ids) {
+                lmdb.util.Byte.setInt(i, id);
+                db.put(tx, k, id);
+            }
+        }
+        return keys;
+    }
+
+    static void count(final Database db, final Transaction tx, final byte[] docid, final int keys) {
+        final byte[] k = countKey(docid);
+        db.delete(tx, k);
+        db.put(tx, k, lmdb.util.Byte.getBytes(keys));
+    }
+
+    @Override
+    public byte[] info(final MainOptions options) {
+        final TokenBuilder tb = new TokenBuilder();
+        tb.add(LI_STRUCTURE).add("LMDB postings").add(NL);
+        tb.add(LI_NAMES).add(text ? data.meta.textinclude : data.meta.attrinclude).add(NL);
+        final IndexStats stats = new IndexStats(options.get(MainOptions.MAXSTAT));
+        final EntryIterator ei = keys(Token.EMPTY, true, false, null);
+        for(byte[] key; (key = ei.next()) != null;) {
+            final int oc = ei.count();
+            if(stats.adding(oc)) stats.add(key, oc);
+        }
+        stats.print(tb);
+        return tb.finish();
+    }
+
+    @Override
+    public int size() {
+        final byte[] c = db.get(tx, countKey(docid));
+        return c == null ? 0 : lmdb.util.Byte.getInt(c);
+    }
+
+    @Override
+    public int costs(final IndexToken it) {
+        if(it instanceof StringRange) return Math.max(1, data.meta.size / 10);
+        if(it instanceof NumericRange) return Math.max(1, data.meta.size / 3);
+        if(it instanceof TypedRange) return LmdbRangeIndex.costs((LmdbData) data, (TypedRange) it);
+        return count(it.get());
+    }
+
+    @Override
+    public IndexIterator iter(final IndexToken it) {
+        if(it instanceof StringRange) return range((StringRange) it);
+        if(it instanceof NumericRange) return range((NumericRange) it);
+        if(it instanceof TypedRange) return LmdbRangeIndex.iter((LmdbData) data, (TypedRange) it);
+        final IntList pres = new IntList();
+        try(Cursor c = db.openCursor(tx)) {
+            for(Entry e = c.seek(SeekOp.KEY, key(docid, it.get())); e != null; e = c.get(GetOp.NEXT_DUP)) {
+                pres.add(pre(lmdb.util.Byte.getInt(e.getValue())));
+            }
+        }
+        return iter(data.meta.updindex ? pres.sort() : pres);
+    }
+
+    @Override
+    public EntryIterator entries(final IndexEntries input) {
+        final byte[] key = input.get();
+        if(key.length == 0) {
+            return input.descending ? keys(new byte[] { (byte) 0xFF }, false, true, null) :
+                    keys(key, true, false, null);
+        }
+        if(input.prefix) return keys(key, true, false, key);
+        return keys(key, !input.descending, input.descending, null);
+    }
+
+    @Override
+    public void add(final TokenObjMap<IntList> map) {
+        final int keys = write(db, tx, docid, map);
+        for(final byte[] value : map) cache.delete(value);
+        if(keys > 0) count(db, tx, docid, size() + keys);
+    }
+
+    @Override
+    public void delete(final TokenObjMap<IntList> map) {
+        int keys = 0;
+        final byte[] id = new byte[4];
+        for(final byte[] value : map) {
+            final byte[] k = key(docid, value);
+            for(int i : map.get(value).toArray()) {
+                lmdb.util.Byte.setInt(i, id);
+                db.delete(tx, k, id);
+            }
+            if(db.get(tx, k) == null) keys++;
+            cache.delete(value);
+        }
+        if(keys > 0) count(db, tx, docid, size() - keys);
+    }
+
+    @Override
+    public boolean drop() {
+        return data.meta.drop((text ? DATATXT : DATAATV) + '.');
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    int pre(final int id) {
+        return data.meta.updindex ? data.pre(id) : id;
+    }
+
+    int count(final byte[] value) {
+        final IndexEntry ie = cache.get(value);
+        if(ie != null) return ie.size;
+        int count = 0;
+        try(Cursor c = db.openCursor(tx)) {
+            if(c.seek(SeekOp.KEY, key(docid, value)) != null) count = (int) c.count();
+        }
+        cache.add(value, count, 0);
+        return count;
+    }
+
+    boolean own(final byte[] key) {
+        if(key.length < 4 || key.length == 5 && key[4] == (byte) 0xFF) return false;
+        for(int i = 0; i < 4; i++) if(key[i] != docid[i]) return false;
+        return true;
+    }
+
+    /**
+     * Returns the keys of the document, read in batches so that no cursor stays open between calls.
+     * @param start first key
+     * @param inclusive include the first key
+     * @param reverse iterate in descending order
+     * @param prefix prefix of all returned keys, or {@code null}
+     * @return iterator
+     */
+    EntryIterator keys(final byte[] start, final boolean inclusive, final boolean reverse,
+                       final byte[] prefix) {
+        return new EntryIterator() {
+            final TokenList keys = new TokenList(BATCH);
+            final IntList counts = new IntList(BATCH);
+            byte[] from = start;
+            boolean incl = inclusive, more = true;
+            int k, count = -1;
+
+            @Override
+            public byte[] next() {
+                if(k == keys.size() && more) {
+                    fetch(from, incl, reverse, keys, counts);
+                    more = keys.size() == BATCH;
+                    if(more) from = keys.get(BATCH - 1);
+                    incl = false;
+                    k = 0;
+                }
+                if(k < keys.size()) {
+                    final byte[] key = keys.get(k);
+                    if(prefix == null || startsWith(key, prefix)) {
+                        count = counts.get(k++);
+                        return key;
+                    }
+                    more = false;
+                }
+                count = -1;
+                return null;
+            }
+
+            @Override
+            public int count() {
+                return count;
+            }
+        };
+    }
+
+    private void fetch(final byte[] start, final boolean inclusive, final boolean reverse, final TokenList keys,
+                       final IntList counts) {
+        keys.reset();
+        counts.reset();
+        try(Cursor c = db.openCursor(tx)) {
+            final byte[] sk = key(docid, start);
+            Entry e = c.seek(SeekOp.RANGE, sk);
+            if(reverse) {
+                if(e == null) e = c.get(GetOp.LAST);
+                else if(!inclusive || !Arrays.equals(e.getKey(), sk) || !own(e.getKey())) e = c.get(GetOp.PREV_NODUP);
+            } else if(e != null && !inclusive && Arrays.equals(e.getKey(), sk)) {
+                e = c.get(GetOp.NEXT_NODUP);
+            }
+            while(e != null && keys.size() < BATCH) {
+                final byte[] key = e.getKey();
+                if(!own(key)) break;
+                keys.add(Arrays.copyOfRange(key, 4, key.length));
+                counts.add((int) c.count());
+                e = c.get(reverse ? GetOp.PREV_NODUP : GetOp.NEXT_NODUP);
+            }
+        }
+    }
+
+    private IndexIterator range(final StringRange tok) {
+        final IntList pres = new IntList();
+        try(Cursor c = db.openCursor(tx)) {
+            for(Entry e = c.seek(SeekOp.RANGE, key(docid, tok.min)); e != null; e = c.get(GetOp.NEXT)) {
+                final byte[] key = e.getKey();
+                if(!own(key)) break;
+                final byte[] value = Arrays.copyOfRange(key, 4, key.length);
+                if(!tok.mni && Token.eq(value, tok.min)) continue;
+                final int d = diff(value, tok.max);
+                if(d > 0 || !tok.mxi && d == 0) break;
+                pres.add(pre(lmdb.util.Byte.getInt(e.getValue())));
+            }
+        }
+        return iter(pres.sort());
+    }
+
+    private IndexIterator range(final NumericRange tok) {
+        final IntList pres = new IntList();
+        try(Cursor c = db.openCursor(tx)) {
+            byte[] last = null;
+            boolean in = false;
+            for(Entry e = c.seek(SeekOp.RANGE, docid); e != null; e = c.get(GetOp.NEXT)) {
+                final byte[] key = e.getKey();
+                if(!own(key)) break;
+                if(!Arrays.equals(key, last)) {
+                    final double v = Token.toDouble(Arrays.copyOfRange(key, 4, key.length));
+                    in = v >= tok.min && v <= tok.max;
+                    last = key;
+                }
+                if(in) pres.add(pre(lmdb.util.Byte.getInt(e.getValue())));
+            }
+        }
+        return iter(pres.sort());
+    }
+
+    static IndexIterator iter(final IntList pres) {
+        return new IndexIterator() {
+            final int s = pres.size();
+            int p = -1;
+            @Override
+            public boolean more() { return ++p < s; }
+            @Override
+            public int pre() { return pres.get(p); }
+            @Override
+            public int size() { return s; }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return (text ? "TEXT" : "ATTRIBUTE") + " POSTINGS, '" + data.meta.name + "': " + size() + " keys";
+    }
+}
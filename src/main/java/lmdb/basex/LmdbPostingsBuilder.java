@@ -0,0 +1,83 @@
+package lmdb.basex;
+
+import org.basex.core.MainOptions;
+import org.basex.data.Data;
+import org.basex.index.ValuesBuilder;
+import org.basex.index.value.ValueIndex;
+import org.basex.util.hash.TokenObjMap;
+import org.basex.util.list.IntList;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.IOException;
+
+import static lmdb.basex.LmdbDataManager.env;
+
+/**
+ * Builds a text or attribute index as LMDB postings, see {@link LmdbPostings}.
+ *
+ * Values are collected in memory and written whenever the memory limit or split size of the
+ * index builder is reached. As LMDB merges the duplicates of a key, no merge phase is needed.
+ */
+public class LmdbPostingsBuilder extends ValuesBuilder {
+
+    private final byte[] docid;
+    private final Database db;
+    private TokenObjMap<IntList> index = new TokenObjMap<IntList>();
+    private int keys;
+
+    public LmdbPostingsBuilder(final byte[] docid, final Data data, final MainOptions options, final boolean text) {
+        super(data, options, text);
+        this.docid = docid;
+        db = LmdbPostings.database(text);
+    }
+
+    @Override
+    public ValueIndex build() throws IOException {
+        for(pre = 0; pre < size; ++pre) {
+            if((pre & 0x0FFF) == 0) check();
+            if(indexEntry() && data.textLen(pre, text) <= data.meta.maxlen) {
+                add(data.text(pre, text), data.meta.updindex ? data.id(pre) : pre);
+                count++;
+            }
+        }
+        write(true);
+        finishIndex();
+        return null;
+    }
+
+    @Override
+    protected void check() throws IOException {
+        super.check();
+        if(split()) {
+            write(false);
+            splits++;
+            finishSplit();
+        }
+    }
+
+    private void add(final byte[] value, final int id) {
+        IntList ids = index.get(value);
+        if(ids == null) {
+            ids = new IntList(1);
+            index.put(value, ids);
+        }
+        ids.add(id);
+    }
+
+    /**
+     * Writes the collected values in a write transaction of their own.
+     * @param last last call: store the number of keys
+     */
+    private void write(final boolean last) {
+        try(Transaction tx = env.createWriteTransaction()) {
+            keys += LmdbPostings.write(db, tx, docid, index);
+            if(last) {
+                LmdbPostings.count(db, tx, docid, keys);
+                LmdbDataCache.generation(docid, tx, LmdbDataCache.generation(docid, tx) + 1);
+            }
+            tx.commit();
+        }
+        index = new TokenObjMap<IntList>();
+    }
+}
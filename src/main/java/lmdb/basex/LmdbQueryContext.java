@@ -5,15 +5,13 @@ import org.basex.build.json.JsonSerialOptions;
 import org.basex.core.MainOptions;
 import org.basex.io.IOContent;
 import org.basex.io.serial.SerialMethod;
-import org.basex.io.serial.Serializer;
 import org.basex.io.serial.SerializerOptions;
 import org.basex.query.QueryContext;
 import org.basex.query.QueryException;
+import org.basex.query.expr.Expr.Flag;
 import org.basex.query.iter.Iter;
 import org.basex.query.value.item.Item;
 import org.basex.query.value.node.DBNode;
-import org.basex.query.value.type.NodeType;
-import org.basex.query.value.type.SeqType;
 import org.basex.util.options.Options;
 import org.fusesource.lmdbjni.Transaction;
 
@@ -23,10 +21,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class LmdbQueryContext extends QueryContext implements Closeable {
 
     private Transaction tx = null;
+    /** Whether the transaction was created by this context, or belongs to the caller. */
+    private boolean owner;
+    /** Slot of the query service, which is released when the context is closed. */
+    private LmdbQueryService.Slot slot;
 
     public LmdbQueryContext(final String query) throws QueryException {
         this(query, null, null, new MainOptions(), null);
@@ -54,11 +57,56 @@ public class LmdbQueryContext extends QueryContext implements Closeable {
     }
 
     public LmdbQueryContext(final String query, final String context, final Map<String,Object> var, final MainOptions opt, Transaction tx) throws QueryException {
+        this(opt);
+        try {
+            parse(query);
+        } catch (QueryException qe) {
+            try {
+                close();
+            } catch (Exception i) {
+            }
+            throw qe;
+        }
+        prepare(context, var, tx);
+    }
+
+    private LmdbQueryContext(final MainOptions opt) {
         super(opt, null);
         resources = new LmdbQueryResources(this);
+    }
+
+    /**
+     * Parses a query. The context is completed by {@link #prepare}, see {@link LmdbPlanCache}.
+     * @param query query
+     * @param opt options
+     * @return parsed context
+     * @throws QueryException query exception
+     */
+    static LmdbQueryContext parsed(final String query, final MainOptions opt) throws QueryException {
+        final LmdbQueryContext ctx = new LmdbQueryContext(opt);
+        try {
+            ctx.parse(query);
+            return ctx;
+        } catch (QueryException qe) {
+            try {
+                ctx.close();
+            } catch (Exception i) {
+            }
+            throw qe;
+        }
+    }
+
+    /**
+     * Sets the context item, binds the external variables and compiles a parsed query.
+     * The context is closed if this fails.
+     * @param context context document (may be {@code null})
+     * @param var external variables (may be {@code null})
+     * @param tx transaction of the caller (may be {@code null})
+     * @throws QueryException query exception
+     */
+    public void prepare(final String context, final Map<String,Object> var, final Transaction tx) throws QueryException {
         this.tx = tx;
         try {
-            parse(query);
             if (context != null) context(new DBNode(new IOContent(context)));
             if (var != null && var.size() > 0) for (String k : var.keySet()) bind(k, var.get(k));
             compile();
@@ -77,19 +125,87 @@ public class LmdbQueryContext extends QueryContext implements Closeable {
         }
     }
 
-    public Transaction tx() {
+    /**
+     * Returns the collections read by the evaluated query, or {@code null} if its result may depend on
+     * other resources, on the current time or on non-deterministic functions, see {@link LmdbResultCache}.
+     * @return collection names
+     */
+    String[] collections() {
+        final LmdbQueryResources r = (LmdbQueryResources) resources;
+        if(updating || r.external || time != null || root == null || root.expr.has(Flag.NDT)) return null;
+        return r.collections.toArray(new String[r.collections.size()]);
+    }
+
+    /**
+     * Evaluates the query in a slot of the query service, which stops it if it exceeds its budgets.
+     * The slot is released when the context is closed.
+     * @param slot admitted slot
+     */
+    public void limit(final LmdbQueryService.Slot slot) {
+        this.slot = slot;
+        slot.attach(this);
+    }
+
+    @Override
+    protected void checkLimits() {
+        if (slot != null) slot.allocated();
+    }
+
+    @Override
+    public void enterThread() {
+        if (slot != null) slot.enter();
+    }
+
+    @Override
+    public void exitThread() {
+        if (slot != null) slot.exit();
+    }
+
+    /**
+     * Evaluates the documents of collections in parallel if the query only reads, see
+     * {@link LmdbQueryService#pool()}. All threads share the read transaction of the query.
+     */
+    @Override
+    public ForkJoinPool pool() {
+        return updating || tx != null && !tx.isReadOnly() ? null : LmdbQueryService.pool();
+    }
+
+    public synchronized Transaction tx() {
         if(tx != null) return tx;
         if(LmdbDataManager.env == null) return null;
         tx = updating ? LmdbDataManager.env.createWriteTransaction() : LmdbDataManager.env.createReadTransaction();
+        owner = true;
         return tx;
     }
 
     @Override
     public void close() throws IOException {
+        try {
+            closeTx();
+        } finally {
+            if (slot != null) slot.close();
+        }
+    }
+
+    private void closeTx() throws IOException {
         super.close();
         if(tx == null) return;
-        if(!tx.isReadOnly()) tx.commit();
-        else tx.close();
+        if(!owner) {
+            // the caller commits, e.g. a group commit, which drops cached structures once the group is durable
+            if(!tx.isReadOnly()) {
+                LmdbGroupCommit.afterCommit(new Runnable() {
+                    @Override
+                    public void run() {
+                        ((LmdbQueryResources)resources).committed();
+                    }
+                });
+            }
+        } else if(!tx.isReadOnly()) {
+            tx.commit();
+            ((LmdbQueryResources)resources).committed();
+        } else {
+            tx.close();
+        }
         tx = null;
     }
 
@@ -115,17 +231,10 @@ public class LmdbQueryContext extends QueryContext implements Closeable {
     }
 
     public void run(OutputStream result, String method, boolean indent, String jsonFormat) throws QueryException {
-        try(Serializer s = Serializer.get(result, getSerializerOptions(method, indent, jsonFormat))) {
+        try(LmdbSerializer s = new LmdbSerializer(result, getSerializerOptions(method, indent, jsonFormat))) {
             Iter iter = iter();
             Item i = null;
-            while ((i = iter.next()) != null) {
-                if (i.type == NodeType.ATT || i.type == NodeType.NSP || i.type.instanceOf(SeqType.ANY_ARRAY)) {
-                    result.flush();
-                    result.write(i.toString().getBytes());
-                } else {
-                    s.serialize(i);
-                }
-            }
+            while ((i = iter.next()) != null) s.serialize(i);
         } catch(IOException ioe) {
             throw new QueryException(ioe);
         }
@@ -146,48 +255,16 @@ public class LmdbQueryContext extends QueryContext implements Closeable {
     }
 
     public InputStream queryStream(final String query, final String context, final Map<String,Object> var, final String method) throws QueryException {
-        final ByteArrayOutputStream result = new ByteArrayOutputStream();
         final LmdbQueryContext ctx = new LmdbQueryContext(query, context, var);
         try {
-            return new InputStream() {
-                private Serializer s = Serializer.get(result, getSerializerOptions(method));
-                private Iter iter = ctx.iter();
-                private Item i = null;
-                private byte[] b = null;
-                private int off = -1;
-                public void close() throws IOException {
-                    s.close();
-                    ctx.close();
-                }
-                public int read() throws IOException {
-                    if((b == null || off >= b.length) && !next()) return -1;
-                    return (int)b[off++];
-                }
-                private boolean next() throws IOException {
-                    try {
-                        if((i = iter.next()) == null) return false;
-                        result.reset();
-                        if(i.type == NodeType.ATT || i.type == NodeType.NSP || i.type.instanceOf(SeqType.ANY_ARRAY)) {
-                            result.flush();
-                            result.write(i.toString().getBytes());
-                        } else {
-                            s.serialize(i);
-                        }
-                        b = result.toByteArray();
-                        off = 0;
-                        return true;
-                    } catch(QueryException qe) {
-                        throw new IOException(qe);
-                    }
-                }
-            };
-        } catch(IOException ioe) {
+            return new LmdbResultStream(ctx, getSerializerOptions(method));
+        } catch(QueryException qe) {
             try {
                 ctx.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
-            throw new QueryException(ioe);
+            throw qe;
         }
     }
 
@@ -10,6 +10,7 @@ import org.basex.io.IO;
 import org.basex.io.IOStream;
 import org.basex.query.QueryException;
 import org.basex.query.QueryResources;
+import org.basex.query.util.CollectionFilter;
 import org.basex.query.value.Value;
 import org.basex.query.value.item.QNm;
 import org.basex.query.value.node.ANode;
@@ -18,6 +19,7 @@ import org.basex.query.value.node.FElem;
 import org.basex.query.value.seq.Empty;
 import org.basex.util.InputInfo;
 import org.basex.util.QueryInput;
+import org.fusesource.lmdbjni.Transaction;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.jdbc.support.rowset.SqlRowSetMetaData;
@@ -30,12 +32,39 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SuppressWarnings("unchecked")
 public class LmdbQueryResources extends QueryResources {
 
+    /** Opens documents ahead of the iterators of collections, see {@link LazyDBNodeSeq}. */
+    private static final ExecutorService prefetcher = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "prefetcher-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     ArrayList<Data> data = new ArrayList<Data>();
+    /** Documents opened by the query, or being opened, by name; each document is opened once. */
+    private final HashMap<String, FutureTask<Data>> opened = new HashMap<String, FutureTask<Data>>();
+    private boolean closed;
+    /** Collections read by the query, and whether other resources were read, see {@link LmdbResultCache}. */
+    final HashSet<String> collections = new HashSet<String>();
+    boolean external;
 
     LmdbQueryResources(final LmdbQueryContext qc) {
         super(qc);
@@ -44,14 +73,26 @@ public class LmdbQueryResources extends QueryResources {
     // TODO: basex-lmdb: accept document wildcard in collection for lmdb range search like 'col/doc*'
     @Override
     public Value collection(final QueryInput qi, final IO baseIO, final InputInfo info) throws QueryException {
+        return collection(qi, baseIO, info, null);
+    }
+
+    // with a filter, only documents with hits in the collection index are opened
+    @Override
+    public Value collection(final QueryInput qi, final IO baseIO, final InputInfo info,
+                            final CollectionFilter filter) throws QueryException {
+        final String name = qi.original.trim();
         List col = null;
         try {
-            col = LmdbDataManager.listDocuments(qi.original.trim(), true);
-            docs.addAll(col);
+            if(filter != null) col = LmdbCollectionIndex.documents(((LmdbQueryContext)qc).tx(), name, filter);
+            if(col == null) col = LmdbDataManager.listDocuments(name, true);
         } catch (IOException e) {
             throw new QueryException(e);
         }
-        return docs.isEmpty() ? Empty.SEQ : new LazyDBNodeSeq(col, qc.options, ((LmdbQueryContext)qc).tx());
+        synchronized(this) {
+            collections.add(name);
+            docs.addAll(col);
+            return col.isEmpty() ? Empty.SEQ : new LazyDBNodeSeq(col, this);
+        }
     }
 
     @Override
@@ -61,12 +102,10 @@ public class LmdbQueryResources extends QueryResources {
         // TODO: basex-lmdb: review
         if (uri.startsWith("bxl://")) {
             String docURI = uri.substring(6);
-            Data d = LmdbDataManager.openDocument(docURI, qc.options, ((LmdbQueryContext)qc).tx());
-            if(d == null) throw new IOException("error opening document " + uri);
-            data.add(d);
-            return new DBNode(d);
+            return new DBNode(openDocument(docURI));
         }
 
+        external = true;
         if (uri.startsWith("file://")) {
             File d = new File(FilenameUtils.normalize(qc.options.get(MainOptions.XMLPATH) + "/" + uri.substring(7)));
             if (!d.exists()) throw new FileNotFoundException(uri);
@@ -112,8 +151,115 @@ public class LmdbQueryResources extends QueryResources {
 
     }
 
+    // opened documents are closed (and their cached structures unpinned) with the query;
+    // documents may be opened by several threads of a parallel query, see org.basex.query.expr.ParallelMap
+    Data openDocument(final String name) throws IOException {
+        final FutureTask<Data> f = task(name);
+        // opens the document, unless a prefetcher has already started
+        f.run();
+        try {
+            final Data d = f.get();
+            if(d == null) throw new IOException("query closed while opening document " + name);
+            return d;
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while opening document " + name);
+        } catch(ExecutionException ee) {
+            final Throwable t = ee.getCause();
+            if(t instanceof IOException) throw (IOException) t;
+            if(t instanceof RuntimeException) throw (RuntimeException) t;
+            throw new IOException(t);
+        }
+    }
+
+    /**
+     * Opens a document in the background if the query only reads; the query thread takes it over in
+     * {@link #openDocument}. Write transactions can only be used by the thread of the query.
+     */
+    void prefetch(final String name) {
+        final LmdbQueryContext lqc = (LmdbQueryContext) qc;
+        if(lqc.updating) return;
+        final Transaction tx = lqc.tx();
+        if(tx == null || !tx.isReadOnly()) return;
+        synchronized(this) {
+            if(closed || opened.containsKey(name)) return;
+        }
+        prefetcher.execute(task(name));
+    }
+
+    /**
+     * Unpins the cached structures of a document the query has moved on from. The document stays open,
+     * as its nodes may still be referenced, but its structures may be evicted from the cache.
+     */
+    void release(final String name) {
+        final FutureTask<Data> f;
+        synchronized(this) {
+            f = opened.get(name);
+        }
+        if(f == null || !f.isDone()) return;
+        try {
+            final Data d = f.get();
+            if(d != null) d.unpin();
+        } catch(InterruptedException | ExecutionException e) {
+            // reported when the document is accessed
+        }
+    }
+
+    private synchronized FutureTask<Data> task(final String name) {
+        FutureTask<Data> f = opened.get(name);
+        if(f != null) return f;
+        f = new FutureTask<Data>(new Callable<Data>() {
+            @Override
+            public Data call() throws IOException {
+                synchronized(LmdbQueryResources.this) {
+                    if(closed) return null;
+                }
+                final Data d = LmdbDataManager.openDocument(name, qc.options, ((LmdbQueryContext)qc).tx());
+                if(d == null) throw new IOException("error opening document " + name);
+                final int i = name.indexOf('/');
+                synchronized(LmdbQueryResources.this) {
+                    collections.add(i == -1 ? name : name.substring(0, i));
+                    data.add(d);
+                }
+                return d;
+            }
+        });
+        opened.put(name, f);
+        return f;
+    }
+
+    // drops cached pages and structures of documents changed by the committed transaction,
+    // whose indexes are rebuilt as updates clear them; documents that were only read are kept
+    void committed() {
+        for(Data d: data) {
+            if(!(d instanceof LmdbData) || !((LmdbData)d).modified()) continue;
+            LmdbPageCache.invalidate(((LmdbData)d).docid);
+            LmdbDataCache.invalidate(((LmdbData)d).docid);
+            LmdbIndexer.changed(d.meta.name);
+            LmdbResultCache.committed(d.meta.name);
+        }
+    }
+
     @Override
     protected void close() {
+        final FutureTask<Data>[] tasks;
+        synchronized(this) {
+            closed = true;
+            tasks = opened.values().toArray(new FutureTask[opened.size()]);
+            opened.clear();
+        }
+        // documents must not be opened after the transaction has been closed: skip pending prefetches
+        // and wait for running ones
+        for(FutureTask<Data> f : tasks) {
+            f.run();
+            try {
+                f.get();
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch(ExecutionException ee) {
+                // reported when the document was accessed
+            }
+        }
         for(Data d: data) d.close();
         super.close();
     }
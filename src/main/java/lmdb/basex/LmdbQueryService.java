@@ -0,0 +1,325 @@
+package lmdb.basex;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control and budgets of queries.
+ *
+ * At most {@code concurrency} queries are evaluated at the same time. Further requests wait in a queue
+ * of bounded length, and are rejected if the queue is full or if their time budget passes while they
+ * wait. An admitted query is stopped if it exceeds its time budget, if its threads allocate more than its
+ * allocation budget, or if its client disconnects. The allocation budget counts all bytes a query allocates,
+ * not the memory it retains, so it also stops long queries that keep little data, like large exports. The
+ * memory a query retains cannot be measured; if the heap is fuller than the global limit after garbage
+ * collection, the most recently admitted query is stopped, which has done the least work. Stopped queries are aborted by their iterators (see
+ * {@link org.basex.query.QueryContext#checkStop()}), and closing their context releases the read
+ * transaction and the slot.
+ *
+ * Read-only queries over collections evaluate their documents on a shared pool of {@code parallelism}
+ * threads, see {@link org.basex.query.expr.ParallelMap}.
+ */
+public class LmdbQueryService {
+
+    private static final Logger logger = Logger.getLogger(LmdbQueryService.class);
+
+    /** Time between two checks of the running queries. */
+    private static final long CHECK = 100;
+
+    private static volatile int concurrency = Runtime.getRuntime().availableProcessors() * 2;
+    private static volatile int queue = 256;
+    private static volatile long timeout = 0;
+    private static volatile long memory = 0;
+    private static volatile int heap = 90;
+    private static volatile ForkJoinPool pool = pool(Runtime.getRuntime().availableProcessors());
+
+    private static volatile Semaphore slots = new Semaphore(concurrency, true);
+    private static final AtomicInteger waiting = new AtomicInteger();
+    private static final Set<Slot> running = Collections.newSetFromMap(new ConcurrentHashMap<Slot, Boolean>());
+    private static Thread watchdog;
+    /** Query stopped because the heap was full; no further query is stopped until it has been closed. */
+    private static Slot victim;
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final boolean allocations = threads instanceof com.sun.management.ThreadMXBean &&
+            ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+
+    private static final AtomicLong admitted = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
+    private static final AtomicLong stopped = new AtomicLong();
+
+    protected LmdbQueryService() {}
+
+    /** Connection of a client, which is checked while its query is running. */
+    public interface Client {
+        boolean connected();
+    }
+
+    /**
+     * Sets the limits of queries. Queries that are already running keep their slots and budgets.
+     * @param queries number of queries evaluated at the same time
+     * @param waiters number of requests that may wait for a slot
+     * @param timeoutMillis time budget of a request, including the time it waits ({@code 0}: no limit)
+     * @param memoryBytes allocation budget: bytes the threads of a query may allocate in total ({@code 0}: no limit)
+     * @param heapPercent percentage of the heap that may be used after garbage collection before the most
+     *        recently admitted query is stopped ({@code 100}: no limit)
+     */
+    public static void config(int queries, int waiters, long timeoutMillis, long memoryBytes, int heapPercent) {
+        if(queries < 1) throw new IllegalArgumentException("query concurrency " + queries + " out of range");
+        if(waiters < 0) throw new IllegalArgumentException("query queue " + waiters + " out of range");
+        if(heapPercent < 1 || heapPercent > 100) throw new IllegalArgumentException("query heap " + heapPercent + "% out of range");
+        concurrency = queries;
+        queue = waiters;
+        timeout = Math.max(0, timeoutMillis);
+        memory = Math.max(0, memoryBytes);
+        heap = heapPercent;
+        slots = new Semaphore(queries, true);
+        if(memory > 0 && !allocations) logger.warn("allocated memory of threads is not measured, allocation budget ignored");
+        logger.info("query service " + queries + " queries, " + waiters + " waiting, timeout " + timeout + " ms, allocation " +
+                (memory >> 20) + " MB, heap " + heapPercent + "%");
+    }
+
+    /**
+     * Sets the number of threads that evaluate the documents of collections in parallel. Running queries
+     * finish on the previous pool.
+     * @param threads number of threads ({@code 1}: documents are evaluated by the thread of the query)
+     */
+    public static void parallelism(int threads) {
+        if(threads < 1) throw new IllegalArgumentException("query parallelism " + threads + " out of range");
+        final ForkJoinPool p = pool;
+        pool = pool(threads);
+        if(p != null) p.shutdown();
+        logger.info("query service parallelism " + threads);
+    }
+
+    private static ForkJoinPool pool(int threads) {
+        return threads < 2 ? null : new ForkJoinPool(threads);
+    }
+
+    public static int parallelism() {
+        final ForkJoinPool p = pool;
+        return p == null ? 1 : p.getParallelism();
+    }
+
+    /** Returns the pool of parallel queries, or {@code null} if documents are evaluated one after another. */
+    public static ForkJoinPool pool() {
+        return pool;
+    }
+
+    public static int concurrency() {
+        return concurrency;
+    }
+
+    public static int queue() {
+        return queue;
+    }
+
+    public static long timeout() {
+        return timeout;
+    }
+
+    public static long memory() {
+        return memory;
+    }
+
+    public static int heap() {
+        return heap;
+    }
+
+    public static String stats() {
+        return "query service: " + running.size() + " running, " + waiting.get() + " waiting, " + admitted.get() +
+                " admitted, " + rejected.get() + " rejected, " + stopped.get() + " stopped, parallelism " + parallelism();
+    }
+
+    /**
+     * Waits for a slot to evaluate a query.
+     * @param timeoutMillis time budget of the request ({@code 0}: the configured budget); it cannot exceed the
+     *        configured budget
+     * @param client connection of the client (may be {@code null})
+     * @return slot, which is passed to {@link LmdbQueryContext#limit} or must be closed by the caller
+     * @throws RejectedExecutionException if the queue is full, or if the budget passed while waiting
+     */
+    public static Slot admit(long timeoutMillis, final Client client) {
+        final long t = timeout;
+        if(timeoutMillis <= 0 || t > 0 && timeoutMillis > t) timeoutMillis = t;
+        final long started = System.currentTimeMillis();
+        final Semaphore s = slots;
+        if(!s.tryAcquire()) {
+            if(waiting.incrementAndGet() > queue) {
+                waiting.decrementAndGet();
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException("too many queries, " + queue + " requests waiting");
+            }
+            try {
+                if(timeoutMillis == 0) {
+                    s.acquire();
+                } else if(!s.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    rejected.incrementAndGet();
+                    throw new RejectedExecutionException("no query slot within " + timeoutMillis + " ms");
+                }
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("interrupted while waiting for a query slot");
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+        admitted.incrementAndGet();
+        final Slot slot = new Slot(s, started, timeoutMillis == 0 ? 0 : started + timeoutMillis, memory, client);
+        running.add(slot);
+        start();
+        return slot;
+    }
+
+    private static synchronized void start() {
+        if(watchdog != null) return;
+        watchdog = new Thread(new Watchdog(), "query-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    /**
+     * Checks if the heap used after the last garbage collections exceeds the global heap limit.
+     */
+    private static boolean heapFull() {
+        if(heap == 100) return false;
+        long used = 0, max = 0;
+        for(MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(p.getType() != MemoryType.HEAP || !p.isCollectionUsageThresholdSupported()) continue;
+            final MemoryUsage u = p.getCollectionUsage();
+            if(u == null || u.getMax() < 0) continue;
+            used += u.getUsed();
+            max += u.getMax();
+        }
+        return max > 0 && used * 100 > max * heap;
+    }
+
+    private static final class Watchdog implements Runnable {
+        @Override
+        public void run() {
+            while(true) {
+                try {
+                    Thread.sleep(CHECK);
+                } catch(InterruptedException ie) {
+                    return;
+                }
+                final long now = System.currentTimeMillis();
+                Slot latest = null;
+                for(Slot s : running) {
+                    if(s.deadline != 0 && now > s.deadline) {
+                        s.stop("timeout of " + (s.deadline - s.started) + " ms exceeded");
+                    } else if(s.client != null && !s.client.connected()) {
+                        s.stop("client disconnected");
+                    } else if(latest == null || s.started > latest.started) {
+                        latest = s;
+                    }
+                }
+                if(victim != null && !running.contains(victim)) victim = null;
+                if(victim == null && latest != null && heapFull()) {
+                    // allocated bytes say nothing about the memory a query retains, so the query is chosen that
+                    // has done the least work
+                    victim = latest;
+                    latest.stop("heap exceeds " + heap + "%, stopping the most recently admitted query");
+                }
+            }
+        }
+    }
+
+    /**
+     * Slot of an admitted query, and its budgets.
+     */
+    public static final class Slot implements Closeable {
+        private final Semaphore semaphore;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        final long started;
+        final long deadline;
+        final long memory;
+        final Client client;
+        private volatile LmdbQueryContext ctx;
+        private volatile String reason;
+
+        /** Bytes allocated by the evaluating threads, which are checked against the allocation budget. */
+        volatile long allocated;
+        /** Allocated bytes of each evaluating thread at its last measurement. */
+        private final HashMap<Long, Long> marks = new HashMap<Long, Long>();
+
+        Slot(Semaphore semaphore, long started, long deadline, long memory, Client client) {
+            this.semaphore = semaphore;
+            this.started = started;
+            this.deadline = deadline;
+            this.memory = memory;
+            this.client = client;
+        }
+
+        /** Binds the query context that is evaluated in this slot. */
+        void attach(final LmdbQueryContext qc) {
+            ctx = qc;
+            if(reason != null) qc.stop(reason);
+        }
+
+        void stop(final String r) {
+            if(reason != null) return;
+            reason = r;
+            stopped.incrementAndGet();
+            logger.warn("stopping query: " + r);
+            final LmdbQueryContext qc = ctx;
+            if(qc != null) qc.stop(r);
+        }
+
+        /**
+         * Measures the memory allocated by the calling thread since its last call, and stops the query if it
+         * exceeds its budget. Each thread of a parallel query is measured on its own; allocations of a thread
+         * before its first call are not counted.
+         */
+        synchronized void allocated() {
+            if(!measured()) return;
+            final long id = Thread.currentThread().getId();
+            final long a = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(id);
+            final Long mark = marks.put(id, a);
+            if(mark != null) allocated += a - mark;
+            if(memory != 0 && allocated > memory) stop("allocation budget of " + (memory >> 20) + " MB exceeded");
+        }
+
+        /** Starts measuring the calling thread, which evaluates a part of the query for a pool. */
+        synchronized void enter() {
+            if(!measured()) return;
+            final long id = Thread.currentThread().getId();
+            marks.put(id, ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(id));
+        }
+
+        /** Counts the allocations of the calling thread, which may go on with other queries, and stops measuring it. */
+        synchronized void exit() {
+            allocated();
+            marks.remove(Thread.currentThread().getId());
+        }
+
+        private boolean measured() {
+            return allocations && (memory != 0 || heap != 100);
+        }
+
+        /** Releases the slot. */
+        @Override
+        public void close() {
+            if(!closed.compareAndSet(false, true)) return;
+            running.remove(this);
+            semaphore.release();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package lmdb.basex;
+
+import org.basex.data.Data;
+import org.basex.index.name.Names;
+import org.basex.index.query.IndexIterator;
+import org.basex.index.query.TypedRange;
+import org.basex.query.QueryException;
+import org.basex.query.value.item.ADate;
+import org.basex.query.value.item.Dat;
+import org.basex.query.value.item.Dtm;
+import org.basex.query.value.type.AtomType;
+import org.basex.query.value.type.Type;
+import org.basex.util.Token;
+import org.basex.util.list.IntList;
+import org.fusesource.lmdbjni.Cursor;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.GetOp;
+import org.fusesource.lmdbjni.SeekOp;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.util.Arrays;
+
+import static lmdb.basex.LmdbDataManager.attrangedb;
+import static lmdb.basex.LmdbDataManager.env;
+import static lmdb.basex.LmdbDataManager.txtrangedb;
+
+/**
+ * Typed range index of the numbers, dates and date/times among the text and attribute values of a document.
+ *
+ * Keys are (docid, name id, type, value) in a DUPSORT/DUPFIXED database: the name id is the id of the
+ * parent element of a text node or of an attribute, the type is 'n' (xs:double), 'd' (xs:date) or
+ * 't' (xs:dateTime), and the value is a double in an order-preserving 8 byte encoding (dates by their
+ * position on the timeline, in seconds). The sorted 4 byte duplicates are the pres (or ids) of the nodes.
+ * A value may be stored as number and as date. Range comparisons are cursor scans over one name and type.
+ *
+ * The index is built along with a value index if the index policy asks for it, and is used as long as
+ * the value index is valid, see {@link LmdbMetaData#ranges}.
+ */
+public class LmdbRangeIndex {
+
+    private static final int batchsz = 10000;
+    /** Distinct values counted for a cost estimate, larger ranges get the rough estimate of value indexes. */
+    private static final int MAXCOUNT = 4096;
+    /** Length of the key prefix (docid, name id, type). */
+    private static final int PREFIX = 9;
+
+    protected LmdbRangeIndex() {}
+
+    static Database database(final boolean text) {
+        return text ? txtrangedb : attrangedb;
+    }
+
+    /**
+     * Writes the typed values of a document in write transactions of their own.
+     * @param docid document id
+     * @param data document
+     * @param text text or attribute values
+     */
+    static void build(final byte[] docid, final Data data, final boolean text) {
+        final Database db = database(text);
+        final int kind = text ? Data.TEXT : Data.ATTR;
+        final byte[] id = new byte[4];
+        Transaction tx = env.createWriteTransaction();
+        try {
+            int count = 0;
+            for(int pre = 0; pre < data.meta.size; pre++) {
+                if(data.kind(pre) != kind) continue;
+                final int parent = text ? data.parent(pre, kind) : pre;
+                if(text && (parent < 0 || data.kind(parent) != Data.ELEM)) continue;
+                final byte[] value = data.text(pre, text);
+                lmdb.util.Byte.setInt(data.meta.updindex ? data.id(pre) : pre, id);
+
+                final double d = Token.toDouble(value);
+                if(!Double.isNaN(d)) {
+                    db.put(tx, key(docid, data.nameId(parent), type(AtomType.DBL), d), id);
+                    count++;
+                }
+                final ADate date = date(value);
+                if(date != null) {
+                    db.put(tx, key(docid, data.nameId(parent), type(date.type), date.timeline()), id);
+                    count++;
+                }
+                if(count > batchsz) {
+                    tx.commit();
+                    tx = env.createWriteTransaction();
+                    count = 0;
+                }
+            }
+            tx.commit();
+        } finally {
+            tx.close();
+        }
+    }
+
+    /**
+     * Returns the number of nodes in a range.
+     * @param data document
+     * @param tr range
+     * @return number of nodes (estimated for large ranges), or {@code -1} if the document has no typed range index
+     */
+    static int costs(final LmdbData data, final TypedRange tr) {
+        if(!((LmdbMetaData) data.meta).ranges(tr.text)) return -1;
+        final byte[] prefix = prefix(data, tr);
+        if(prefix == null) return 0;
+        int count = 0, keys = 0;
+        try(Cursor c = database(tr.text).openCursor(data.tx)) {
+            for(Entry e = c.seek(SeekOp.RANGE, key(prefix, tr.min)); e != null; e = c.get(GetOp.NEXT_NODUP)) {
+                final int i = in(e.getKey(), prefix, tr);
+                if(i > 0) break;
+                if(i < 0) continue;
+                count += (int) c.count();
+                if(++keys == MAXCOUNT) return Math.max(count, data.meta.size / 3);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the nodes in a range.
+     * @param data document
+     * @param tr range
+     * @return iterator
+     */
+    static IndexIterator iter(final LmdbData data, final TypedRange tr) {
+        final IntList pres = new IntList();
+        final byte[] prefix = prefix(data, tr);
+        if(prefix != null) {
+            try(Cursor c = database(tr.text).openCursor(data.tx)) {
+                for(Entry e = c.seek(SeekOp.RANGE, key(prefix, tr.min)); e != null; e = c.get(GetOp.NEXT)) {
+                    final int i = in(e.getKey(), prefix, tr);
+                    if(i > 0) break;
+                    if(i < 0) continue;
+                    final int id = lmdb.util.Byte.getInt(e.getValue());
+                    pres.add(data.meta.updindex ? data.pre(id) : id);
+                }
+            }
+        }
+        return LmdbPostings.iter(pres.sort());
+    }
+
+    /**
+     * Checks the position of a key relative to a range.
+     * @return {@code 0} if the key is in the range, a negative value if it is below, a positive value if it
+     *         is behind the range
+     */
+    private static int in(final byte[] key, final byte[] prefix, final TypedRange tr) {
+        if(key.length != PREFIX + 8) return 1;
+        for(int i = 0; i < PREFIX; i++) if(key[i] != prefix[i]) return 1;
+        final double d = decode(key);
+        if(d < tr.min || !tr.mni && d == tr.min) return -1;
+        return d > tr.max || !tr.mxi && d == tr.max ? 1 : 0;
+    }
+
+    private static byte[] prefix(final LmdbData data, final TypedRange tr) {
+        final Names names = tr.text ? data.elemNames : data.attrNames;
+        final int name = names.id(tr.name);
+        if(name == 0) return null;
+        final byte[] prefix = Arrays.copyOf(data.docid, PREFIX);
+        lmdb.util.Byte.setInt(name, prefix, 4);
+        prefix[8] = type(tr.type);
+        return prefix;
+    }
+
+    private static byte type(final Type type) {
+        return (byte) (type == AtomType.DAT ? 'd' : type == AtomType.DTM ? 't' : 'n');
+    }
+
+    private static byte[] key(final byte[] docid, final int name, final byte type, final double d) {
+        final byte[] prefix = Arrays.copyOf(docid, PREFIX);
+        lmdb.util.Byte.setInt(name, prefix, 4);
+        prefix[8] = type;
+        return key(prefix, d);
+    }
+
+    private static byte[] key(final byte[] prefix, final double d) {
+        final byte[] key = Arrays.copyOf(prefix, PREFIX + 8);
+        // flip the sign bit of positive and all bits of negative numbers, so that keys sort like numbers
+        long bits = Double.doubleToLongBits(d == 0 ? 0d : d);
+        bits = bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+        for(int i = 0; i < 8; i++) key[PREFIX + i] = (byte) (bits >>> 56 - (i << 3));
+        return key;
+    }
+
+    private static double decode(final byte[] key) {
+        long bits = 0;
+        for(int i = 0; i < 8; i++) bits = bits << 8 | key[PREFIX + i] & 0xFF;
+        return Double.longBitsToDouble(bits < 0 ? bits ^ Long.MIN_VALUE : ~bits);
+    }
+
+    /**
+     * Parses a date or date/time.
+     * @param value value
+     * @return date, or {@code null} if the value is neither a date nor a date/time
+     */
+    private static ADate date(final byte[] value) {
+        final byte[] v = Token.trim(value);
+        // YYYY-MM-DD, optionally followed by a time or time zone
+        if(v.length < 10 || v[4] != '-' || v[7] != '-' || !Token.digit(v[0])) return null;
+        try {
+            return Token.contains(v, 'T') ? new Dtm(v, null) : new Dat(v, null);
+        } catch(QueryException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package lmdb.basex;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of serialized query results, bounded by their total size.
+ *
+ * Every commit that changes a collection takes the next number of a commit generation counter.
+ * A result is tagged with the generation at which its query started and with the collections it
+ * read; it is served as long as none of these collections has committed since. Results of queries
+ * that read other resources, are updating, non-deterministic or use the current time are not cached.
+ */
+public class LmdbResultCache {
+
+    private static final Logger logger = Logger.getLogger(LmdbResultCache.class);
+
+    private static volatile long capacity;
+
+    /** Commit generation counter, and generation of the last commit of each collection. */
+    private static final AtomicLong generation = new AtomicLong();
+    private static final ConcurrentHashMap<String, Long> commits = new ConcurrentHashMap<String, Long>();
+
+    private static final LinkedHashMap<Key, Result> results = new LinkedHashMap<Key, Result>(16, 0.75f, true);
+    private static long bytes;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong stale = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    protected LmdbResultCache() {}
+
+    /**
+     * Sets the size of the cache. Resizing drops all cached results.
+     * @param size total size of the results in bytes ({@code 0} disables the cache)
+     */
+    public static void capacity(long size) {
+        synchronized(results) {
+            capacity = Math.max(0, size);
+            results.clear();
+            bytes = 0;
+        }
+        logger.info("result cache capacity " + (capacity >> 20) + " MB");
+    }
+
+    public static long capacity() {
+        return capacity;
+    }
+
+    public static long hits() {
+        return hits.get();
+    }
+
+    public static long misses() {
+        return misses.get();
+    }
+
+    public static String stats() {
+        final long h = hits.get(), m = misses.get();
+        final int s;
+        final long b;
+        synchronized(results) {
+            s = results.size();
+            b = bytes;
+        }
+        return "result cache: " + s + " results, " + (b >> 10) + "/" + (capacity >> 10) + " KB, " + h + " hits, " +
+                m + " misses, " + stale.get() + " stale, " + evictions.get() + " evictions, hit rate " +
+                (h + m == 0 ? 0 : h * 100 / (h + m)) + "%";
+    }
+
+    /**
+     * Returns the current commit generation, which must be taken before a query starts.
+     * @return generation
+     */
+    public static long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Records a commit that changed the documents of a collection, or the collection itself.
+     * Must be called after the commit, so readers that miss the commit see a newer generation.
+     * @param collection name of a collection, or of a document
+     */
+    static void committed(final String collection) {
+        final int i = collection.indexOf('/');
+        commits.put(i == -1 ? collection : collection.substring(0, i), generation.incrementAndGet());
+    }
+
+    /**
+     * Returns a cached result.
+     * @param query query
+     * @param param external variables (may be {@code null})
+     * @param method serialization method
+     * @param indent indentation
+     * @param json json format
+     * @return result or {@code null}
+     */
+    public static byte[] get(final String query, final Map<String, ?> param, final String method, final String indent,
+                             final String json) {
+        if(capacity == 0) return null;
+        final Key key = new Key(query, param, method, indent, json);
+        synchronized(results) {
+            final Result r = results.get(key);
+            if(r != null) {
+                if(valid(r.collections, r.generation)) {
+                    hits.incrementAndGet();
+                    return r.bytes;
+                }
+                results.remove(key);
+                bytes -= r.bytes.length;
+                stale.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns a stream that passes the result of a query to the client and records it for the cache.
+     * The result is cached by {@link #put} if it is small enough.
+     * @param out client stream
+     * @return recording stream
+     */
+    public static Recorder recorder(final OutputStream out) {
+        return new Recorder(out, capacity == 0 ? -1 : capacity >> 4);
+    }
+
+    /**
+     * Caches the recorded result of a query.
+     * @param query query
+     * @param param external variables (may be {@code null})
+     * @param method serialization method
+     * @param indent indentation
+     * @param json json format
+     * @param gen commit generation taken before the query started
+     * @param ctx evaluated query
+     * @param rec recorded result
+     */
+    public static void put(final String query, final Map<String, ?> param, final String method, final String indent,
+                           final String json, final long gen, final LmdbQueryContext ctx, final Recorder rec) {
+        if(capacity == 0 || rec.buffer == null) return;
+        final String[] collections = ctx.collections();
+        // a collection committed while the query was running
+        if(collections == null || !valid(collections, gen)) return;
+        final Result r = new Result(rec.buffer.toByteArray(), gen, collections);
+        final Key key = new Key(query, param, method, indent, json);
+        synchronized(results) {
+            final Result o = results.put(key, r);
+            if(o != null) bytes -= o.bytes.length;
+            bytes += r.bytes.length;
+            for(Iterator<Result> i = results.values().iterator(); bytes > capacity && i.hasNext();) {
+                bytes -= i.next().bytes.length;
+                i.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized(results) {
+            results.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Checks if none of the specified collections committed after a generation. Collections are read
+     * by prefix, so {@code collection('c')} also depends on commits of collections starting with c.
+     */
+    private static boolean valid(final String[] collections, final long gen) {
+        for(Map.Entry<String, Long> e : commits.entrySet()) {
+            if(e.getValue() <= gen) continue;
+            for(String c : collections) {
+                if(e.getKey().startsWith(c)) return false;
+            }
+        }
+        return true;
+    }
+
+    /** Passes bytes to the client and records them until the limit is exceeded. */
+    public static final class Recorder extends OutputStream {
+        private final OutputStream out;
+        private final long limit;
+        private ByteArrayOutputStream buffer;
+
+        Recorder(final OutputStream out, final long limit) {
+            this.out = out;
+            this.limit = limit;
+            if(limit > 0) buffer = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            record(1);
+            if(buffer != null) buffer.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            record(len);
+            if(buffer != null) buffer.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void record(final int len) {
+            if(buffer != null && buffer.size() + len > limit) buffer = null;
+        }
+    }
+
+    private static final class Result {
+        final byte[] bytes;
+        final long generation;
+        final String[] collections;
+
+        Result(byte[] bytes, long generation, String[] collections) {
+            this.bytes = bytes;
+            this.generation = generation;
+            this.collections = collections;
+        }
+    }
+
+    private static final class Key {
+        final String[] fields;
+
+        Key(String query, Map<String, ?> param, String method, String indent, String json) {
+            fields = new String[] { query, param == null ? "" : new TreeMap<String, Object>(param).toString(),
+                    method, indent, json };
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(fields, ((Key) o).fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(fields);
+        }
+    }
+}
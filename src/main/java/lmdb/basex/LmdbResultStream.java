@@ -0,0 +1,194 @@
+package lmdb.basex;
+
+import org.basex.io.serial.SerializerOptions;
+import org.basex.query.QueryException;
+import org.basex.query.iter.Iter;
+import org.basex.query.value.item.Item;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the serialized result of a query. The result is serialized on a thread of its own into buffers of
+ * {@link #BUFFER} bytes, which are handed out in bulk. A serializer that gets {@link #AHEAD} buffers ahead of
+ * the reader waits, so the memory of a stream is bounded, however large an item is. The query shares its read
+ * transaction with the serializer thread, see {@link LmdbDataManager}. Closing the stream stops the query and
+ * closes its context.
+ */
+public class LmdbResultStream extends InputStream {
+
+    /** Size of the buffers. */
+    private static final int BUFFER = 1 << 15;
+    /** Number of filled buffers the serializer may get ahead of the reader. */
+    private static final int AHEAD = 8;
+    /** Marks the end of the result. */
+    private static final byte[] END = {};
+
+    private static final ExecutorService serializers = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "result-stream-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final LmdbQueryContext ctx;
+    private final ArrayBlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(AHEAD);
+    private final Future<?> task;
+    /** Current buffer and read position. */
+    private byte[] chunk = END;
+    private int off;
+    private volatile boolean closed;
+    /** Whether the end of the result has been read. */
+    private boolean finished;
+    /** Error of the serializer, which is thrown after the output that precedes it. */
+    private volatile Throwable error;
+
+    public LmdbResultStream(final LmdbQueryContext ctx, final SerializerOptions options) throws QueryException {
+        this.ctx = ctx;
+        task = serializers.submit(new Producer(ctx.iter(), options));
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(off == chunk.length && !next()) return -1;
+        return chunk[off++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int o, final int len) throws IOException {
+        if(len == 0) return 0;
+        if(off == chunk.length && !next()) return -1;
+        final int l = Math.min(len, chunk.length - off);
+        System.arraycopy(chunk, off, b, o, l);
+        off += l;
+        return l;
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - off;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        try {
+            // a serializer that is still evaluating the query aborts it
+            if(!task.isDone()) ctx.stop("result stream closed");
+            chunks.clear();
+            task.get();
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException ee) {
+            // errors are kept by the producer
+        } finally {
+            ctx.close();
+        }
+    }
+
+    /** Takes the next buffer of the serializer. */
+    private boolean next() throws IOException {
+        if(closed || finished) return false;
+        final byte[] b;
+        try {
+            b = chunks.take();
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("result stream interrupted");
+        }
+        chunk = b;
+        off = 0;
+        if(b != END) return true;
+        finished = true;
+        final Throwable t = error;
+        if(t == null) return false;
+        if(t instanceof IOException) throw (IOException) t;
+        if(t instanceof RuntimeException) throw (RuntimeException) t;
+        if(t instanceof Error) throw (Error) t;
+        throw new IOException(t);
+    }
+
+    /** Serializes the result and fills the buffers. */
+    private final class Producer extends OutputStream implements Runnable {
+        private final Iter iter;
+        private final SerializerOptions options;
+        private byte[] buffer = new byte[BUFFER];
+        private int size;
+
+        Producer(final Iter iter, final SerializerOptions options) {
+            this.iter = iter;
+            this.options = options;
+        }
+
+        @Override
+        public void run() {
+            try {
+                try(LmdbSerializer serializer = new LmdbSerializer(this, options)) {
+                    for(Item i; (i = iter.next()) != null;) serializer.serialize(i);
+                }
+                if(size > 0) push(Arrays.copyOf(buffer, size));
+            } catch(QueryException qe) {
+                error = new IOException(qe);
+            } catch(Throwable t) {
+                error = t;
+            } finally {
+                try {
+                    push(END);
+                } catch(IOException ioe) {
+                    // the reader has closed the stream
+                }
+            }
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if(size == buffer.length) push();
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, int o, int len) throws IOException {
+            while(len > 0) {
+                if(size == buffer.length) push();
+                final int l = Math.min(len, buffer.length - size);
+                System.arraycopy(b, o, buffer, size, l);
+                size += l;
+                o += l;
+                len -= l;
+            }
+        }
+
+        private void push() throws IOException {
+            push(buffer);
+            buffer = new byte[BUFFER];
+            size = 0;
+        }
+
+        /** Hands a buffer to the reader; waits while the reader is too far behind. */
+        private void push(final byte[] b) throws IOException {
+            try {
+                while(!chunks.offer(b, 100, TimeUnit.MILLISECONDS)) {
+                    if(closed) throw new IOException("result stream closed");
+                }
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("result stream interrupted");
+            }
+        }
+    }
+}
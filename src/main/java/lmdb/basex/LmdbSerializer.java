@@ -0,0 +1,275 @@
+package lmdb.basex;
+
+import org.basex.core.Text;
+import org.basex.data.Data;
+import org.basex.data.TextReader;
+import org.basex.io.serial.SerialMethod;
+import org.basex.io.serial.Serializer;
+import org.basex.io.serial.SerializerOptions;
+import org.basex.query.value.item.Item;
+import org.basex.query.value.node.DBNode;
+import org.basex.query.value.node.FTPosNode;
+import org.basex.query.value.type.NodeType;
+import org.basex.query.value.type.SeqType;
+import org.basex.util.Strings;
+import org.basex.util.Token;
+import org.basex.util.options.Options.YesNoOmit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.basex.io.serial.SerializerOptions.*;
+
+/**
+ * Serializes query results as XML. Elements and documents of LMDB documents without namespaces are
+ * written straight from their table records and values: names are taken from the cached name tables,
+ * the values of a subtree are read with one {@link TextReader}, and markup and escaped UTF-8 are written
+ * into a reused buffer, without creating items, qnames or namespace lists per node. The output is the
+ * same as that of the XML serializer without indentation. All other items, and all items if the options
+ * ask for more than that, are passed on to a {@link Serializer}.
+ */
+public class LmdbSerializer implements Closeable {
+
+    private static final byte[] AMP = "&amp;".getBytes(), LT = "&lt;".getBytes(), GT = "&gt;".getBytes(),
+            QUOT = "&quot;".getBytes(), LS = "&#x2028;".getBytes(), HEX = "0123456789ABCDEF".getBytes();
+
+    private final OutputStream out;
+    private final Serializer serializer;
+    /** Whether nodes may be written directly. */
+    private final boolean direct;
+    private final byte[] newline;
+
+    private final byte[] buffer = new byte[1 << 14];
+    private int size;
+    /** Whether the serializer may hold output that has not been flushed yet. */
+    private boolean pending = true;
+
+    /** End positions and names of the opened elements. */
+    private int[] ends = new int[32];
+    private byte[][] names = new byte[32][];
+
+    public LmdbSerializer(final OutputStream out, final SerializerOptions options) throws IOException {
+        this.out = out;
+        serializer = Serializer.get(out, options);
+        direct = direct(options);
+        final Newline nl = options.get(NEWLINE);
+        newline = (nl == Newline.CR ? "\r" : nl == Newline.CRNL ? "\r\n" : "\n").getBytes();
+    }
+
+    /** Whether the options only ask for what is written directly. */
+    private static boolean direct(final SerializerOptions so) {
+        return so.get(METHOD) == SerialMethod.XML && !so.yes(INDENT) && so.get(LIMIT) == -1 &&
+                Strings.normEncoding(so.get(ENCODING), true) == Strings.UTF8 && !so.contains(ITEM_SEPARATOR) &&
+                so.get(CDATA_SECTION_ELEMENTS).isEmpty() && so.get(USE_CHARACTER_MAPS).isEmpty() &&
+                so.get(NORMALIZATION_FORM).equals(Text.NONE) && so.get(DOCTYPE_SYSTEM).isEmpty() &&
+                so.get(DOCTYPE_PUBLIC).isEmpty() && so.get(STANDALONE) == YesNoOmit.OMIT;
+    }
+
+    /**
+     * Serializes an item. Attributes, namespaces and arrays are written as their string values.
+     * @param item item
+     * @throws IOException I/O exception
+     */
+    public void serialize(final Item item) throws IOException {
+        if(item.type == NodeType.ATT || item.type == NodeType.NSP || item.type.instanceOf(SeqType.ANY_ARRAY)) {
+            flushSerializer();
+            write(item.toString().getBytes());
+        } else if(direct && item instanceof DBNode && !(item instanceof FTPosNode) && node((DBNode) item)) {
+            // reset the spacing of atomic values
+            serializer.reset();
+        } else {
+            flushBuffer();
+            serializer.serialize(item);
+            pending = true;
+        }
+    }
+
+    /**
+     * Writes all output to the output stream.
+     * @throws IOException I/O exception
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        serializer.flush();
+        pending = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        serializer.close();
+    }
+
+    /**
+     * Writes an element or document of an LMDB document without namespaces.
+     * @return {@code false} if the node is written by the serializer
+     */
+    private boolean node(final DBNode node) throws IOException {
+        final Data data = node.data();
+        int pre = node.pre();
+        int kind = data.kind(pre);
+        if(!(data instanceof LmdbData) || kind != Data.ELEM && kind != Data.DOC || !data.nspaces.isEmpty()) return false;
+        flushSerializer();
+
+        final int end = pre + data.size(pre, kind);
+        int open = 0;
+        try(final TextReader tr = data.texts(pre, end - pre)) {
+            while(pre < end) {
+                kind = data.kind(pre);
+                while(open > 0 && ends[open - 1] <= pre) closeElement(names[--open]);
+                switch(kind) {
+                    case Data.DOC:
+                        pre++;
+                        break;
+                    case Data.TEXT:
+                        text(tr.text(pre++, true), false);
+                        break;
+                    case Data.COMM:
+                        write('<', '!', '-', '-');
+                        write(tr.text(pre++, true));
+                        write('-', '-', '>');
+                        break;
+                    case Data.PI:
+                        final byte[] pi = tr.text(pre++, true);
+                        write('<', '?');
+                        write(pi);
+                        // a name without value is followed by a space, as by the serializer
+                        if(Token.indexOf(pi, ' ') == -1) write(' ');
+                        write('?', '>');
+                        break;
+                    default:
+                        final byte[] name = data.name(pre, kind);
+                        final int e = pre + data.size(pre, kind), as = pre + data.attSize(pre, kind);
+                        write('<');
+                        write(name);
+                        while(++pre < as) {
+                            write(' ');
+                            write(data.name(pre, Data.ATTR));
+                            write('=', '"');
+                            text(tr.text(pre, false), true);
+                            write('"');
+                        }
+                        if(as == e) {
+                            write('/', '>');
+                        } else {
+                            write('>');
+                            if(open == ends.length) {
+                                ends = Arrays.copyOf(ends, open << 1);
+                                names = Arrays.copyOf(names, open << 1);
+                            }
+                            ends[open] = e;
+                            names[open++] = name;
+                        }
+                }
+            }
+        }
+        while(open > 0) closeElement(names[--open]);
+        return true;
+    }
+
+    private void closeElement(final byte[] name) throws IOException {
+        write('<', '/');
+        write(name);
+        write('>');
+    }
+
+    /**
+     * Writes an escaped text or attribute value. Runs of characters that need no escaping are copied at once.
+     * @param value UTF-8 value
+     * @param att attribute flag
+     */
+    private void text(final byte[] value, final boolean att) throws IOException {
+        final int vl = value.length;
+        int run = 0;
+        for(int v = 0; v < vl; v++) {
+            final int b = value[v] & 0xFF;
+            final int l;
+            if(b >= 0x20 && b < 0x7F) {
+                if(b != '&' && b != '<' && b != '>' && (b != '"' || !att)) continue;
+                l = 1;
+            } else if(b == 0xC2 && v + 1 < vl && (value[v + 1] & 0xFF) < 0xA0) {
+                // C1 control characters
+                l = 2;
+            } else if(b == 0xE2 && v + 2 < vl && value[v + 1] == (byte) 0x80 && value[v + 2] == (byte) 0xA8) {
+                // line separator
+                l = 3;
+            } else if(b >= 0x80 || b == '\t' && !att) {
+                continue;
+            } else {
+                l = 1;
+            }
+            write(value, run, v - run);
+            if(b == '&') write(AMP);
+            else if(b == '<') write(LT);
+            else if(b == '>') write(GT);
+            else if(b == '"') write(QUOT);
+            else if(b == '\n' && !att) write(newline);
+            else if(l == 1) hex(b);
+            else if(l == 2) hex(value[v + 1] & 0x3F | 0x80);
+            else write(LS);
+            v += l - 1;
+            run = v + 1;
+        }
+        write(value, run, vl - run);
+    }
+
+    private void hex(final int cp) throws IOException {
+        write('&', '#', 'x');
+        if(cp > 0xF) write(HEX[cp >> 4]);
+        write(HEX[cp & 0xF]);
+        write(';');
+    }
+
+    private void write(final int b) throws IOException {
+        if(size == buffer.length) flushBuffer();
+        buffer[size++] = (byte) b;
+    }
+
+    private void write(final int b1, final int b2) throws IOException {
+        write(b1);
+        write(b2);
+    }
+
+    private void write(final int b1, final int b2, final int b3) throws IOException {
+        write(b1);
+        write(b2);
+        write(b3);
+    }
+
+    private void write(final int b1, final int b2, final int b3, final int b4) throws IOException {
+        write(b1, b2);
+        write(b3, b4);
+    }
+
+    private void write(final byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    private void write(final byte[] b, int off, int len) throws IOException {
+        if(len > buffer.length - size) {
+            flushBuffer();
+            if(len > buffer.length) {
+                out.write(b, off, len);
+                return;
+            }
+        }
+        System.arraycopy(b, off, buffer, size, len);
+        size += len;
+    }
+
+    /** Writes the direct output before the serializer continues. */
+    private void flushBuffer() throws IOException {
+        if(size == 0) return;
+        out.write(buffer, 0, size);
+        size = 0;
+    }
+
+    /** Writes the output of the serializer before direct output follows. */
+    private void flushSerializer() throws IOException {
+        if(!pending) return;
+        serializer.flush();
+        pending = false;
+    }
+}
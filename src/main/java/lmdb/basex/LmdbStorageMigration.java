@@ -0,0 +1,415 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.apache.log4j.Logger;
+import org.basex.core.MainOptions;
+import org.basex.index.query.EntryIterator;
+import org.basex.index.query.IndexEntries;
+import org.basex.index.query.IndexIterator;
+import org.basex.index.query.StringToken;
+import org.basex.index.value.ValueIndex;
+import org.basex.io.IO;
+import org.basex.io.out.DataOutput;
+import org.basex.index.IndexType;
+import org.basex.io.random.TableAccess;
+import org.fusesource.lmdbjni.Database;
+import org.basex.util.Token;
+import org.basex.util.hash.TokenObjMap;
+import org.basex.util.list.IntList;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static lmdb.basex.LmdbDataManager.attindexldb;
+import static lmdb.basex.LmdbDataManager.attindexrdb;
+import static lmdb.basex.LmdbDataManager.attributevaldb;
+import static lmdb.basex.LmdbDataManager.coldb;
+import static lmdb.basex.LmdbDataManager.env;
+import static lmdb.basex.LmdbDataManager.ftindexxdb;
+import static lmdb.basex.LmdbDataManager.ftindexydb;
+import static lmdb.basex.LmdbDataManager.ftindexzdb;
+import static lmdb.basex.LmdbDataManager.ftpostingsdb;
+import static lmdb.basex.LmdbDataManager.namesdb;
+import static lmdb.basex.LmdbDataManager.structdb;
+import static lmdb.basex.LmdbDataManager.tableaccessdb;
+import static lmdb.basex.LmdbDataManager.textdatadb;
+import static lmdb.basex.LmdbDataManager.txtindexldb;
+import static lmdb.basex.LmdbDataManager.txtindexrdb;
+import static lmdb.basex.LmdbDataManager.attpostingsdb;
+import static lmdb.basex.LmdbDataManager.txtpostingsdb;
+import static lmdb.basex.LmdbDataManager.attrangedb;
+import static lmdb.basex.LmdbDataManager.txtrangedb;
+import static lmdb.util.Byte.lmdbkey;
+import static org.fusesource.lmdbjni.Constants.bytes;
+
+/**
+ * Rewrites a document with other table and index block sizes, or converts its value indexes to postings.
+ *
+ * The document is copied to a new document id from a read snapshot, so readers and writers
+ * are not blocked while the copy is written. The name is then switched over to the copy in a
+ * single transaction and the old copy is handed to the cleaner. If the document was changed
+ * in the meantime the migration is abandoned and has to be repeated.
+ */
+public class LmdbStorageMigration {
+
+    private static final Logger logger = Logger.getLogger(LmdbStorageMigration.class);
+
+    private static final int batchsz = 10000;
+
+    protected LmdbStorageMigration() {}
+
+    public static void migrate(final String name, final int tablePower, final int indexPower) throws IOException {
+        final byte[] olddoc = coldb.get(bytes(name));
+        if(olddoc == null) throw new IOException("document " + name + " not found");
+        if(coldb.get(bytes(name + "/r")) != null) throw new IOException("document " + name + " has a pending removal");
+        LmdbDataManager.checkPower(tablePower);
+        LmdbDataManager.checkPower(indexPower);
+
+        final byte[] newdoc = LmdbDataManager.allocateDocumentId();
+        final int gen;
+        final byte[] struct;
+        try(Transaction rtx = env.createReadTransaction();
+            LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, new MainOptions(), rtx)) {
+            if(!Arrays.equals(olddoc, coldb.get(rtx, bytes(name)))) throw new IOException("document " + name + " was replaced");
+            gen = LmdbDataCache.generation(olddoc, rtx);
+            final LmdbMetaData meta = (LmdbMetaData) data.meta;
+            logger.info("migrating " + name + " from " + meta.tableBlockSize() + "/" + meta.indexBlockSize() + " to " +
+                    (1 << tablePower) + "/" + (1 << indexPower) + " byte table/index blocks");
+
+            copyTable(data.table(), meta.size, newdoc, 1 << tablePower);
+            copyEntries(textdatadb, rtx, olddoc, newdoc);
+            copyEntries(attributevaldb, rtx, olddoc, newdoc);
+            copyEntries(txtpostingsdb, rtx, olddoc, newdoc);
+            copyEntries(attpostingsdb, rtx, olddoc, newdoc);
+            copyEntries(txtrangedb, rtx, olddoc, newdoc);
+            copyEntries(attrangedb, rtx, olddoc, newdoc);
+            copyEntries(ftpostingsdb, rtx, olddoc, newdoc);
+            copyEntries(namesdb, rtx, olddoc, newdoc);
+            for(Database db : new Database[] { txtindexldb, txtindexrdb, attindexldb, attindexrdb,
+                    ftindexxdb, ftindexydb, ftindexzdb }) {
+                copyStream(db, rtx, olddoc, newdoc, meta.indexBlockSize(), 1 << indexPower);
+            }
+
+            meta.tablepower = tablePower;
+            meta.indexpower = indexPower;
+            struct = struct(meta, structdb.get(rtx, olddoc));
+        }
+
+        final boolean switched;
+        try(Transaction tx = env.createWriteTransaction()) {
+            switched = Arrays.equals(olddoc, coldb.get(tx, bytes(name))) && gen == LmdbDataCache.generation(olddoc, tx);
+            if(switched) {
+                structdb.put(tx, newdoc, struct);
+                coldb.put(tx, bytes(name), newdoc);
+                coldb.put(tx, bytes(name + "/r"), olddoc);
+                LmdbCollectionIndex.move(tx, name, olddoc, newdoc);
+            } else {
+                // let the cleaner drop the unused copy
+                coldb.put(tx, bytes(name + "/" + Byte.getInt(newdoc) + "/r"), newdoc);
+            }
+            tx.commit();
+        }
+        if(!switched) throw new IOException("document " + name + " was changed during migration");
+        LmdbDataCache.invalidate(olddoc);
+        LmdbPageCache.invalidate(olddoc);
+        logger.info("migrated " + name);
+    }
+
+    /**
+     * Converts the text and attribute indexes of a document from emulated index files to postings,
+     * see {@link LmdbPostings}. The postings are written from a read snapshot; the layout is switched
+     * in a single transaction if the document is unchanged, and the old index blocks are deleted.
+     */
+    public static void postings(final String name) throws IOException {
+        LmdbIndexer.lock(name);
+        try {
+            final byte[] docid = coldb.get(bytes(name));
+            if(docid == null) throw new IOException("document " + name + " not found");
+            final int gen;
+            final boolean[] convert = new boolean[2];
+            try(Transaction rtx = env.createReadTransaction();
+                LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, new MainOptions(), rtx)) {
+                gen = LmdbDataCache.generation(docid, rtx);
+                final LmdbMetaData meta = (LmdbMetaData) data.meta;
+                if(!LmdbPostings.fits(meta)) throw new IOException("values of " + name + " exceed the key size");
+                convert[0] = meta.textindex && !meta.postings(true);
+                convert[1] = meta.attrindex && !meta.postings(false);
+                if(convert[0]) copyPostings(data, data.textIndex, true, docid);
+                if(convert[1]) copyPostings(data, data.attrIndex, false, docid);
+            }
+            if(!convert[0] && !convert[1]) return;
+
+            final boolean switched;
+            try(Transaction tx = env.createWriteTransaction()) {
+                switched = Arrays.equals(docid, coldb.get(tx, bytes(name))) && gen == LmdbDataCache.generation(docid, tx);
+                if(switched) {
+                    final byte[] struct = structdb.get(tx, docid);
+                    final LmdbMetaData meta = LmdbMetaData.fromStruct(name, struct);
+                    if(convert[0]) meta.postings(true, true);
+                    if(convert[1]) meta.postings(false, true);
+                    structdb.put(tx, docid, struct(meta, struct));
+                    LmdbDataCache.generation(docid, tx, gen + 1);
+                } else {
+                    for(int t = 0; t < 2; t++) if(convert[t]) deleteEntries(LmdbPostings.database(t == 0), tx, docid);
+                }
+                tx.commit();
+            }
+            if(!switched) throw new IOException("document " + name + " was changed during conversion");
+            LmdbDataCache.invalidate(docid);
+            try(Transaction tx = env.createWriteTransaction()) {
+                if(convert[0]) { deleteEntries(txtindexldb, tx, docid); deleteEntries(txtindexrdb, tx, docid); }
+                if(convert[1]) { deleteEntries(attindexldb, tx, docid); deleteEntries(attindexrdb, tx, docid); }
+                tx.commit();
+            }
+            logger.info("converted value indexes of " + name + " to postings");
+        } finally {
+            LmdbIndexer.unlock(name);
+        }
+    }
+
+    /**
+     * Writes all entries of a value index as postings, in batches of about {@link #batchsz} ids.
+     */
+    private static void copyPostings(final LmdbData data, final ValueIndex index, final boolean text,
+                                     final byte[] docid) {
+        final Database db = LmdbPostings.database(text);
+        final IndexType type = text ? IndexType.TEXT : IndexType.ATTRIBUTE;
+        final EntryIterator ei = index.entries(new IndexEntries(Token.EMPTY, type));
+        TokenObjMap<IntList> map = new TokenObjMap<>();
+        int keys = 0, ids = 0;
+        for(byte[] key; (key = ei.next()) != null;) {
+            final IntList list = new IntList(Math.max(1, ei.count()));
+            final IndexIterator ii = index.iter(new StringToken(text, key));
+            while(ii.more()) list.add(data.meta.updindex ? data.id(ii.pre()) : ii.pre());
+            map.put(key, list);
+            ids += list.size();
+            if(ids > batchsz) {
+                keys += writePostings(db, docid, map);
+                map = new TokenObjMap<>();
+                ids = 0;
+            }
+        }
+        try(Transaction tx = env.createWriteTransaction()) {
+            keys += LmdbPostings.write(db, tx, docid, map);
+            LmdbPostings.count(db, tx, docid, keys);
+            tx.commit();
+        }
+    }
+
+    private static int writePostings(final Database db, final byte[] docid, final TokenObjMap<IntList> map) {
+        try(Transaction tx = env.createWriteTransaction()) {
+            final int keys = LmdbPostings.write(db, tx, docid, map);
+            tx.commit();
+            return keys;
+        }
+    }
+
+    /**
+     * Deletes all entries of a document.
+     */
+    private static void deleteEntries(final Database db, final Transaction tx, final byte[] docid) {
+        final int id = Byte.getInt(docid);
+        try(org.fusesource.lmdbjni.EntryIterator ei = db.seek(tx, docid)) {
+            while(ei.hasNext()) {
+                final byte[] key = ei.next().getKey();
+                if(key.length < 4 || Byte.getInt(key) != id) break;
+                db.delete(tx, key);
+            }
+        }
+    }
+
+    /**
+     * Writes the table records densely into blocks of the new size, with a regular page directory.
+     */
+    private static void copyTable(final TableAccess table, final int size, final byte[] newdoc, final int bs)
+            throws IOException {
+        final Batch batch = new Batch();
+        byte[] block = new byte[bs];
+        int o = 0, pages = 0;
+        for(int pre = 0; pre < size; pre++) {
+            for(int i = 0; i < IO.NODESIZE; i += 4) {
+                final int v = table.read4(pre, i);
+                block[o++] = (byte) (v >>> 24);
+                block[o++] = (byte) (v >>> 16);
+                block[o++] = (byte) (v >>> 8);
+                block[o++] = (byte) v;
+            }
+            if(o == bs) {
+                batch.put(tableaccessdb, lmdbkey(newdoc, pages++), block);
+                block = new byte[bs];
+                o = 0;
+            }
+        }
+        // store at least one page
+        if(o > 0 || pages == 0) batch.put(tableaccessdb, lmdbkey(newdoc, pages++), block);
+
+        try(ByteArrayOutputStream bos = new ByteArrayOutputStream(); DataOutput out = new DataOutput(bos)) {
+            out.writeNum(pages);
+            out.writeNum(size == 0 ? 0 : Integer.MAX_VALUE);
+            out.flush();
+            batch.put(tableaccessdb, TableLmdbAccess.getStructKey(newdoc), bos.toByteArray());
+        }
+        batch.commit();
+    }
+
+    /**
+     * Copies all entries of a document to the new document id.
+     */
+    private static void copyEntries(final Database db, final Transaction rtx, final byte[] olddoc, final byte[] newdoc) {
+        final Batch batch = new Batch();
+        final int id = Byte.getInt(olddoc);
+        try(org.fusesource.lmdbjni.EntryIterator ei = db.seek(rtx, olddoc)) {
+            while(ei.hasNext()) {
+                final Entry e = ei.next();
+                final byte[] key = e.getKey();
+                if(key.length < 4 || Byte.getInt(key) != id) break;
+                final byte[] nkey = key.clone();
+                System.arraycopy(newdoc, 0, nkey, 0, 4);
+                batch.put(db, nkey, e.getValue());
+            }
+        }
+        batch.commit();
+    }
+
+    /**
+     * Re-chunks an index stream into blocks of the new size. Blocks are placed by their
+     * number, so short or missing blocks are padded and stale blocks behind the stream length
+     * are dropped.
+     */
+    private static void copyStream(final Database db, final Transaction rtx, final byte[] olddoc, final byte[] newdoc,
+                                   final int oldbs, final int bs) {
+        final byte[] lenKey = LmdbDataAccess.getLenKey(olddoc);
+        final byte[] len = db.get(rtx, lenKey);
+        if(len == null) return;
+        final long length = Byte.getInt(len);
+        final int id = Byte.getInt(olddoc);
+        final Blocks out = new Blocks(db, newdoc, bs);
+        try(org.fusesource.lmdbjni.EntryIterator ei = db.seek(rtx, olddoc)) {
+            while(ei.hasNext() && out.pos < length) {
+                final Entry e = ei.next();
+                final byte[] key = e.getKey();
+                if(Byte.getInt(key) != id || Arrays.equals(key, lenKey)) break;
+                final long start = (Byte.getInt(key, 4) & 0xffffffffL) * oldbs;
+                if(start >= length) break;
+                out.pad(start - out.pos);
+                final byte[] value = e.getValue();
+                final int n = (int) Math.min(Math.min(value.length, oldbs), length - start);
+                out.write(value, n);
+            }
+        }
+        out.pad(length - out.pos);
+        out.close(len);
+    }
+
+    /**
+     * Replaces the meta data section of a structure blob, see LmdbData#writeStruct.
+     */
+    static byte[] struct(final LmdbMetaData meta, final byte[] old) throws IOException {
+        final int oldlen = Byte.getInt(old);
+        try(ByteArrayOutputStream bos = new ByteArrayOutputStream(old.length + 64);
+            DataOutputStream dos = new DataOutputStream(bos);
+            ByteArrayOutputStream b = new ByteArrayOutputStream(1024)) {
+            meta.dirty = false;
+            meta.write(new DataOutput(b));
+            dos.writeInt(b.size());
+            dos.write(b.toByteArray());
+            dos.write(old, 4 + oldlen, old.length - 4 - oldlen);
+            dos.flush();
+            return bos.toByteArray();
+        }
+    }
+
+    /**
+     * Sequential writer of an index stream in blocks of the new size.
+     */
+    private static final class Blocks {
+        private final Batch batch = new Batch();
+        private final Database db;
+        private final byte[] docid;
+        private byte[] block;
+        private int off;
+        private int blocks;
+        long pos;
+
+        Blocks(final Database db, final byte[] docid, final int bs) {
+            this.db = db;
+            this.docid = docid;
+            block = new byte[bs];
+        }
+
+        void write(final byte[] b, final int len) {
+            for(int o = 0; o < len;) {
+                final int n = Math.min(len - o, block.length - off);
+                System.arraycopy(b, o, block, off, n);
+                o += n;
+                advance(n);
+            }
+        }
+
+        void pad(final long len) {
+            for(long l = len; l > 0;) {
+                final int n = (int) Math.min(l, block.length - off);
+                l -= n;
+                advance(n);
+            }
+        }
+
+        private void advance(final int n) {
+            off += n;
+            pos += n;
+            if(off < block.length) return;
+            batch.put(db, lmdbkey(docid, blocks++), block);
+            block = new byte[block.length];
+            off = 0;
+        }
+
+        void close(final byte[] len) {
+            if(off > 0) batch.put(db, lmdbkey(docid, blocks), Arrays.copyOf(block, off));
+            batch.put(db, LmdbDataAccess.getLenKey(docid), len);
+            batch.commit();
+        }
+    }
+
+    /**
+     * Write transaction committed every {@link #batchsz} puts.
+     */
+    private static final class Batch {
+        private Transaction tx = env.createWriteTransaction();
+        private int count;
+
+        void put(final Database db, final byte[] key, final byte[] value) {
+            db.put(tx, key, value);
+            if(++count > batchsz) {
+                tx.commit();
+                tx = env.createWriteTransaction();
+                count = 0;
+            }
+        }
+
+        void commit() {
+            if(count > 0) tx.commit();
+            else tx.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        final boolean postings = args.length == 3 && "postings".equals(args[2]);
+        if(args.length != 4 && !postings) {
+            System.err.println("usage: LmdbStorageMigration <db home> <collection/document> <table power> <index power>");
+            System.err.println("       LmdbStorageMigration <db home> <collection/document> postings");
+            System.exit(1);
+        }
+        LmdbDataManager.config(args[0]);
+        LmdbDataManager.start(false);
+        try {
+            if(postings) postings(args[1]);
+            else migrate(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        } finally {
+            LmdbDataManager.stop();
+        }
+    }
+}
@@ -1,23 +1,66 @@
 package lmdb.basex;
 
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.basex.io.IO;
 import org.basex.io.out.DataOutput;
 import org.basex.io.out.TableOutput;
+import org.basex.util.list.IntList;
+import org.fusesource.lmdbjni.Transaction;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import static lmdb.basex.LmdbDataManager.tableaccessdb;
+import static lmdb.util.Byte.lmdbkey;
 
+/**
+ * Writes the table of a new document block by block into the table database, inside the
+ * write transaction of the builder.
+ */
 public class LmdbTableOutput extends TableOutput {
 
-    private byte[] docid;
+    private final Transaction tx;
+    private final byte[] docid;
+    private final int flags;
+    /** Number of records per block as power of two. */
+    private final int power;
+    /** Pre values and sizes of elements closed after their block was written. */
+    private final IntList patches = new IntList();
 
-    public LmdbTableOutput(LmdbMetaData md, String fn, byte[] did) throws IOException {
-        super(md);
-        os = new FileOutputStream(fn);
-        file = fn;
+    /**
+     * Constructor.
+     * @param md meta data
+     * @param tx write transaction
+     * @param did document id
+     * @param flags put flags, e.g. APPEND if the blocks sort behind all existing keys
+     */
+    public LmdbTableOutput(LmdbMetaData md, Transaction tx, byte[] did, int flags) {
+        super(md, md.tableBlockSize());
+        this.tx = tx;
         docid = did;
+        this.flags = flags;
+        power = md.tablepower - IO.NODEPOWER;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if(pos == 0) return;
+        tableaccessdb.put(tx, lmdbkey(docid, pages), buffer, flags);
+        pages++;
+        pos = 0;
+    }
+
+    /**
+     * Sets the size of an element or document record, which has been written before.
+     * @param pre pre value
+     * @param size size
+     */
+    void size(final int pre, final int size) {
+        if(pre >>> power == pages) {
+            write4(buffer, pre, size);
+        } else {
+            patches.add(pre);
+            patches.add(size);
+        }
     }
 
     @Override
@@ -26,13 +69,35 @@ public class LmdbTableOutput extends TableOutput {
         final boolean empty = pages == 0 && pos == 0;
         if(empty) pos++;
         flush();
-        os.close();
+
+        // blocks are only rewritten if sizes were set after they had been written
+        byte[] block = null;
+        int b = -1;
+        final int ps = patches.size();
+        for(int p = 0; p < ps; p += 2) {
+            final int pre = patches.get(p);
+            if(pre >>> power != b) {
+                if(block != null) tableaccessdb.put(tx, lmdbkey(docid, b), block);
+                b = pre >>> power;
+                block = tableaccessdb.get(tx, lmdbkey(docid, b));
+            }
+            write4(block, pre, patches.get(p + 1));
+        }
+        if(block != null) tableaccessdb.put(tx, lmdbkey(docid, b), block);
 
         try(ByteArrayOutputStream bos = new ByteArrayOutputStream(); final DataOutput out = new DataOutput(bos)) {
             out.writeNum(pages);
             out.writeNum(empty ? 0 : Integer.MAX_VALUE);
             out.flush();
-            tableaccessdb.put(TableLmdbAccess.getStructKey(docid), bos.toByteArray());
+            tableaccessdb.put(tx, TableLmdbAccess.getStructKey(docid), bos.toByteArray(), flags);
         }
     }
+
+    private void write4(final byte[] block, final int pre, final int v) {
+        final int o = ((pre & (1 << power) - 1) << IO.NODEPOWER) + 8;
+        block[o]     = (byte) (v >>> 24);
+        block[o + 1] = (byte) (v >>> 16);
+        block[o + 2] = (byte) (v >>> 8);
+        block[o + 3] = (byte) v;
+    }
 }
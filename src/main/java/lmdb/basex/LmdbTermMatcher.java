@@ -0,0 +1,192 @@
+package lmdb.basex;
+
+import org.basex.query.expr.ft.FTWildcard;
+import org.basex.util.Levenshtein;
+
+import java.util.Arrays;
+
+import static org.basex.util.FTToken.noDiacritics;
+import static org.basex.util.Token.cl;
+import static org.basex.util.Token.cp;
+import static org.basex.util.Token.cps;
+import static org.basex.util.Token.lc;
+
+/**
+ * Matches the sorted terms of a full-text index against a fuzzy or wildcard query.
+ *
+ * The matcher consumes a term character by character, like an automaton, and reports the shortest prefix
+ * no extension of which can be matched. As terms are sorted, all terms with this prefix can be skipped.
+ * The state of the characters shared with the previously checked term is reused. Candidates are finally
+ * confirmed with {@link Levenshtein#similar} and {@link FTWildcard#match}, so results are the same as
+ * with a full scan.
+ */
+abstract class LmdbTermMatcher {
+
+    /** Maximum token size for fuzzy matching, see {@link Levenshtein}. */
+    private static final int MAX = 50;
+
+    /** Characters of the last checked term. */
+    int[] chars = new int[16];
+    /** Number of leading characters of the last checked term that can still be matched. */
+    private int valid;
+
+    /**
+     * Returns a matcher for a fuzzy search.
+     * @param token query token
+     * @param k number of errors allowed; dynamic calculation if value is 0
+     * @return matcher
+     */
+    static LmdbTermMatcher fuzzy(final byte[] token, final int k) {
+        return new Fuzzy(token, k);
+    }
+
+    /**
+     * Returns a matcher for a wildcard search.
+     * @param wc parsed wildcard expression
+     * @return matcher
+     */
+    static LmdbTermMatcher wildcard(final FTWildcard wc) {
+        return new Wildcard(wc);
+    }
+
+    /**
+     * Returns the end of the shortest prefix of a term that cannot be extended to a match.
+     * @param term array containing the term
+     * @param off offset of the term
+     * @return byte offset of the end of the prefix in the array, or {@code -1} if the term may match
+     */
+    final int dead(final byte[] term, final int off) {
+        final int tl = term.length;
+        // skip the characters shared with the last term
+        int n = 0, o = off;
+        while(n < valid && o < tl && cp(term, o) == chars[n]) {
+            o = Math.min(o + cl(term, o), tl);
+            n++;
+        }
+        while(o < tl) {
+            if(n == chars.length) chars = Arrays.copyOf(chars, n << 1);
+            chars[n] = cp(term, o);
+            o = Math.min(o + cl(term, o), tl);
+            if(!step(++n)) {
+                valid = n - 1;
+                return o;
+            }
+        }
+        valid = n;
+        return -1;
+    }
+
+    /**
+     * Consumes the next character of a term.
+     * @param n number of characters of the term consumed so far, including the new one
+     * @return {@code false} if no term starting with the consumed characters can be matched
+     */
+    abstract boolean step(int n);
+
+    /**
+     * Checks if a term is matched.
+     * @param term term
+     * @return result of check
+     */
+    abstract boolean match(byte[] term);
+
+    /**
+     * Returns the smallest key that is greater than all keys starting with the specified prefix.
+     * @param key key
+     * @param len length of the prefix
+     * @param min minimum length of the result (the prefix shared by all relevant keys)
+     * @return key or {@code null} if no greater key has the minimum prefix
+     */
+    static byte[] next(final byte[] key, final int len, final int min) {
+        for(int l = len; l > min; l--) {
+            if(key[l - 1] != (byte) 0xFF) {
+                final byte[] next = Arrays.copyOf(key, l);
+                next[l - 1]++;
+                return next;
+            }
+        }
+        return null;
+    }
+
+    /** Levenshtein automaton: the rows of the distance matrix are computed as in {@link Levenshtein}. */
+    private static final class Fuzzy extends LmdbTermMatcher {
+        private final Levenshtein ls = new Levenshtein();
+        private final byte[] token;
+        private final int err;
+        /** Normalized query characters. */
+        private final int[] query;
+        /** Exact matching. */
+        private final boolean exact;
+        /** Maximum number of errors. */
+        private final int k;
+        /** Maximum number of term characters. */
+        private final int max;
+        /** Distance matrix: one row per consumed term character. */
+        private final int[][] rows;
+
+        Fuzzy(final byte[] token, final int err) {
+            this.token = token;
+            this.err = err;
+            final int[] cps = cps(token);
+            final int sl = cps.length;
+            exact = err == 0 && sl < 4 || sl > MAX;
+            query = new int[sl];
+            for(int s = 0; s < sl; s++) query[s] = norm(cps[s]);
+            k = exact ? 0 : err == 0 ? Math.max(1, sl >> 2) : err;
+            max = exact ? sl : Math.min(sl + k, MAX);
+            rows = new int[exact ? 0 : max + 1][sl + 1];
+            if(!exact) for(int s = 0; s <= sl; s++) rows[0][s] = s;
+        }
+
+        @Override
+        boolean step(final int n) {
+            if(n > max) return false;
+            final int e = norm(chars[n - 1]);
+            if(exact) return e == query[n - 1];
+
+            // the previous query character is carried over from the last row, as in Levenshtein#ls
+            final int sl = query.length, e2 = n > 1 ? norm(chars[n - 2]) : -1;
+            final int[] prev = rows[n - 1], row = rows[n];
+            row[0] = n;
+            int d = Integer.MAX_VALUE, f2 = n > 1 ? query[sl - 1] : -1;
+            for(int s = 1; s <= sl; s++) {
+                final int f = query[s - 1];
+                int c = Math.min(Math.min(prev[s] + 1, row[s - 1] + 1), prev[s - 1] + (e == f ? 0 : 1));
+                if(e == f2 && f == e2) c = prev[s - 1];
+                row[s] = c;
+                d = Math.min(d, c);
+                f2 = f;
+            }
+            return d <= k;
+        }
+
+        @Override
+        boolean match(final byte[] term) {
+            return ls.similar(term, token, err);
+        }
+
+        /** Normalizes a character as in {@link Levenshtein#similar}. */
+        private int norm(final int cp) {
+            return exact ? lc(noDiacritics(cp)) : noDiacritics(lc(cp));
+        }
+    }
+
+    /** Wildcard automaton. */
+    private static final class Wildcard extends LmdbTermMatcher {
+        private final FTWildcard wc;
+
+        Wildcard(final FTWildcard wc) {
+            this.wc = wc;
+        }
+
+        @Override
+        boolean step(final int n) {
+            return wc.prefix(chars, n);
+        }
+
+        @Override
+        boolean match(final byte[] term) {
+            return wc.match(term);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.basex.data.TextReader;
+import org.fusesource.lmdbjni.Cursor;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.GetOp;
+import org.fusesource.lmdbjni.SeekOp;
+
+import static lmdb.basex.LmdbDataManager.attributevaldb;
+import static lmdb.basex.LmdbDataManager.textdatadb;
+import static lmdb.util.Byte.lmdbkey;
+
+/**
+ * Reads the values of a range of nodes with one cursor per value database.
+ *
+ * Values are stored under consecutive references in document order, so the values of a
+ * subtree are mostly found by stepping the cursor forward instead of searching the B-tree
+ * from its root for every value. Values further ahead or behind are looked up with a seek.
+ */
+final class LmdbTextReader extends TextReader {
+
+    /** Maximum number of keys stepped over before seeking instead. */
+    private static final int MAXSTEP = 8;
+
+    private final LmdbData ldata;
+    private final Walk texts = new Walk(textdatadb);
+    private final Walk values = new Walk(attributevaldb);
+
+    LmdbTextReader(final LmdbData data) {
+        super(data);
+        ldata = data;
+    }
+
+    @Override
+    public byte[] text(final int pre, final boolean text) {
+        final long r = ldata.textRef(pre);
+        if(LmdbValueCodec.inlined(r)) return LmdbValueCodec.inlineValue(r);
+        final byte[] v = (text ? texts : values).get((int) r);
+        return v == null ? ldata.text(pre, text) : LmdbValueCodec.decode(v, ldata.compression());
+    }
+
+    @Override
+    public void close() {
+        texts.close();
+        values.close();
+    }
+
+    /**
+     * Cursor walking the values of the document in one database.
+     */
+    private final class Walk {
+        private final Database db;
+        private Cursor cursor;
+        /** Reference the cursor is positioned at, or {@code -1}. */
+        private long ref = -1;
+
+        Walk(final Database db) {
+            this.db = db;
+        }
+
+        byte[] get(final int r) {
+            final long target = r & 0xffffffffL;
+            if(cursor == null) cursor = db.openCursor(ldata.tx);
+            Entry e = null;
+            if(ref != -1 && target > ref && target - ref <= MAXSTEP) {
+                do {
+                    e = cursor.get(GetOp.NEXT);
+                    ref = e == null || !same(e.getKey()) ? -1 : Byte.getInt(e.getKey(), 4) & 0xffffffffL;
+                } while(ref != -1 && ref < target);
+            } else if(ref != target) {
+                e = cursor.seek(SeekOp.KEY, lmdbkey(ldata.docid, r));
+                ref = e == null ? -1 : target;
+            } else {
+                e = cursor.get(GetOp.GET_CURRENT);
+            }
+            return ref == target && e != null ? e.getValue() : null;
+        }
+
+        private boolean same(final byte[] key) {
+            final byte[] d = ldata.docid;
+            return key.length == 8 && key[0] == d[0] && key[1] == d[1] && key[2] == d[2] && key[3] == d[3];
+        }
+
+        void close() {
+            if(cursor != null) cursor.close();
+            cursor = null;
+        }
+    }
+}
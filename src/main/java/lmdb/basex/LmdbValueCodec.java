@@ -0,0 +1,169 @@
+package lmdb.basex;
+
+import org.basex.io.IO;
+import org.basex.util.Compress;
+import org.basex.util.Num;
+import org.basex.util.Token;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encoding of text and attribute values stored in the text and attribute value databases.
+ *
+ * Documents built without compression store values raw. Otherwise every value starts with a
+ * tag byte: raw, packed with the {@link Compress} token packer, or deflated. Packed and deflated
+ * values are followed by the length of the original value, so lengths are known without
+ * decompressing the value. Integers and very short values are not stored at all but inlined
+ * into the table record, see {@link #inline(byte[])}.
+ */
+final class LmdbValueCodec {
+
+    /** Values are stored raw, without tag (documents built before compression was available). */
+    static final int NONE = 0;
+    /** Values are packed with the token packer. */
+    static final int PACK = 1;
+    /** Short values are packed, long values are deflated. */
+    static final int DEFLATE = 2;
+
+    private static final byte RAW = 0;
+    private static final byte PACKED = 1;
+    private static final byte DEFLATED = 2;
+
+    /** Minimum length of deflated values; shorter values do not gain much from a block codec. */
+    static final int DEFLATE_MIN = 256;
+
+    private static final ThreadLocal<Compress> COMPRESS = new ThreadLocal<Compress>() {
+        @Override
+        protected Compress initialValue() {
+            return new Compress();
+        }
+    };
+
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private LmdbValueCodec() {}
+
+    static int mode(final String name) {
+        if("none".equalsIgnoreCase(name)) return NONE;
+        if("pack".equalsIgnoreCase(name)) return PACK;
+        if("deflate".equalsIgnoreCase(name)) return DEFLATE;
+        throw new IllegalArgumentException("unknown value compression " + name);
+    }
+
+    static byte[] encode(final byte[] value, final int mode) {
+        if(mode == NONE) return value;
+        if(mode == DEFLATE && value.length >= DEFLATE_MIN) {
+            final byte[] d = deflate(value);
+            if(d != null) return d;
+        }
+        final byte[] p = COMPRESS.get().pack(value);
+        // the packed value starts with the original length already
+        return p == value ? tag(RAW, value, 0) : tag(PACKED, p, 0);
+    }
+
+    static byte[] decode(final byte[] stored, final int mode) {
+        if(mode == NONE) return stored;
+        switch(stored[0]) {
+            case PACKED:
+                return COMPRESS.get().unpack(Arrays.copyOfRange(stored, 1, stored.length));
+            case DEFLATED:
+                return inflate(stored);
+            default:
+                return Arrays.copyOfRange(stored, 1, stored.length);
+        }
+    }
+
+    static int length(final byte[] stored, final int mode) {
+        if(mode == NONE) return stored.length;
+        return stored[0] == RAW ? stored.length - 1 : Num.get(stored, 1);
+    }
+
+    /**
+     * Returns the value inlined into a 5 byte text reference of the table, or {@code -1} if the value
+     * has to be stored in the value databases. Integers are inlined as in DiskData ({@link IO#OFFNUM}),
+     * other values of up to 4 bytes are flagged with {@link IO#OFFCOMP}, which has no meaning for
+     * references into the value databases, and carry their length in bits 32-34.
+     */
+    static long inline(final byte[] value) {
+        final int i = Token.toSimpleInt(value);
+        if(i != Integer.MIN_VALUE) return i | IO.OFFNUM;
+        final int l = value.length;
+        if(l > 4) return -1;
+        long r = IO.OFFCOMP | (long) l << 32;
+        for(int b = 0; b < l; b++) r |= (long) (value[b] & 0xFF) << 24 - (b << 3);
+        return r;
+    }
+
+    static boolean inlined(final long ref) {
+        return (ref & (IO.OFFNUM | IO.OFFCOMP)) != 0;
+    }
+
+    static boolean number(final long ref) {
+        return (ref & IO.OFFNUM) != 0;
+    }
+
+    static byte[] inlineValue(final long ref) {
+        if(number(ref)) return Token.token((int) ref);
+        final byte[] v = new byte[(int) (ref >>> 32) & 0x7];
+        for(int b = 0; b < v.length; b++) v[b] = (byte) (ref >>> 24 - (b << 3));
+        return v;
+    }
+
+    private static byte[] tag(final byte tag, final byte[] value, final int len) {
+        final int o = len == 0 ? 1 : 1 + Num.length(len);
+        final byte[] b = new byte[o + value.length];
+        b[0] = tag;
+        if(len != 0) Num.set(b, len, 1);
+        System.arraycopy(value, 0, b, o, value.length);
+        return b;
+    }
+
+    private static byte[] deflate(final byte[] value) {
+        final Deflater d = DEFLATER.get();
+        d.reset();
+        d.setInput(value);
+        d.finish();
+        // only worth it if the result is shorter than the original value
+        final byte[] buf = new byte[value.length];
+        int n = 0;
+        while(!d.finished() && n < buf.length) n += d.deflate(buf, n, buf.length - n);
+        if(!d.finished()) return null;
+        return tag(DEFLATED, Arrays.copyOf(buf, n), value.length);
+    }
+
+    private static byte[] inflate(final byte[] stored) {
+        final int len = Num.get(stored, 1);
+        final int o = 1 + Num.length(stored, 1);
+        final Inflater i = INFLATER.get();
+        i.reset();
+        i.setInput(stored, o, stored.length - o);
+        final byte[] value = new byte[len];
+        try {
+            int n = 0;
+            while(n < len) {
+                final int r = i.inflate(value, n, len - n);
+                if(r == 0 && (i.finished() || i.needsInput())) break;
+                n += r;
+            }
+            if(n != len) throw new IllegalStateException("truncated value: " + n + " of " + len + " bytes");
+        } catch(DataFormatException e) {
+            throw new IllegalStateException(e);
+        }
+        return value;
+    }
+}
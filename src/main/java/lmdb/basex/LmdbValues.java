@@ -10,6 +10,7 @@ import org.basex.index.query.IndexIterator;
 import org.basex.index.query.IndexToken;
 import org.basex.index.query.NumericRange;
 import org.basex.index.query.StringRange;
+import org.basex.index.query.TypedRange;
 import org.basex.index.stats.IndexStats;
 import org.basex.index.value.ValueIndex;
 import org.basex.util.Num;
@@ -59,8 +60,9 @@ public class LmdbValues extends ValueIndex {
 
     public LmdbValues(final Data data, final boolean text, final byte[] docid, final Transaction tx) throws IOException {
         super(data, text);
-        idxl = new LmdbDataAccess(docid, text ? txtindexldb : attindexldb, tx);
-        idxr = new LmdbDataAccess(docid, text ? txtindexrdb : attindexrdb, tx);
+        final int bs = ((LmdbMetaData) data.meta).indexBlockSize();
+        idxl = new LmdbDataAccess(docid, text ? txtindexldb : attindexldb, tx, bs);
+        idxr = new LmdbDataAccess(docid, text ? txtindexrdb : attindexrdb, tx, bs);
         size.set(idxl.read4());
     }
 
@@ -94,6 +96,7 @@ public class LmdbValues extends ValueIndex {
     public final int costs(final IndexToken it) {
         if(it instanceof StringRange) return Math.max(1, data.meta.size / 10);
         if(it instanceof NumericRange) return Math.max(1, data.meta.size / 3);
+        if(it instanceof TypedRange) return LmdbRangeIndex.costs((LmdbData) data, (TypedRange) it);
         return entry(it.get()).size;
     }
 
@@ -101,6 +104,7 @@ public class LmdbValues extends ValueIndex {
     public final IndexIterator iter(final IndexToken it) {
         if(it instanceof StringRange) return idRange((StringRange) it);
         if(it instanceof NumericRange) return idRange((NumericRange) it);
+        if(it instanceof TypedRange) return LmdbRangeIndex.iter((LmdbData) data, (TypedRange) it);
         final IndexEntry e = entry(it.get());
         return iter(e.size, e.offset);
     }
@@ -5,7 +5,6 @@ import org.basex.core.MainOptions;
 import org.basex.data.Data;
 import org.basex.index.value.DiskValues;
 import org.basex.index.value.DiskValuesBuilder;
-import org.basex.io.IO;
 import org.fusesource.lmdbjni.Database;
 import org.fusesource.lmdbjni.Transaction;
 
@@ -37,16 +36,17 @@ public class LmdbValuesBuilder extends DiskValuesBuilder {
     public DiskValues build() throws IOException {
         _build();
         final String f = text ? DATATXT : DATAATV;
-        copyIndex(data.meta.dbfile(f + 'l').file(), text ? txtindexldb : attindexldb, docid);
-        copyIndex(data.meta.dbfile(f + 'r').file(), text ? txtindexrdb : attindexrdb, docid);
+        final int bs = ((LmdbMetaData) data.meta).indexBlockSize();
+        copyIndex(data.meta.dbfile(f + 'l').file(), text ? txtindexldb : attindexldb, docid, bs);
+        copyIndex(data.meta.dbfile(f + 'r').file(), text ? txtindexrdb : attindexrdb, docid, bs);
         return null;
     }
 
-    static void copyIndex(final File file, Database db, byte[] did) throws IOException {
+    static void copyIndex(final File file, Database db, byte[] did, int blocksize) throws IOException {
 
         Transaction tx = env.createWriteTransaction();
 
-        byte[] b = new byte[IO.BLOCKSIZE];
+        byte[] b = new byte[blocksize];
         BufferedInputStream idx = new BufferedInputStream(new FileInputStream(file), 1024*16);
 
         int actual = -1;
@@ -69,7 +69,9 @@ public class LmdbValuesBuilder extends DiskValuesBuilder {
             }
         }
         db.put(tx, LmdbDataAccess.getLenKey(did), lmdb.util.Byte.getBytes(tot));
+        LmdbDataCache.generation(did, tx, LmdbDataCache.generation(did, tx) + 1);
         tx.commit();
+        LmdbPageCache.invalidate(did);
 
         file.delete();
     }
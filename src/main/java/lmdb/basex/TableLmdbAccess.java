@@ -12,12 +12,16 @@ import org.basex.io.random.TableAccess;
 import org.basex.util.Array;
 import org.basex.util.BitArray;
 import org.basex.util.Util;
+import org.fusesource.lmdbjni.DirectBuffer;
 import org.fusesource.lmdbjni.Transaction;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 import static lmdb.basex.LmdbDataManager.tableaccessdb;
+import static java.nio.ByteOrder.BIG_ENDIAN;
 import static lmdb.util.Byte.lmdbkey;
 
 public class TableLmdbAccess extends TableAccess {
@@ -25,9 +29,18 @@ public class TableLmdbAccess extends TableAccess {
     protected Transaction tx;
     protected byte[] docid;
 
-    private final Buffers bm = new Buffers();
+    // block layout of this document, see LmdbMetaData#tablepower
+    private final int blocksize;
+    private final int blockentries;
+
+    private Buffers bm;
     private BitArray usedPages;
 
+    // read transactions decode records straight from the memory map, writers use copied pages
+    private boolean direct;
+    private DirectBuffers views;
+    private DirectBuffer viewKey;
+
     private int[] fpres;
     private int[] pages;
     private int size;
@@ -42,6 +55,9 @@ public class TableLmdbAccess extends TableAccess {
 
         this.tx = tx;
         this.docid = docid;
+        blocksize = ((LmdbMetaData) md).tableBlockSize();
+        blockentries = blocksize >>> IO.NODEPOWER;
+        direct(tx.isReadOnly());
 
         // read meta and index data
         try(final DataInput in = new DataInput(new IOContent(tableaccessdb.get(tx,getStructKey())))) {
@@ -101,6 +117,7 @@ public class TableLmdbAccess extends TableAccess {
     @Override
     public synchronized int read1(final int pre, final int off) {
         final int o = off + cursor(pre);
+        if(direct) return views.current().getByte(o) & 0xFF;
         final byte[] b = bm.current().data;
         return b[o] & 0xFF;
     }
@@ -108,6 +125,7 @@ public class TableLmdbAccess extends TableAccess {
     @Override
     public synchronized int read2(final int pre, final int off) {
         final int o = off + cursor(pre);
+        if(direct) return views.current().getShort(o, BIG_ENDIAN) & 0xFFFF;
         final byte[] b = bm.current().data;
         return ((b[o] & 0xFF) << 8) + (b[o + 1] & 0xFF);
     }
@@ -115,6 +133,7 @@ public class TableLmdbAccess extends TableAccess {
     @Override
     public synchronized int read4(final int pre, final int off) {
         final int o = off + cursor(pre);
+        if(direct) return views.current().getInt(o, BIG_ENDIAN);
         final byte[] b = bm.current().data;
         return ((b[o] & 0xFF) << 24) + ((b[o + 1] & 0xFF) << 16) +
                 ((b[o + 2] & 0xFF) << 8) + (b[o + 3] & 0xFF);
@@ -123,6 +142,10 @@ public class TableLmdbAccess extends TableAccess {
     @Override
     public synchronized long read5(final int pre, final int off) {
         final int o = off + cursor(pre);
+        if(direct) {
+            final DirectBuffer b = views.current();
+            return ((long) (b.getByte(o) & 0xFF) << 32) + (b.getInt(o + 1, BIG_ENDIAN) & 0xFFFFFFFFL);
+        }
         final byte[] b = bm.current().data;
         return ((long) (b[o] & 0xFF) << 32) + ((long) (b[o + 1] & 0xFF) << 24) +
                 ((b[o + 2] & 0xFF) << 16) + ((b[o + 3] & 0xFF) << 8) + (b[o + 4] & 0xFF);
@@ -283,7 +306,7 @@ public class TableLmdbAccess extends TableAccess {
 
         // special case: all entries fit in the current page
         Buffer bf = bm.current();
-        if(nold + nnew <= IO.BLOCKSIZE) {
+        if(nold + nnew <= blocksize) {
             Array.move(bf.data, split, nnew, moved);
             System.arraycopy(entries, 0, bf.data, split, nnew);
             bf.dirty = true;
@@ -303,7 +326,7 @@ public class TableLmdbAccess extends TableAccess {
 
         // fill in the current page with new entries
         // number of bytes which fit in the first page
-        int nrem = IO.BLOCKSIZE - split;
+        int nrem = blocksize - split;
         if(nrem > 0) {
             System.arraycopy(all, 0, bf.data, split, nrem);
             bf.dirty = true;
@@ -311,14 +334,14 @@ public class TableLmdbAccess extends TableAccess {
 
         // number of new required pages and remaining bytes
         final int req = all.length - nrem;
-        int needed = req / IO.BLOCKSIZE;
-        final int remain = req % IO.BLOCKSIZE;
+        int needed = req / blocksize;
+        final int remain = req % blocksize;
 
         if(remain > 0) {
             // check if the last entries can fit in the page after the current one
             if(page + 1 < used) {
                 final int o = occSpace(page + 1) << IO.NODEPOWER;
-                if(remain <= IO.BLOCKSIZE - o) {
+                if(remain <= blocksize - o) {
                     // copy the last records
                     readPage(page + 1);
                     bf = bm.current();
@@ -356,7 +379,7 @@ public class TableLmdbAccess extends TableAccess {
         while(needed-- > 0) {
             freePage();
             nrem += write(all, nrem);
-            fpres[page] = fpres[page - 1] + IO.ENTRIES;
+            fpres[page] = fpres[page - 1] + blockentries;
             pages[page] = (int) bm.current().pos;
         }
 
@@ -378,7 +401,7 @@ public class TableLmdbAccess extends TableAccess {
             fpres = new int[b];
             pages = new int[b];
             for(int i = 0; i < b; i++) {
-                fpres[i] = i * IO.ENTRIES;
+                fpres[i] = i * blockentries;
                 pages[i] = i;
             }
             usedPages = new BitArray(used, true);
@@ -389,6 +412,21 @@ public class TableLmdbAccess extends TableAccess {
 
     void setTx(Transaction tx) {
         this.tx = tx;
+        direct(tx.isReadOnly());
+    }
+
+    private void direct(final boolean readOnly) {
+        direct = readOnly;
+        if(!direct) {
+            if(bm == null) bm = new Buffers(blocksize);
+            return;
+        }
+        if(views == null) {
+            views = new DirectBuffers();
+            viewKey = new DirectBuffer(ByteBuffer.allocateDirect(8).order(ByteOrder.BIG_ENDIAN));
+            viewKey.putBytes(0, docid);
+        }
+        views.reset();
     }
 
     // PRIVATE METHODS ==========================================================
@@ -458,7 +496,7 @@ public class TableLmdbAccess extends TableAccess {
      * @return pre value
      */
     private int fpre(final int p) {
-        return fpres == null ? p * IO.ENTRIES : fpres[p];
+        return fpres == null ? p * blockentries : fpres[p];
     }
 
     /**
@@ -466,6 +504,10 @@ public class TableLmdbAccess extends TableAccess {
      * @param p page to fetch
      */
     private void read(final int p) {
+        if(direct) {
+            map(p);
+            return;
+        }
         if(!bm.cursor(p)) return;
 
         final Buffer bf = bm.current();
@@ -482,6 +524,19 @@ public class TableLmdbAccess extends TableAccess {
         }
     }
 
+    /**
+     * Points a page view to the page stored in the memory map, without copying it.
+     * @param p page to map
+     */
+    private void map(final int p) {
+        if(!views.cursor(p)) return;
+        viewKey.putInt(4, p, BIG_ENDIAN);
+        if(tableaccessdb.get(tx, viewKey, views.current()) != 0) {
+            views.invalidate();
+            throw Util.notExpected("Table page " + p + " of document " + lmdb.util.Byte.getInt(docid) + " not found");
+        }
+    }
+
     /**
      * Moves the cursor to a free page (either new or existing empty one).
      */
@@ -538,7 +593,7 @@ public class TableLmdbAccess extends TableAccess {
      */
     private int write(final byte[] s, final int o) {
         final Buffer bf = bm.current();
-        final int len = Math.min(IO.BLOCKSIZE, s.length - o);
+        final int len = Math.min(blocksize, s.length - o);
         System.arraycopy(s, o, bf.data, 0, len);
         bf.dirty = true;
         return len;
@@ -0,0 +1,313 @@
+package lmdb.handler;
+
+import lmdb.basex.LmdbQueryContext;
+import lmdb.basex.LmdbResultCache;
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.io.EndPoint;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the result of a query with servlet async I/O, so a large result does not occupy a server thread
+ * while the client downloads it.
+ *
+ * The result is serialized on a thread of a serializer pool into pooled buffers. Filled buffers are written
+ * by a {@link WriteListener} whenever the connection can take more data. A serializer that gets
+ * {@link #AHEAD} buffers ahead of the client waits (backpressure). The query is compiled on the serializer
+ * thread, so its read transaction is opened and closed by the same thread, and the query context is closed as
+ * soon as the result has been serialized. If the query fails after a part of the result has been sent, the
+ * connection is closed without the final chunk, so the client cannot take a truncated result for a complete one.
+ */
+class StreamingResponse implements WriteListener, Runnable {
+
+    private static final Logger logger = Logger.getLogger(StreamingResponse.class);
+
+    /** Size of the buffers. */
+    private static final int BUFFER = 1 << 15;
+    /** Number of filled buffers a serializer may get ahead of the client. */
+    private static final int AHEAD = 8;
+    /** Maximum number of free buffers kept in the pool. */
+    private static final int POOL = 256;
+
+    private static final ConcurrentLinkedQueue<byte[]> pool = new ConcurrentLinkedQueue<byte[]>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+    private static final ExecutorService serializers = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors() * 4, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "serializer-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final AsyncContext async;
+    private final HttpServletResponse resp;
+    private final ServletOutputStream out;
+    private final EndPoint endPoint;
+    private final LmdbQueryContext ctx;
+    private final String query;
+    private final Map<String, Object> param;
+    private final String method, indent, json;
+    private final long generation;
+
+    /** Filled buffers and their lengths. */
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+    private final ArrayDeque<Integer> lengths = new ArrayDeque<Integer>();
+    /** Whether the writer waits for a buffer; it is then resumed by the serializer. */
+    private boolean idle;
+    private boolean done;
+    private boolean failed;
+    private boolean completed;
+    /** Buffer of the last write, which the container may use until the stream is ready again. */
+    private byte[] written;
+
+    private StreamingResponse(AsyncContext async, HttpServletResponse resp, EndPoint endPoint, LmdbQueryContext ctx,
+                              String query, Map<String, Object> param, String method, String indent, String json,
+                              long generation) throws IOException {
+        this.async = async;
+        this.resp = resp;
+        this.out = resp.getOutputStream();
+        this.endPoint = endPoint;
+        this.ctx = ctx;
+        this.query = query;
+        this.param = param;
+        this.method = method;
+        this.indent = indent;
+        this.json = json;
+        this.generation = generation;
+    }
+
+    /**
+     * Starts sending the result of a parsed query. The response takes over the query context.
+     * @param async async context of the request
+     * @param resp response
+     * @param endPoint connection, which is closed if the query fails after a part of the result has been sent
+     * @param ctx parsed query
+     * @param query query
+     * @param param external variables
+     * @param method content type
+     * @param indent indentation
+     * @param json json format
+     * @param generation commit generation taken before the query was compiled
+     */
+    static void start(AsyncContext async, HttpServletResponse resp, EndPoint endPoint, LmdbQueryContext ctx,
+                      String query, Map<String, Object> param, String method, String indent, String json,
+                      long generation) throws IOException {
+        try {
+            async.setTimeout(0);
+            final StreamingResponse sr = new StreamingResponse(async, resp, endPoint, ctx, query, param, method, indent,
+                    json, generation);
+            resp.setStatus(HttpServletResponse.SC_OK);
+            sr.out.setWriteListener(sr);
+            serializers.execute(sr);
+        } catch(IOException | RuntimeException e) {
+            async.complete();
+            throw e;
+        }
+    }
+
+    /** Compiles the query and serializes the result. */
+    @Override
+    public void run() {
+        final Chunks output = new Chunks();
+        try {
+            ctx.prepare(null, param, null);
+            final LmdbResultCache.Recorder rec = LmdbResultCache.recorder(output);
+            ctx.run(rec, method, indent, json);
+            output.flush();
+            LmdbResultCache.put(query, param, method, indent, json, generation, ctx, rec);
+        } catch(Exception e) {
+            logger.warn(e.getMessage());
+            if(logger.isDebugEnabled()) logger.debug("", e);
+            if(output.pushed == 0 && !failed) {
+                // nothing has been sent yet: report the error instead of the result
+                output.size = 0;
+                resp.setStatus(500);
+                resp.setContentType("text/plain");
+                try {
+                    output.write(String.valueOf(e.getMessage()).getBytes());
+                    output.flush();
+                } catch(IOException ioe) {
+                    logger.warn(ioe.getMessage());
+                }
+            } else {
+                abort();
+            }
+        } finally {
+            release(output.buffer);
+            try {
+                ctx.close();
+            } catch(Exception e) {
+                logger.warn(e.getMessage());
+            }
+            finish();
+        }
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        while(out.isReady()) {
+            if(written != null) {
+                release(written);
+                written = null;
+            }
+            final byte[] b;
+            final int len;
+            synchronized(this) {
+                b = chunks.poll();
+                if(b == null) {
+                    if(done) complete();
+                    else idle = true;
+                    return;
+                }
+                len = lengths.poll();
+                notifyAll();
+            }
+            out.write(b, 0, len);
+            written = b;
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        logger.warn("streaming response failed: " + t);
+        synchronized(this) {
+            failed = true;
+            notifyAll();
+        }
+        // a serializer that is still evaluating the query aborts it
+        ctx.stop("client disconnected");
+        complete();
+    }
+
+    /**
+     * Breaks the connection after a part of the result has been sent. The connection is closed before the async
+     * context is completed, so the final chunk, which would make the truncated result look complete, is never sent.
+     */
+    private void abort() {
+        synchronized(this) {
+            failed = true;
+            chunks.clear();
+            lengths.clear();
+            notifyAll();
+        }
+        endPoint.close();
+        complete();
+    }
+
+    /** Hands a filled buffer to the writer; waits while the client is too far behind. */
+    private void push(final byte[] b, final int len) throws IOException {
+        final boolean resume;
+        synchronized(this) {
+            try {
+                while(chunks.size() >= AHEAD && !failed) wait();
+            } catch(InterruptedException ie) {
+                throw new InterruptedIOException("streaming response interrupted");
+            }
+            if(failed) throw new IOException("streaming response aborted");
+            chunks.add(b);
+            lengths.add(len);
+            resume = idle;
+            idle = false;
+        }
+        if(resume) resume();
+    }
+
+    private void finish() {
+        final boolean resume;
+        synchronized(this) {
+            done = true;
+            resume = idle && !failed;
+            idle = false;
+        }
+        if(resume) resume();
+    }
+
+    /** Continues writing on the calling thread; the stream was ready when the writer became idle. */
+    private void resume() {
+        try {
+            onWritePossible();
+        } catch(IOException e) {
+            onError(e);
+        }
+    }
+
+    private void complete() {
+        synchronized(this) {
+            if(completed) return;
+            completed = true;
+        }
+        try {
+            async.complete();
+        } catch(RuntimeException e) {
+            logger.warn(e.getMessage());
+        }
+    }
+
+    private static byte[] buffer() {
+        final byte[] b = pool.poll();
+        if(b == null) return new byte[BUFFER];
+        pooled.decrementAndGet();
+        return b;
+    }
+
+    private static void release(final byte[] b) {
+        if(b == null || pooled.get() >= POOL) return;
+        pooled.incrementAndGet();
+        pool.add(b);
+    }
+
+    /** Output of the serializer: fills buffers and pushes them to the writer. */
+    private final class Chunks extends OutputStream {
+        byte[] buffer = buffer();
+        int size;
+        int pushed;
+
+        @Override
+        public void write(final int b) throws IOException {
+            if(size == buffer.length) push();
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, int off, int len) throws IOException {
+            while(len > 0) {
+                if(size == buffer.length) push();
+                final int l = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, l);
+                size += l;
+                off += l;
+                len -= l;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(size > 0) push();
+        }
+
+        private void push() throws IOException {
+            final byte[] b = buffer;
+            final int s = size;
+            buffer = buffer();
+            size = 0;
+            StreamingResponse.this.push(b, s);
+            pushed++;
+        }
+    }
+}
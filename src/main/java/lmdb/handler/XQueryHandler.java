@@ -1,24 +1,34 @@
 package lmdb.handler;
 
+import lmdb.basex.LmdbBulkLoader;
 import lmdb.basex.LmdbDataManager;
+import lmdb.basex.LmdbGroupCommit;
+import lmdb.basex.LmdbPlanCache;
 import lmdb.basex.LmdbQueryContext;
+import lmdb.basex.LmdbQueryService;
+import lmdb.basex.LmdbResultCache;
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.basex.core.MainOptions;
 import org.basex.query.QueryException;
+import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.util.MultiMap;
 import org.fusesource.lmdbjni.LMDBException;
+import org.fusesource.lmdbjni.Transaction;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.RejectedExecutionException;
 
 @SuppressWarnings("unchecked")
 public class XQueryHandler extends AbstractHandler {
@@ -62,7 +72,13 @@ public class XQueryHandler extends AbstractHandler {
             resp.setContentType("text/plain");
             try {
                 String path = req.getPathInfo().substring(1).trim();
-                if (path.indexOf('/') > -1) {
+                basereq.extractParameters();
+                MultiMap param = basereq.getQueryParameters();
+                String bulk = param == null ? null : param.getString("bulk");
+                if (bulk != null) {
+                    if (path.isEmpty() || path.indexOf('/') > -1) throw new HttpException(400, "bulk load needs a collection name");
+                    bulkLoad(path, bulk, param, req, resp);
+                } else if (path.indexOf('/') > -1) {
                     String[] p = path.split("/");
                     if (p.length > 2) {
                         StringBuilder sb = new StringBuilder(p[2]);
@@ -72,11 +88,14 @@ public class XQueryHandler extends AbstractHandler {
                         File tmp = new File(System.getProperty("java.io.tmpdir", "/tmp"), "blx." + p[0] + "." + p[1] + ".xml");
                         tmp.deleteOnExit();
                         FileOutputStream tmpos = new FileOutputStream(tmp);
-                        try(LmdbQueryContext ctx = new LmdbQueryContext(xquery,options)) {
+                        LmdbQueryService.Slot slot = LmdbQueryService.admit(0, client(basereq));
+                        try(LmdbQueryContext ctx = LmdbPlanCache.context(xquery, null, null, options, null)) {
+                            ctx.limit(slot);
                             if (ctx.updating) throw new HttpException(405, "xquery is updating. use post instead.");
                             ctx.run(tmpos);
                             LmdbDataManager.createDocument(p[0] + "/" + p[1], new FileInputStream(tmp));
                         } finally {
+                            slot.close();
                             tmpos.close();
                             tmp.delete();
                         }
@@ -89,6 +108,9 @@ public class XQueryHandler extends AbstractHandler {
                     LmdbDataManager.createCollection(path);
                 }
                 resp.setStatus(HttpServletResponse.SC_OK);
+            } catch (RejectedExecutionException ree) {
+                reject(ree, resp);
+                resp.getWriter().print(ree.getMessage());
             } catch (LMDBException lmdbe) {
                 logger.warn(lmdbe.getMessage());
                 if (logger.isDebugEnabled()) logger.debug("", lmdbe);
@@ -117,12 +139,44 @@ public class XQueryHandler extends AbstractHandler {
             String contentType = getParam(param, "content-type", "text/xml");
             String indentContent = getParam(param, "indent-content", "false");
             String jsonFormat = getParam(param, "json-format", "jsonml");
+            String queryTimeout = getParam(param, "query-timeout", "0");
             resp.setContentType(contentType);
             OutputStream os = resp.getOutputStream();
-            try(LmdbQueryContext ctx = new LmdbQueryContext(req.getPathInfo().substring(1).trim(), param, options)) {
-                if (ctx.updating) throw new HttpException(405, "xquery is updating. use post instead.");
-                ctx.run(os, contentType, indentContent, jsonFormat);
+            String xquery = req.getPathInfo().substring(1).trim();
+            byte[] cached = LmdbResultCache.get(xquery, param, contentType, indentContent, jsonFormat);
+            if (cached != null) {
                 resp.setStatus(HttpServletResponse.SC_OK);
+                os.write(cached);
+                os.close();
+                basereq.setHandled(true);
+                return;
+            }
+            long generation = LmdbResultCache.generation();
+            LmdbQueryService.Slot slot = null;
+            LmdbQueryContext ctx = null;
+            boolean async = false;
+            try {
+                slot = LmdbQueryService.admit(timeout(queryTimeout), client(basereq));
+                boolean stream = req.isAsyncSupported();
+                // a streamed query is compiled by its serializer thread, which then opens, uses and closes the
+                // read transaction, so the transaction never moves between threads
+                ctx = stream ? LmdbPlanCache.parsed(xquery, options) : LmdbPlanCache.context(xquery, null, param, options, null);
+                ctx.limit(slot);
+                if (ctx.updating) throw new HttpException(405, "xquery is updating. use post instead.");
+                if (stream) {
+                    // the result is serialized and sent without occupying this thread
+                    StreamingResponse.start(req.startAsync(), resp, basereq.getHttpChannel().getEndPoint(), ctx, xquery,
+                            param, contentType, indentContent, jsonFormat, generation);
+                    async = true;
+                } else {
+                    LmdbResultCache.Recorder rec = LmdbResultCache.recorder(os);
+                    ctx.run(rec, contentType, indentContent, jsonFormat);
+                    LmdbResultCache.put(xquery, param, contentType, indentContent, jsonFormat, generation, ctx, rec);
+                    resp.setStatus(HttpServletResponse.SC_OK);
+                }
+            } catch (RejectedExecutionException ree) {
+                reject(ree, resp);
+                os.write(ree.getMessage().getBytes());
             } catch (LMDBException lmdbe) {
                 logger.warn(lmdbe.getMessage());
                 if (logger.isDebugEnabled()) logger.debug("", lmdbe);
@@ -148,9 +202,16 @@ public class XQueryHandler extends AbstractHandler {
                 resp.setStatus(500);
                 os.write(e.getMessage().getBytes());
             } finally {
-                try {
-                    os.close();
-                } catch (Exception i) {
+                if (!async) {
+                    try {
+                        if (ctx != null) ctx.close();
+                    } catch (Exception i) {
+                    }
+                    if (slot != null) slot.close();
+                    try {
+                        os.close();
+                    } catch (Exception i) {
+                    }
                 }
             }
         }
@@ -159,10 +220,33 @@ public class XQueryHandler extends AbstractHandler {
         //
         if (basereq.getMethod().equals("POST")) {
             resp.setContentType("text/plain");
-            try(LmdbQueryContext ctx = new LmdbQueryContext(IOUtils.toString(req.getInputStream()), options)) {
-                if (!ctx.updating) throw new HttpException(405, "xquery is not updating. use get instead.");
-                ctx.run(resp.getOutputStream(), "text/plain", false);
+            try {
+                // the update runs in the group commit; its output is sent once it is committed
+                final String xquery = IOUtils.toString(req.getInputStream());
+                final ByteArrayOutputStream result = new ByteArrayOutputStream();
+                final LmdbQueryService.Slot slot = LmdbQueryService.admit(0, client(basereq));
+                boolean updating;
+                try {
+                    updating = LmdbGroupCommit.execute(new LmdbGroupCommit.Work<Boolean>() {
+                        @Override
+                        public Boolean run(Transaction tx) throws QueryException, IOException {
+                            try(LmdbQueryContext ctx = LmdbPlanCache.context(xquery, null, null, options, tx)) {
+                                ctx.limit(slot);
+                                if (!ctx.updating) return false;
+                                ctx.run(result, "text/plain", false);
+                                return true;
+                            }
+                        }
+                    });
+                } finally {
+                    slot.close();
+                }
+                if (!updating) throw new HttpException(405, "xquery is not updating. use get instead.");
                 resp.setStatus(HttpServletResponse.SC_OK);
+                result.writeTo(resp.getOutputStream());
+            } catch (RejectedExecutionException ree) {
+                reject(ree, resp);
+                resp.getWriter().print(ree.getMessage());
             } catch (LMDBException lmdbe) {
                 logger.warn(lmdbe.getMessage());
                 if (logger.isDebugEnabled()) logger.debug("", lmdbe);
@@ -184,6 +268,84 @@ public class XQueryHandler extends AbstractHandler {
         basereq.setHandled(true);
     }
 
+    // streams one progress line per committed batch, then the report and the failed documents
+    private void bulkLoad(String collection, String bulk, MultiMap param, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException, HttpException {
+        LmdbBulkLoader.Source source;
+        if (bulk.equals("tar")) {
+            source = LmdbBulkLoader.tar(req.getInputStream());
+        } else if (bulk.equals("zip")) {
+            source = LmdbBulkLoader.zip(req.getInputStream());
+        } else if (bulk.equals("dir")) {
+            String dir = param.getString("path");
+            if (dir == null) throw new HttpException(400, "bulk load from a directory needs the parameter path");
+            source = LmdbBulkLoader.directory(new File(dir));
+        } else {
+            throw new HttpException(400, "unknown bulk format " + bulk + ". use tar, zip or dir.");
+        }
+        int threads;
+        try {
+            String t = param.getString("threads");
+            threads = t == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(t);
+        } catch (NumberFormatException e) {
+            throw new HttpException(400, "malformed number of threads");
+        }
+        if (threads < 1) throw new HttpException(400, "malformed number of threads");
+
+        logger.info("bulk load " + bulk + " into collection " + collection);
+        LmdbDataManager.createCollection(collection);
+        resp.setStatus(HttpServletResponse.SC_OK);
+        final PrintWriter out = resp.getWriter();
+        try {
+            LmdbBulkLoader.Report report = new LmdbBulkLoader(collection, threads).listener(new LmdbBulkLoader.Listener() {
+                @Override
+                public void progress(LmdbBulkLoader.Report report) {
+                    synchronized (out) {
+                        out.println(report);
+                        out.flush();
+                    }
+                }
+            }).load(source);
+            synchronized (out) {
+                out.println("done: " + report);
+                for (String e : report.errors()) out.println("failed " + e);
+            }
+        } catch (IOException e) {
+            logger.warn(e.getMessage());
+            if (logger.isDebugEnabled()) logger.debug("", e);
+            synchronized (out) {
+                out.println("aborted: " + e.getMessage());
+            }
+        }
+    }
+
+    private long timeout(String millis) throws HttpException {
+        try {
+            long t = Long.parseLong(millis.trim());
+            if (t >= 0) return t;
+        } catch (NumberFormatException e) {
+        }
+        throw new HttpException(400, "malformed query-timeout");
+    }
+
+    // the client may retry when the running queries are done
+    private void reject(RejectedExecutionException ree, HttpServletResponse resp) {
+        logger.warn(ree.getMessage());
+        resp.setContentType("text/plain");
+        resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        resp.setHeader("Retry-After", "1");
+    }
+
+    private static LmdbQueryService.Client client(Request basereq) {
+        final EndPoint endPoint = basereq.getHttpChannel().getEndPoint();
+        return new LmdbQueryService.Client() {
+            @Override
+            public boolean connected() {
+                return endPoint.isOpen() && !endPoint.isOutputShutdown();
+            }
+        };
+    }
+
     private String getParam(MultiMap map, String param, String defaultval) {
         String p = map.getString(param);
         if (p != null) map.remove(param);
@@ -1,7 +1,14 @@
 package lmdb.server;
 
+import lmdb.basex.LmdbDataCache;
 import lmdb.basex.LmdbDataManager;
+import lmdb.basex.LmdbGroupCommit;
+import lmdb.basex.LmdbIndexer;
+import lmdb.basex.LmdbPageCache;
+import lmdb.basex.LmdbPlanCache;
 import lmdb.basex.LmdbQueryContext;
+import lmdb.basex.LmdbQueryService;
+import lmdb.basex.LmdbResultCache;
 import lmdb.db.JdbcDataManager;
 import lmdb.handler.XQueryHandler;
 import org.apache.commons.io.IOUtils;
@@ -91,7 +98,26 @@ public class XQueryServer {
         logger.info("start");
         logger.debug("home=" + home);
 
+        LmdbDataManager.durability(getDurability(), getSyncInterval());
         LmdbDataManager.config(System.getProperty("org.basex.path", home + "/db"), Long.parseLong(getConfig("//dbsize/text()")));
+        LmdbDataCache.capacity(getDocumentCacheSize());
+        LmdbPageCache.capacity(getPageCacheSize());
+        LmdbResultCache.capacity((long) getCacheSize("results", (int) (LmdbResultCache.capacity() >> 20)) << 20);
+        LmdbPlanCache.capacity(getCacheSize("queries", LmdbPlanCache.capacity()), getCacheSize("instances", LmdbPlanCache.instances()));
+        LmdbDataManager.storage(getStoragePower("table", LmdbDataManager.tablePower()),
+                getStoragePower("index", LmdbDataManager.indexPower()));
+        String compression = getConfig("//storage/compression/text()");
+        if(compression != null && !compression.isEmpty()) LmdbDataManager.compression(compression);
+        String updindex = getConfig("//storage/updindex/text()");
+        if(updindex != null && !updindex.isEmpty()) LmdbDataManager.updindex(Boolean.parseBoolean(updindex.trim()));
+        LmdbGroupCommit.config(getGroupCommit("window", 0), getGroupCommit("size", 64));
+        LmdbQueryService.config(getQueryLimit("concurrency", LmdbQueryService.concurrency()),
+                getQueryLimit("queue", LmdbQueryService.queue()),
+                getQueryLimit("timeout", (int) LmdbQueryService.timeout()),
+                (long) getQueryLimit("memory", (int) (LmdbQueryService.memory() >> 20)) << 20,
+                getQueryLimit("heap", LmdbQueryService.heap()));
+        LmdbQueryService.parallelism(getQueryLimit("parallelism", LmdbQueryService.parallelism()));
+        configIndexPolicies();
         JdbcDataManager.config(config);
         httpServerConfig();
     }
@@ -200,6 +226,79 @@ public class XQueryServer {
         }
     }
 
+    private int getDocumentCacheSize() {
+        try {
+            return Integer.parseInt(getConfig("//cache/documents/text()"));
+        } catch(Exception i) {
+            return LmdbDataCache.capacity();
+        }
+    }
+
+    private int getPageCacheSize() {
+        try {
+            return Integer.parseInt(getConfig("//cache/pages/text()"));
+        } catch(Exception i) {
+            return LmdbPageCache.capacity();
+        }
+    }
+
+    private int getCacheSize(String name, int def) {
+        try {
+            return Integer.parseInt(getConfig("//cache/" + name + "/text()"));
+        } catch(Exception i) {
+            return def;
+        }
+    }
+
+    private int getQueryLimit(String name, int def) {
+        try {
+            return Integer.parseInt(getConfig("//query/" + name + "/text()"));
+        } catch(Exception i) {
+            return def;
+        }
+    }
+
+    private int getStoragePower(String type, int def) {
+        try {
+            return Integer.parseInt(getConfig("//storage/" + type + "power/text()"));
+        } catch(Exception i) {
+            return def;
+        }
+    }
+
+    private String getDurability() {
+        String durability = getConfig("//storage/durability/text()");
+        return durability == null || durability.trim().isEmpty() ? "sync" : durability.trim();
+    }
+
+    private long getSyncInterval() {
+        try {
+            return Long.parseLong(getConfig("//storage/syncinterval/text()"));
+        } catch(Exception i) {
+            return 1000;
+        }
+    }
+
+    private int getGroupCommit(String param, int def) {
+        try {
+            return Integer.parseInt(getConfig("//groupcommit/" + param + "/text()"));
+        } catch(Exception i) {
+            return def;
+        }
+    }
+
+    private void configIndexPolicies() {
+        LmdbIndexer.policy(null, LmdbIndexer.Policy.parse(getConfig("string(//index/default/@types)"),
+                getConfig("string(//index/default/@build)")));
+        String names = getConfig("string-join(//index/collection/@name, ' ')");
+        if(names == null || names.trim().isEmpty()) return;
+        for(String c : names.trim().split("\\s+")) {
+            String p = "//index/collection[@name='" + c + "']";
+            LmdbIndexer.policy(c, LmdbIndexer.Policy.parse(getConfig("string(" + p + "/@types)"),
+                    getConfig("string(" + p + "/@build)")));
+        }
+    }
+
     private int getHttpsPort() {
         return Integer.parseInt(getConfig("//http/sslport/text()"));
     }
@@ -1,6 +1,7 @@
 package lmdb.util;
 
 import lmdb.basex.LmdbQueryContext;
+import lmdb.basex.LmdbResultStream;
 import org.basex.build.json.JsonOptions;
 import org.basex.build.json.JsonSerialOptions;
 import org.basex.io.IOContent;
@@ -119,52 +120,15 @@ public class XQuery {   // TODO: retire
 
     public static InputStream getStream(final LmdbQueryContext ctx, final String method) throws QueryException {
         try {
-            return new InputStream() {
-                private ByteArrayOutputStream result = new ByteArrayOutputStream();
-                private Serializer s = Serializer.get(result, getSerializerOptions(method));
-                private Iter iter = ctx.iter();
-                private Item i = null;
-                private byte[] b = null;
-                private int off = -1;
-                public void close() throws IOException {
-                    s.close();
-                    ctx.close();
-                }
-                public int read() throws IOException {
-                    if((b == null || off >= b.length) && !next()) return -1;
-                    return (int)b[off++];
-                }
-                private boolean next() throws IOException {
-                    try {
-                        if((i = iter.next()) == null) return false;
-                        result.reset();
-                        if(i.type == NodeType.ATT || i.type == NodeType.NSP || i.type.instanceOf(SeqType.ANY_ARRAY)) {
-                            result.flush();
-                            result.write(i.toString().getBytes());
-                        } else {
-                            s.serialize(i);
-                        }
-                        b = result.toByteArray();
-                        off = 0;
-                        return true;
-                    } catch(QueryException qe) {
-                        throw new IOException(qe);
-                    }
-                }
-            };
-        } catch(IOException ioe) {
-            throw new QueryException(ioe);
-        } finally {
+            return new LmdbResultStream(ctx, getSerializerOptions(method));
+        } catch(QueryException qe) {
             try { ctx.close(); } catch (IOException e) {}
+            throw qe;
         }
     }
 
     public static InputStream getStream(final String query, final String context, final Map<String,Object> var) throws QueryException {
-        try (LmdbQueryContext ctx = getContext(query, context, var)) {
-            return getStream(ctx, null);
-        } catch(IOException ioe) {
-            throw new QueryException(ioe);
-        }
+        return getStream(getContext(query, context, var), null);
     }
 
     public static InputStream getStream(final String query, final Map<String,Object> var) throws QueryException {
@@ -5,6 +5,7 @@ import org.basex.index.IdPreMap;
 import org.basex.index.Index;
 import org.basex.index.IndexNames;
 import org.basex.index.IndexType;
+import org.basex.index.name.NameIndex;
 import org.basex.index.name.Names;
 import org.basex.index.path.PathSummary;
 import org.basex.index.query.IndexIterator;
@@ -114,6 +115,8 @@ public abstract class Data {
   public ValueIndex attrIndex;
   /** Full-text index instance. */
   public ValueIndex ftxtIndex;
+  /** Element-name index (can be {@code null}). */
+  public NameIndex nameIndex;
 
   /** Indicates if distances are to be updated. */
   public boolean updateDists = true;
@@ -224,6 +227,18 @@ public abstract class Data {
     }
   }
 
+  /**
+   * Returns a reader for the texts and attribute values of the specified nodes,
+   * which will be requested in ascending pre order.
+   * @param pre first pre value
+   * @param size number of nodes
+   * @return text reader
+   */
+  public TextReader texts(@SuppressWarnings("unused") final int pre,
+      @SuppressWarnings("unused") final int size) {
+    return new TextReader(this);
+  }
+
   /**
    * Returns an atomized content for any node kind.
    * The atomized value can be an attribute value or XML content.
@@ -246,18 +261,20 @@ public abstract class Data {
         byte[] t = EMPTY;
         int p = pre;
         final int s = p + size(p, kind(p));
-        while(p < s) {
-          final int k = kind(p);
-          if(k == TEXT) {
-            txt = text(p, true);
-            if(t == EMPTY) {
-              t = txt;
-            } else {
-              if(tb == null) tb = new TokenBuilder(t);
-              tb.add(txt);
+        try(final TextReader tr = texts(p, s - p)) {
+          while(p < s) {
+            final int k = kind(p);
+            if(k == TEXT) {
+              txt = tr.text(p, true);
+              if(t == EMPTY) {
+                t = txt;
+              } else {
+                if(tb == null) tb = new TokenBuilder(t);
+                tb.add(txt);
+              }
             }
+            p += attSize(p, k);
           }
-          p += attSize(p, k);
         }
         return tb == null ? t : tb.finish();
     }
@@ -535,6 +552,7 @@ public abstract class Data {
         }
         table.write1(pre, 3, uriId);
         final int nameId = elemNames.index(name, null, false);
+        if(nameIndex != null) nameIndex.rename(pre, nameId(pre), nameId);
         table.write2(nsPre, 1, (nsFlag || nsFlag(nsPre) ? 1 << 15 : 0) | nameId);
         if(!pres.isEmpty()) textIndex.add(cache(pres, true));
       }
@@ -1048,9 +1066,11 @@ public abstract class Data {
    */
   protected final void indexDelete(final int pre, final int id, final int size) {
     if(id != -1) resources.delete(pre, size);
+    if(id != -1 && nameIndex != null) nameIndex.delete(pre, size);
     if(meta.updindex) {
       if(meta.textindex) textIndex.delete(cache(pre, size, true));
       if(meta.attrindex) attrIndex.delete(cache(pre, size, false));
+      if(meta.ftindex) ftxtIndex.delete(ftcache(pre, size));
       if(id != -1) idmap.delete(pre, id, -size);
     }
   }
@@ -1064,10 +1084,12 @@ public abstract class Data {
    */
   protected final void indexAdd(final int pre, final int id, final int size, final DataClip clip) {
     if(id != -1) resources.insert(pre, clip);
+    if(id != -1 && nameIndex != null) nameIndex.insert(pre, size, this);
     if(meta.updindex) {
       if(id != -1) idmap.insert(pre, id, size);
       if(meta.textindex) textIndex.add(cache(pre, size, true));
       if(meta.attrindex) attrIndex.add(cache(pre, size, false));
+      if(meta.ftindex) ftxtIndex.add(ftcache(pre, size));
     }
   }
 
@@ -1110,6 +1132,32 @@ public abstract class Data {
     return map;
   }
 
+  /**
+   * Caches the texts and ids of all text nodes in the specified database range that are
+   * included in the full-text index. The full-text index tokenizes the texts itself.
+   * Only called if the full-text index is updated in place (see {@link MetaData#update}).
+   * @param pre pre value
+   * @param size size value
+   * @return cached texts and ids
+   */
+  private TokenObjMap<IntList> ftcache(final int pre, final int size) {
+    final TokenObjMap<IntList> map = new TokenObjMap<>();
+    final IndexNames in = new IndexNames(meta.ftinclude);
+    final int last = pre + size;
+    for(int curr = pre; curr < last; ++curr) {
+      if(kind(curr) == TEXT && in.contains(this, curr, true)) {
+        final byte[] key = text(curr, true);
+        IntList ids = map.get(key);
+        if(ids == null) {
+          ids = new IntList(1);
+          map.put(key, ids);
+        }
+        ids.add(id(curr));
+      }
+    }
+    return map;
+  }
+
   // HELPER FUNCTIONS ===================================================================
 
   /**
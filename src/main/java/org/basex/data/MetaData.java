@@ -414,9 +414,18 @@ public class MetaData {
     writeInfo(out, DBUPTODATE, uptodate);
     writeInfo(out, DBLASTID,   lastid);
     if(language != null) writeInfo(out, DBFTLN, language.toString());
+    writeExtra(out);
     out.write(0);
   }
 
+  /**
+   * Writes additional, storage specific meta data entries.
+   * @param out output stream
+   * @throws IOException I/O exception
+   */
+  protected void writeExtra(final DataOutput out) throws IOException {
+  }
+
   /**
    * Notifies the meta structures of an update and invalidates the indexes.
    */
@@ -461,7 +470,7 @@ public class MetaData {
    * @param value value
    * @throws IOException I/O exception
    */
-  private static void writeInfo(final DataOutput out, final String name, final boolean value)
+  protected static void writeInfo(final DataOutput out, final String name, final boolean value)
       throws IOException {
     writeInfo(out, name, value ? "1" : "0");
   }
@@ -473,7 +482,7 @@ public class MetaData {
    * @param value value
    * @throws IOException I/O exception
    */
-  private static void writeInfo(final DataOutput out, final String name, final long value)
+  protected static void writeInfo(final DataOutput out, final String name, final long value)
       throws IOException {
     writeInfo(out, name, Long.toString(value));
   }
@@ -485,7 +494,7 @@ public class MetaData {
    * @param value value
    * @throws IOException I/O exception
    */
-  private static void writeInfo(final DataOutput out, final String name, final String value)
+  protected static void writeInfo(final DataOutput out, final String name, final String value)
       throws IOException {
     out.writeToken(Token.token(name));
     out.writeToken(Token.token(value));
@@ -0,0 +1,34 @@
+package org.basex.data;
+
+/**
+ * Reads the texts and attribute values of a range of nodes, which are requested in
+ * ascending pre order. Storages may override {@link Data#texts(int, int)} to fetch
+ * the values in batches; by default, values are read one by one.
+ *
+ * @author BaseX Team 2005-15, BSD License
+ */
+public class TextReader implements AutoCloseable {
+  /** Data reference. */
+  protected final Data data;
+
+  /**
+   * Constructor.
+   * @param data data reference
+   */
+  public TextReader(final Data data) {
+    this.data = data;
+  }
+
+  /**
+   * Returns a text (text, comment, pi, document) or attribute value.
+   * @param pre pre value
+   * @param text text/attribute flag
+   * @return atomized value
+   */
+  public byte[] text(final int pre, final boolean text) {
+    return data.text(pre, text);
+  }
+
+  @Override
+  public void close() { }
+}
@@ -0,0 +1,49 @@
+package org.basex.index.name;
+
+import org.basex.data.*;
+
+/**
+ * Index of the pre values of all elements with the same name. It is kept current by the
+ * update operations of {@link Data}.
+ *
+ * @author BaseX Team 2005-15, BSD License
+ */
+public interface NameIndex {
+  /**
+   * Returns the pre values of all elements with the specified name.
+   * @param id id of the element name
+   * @return pre values in ascending order
+   */
+  int[] pres(int id);
+
+  /**
+   * Returns the pre values of all elements with the specified local name. The lists of all
+   * names with this local name are merged once, and the result is kept until the index is updated.
+   * @param local local name
+   * @return pre values in ascending order
+   */
+  int[] pres(byte[] local);
+
+  /**
+   * Adds the elements of inserted nodes and shifts the pre values of all following elements.
+   * @param pre pre value of the first inserted node
+   * @param size number of inserted nodes
+   * @param data data reference, containing the inserted nodes
+   */
+  void insert(int pre, int size, Data data);
+
+  /**
+   * Removes the elements of deleted nodes and shifts the pre values of all following elements.
+   * @param pre pre value of the first deleted node
+   * @param size number of deleted nodes
+   */
+  void delete(int pre, int size);
+
+  /**
+   * Moves a renamed element to the pre values of its new name.
+   * @param pre pre value of the element
+   * @param old id of the old element name
+   * @param id id of the new element name
+   */
+  void rename(int pre, int old, int id);
+}
@@ -0,0 +1,60 @@
+package org.basex.index.query;
+
+import org.basex.index.*;
+import org.basex.query.value.type.*;
+import org.basex.util.*;
+
+/**
+ * This class stores a range of typed values of an element or attribute for index access.
+ * Numbers are compared as doubles, dates and date/times by their position on the timeline
+ * (in seconds). Indexes without typed values report negative costs for this token.
+ *
+ * @author BaseX Team 2005-15, BSD License
+ */
+public final class TypedRange implements IndexToken {
+  /** Text/attribute index. */
+  public final boolean text;
+  /** Local name of the element or attribute. */
+  public final byte[] name;
+  /** Type of the compared values ({@link AtomType#DBL}, {@link AtomType#DAT} or {@link AtomType#DTM}). */
+  public final AtomType type;
+  /** Minimum value. */
+  public final double min;
+  /** Include minimum value. */
+  public final boolean mni;
+  /** Maximum value. */
+  public final double max;
+  /** Include maximum value. */
+  public final boolean mxi;
+
+  /**
+   * Constructor.
+   * @param text text/attribute index
+   * @param name local name of the element or attribute
+   * @param type type of the compared values
+   * @param min minimum value
+   * @param mni include minimum value
+   * @param max maximum value
+   * @param mxi include maximum value
+   */
+  public TypedRange(final boolean text, final byte[] name, final AtomType type, final double min,
+      final boolean mni, final double max, final boolean mxi) {
+    this.text = text;
+    this.name = name;
+    this.type = type;
+    this.min = min;
+    this.mni = mni;
+    this.max = max;
+    this.mxi = mxi;
+  }
+
+  @Override
+  public IndexType type() {
+    return text ? IndexType.TEXT : IndexType.ATTRIBUTE;
+  }
+
+  @Override
+  public byte[] get() {
+    return Token.EMPTY;
+  }
+}
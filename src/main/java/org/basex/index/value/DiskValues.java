@@ -93,6 +93,7 @@ public class DiskValues extends ValueIndex {
   public final int costs(final IndexToken it) {
     if(it instanceof StringRange) return Math.max(1, data.meta.size / 10);
     if(it instanceof NumericRange) return Math.max(1, data.meta.size / 3);
+    if(it instanceof TypedRange) return -1;
     return entry(it.get()).size;
   }
 
@@ -14,7 +14,7 @@ import org.basex.io.*;
  */
 public class TableOutput extends OutputStream {
   /** Buffer. */
-  private final byte[] buffer = new byte[IO.BLOCKSIZE];
+  protected final byte[] buffer;
 
   /** The underlying output stream. */
   protected OutputStream os;
@@ -30,7 +30,17 @@ public class TableOutput extends OutputStream {
 
 
   public TableOutput(MetaData md) {
-      meta = md;
+      this(md, IO.BLOCKSIZE);
+  }
+
+  /**
+   * Constructor, specifying the block size.
+   * @param md meta data
+   * @param blocksize size of the written blocks
+   */
+  public TableOutput(final MetaData md, final int blocksize) {
+    meta = md;
+    buffer = new byte[blocksize];
   }
   /**
    * Initializes the output.
@@ -40,14 +50,14 @@ public class TableOutput extends OutputStream {
    * @throws IOException I/O exception
    */
   public TableOutput(final MetaData md, final String fn) throws IOException {
+    this(md);
     os = new FileOutputStream(md.dbfile(fn).file());
-    meta = md;
     file = fn;
   }
 
   @Override
   public void write(final int b) throws IOException {
-    if(pos == IO.BLOCKSIZE) flush();
+    if(pos == buffer.length) flush();
     buffer[pos++] = (byte) b;
   }
 
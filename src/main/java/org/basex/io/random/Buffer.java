@@ -10,9 +10,24 @@ import org.basex.io.*;
  */
 public final class Buffer {
   /** Buffer data. */
-  public byte[] data = new byte[IO.BLOCKSIZE];
+  public byte[] data;
   /** Disk offset, or block position. */
   public long pos = -1;
   /** Dirty flag. */
   public boolean dirty;
+
+  /**
+   * Constructor.
+   */
+  public Buffer() {
+    this(IO.BLOCKSIZE);
+  }
+
+  /**
+   * Constructor, specifying the block size.
+   * @param size block size
+   */
+  public Buffer(final int size) {
+    data = new byte[size];
+  }
 }
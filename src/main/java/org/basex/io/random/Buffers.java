@@ -1,5 +1,7 @@
 package org.basex.io.random;
 
+import org.basex.io.*;
+
 /**
  * This class provides a simple, clock-based buffer management.
  *
@@ -18,7 +20,15 @@ public final class Buffers {
    * Constructor.
    */
   public Buffers() {
-    for(int b = 0; b < BUFFERS; ++b) buf[b] = new Buffer();
+    this(IO.BLOCKSIZE);
+  }
+
+  /**
+   * Constructor, specifying the block size.
+   * @param size block size
+   */
+  public Buffers(final int size) {
+    for(int b = 0; b < BUFFERS; ++b) buf[b] = new Buffer(size);
   }
 
   /**
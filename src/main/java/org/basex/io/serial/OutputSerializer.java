@@ -53,6 +53,11 @@ public abstract class OutputSerializer extends Serializer {
     return out.finished();
   }
 
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
   @Override
   public void close() throws IOException {
     out.flush();
@@ -139,6 +139,12 @@ public abstract class Serializer implements Closeable {
   @Override
   public void close() throws IOException { }
 
+  /**
+   * Writes buffered output to the underlying stream.
+   * @throws IOException I/O exception
+   */
+  public void flush() throws IOException { }
+
   /**
    * Tests if the serialization was interrupted.
    * @return result of check
@@ -407,68 +413,70 @@ public abstract class Serializer implements Closeable {
 
     // loop through all table entries
     final int s = pre + data.size(pre, kind);
-    while(pre < s && !finished()) {
-      kind = data.kind(pre);
-      final int r = data.parent(pre, kind);
-
-      // close opened elements...
-      while(!pars.isEmpty() && pars.peek() >= r) {
-        closeElement();
-        indent = indt.pop();
-        pars.pop();
-      }
+    try(final TextReader tr = data.texts(pre, s - pre)) {
+      while(pre < s && !finished()) {
+        kind = data.kind(pre);
+        final int r = data.parent(pre, kind);
+
+        // close opened elements...
+        while(!pars.isEmpty() && pars.peek() >= r) {
+          closeElement();
+          indent = indt.pop();
+          pars.pop();
+        }
 
-      if(kind == Data.DOC) {
-        if(doc) closeDoc();
-        openDoc(data.text(pre++, true));
-        doc = true;
-      } else if(kind == Data.TEXT) {
-        prepareText(data.text(pre, true), ft != null ? ft.get(data, pre) : null);
-        pre++;
-      } else if(kind == Data.COMM) {
-        prepareComment(data.text(pre++, true));
-      } else {
-        if(kind == Data.PI) {
-          preparePi(data.name(pre, Data.PI), data.atom(pre++));
+        if(kind == Data.DOC) {
+          if(doc) closeDoc();
+          openDoc(tr.text(pre++, true));
+          doc = true;
+        } else if(kind == Data.TEXT) {
+          prepareText(tr.text(pre, true), ft != null ? ft.get(data, pre) : null);
+          pre++;
+        } else if(kind == Data.COMM) {
+          prepareComment(tr.text(pre++, true));
         } else {
-          // add element node
-          final byte[] name = data.name(pre, kind);
-          final byte[] uri = data.nspaces.uri(data.uriId(pre, kind));
-          openElement(new QNm(name, uri));
-
-          // add namespace definitions
-          if(nsp != null) {
-            // add namespaces from database
-            nsp.clear();
-            int pp = pre;
-
-            // check namespace of current element
-            namespace(prefix(name), uri == null ? EMPTY : uri, false);
-
-            do {
-              final Atts ns = data.namespaces(pp);
-              final int nl = ns.size();
-              for(int n = 0; n < nl; n++) {
-                final byte[] pref = ns.name(n);
-                if(nsp.add(pref)) namespace(pref, ns.value(n), false);
-              }
-              // check ancestors only on top level
-              if(level != 0) break;
-
-              pp = data.parent(pp, data.kind(pp));
-            } while(pp >= 0 && data.kind(pp) == Data.ELEM);
-          }
-
-          // serialize attributes
-          indt.push(indent);
-          final int as = pre + data.attSize(pre, kind);
-          while(++pre != as) {
-            final byte[] n = data.name(pre, Data.ATTR);
-            final byte[] v = data.text(pre, false);
-            attribute(n, v, false);
-            if(eq(n, XML_SPACE) && indent) indent = !eq(v, PRESERVE);
+          if(kind == Data.PI) {
+            preparePi(data.name(pre, Data.PI), data.atom(pre++));
+          } else {
+            // add element node
+            final byte[] name = data.name(pre, kind);
+            final byte[] uri = data.nspaces.uri(data.uriId(pre, kind));
+            openElement(new QNm(name, uri));
+
+            // add namespace definitions
+            if(nsp != null) {
+              // add namespaces from database
+              nsp.clear();
+              int pp = pre;
+
+              // check namespace of current element
+              namespace(prefix(name), uri == null ? EMPTY : uri, false);
+
+              do {
+                final Atts ns = data.namespaces(pp);
+                final int nl = ns.size();
+                for(int n = 0; n < nl; n++) {
+                  final byte[] pref = ns.name(n);
+                  if(nsp.add(pref)) namespace(pref, ns.value(n), false);
+                }
+                // check ancestors only on top level
+                if(level != 0) break;
+
+                pp = data.parent(pp, data.kind(pp));
+              } while(pp >= 0 && data.kind(pp) == Data.ELEM);
+            }
+
+            // serialize attributes
+            indt.push(indent);
+            final int as = pre + data.attSize(pre, kind);
+            while(++pre != as) {
+              final byte[] n = data.name(pre, Data.ATTR);
+              final byte[] v = tr.text(pre, false);
+              attribute(n, v, false);
+              if(eq(n, XML_SPACE) && indent) indent = !eq(v, PRESERVE);
+            }
+            pars.push(r);
           }
-          pars.push(r);
         }
       }
     }
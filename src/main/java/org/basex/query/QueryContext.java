@@ -64,10 +64,13 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static org.basex.core.Text.PLEASE_WAIT_D;
 import static org.basex.core.Text.SAVE;
 import static org.basex.query.QueryError.BASX_STACKOVERFLOW;
+import static org.basex.query.QueryError.BASX_STOPPED_X;
 import static org.basex.query.QueryError.BASX_VALUE_X_X;
 import static org.basex.query.QueryError.CIRCCTX;
 import static org.basex.query.QueryError.NOCTX_X;
@@ -187,6 +190,12 @@ public class QueryContext implements Closeable {
   private boolean compiled;
   /** Indicates if the query context has been closed. */
   private boolean closed;
+  /** Reason why the evaluation has been stopped ({@code null} while it may proceed). */
+  private volatile String stopped;
+  /** Number of calls of {@link #checkStop()}; the limits are checked every 1024 calls. */
+  private int checks;
+  /** Parts of the query that are evaluated by other threads. */
+  private final HashSet<Future<?>> forked = new HashSet<>();
 
   public boolean updating = false;
 
@@ -460,6 +469,77 @@ public class QueryContext implements Closeable {
     }
   }
 
+  /**
+   * Stops the evaluation. The query is aborted by the next call of {@link #checkStop()}.
+   * This method may be called by other threads.
+   * @param reason reason
+   */
+  public void stop(final String reason) {
+    if(stopped == null) stopped = reason;
+  }
+
+  /**
+   * Aborts the evaluation if it has been stopped, or if the limits checked by {@link #checkLimits()}
+   * are exceeded. Called by iterators and loops that may run for a long time.
+   * @throws QueryException query exception
+   */
+  public final void checkStop() throws QueryException {
+    if(stopped == null && (++checks & 0x3FF) == 0) checkLimits();
+    if(stopped != null) throw BASX_STOPPED_X.get(null, stopped);
+    if(qcParent != null) qcParent.checkStop();
+  }
+
+  /**
+   * Checks the limits of the evaluation, and calls {@link #stop(String)} if they are exceeded.
+   * Called by the evaluating thread.
+   */
+  protected void checkLimits() {
+  }
+
+  /**
+   * Called by a pool thread before it evaluates a part of this query, e.g. a document of a
+   * {@link org.basex.query.expr.ParallelMap}. Limits that are measured per thread start a new
+   * measurement, as the thread may have evaluated other queries in the meantime.
+   */
+  public void enterThread() {
+  }
+
+  /**
+   * Called by a pool thread after it has evaluated a part of this query.
+   */
+  public void exitThread() {
+  }
+
+  /**
+   * Returns the pool on which the documents of a collection may be evaluated in parallel,
+   * see {@link org.basex.query.expr.ParallelMap}.
+   * @return pool, or {@code null} if the query is evaluated by a single thread
+   */
+  public ForkJoinPool pool() {
+    return null;
+  }
+
+  /**
+   * Registers a part of the query that is evaluated by another thread.
+   * Closing the context waits until all registered parts have finished.
+   * @param task task
+   */
+  public void forked(final Future<?> task) {
+    synchronized(forked) {
+      forked.add(task);
+    }
+  }
+
+  /**
+   * Unregisters a part of the query whose result has been consumed.
+   * @param task task
+   */
+  public void joined(final Future<?> task) {
+    synchronized(forked) {
+      forked.remove(task);
+    }
+  }
+
   /**
    * Evaluates the specified expression and returns an iterator.
    * @param expr expression to be evaluated
@@ -467,7 +547,7 @@ public class QueryContext implements Closeable {
    * @throws QueryException query exception
    */
   public Iter iter(final Expr expr) throws QueryException {
-//    checkStop();
+    checkStop();
     return expr.iter(this);
   }
 
@@ -478,7 +558,7 @@ public class QueryContext implements Closeable {
    * @throws QueryException query exception
    */
   public Value value(final Expr expr) throws QueryException {
-//    checkStop();
+    checkStop();
     return expr.value(this);
   }
 
@@ -667,6 +747,23 @@ public class QueryContext implements Closeable {
     // close only once
     if(closed) return;
 
+    // abort parts of the query that are still evaluated by other threads, and wait for them
+    final Future<?>[] tasks;
+    synchronized(forked) {
+      tasks = forked.toArray(new Future<?>[forked.size()]);
+      forked.clear();
+    }
+    if(tasks.length != 0) {
+      stop("query closed");
+      for(final Future<?> task : tasks) {
+        try {
+          task.get();
+        } catch(final Exception ex) {
+          Util.debug(ex);
+        }
+      }
+    }
+
     if(qcParent == null) {
       closed = true;
       resources.close();
@@ -716,7 +813,7 @@ public class QueryContext implements Closeable {
     if(defaultOutput && data != null) {
       final IntList pres = new IntList();
       while((it = ir.next()) != null && it.data() == data && pres.size() < mx) {
-//        checkStop();
+        checkStop();
         pres.add(((DBNode) it).pre());
       }
 
@@ -734,7 +831,7 @@ public class QueryContext implements Closeable {
 
     // use standard iterator
     while((it = ir.next()) != null && cache.size() < mx) {
-//      checkStop();
+      checkStop();
       cache.add(it.materialize(null));
     }
     return cache.value();
@@ -892,8 +989,17 @@ public class QueryContext implements Closeable {
    * @return self reference
    * @throws QueryException query exception
    */
-  public QueryContext initDateTime() throws QueryException {
-    if(time == null) {
+  public synchronized QueryContext initDateTime() throws QueryException {
+    if(time == null && qcParent != null) {
+      // share the date and time of the parent, which may be evaluated by other threads as well
+      final QueryContext qc = qcParent.initDateTime();
+      time = qc.time;
+      date = qc.date;
+      datm = qc.datm;
+      zone = qc.zone;
+      ms = qc.ms;
+      nano = qc.nano;
+    } else if(time == null) {
       final Date dt = Calendar.getInstance().getTime();
       final String ymd = DateTime.format(dt, DateTime.DATE);
       final String hms = DateTime.format(dt, DateTime.TIME);
@@ -43,6 +43,8 @@ public enum QueryError {
   BASX_ANNTYPE_X_X_X(BASX, 6, "%: % expected, % found."),
   /** BASX0007. */
   BASX_TWICE_X_X(BASX, 6, "Annotation %% was declared twice."),
+  /** BASX0008. */
+  BASX_STOPPED_X(BASX, 8, "Query was stopped: %."),
 
   /** XUST0002. */
   BASEX_MOD(XUST, 2, "All transform expressions must be updating or return an empty sequence."),
@@ -10,6 +10,7 @@ import org.basex.data.Data;
 import org.basex.io.IO;
 import org.basex.io.IOStream;
 import org.basex.query.up.Updates;
+import org.basex.query.util.CollectionFilter;
 import org.basex.query.util.list.ItemList;
 import org.basex.query.util.pkg.ModuleLoader;
 import org.basex.query.value.Value;
@@ -234,6 +235,21 @@ public class QueryResources {
     return colls.get(0);
   }
 
+  /**
+   * Evaluates {@code fn:collection()} for a path that only yields results in documents which
+   * contain the values of the specified filter. Such documents may be skipped.
+   * @param qi query input
+   * @param baseIO base URI
+   * @param info input info
+   * @param filter values the returned documents must contain (can be {@code null})
+   * @return collection
+   * @throws QueryException query exception
+   */
+  public Value collection(final QueryInput qi, final IO baseIO, final InputInfo info,
+      final CollectionFilter filter) throws QueryException {
+    return collection(qi, baseIO, info);
+  }
+
   /**
    * Evaluates {@code fn:collection()}: opens an existing database collection, or creates
    * a new data reference.
@@ -796,6 +796,10 @@ public interface QueryText {
   /** Optimization info. */
   String OPTTCE = "marking as tail call: %";
   /** Optimization info. */
+  String OPTCOLLFILTER = "filtering collection by % values";
+  /** Optimization info. */
+  String OPTPARALLEL = "evaluating documents of % in parallel";
+  /** Optimization info. */
   String OPTFORLET = "moving for/let clauses";
   /** Optimization info. */
   String OPTFORTOLET = "rewriting singleton for to let";
@@ -828,6 +832,8 @@ public interface QueryText {
   /** Optimization info. */
   String OPTSRNGINDEX = "applying string range index for %";
   /** Optimization info. */
+  String OPTTRNGINDEX = "applying typed range index for %";
+  /** Optimization info. */
   String OPTNOINDEX = "removing path with no index results";
   /** Optimization info. */
   String OPTCHILD = "converting % to child steps";
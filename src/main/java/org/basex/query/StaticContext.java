@@ -38,8 +38,8 @@ public final class StaticContext {
 
   /** Construction mode. */
   boolean strip;
-  /** Ordering mode. */
-  boolean ordered;
+  /** Ordering mode ({@code false} if the query declares that its results may be unordered). */
+  public boolean ordered = true;
   /** Default order for empty sequences. */
   boolean orderGreatest;
   /** Boundary-space policy. */
@@ -9,6 +9,7 @@ import org.basex.data.*;
 import org.basex.index.query.*;
 import org.basex.query.*;
 import org.basex.query.expr.CmpV.OpV;
+import org.basex.query.expr.path.Step;
 import org.basex.query.func.*;
 import org.basex.query.iter.*;
 import org.basex.query.util.*;
@@ -20,6 +21,7 @@ import org.basex.query.value.type.SeqType.Occ;
 import org.basex.query.var.*;
 import org.basex.util.*;
 import org.basex.util.hash.*;
+import org.basex.util.list.*;
 
 /**
  * General comparison.
@@ -328,8 +330,35 @@ public final class CmpG extends Cmp {
     return cmp;
   }
 
+  /**
+   * Returns the values which a document must contain for this predicate to be true.
+   * @param step step containing this predicate
+   * @param qc query context
+   * @return filter or {@code null}
+   * @throws QueryException query exception
+   */
+  public CollectionFilter filter(final Step step, final QueryContext qc) throws QueryException {
+    // only equality expressions on default collation compare string values
+    if(op != OpG.EQ || coll != null || !exprs[1].isValue()) return null;
+    final NodeType kind = CollectionFilter.kind(exprs[0], step);
+    if(kind == null) return null;
+
+    final TokenList values = new TokenList();
+    final Iter ir = exprs[1].iter(qc);
+    for(Item it; (it = ir.next()) != null;) {
+      if(!it.type.isStringOrUntyped()) return null;
+      final byte[] string = it.string(info);
+      // empty strings are not indexed
+      if(string.length == 0) return null;
+      values.add(string);
+    }
+    return values.isEmpty() ? null : new CollectionFilter(kind == NodeType.TXT, values);
+  }
+
   @Override
   public boolean indexAccessible(final IndexInfo ii) throws QueryException {
+    // comparisons with dates and date/times can be rewritten for typed range indexes
+    if(exprs[1] instanceof ADate && coll == null) return dateAccessible(ii);
     // only equality expressions on default collation can be rewritten
     if(op != OpG.EQ || coll != null) return false;
 
@@ -388,6 +417,28 @@ public final class CmpG extends Cmp {
     return true;
   }
 
+  /**
+   * Checks if a date or date/time comparison can be rewritten for typed range index access.
+   * @param ii index info
+   * @return result of check
+   */
+  private boolean dateAccessible(final IndexInfo ii) {
+    final ADate date = (ADate) exprs[1];
+    if(date.type != AtomType.DAT && date.type != AtomType.DTM || ii.ic.data.inMemory() ||
+      !exprs[0].seqType().type.isUntyped() || !ii.check(exprs[0], false)) return false;
+
+    final AtomType type = (AtomType) date.type;
+    final double d = date.timeline(), inf = Double.POSITIVE_INFINITY;
+    switch(op) {
+      case EQ: return CmpR.typed(ii, type, d, true, d, true, info);
+      case GE: return CmpR.typed(ii, type, d, true, inf, true, info);
+      case GT: return CmpR.typed(ii, type, d, false, inf, true, info);
+      case LE: return CmpR.typed(ii, type, -inf, true, d, true, info);
+      case LT: return CmpR.typed(ii, type, -inf, true, d, false, info);
+      default: return false;
+    }
+  }
+
   @Override
   public CmpG copy(final QueryContext qc, final VarScope scp, final IntObjMap<Var> vs) {
     return new CmpG(exprs[0].copy(qc, scp, vs), exprs[1].copy(qc, scp, vs), op, coll, sc, info);
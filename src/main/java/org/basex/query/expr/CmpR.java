@@ -149,7 +149,11 @@ public final class CmpR extends Single {
     // accept only location path, string and equality expressions
     final Data data = ii.ic.data;
     // sequential main memory scan is assumed to be faster than range index access
-    if(!mni || !mxi || data.inMemory() || !ii.check(expr, false)) return false;
+    if(data.inMemory() || !ii.check(expr, false)) return false;
+
+    // typed range index: exact cursor range scan
+    if(typed(ii, AtomType.DBL, min, mni, max, mxi, info)) return true;
+    if(!mni || !mxi) return false;
 
     final Stats key = key(ii, ii.text);
     if(key == null) return false;
@@ -181,6 +185,34 @@ public final class CmpR extends Single {
     return true;
   }
 
+  /**
+   * Tries to rewrite a comparison for access to a typed range index.
+   * @param ii index info (must have been checked)
+   * @param type type of the compared values
+   * @param min minimum value
+   * @param mni include minimum value
+   * @param max maximum value
+   * @param mxi include maximum value
+   * @param info input info
+   * @return {@code true} if the index can be accessed
+   */
+  static boolean typed(final IndexInfo ii, final AtomType type, final double min,
+      final boolean mni, final double max, final boolean mxi, final InputInfo info) {
+
+    final Data data = ii.ic.data;
+    final byte[] name = ii.name();
+    if(name == null || !data.nspaces.isEmpty()) return false;
+
+    final TypedRange tr = new TypedRange(ii.text, name, type, min, mni, max, mxi);
+    final int costs = data.costs(tr);
+    if(costs < 0) return false;
+    ii.costs = costs;
+    final TokenBuilder tb = new TokenBuilder().add(name).add(' ');
+    tb.add(mni ? '[' : '(').addExt(min).add(',').addExt(max).add(mxi ? ']' : ')');
+    ii.create(new TypedRangeAccess(info, tr, ii.ic), info, Util.info(OPTTRNGINDEX, tb), true);
+    return true;
+  }
+
   /**
    * Retrieves the statistics key for the element/attribute name.
    * @param ii index info
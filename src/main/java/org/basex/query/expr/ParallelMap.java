@@ -0,0 +1,354 @@
+package org.basex.query.expr;
+
+import static org.basex.query.QueryError.*;
+import static org.basex.query.QueryText.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.basex.query.*;
+import org.basex.query.func.*;
+import org.basex.query.func.fn.*;
+import org.basex.query.iter.*;
+import org.basex.query.util.*;
+import org.basex.query.util.list.*;
+import org.basex.query.value.*;
+import org.basex.query.value.item.*;
+import org.basex.query.value.node.*;
+import org.basex.query.value.seq.*;
+import org.basex.query.value.type.*;
+import org.basex.query.value.type.SeqType.Occ;
+import org.basex.query.var.*;
+import org.basex.util.*;
+import org.basex.util.hash.*;
+
+/**
+ * Evaluates an expression for each document of a collection, with the documents distributed
+ * over the pool of the query context. This expression replaces paths like
+ * {@code collection('c')//x} and FLWOR expressions like {@code for $d in collection('c') ...}.
+ *
+ * Each document is evaluated by a task with its own query context, which shares the resources
+ * and a copy of the variable bindings of the query. The results of a document are passed on as
+ * soon as the results of the previous documents have been passed on, or, if the query declares
+ * {@code unordered} results, as soon as they are available. If no pool is available, the documents
+ * are evaluated one after another.
+ *
+ * @author BaseX Team 2005-15, BSD License
+ */
+public final class ParallelMap extends Arr {
+  /** Variable bound to the documents ({@code null}: documents are bound to the context). */
+  private final Var var;
+  /** Indicates if the results are returned in the order of the documents. */
+  private final boolean ordered;
+
+  /**
+   * Constructor.
+   * @param info input info
+   * @param root collection
+   * @param var variable bound to the documents (may be {@code null})
+   * @param body expression evaluated for each document
+   * @param ordered return results in the order of the documents
+   */
+  private ParallelMap(final InputInfo info, final Expr root, final Var var, final Expr body,
+      final boolean ordered) {
+    super(info, root, body);
+    this.var = var;
+    this.ordered = ordered;
+    seqType = SeqType.get(body.seqType().type, Occ.ZERO_MORE);
+  }
+
+  /**
+   * Returns a parallel evaluation of an expression for the documents of a collection, or
+   * {@code null} if the expression cannot be evaluated by several threads.
+   * @param info input info
+   * @param root root expression
+   * @param var variable bound to the documents (may be {@code null})
+   * @param body expression evaluated for each document
+   * @param qc query context
+   * @return parallel map or {@code null}
+   */
+  public static ParallelMap get(final InputInfo info, final Expr root, final Var var,
+      final Expr body, final QueryContext qc) {
+
+    if(!(root instanceof FnCollection) || qc.pool() == null || qc.root == null ||
+        body.has(Flag.UPD) || body.has(Flag.NDT) || !shareable(body)) return null;
+    qc.compInfo(OPTPARALLEL, root);
+    return new ParallelMap(info, root, var, body, qc.root.sc.ordered);
+  }
+
+  /**
+   * Checks if an expression can be evaluated by several threads at the same time.
+   * Static variables are excluded, as their values are computed and cached on first access.
+   * @param expr expression
+   * @return result of check
+   */
+  private static boolean shareable(final Expr expr) {
+    final HashSet<StaticFunc> funcs = new HashSet<>();
+    return expr.accept(new ASTVisitor() {
+      @Override
+      public boolean staticVar(final StaticVar sv) {
+        return false;
+      }
+
+      @Override
+      public boolean staticFuncCall(final StaticFuncCall call) {
+        final StaticFunc func = call.func();
+        return func == null || !funcs.add(func) || func.expr.accept(this);
+      }
+    });
+  }
+
+  @Override
+  public Expr optimize(final QueryContext qc, final VarScope scp) {
+    seqType = SeqType.get(exprs[1].seqType().type, Occ.ZERO_MORE);
+    return this;
+  }
+
+  @Override
+  public Iter iter(final QueryContext qc) throws QueryException {
+    final Value docs = qc.value(exprs[0]);
+    final ForkJoinPool pool = qc.pool();
+    return pool == null || docs.size() < 2 ? new SerialIter(docs, qc) :
+      new ParallelIter(docs, qc, pool);
+  }
+
+  @Override
+  public Value value(final QueryContext qc) throws QueryException {
+    return qc.iter(this).value();
+  }
+
+  /**
+   * Evaluates the expression for a document.
+   * @param doc document
+   * @param qc query context
+   * @return result iterator
+   * @throws QueryException query exception
+   */
+  private Iter iter(final Item doc, final QueryContext qc) throws QueryException {
+    if(var == null) {
+      qc.value = doc;
+      qc.pos = 1;
+      qc.size = 1;
+    } else {
+      qc.set(var, doc, info);
+    }
+    return qc.iter(exprs[1]);
+  }
+
+  /**
+   * Iterator that evaluates the documents one after another.
+   */
+  private final class SerialIter extends Iter {
+    /** Documents. */
+    private final Value docs;
+    /** Query context. */
+    private final QueryContext qc;
+    /** Current result iterator. */
+    private Iter iter = Empty.ITER;
+    /** Next document. */
+    private long d;
+
+    /**
+     * Constructor.
+     * @param docs documents
+     * @param qc query context
+     */
+    SerialIter(final Value docs, final QueryContext qc) {
+      this.docs = docs;
+      this.qc = qc;
+    }
+
+    @Override
+    public Item next() throws QueryException {
+      final Value cv = qc.value;
+      final long cp = qc.pos, cs = qc.size;
+      try {
+        while(true) {
+          final Item it = iter.next();
+          if(it != null) return it;
+          if(d == docs.size()) return null;
+          iter = ParallelMap.this.iter(docs.itemAt(d++), qc);
+        }
+      } finally {
+        qc.value = cv;
+        qc.pos = cp;
+        qc.size = cs;
+      }
+    }
+  }
+
+  /**
+   * Iterator that distributes the documents over a pool. The number of documents whose
+   * results have not been returned yet is limited to twice the parallelism of the pool.
+   */
+  private final class ParallelIter extends Iter {
+    /** Documents. */
+    private final Value docs;
+    /** Query context. */
+    private final QueryContext qc;
+    /** Pool. */
+    private final ForkJoinPool pool;
+    /** Variable bindings of the query at the time the iterator was created. */
+    private final QueryStack frame = new QueryStack();
+    /** Context value. */
+    private final Value value;
+    /** Context position and size. */
+    private final long pos, size;
+    /** Submitted tasks in the order of their documents. */
+    private final ArrayDeque<Future<ItemList>> pending = new ArrayDeque<>();
+    /** Finished tasks in the order of their completion (only used for unordered results). */
+    private final LinkedBlockingQueue<Future<ItemList>> done = new LinkedBlockingQueue<>();
+    /** Current results. */
+    private Iter iter = Empty.ITER;
+    /** Next document to be submitted. */
+    private long d;
+
+    /**
+     * Constructor.
+     * @param docs documents
+     * @param qc query context
+     * @param pool pool
+     */
+    ParallelIter(final Value docs, final QueryContext qc, final ForkJoinPool pool) {
+      this.docs = docs;
+      this.qc = qc;
+      this.pool = pool;
+      frame.copyFrame(qc.stack);
+      value = qc.value;
+      pos = qc.pos;
+      size = qc.size;
+    }
+
+    @Override
+    public Item next() throws QueryException {
+      while(true) {
+        final Item it = iter.next();
+        if(it != null) return it;
+
+        // keep the pool busy
+        final int window = pool.getParallelism() << 1;
+        while(pending.size() < window && d < docs.size()) submit(d++);
+        if(pending.isEmpty()) return null;
+
+        qc.checkStop();
+        final Future<ItemList> task;
+        try {
+          task = ordered ? pending.peekFirst() : done.take();
+        } catch(final InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw BASX_STOPPED_X.get(info, "interrupted");
+        }
+        pending.remove(task);
+        iter = get(task).iter();
+        qc.joined(task);
+      }
+    }
+
+    /**
+     * Submits the evaluation of a document.
+     * @param doc index of the document
+     */
+    private void submit(final long doc) {
+      final FutureTask<ItemList> task = new FutureTask<ItemList>(new Callable<ItemList>() {
+        @Override
+        public ItemList call() throws QueryException {
+          qc.enterThread();
+          try {
+            final QueryContext tc = new QueryContext(qc);
+            tc.resources = qc.resources;
+            tc.maxCalls = qc.maxCalls;
+            tc.value = value;
+            tc.pos = pos;
+            tc.size = size;
+            tc.stack.copyFrame(frame);
+            tc.checkStop();
+            final ItemList list = new ItemList();
+            final Iter ir = ParallelMap.this.iter(docs.itemAt(doc), tc);
+            for(Item it; (it = ir.next()) != null;) list.add(it);
+            return list;
+          } finally {
+            qc.exitThread();
+          }
+        }
+      }) {
+        @Override
+        protected void done() {
+          // ordered results are taken from the pending tasks, so the queue would keep all results
+          if(!ordered) done.add(this);
+        }
+      };
+      pending.add(task);
+      qc.forked(task);
+      pool.execute(task);
+    }
+
+    /**
+     * Returns the results of a task.
+     * @param task task
+     * @return results
+     * @throws QueryException query exception
+     */
+    private ItemList get(final Future<ItemList> task) throws QueryException {
+      try {
+        return task.get();
+      } catch(final InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw BASX_STOPPED_X.get(info, "interrupted");
+      } catch(final ExecutionException ex) {
+        final Throwable th = ex.getCause();
+        if(th instanceof QueryException) throw (QueryException) th;
+        if(th instanceof RuntimeException) throw (RuntimeException) th;
+        if(th instanceof Error) throw (Error) th;
+        throw Util.notExpected(th);
+      }
+    }
+  }
+
+  @Override
+  public boolean has(final Flag flag) {
+    if(flag == Flag.CTX && var == null) return exprs[0].has(flag);
+    return super.has(flag);
+  }
+
+  @Override
+  public boolean removable(final Var v) {
+    return exprs[0].removable(v) && !exprs[1].uses(v);
+  }
+
+  @Override
+  public VarUsage count(final Var v) {
+    return exprs[1].uses(v) ? VarUsage.MORE_THAN_ONCE : exprs[0].count(v);
+  }
+
+  @Override
+  public ParallelMap copy(final QueryContext qc, final VarScope scp, final IntObjMap<Var> vs) {
+    final Expr root = exprs[0].copy(qc, scp, vs);
+    Var v = null;
+    if(var != null) {
+      v = scp.newCopyOf(qc, var);
+      vs.put(var.id, v);
+    }
+    return copyType(new ParallelMap(info, root, v, exprs[1].copy(qc, scp, vs), ordered));
+  }
+
+  @Override
+  public boolean accept(final ASTVisitor visitor) {
+    if(!exprs[0].accept(visitor)) return false;
+    if(var != null) return visitor.declared(var) && exprs[1].accept(visitor);
+    visitor.enterFocus();
+    if(!exprs[1].accept(visitor)) return false;
+    visitor.exitFocus();
+    return true;
+  }
+
+  @Override
+  public void plan(final FElem plan) {
+    addPlan(plan, planElem(ORDERED, Token.token(ordered)), var, exprs);
+  }
+
+  @Override
+  public String toString() {
+    return var == null ? "(" + exprs[0] + '/' + exprs[1] + ')' :
+      "(" + FOR + ' ' + var + ' ' + IN + ' ' + exprs[0] + ' ' + RETURN + ' ' + exprs[1] + ')';
+  }
+}
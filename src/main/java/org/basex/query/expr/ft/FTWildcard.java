@@ -134,6 +134,16 @@ public final class FTWildcard {
     return match(cps(t), 0, 0);
   }
 
+  /**
+   * Checks if the wildcard can match a string starting with the specified characters.
+   * @param t characters
+   * @param tl number of characters to consider
+   * @return {@code false} if no string with this prefix is matched
+   */
+  public boolean prefix(final int[] t, final int tl) {
+    return prefix(t, tl, 0, 0);
+  }
+
   /**
    * Indicates if the input contains no wildcard characters.
    * @return result of check
@@ -167,4 +177,32 @@ public final class FTWildcard {
     }
     return ti == tl;
   }
+
+  /**
+   * Checks if the wildcard can match a string starting with the specified characters.
+   * @param t characters
+   * @param tl number of characters to consider
+   * @param tp input position
+   * @param qp query position
+   * @return {@code false} if no string with this prefix is matched
+   */
+  private boolean prefix(final int[] t, final int tl, final int tp, final int qp) {
+    int qi = qp;
+    int ti = tp;
+    while(qi < size) {
+      if(ti == tl) return true;
+      if(wc[qi] == DOT) {
+        final int n = min[qi];
+        final int m = max[qi++];
+        // the remaining characters may all be consumed by the wildcard
+        if(ti + n >= tl) return true;
+        for(int c = n; c <= m && ti + c <= tl; c++) {
+          if(prefix(t, tl, ti + c, qi)) return true;
+        }
+        return false;
+      }
+      if(t[ti++] != wc[qi++]) return false;
+    }
+    return ti == tl;
+  }
 }
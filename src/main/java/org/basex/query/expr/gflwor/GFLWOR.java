@@ -10,9 +10,11 @@ import org.basex.query.expr.CmpR;
 import org.basex.query.expr.Expr;
 import org.basex.query.expr.If;
 import org.basex.query.expr.ParseExpr;
+import org.basex.query.expr.ParallelMap;
 import org.basex.query.expr.Pos;
 import org.basex.query.expr.TypeCheck;
 import org.basex.query.expr.path.AxisPath;
+import org.basex.query.func.fn.FnCollection;
 import org.basex.query.func.fn.FnError;
 import org.basex.query.iter.Iter;
 import org.basex.query.util.ASTVisitor;
@@ -111,7 +113,7 @@ public final class GFLWOR extends ParseExpr {
       public Item next() throws QueryException {
         for(;;) {
           final Item it = sub.next();
-//          qc.checkStop();
+          qc.checkStop();
           if(it != null) return it;
           if(!ev.next(qc)) {
             sub = null;
@@ -277,6 +279,25 @@ public final class GFLWOR extends ParseExpr {
       return new If(info, wh.expr, clauses.isEmpty() ? ret : this, Empty.SEQ);
     }
 
+    // for $d in collection(...) <...> return B  ===>  evaluate documents in parallel
+    if(isFLWR() && clauses.getFirst() instanceof For) {
+      final For fst = (For) clauses.getFirst();
+      if(fst.expr instanceof FnCollection && fst.pos == null && fst.score == null && !fst.empty) {
+        final Expr body;
+        if(clauses.size() == 1) {
+          body = ret;
+        } else {
+          final LinkedList<Clause> cls = new LinkedList<>(clauses.subList(1, clauses.size()));
+          final GFLWOR sub = new GFLWOR(info, cls, ret);
+          sub.size = sub.calcSize();
+          sub.seqType = SeqType.get(ret.seqType().type, sub.size);
+          body = sub;
+        }
+        final Expr pm = ParallelMap.get(info, fst.expr, fst.var, body, qc);
+        if(pm != null) return pm;
+      }
+    }
+
     return this;
   }
 
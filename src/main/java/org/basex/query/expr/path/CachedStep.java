@@ -31,7 +31,7 @@ final class CachedStep extends Step {
   @Override
   public NodeIter iter(final QueryContext qc) throws QueryException {
     // evaluate step
-    final BasicNodeIter iter = axis.iter(checkNode(qc));
+    final BasicNodeIter iter = iter(checkNode(qc));
     final ANodeList list = new ANodeList();
     for(ANode n; (n = iter.next()) != null;) {
       if(test.eq(n)) list.add(n.finish());
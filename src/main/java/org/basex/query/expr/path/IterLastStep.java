@@ -37,11 +37,11 @@ final class IterLastStep extends Step {
         stop = true;
 
         // return last items
-        final BasicNodeIter iter = axis.iter(checkNode(qc));
+        final BasicNodeIter iter = iter(checkNode(qc));
         ANode litem = null;
         final Test tst = test;
         for(ANode item; (item = iter.next()) != null;) {
-//          qc.checkStop();
+          qc.checkStop();
           if(tst.eq(item)) litem = item.finish();
         }
         return litem == null ? null : litem;
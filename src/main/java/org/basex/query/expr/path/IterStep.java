@@ -34,9 +34,9 @@ final class IterStep extends Step {
 
       @Override
       public ANode next() throws QueryException {
-        if(iter == null) iter = axis.iter(checkNode(qc));
+        if(iter == null) iter = iter(checkNode(qc));
         for(ANode node; (node = iter.next()) != null;) {
-//          qc.checkStop();
+          qc.checkStop();
           if(test.eq(node) && preds(node, qc)) return node.finish();
         }
         return null;
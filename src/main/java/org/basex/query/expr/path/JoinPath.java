@@ -0,0 +1,257 @@
+package org.basex.query.expr.path;
+
+import static org.basex.query.QueryError.*;
+
+import org.basex.data.*;
+import org.basex.index.*;
+import org.basex.index.query.*;
+import org.basex.query.*;
+import org.basex.query.expr.*;
+import org.basex.query.iter.*;
+import org.basex.query.util.*;
+import org.basex.query.util.list.*;
+import org.basex.query.value.*;
+import org.basex.query.value.item.*;
+import org.basex.query.value.node.*;
+import org.basex.query.var.*;
+import org.basex.util.*;
+import org.basex.util.hash.*;
+import org.basex.util.list.*;
+
+/**
+ * Axis path expression with descendant steps that are evaluated by structural joins.
+ *
+ * The path is evaluated step by step. For a descendant step with a name test, the sorted
+ * context nodes of a database are reduced to the outermost nodes, and their pre/size intervals
+ * are merged with the sorted pre values of all candidate elements, which are looked up in the
+ * element-name index, or derived from attribute hits in the value index if the step has an
+ * equality predicate on an attribute. A join is chosen if its estimated costs are lower than
+ * those of navigating the subtrees of the context nodes.
+ *
+ * @author BaseX Team 2005-15, BSD License
+ */
+final class JoinPath extends AxisPath {
+  /**
+   * Constructor.
+   * @param info input info
+   * @param root root expression; can be a {@code null} reference
+   * @param steps axis steps
+   */
+  JoinPath(final InputInfo info, final Expr root, final Expr... steps) {
+    super(info, root, steps);
+  }
+
+  /**
+   * Checks if a path contains steps that can be evaluated by structural joins.
+   * @param steps axis steps
+   * @return result of check
+   */
+  static boolean joinable(final Expr... steps) {
+    for(final Expr step : steps) {
+      if(((Step) step).joinable()) return true;
+    }
+    return false;
+  }
+
+  @Override
+  protected NodeIter nodeIter(final QueryContext qc) throws QueryException {
+    final long cp = qc.pos, cs = qc.size;
+    final Value cv = qc.value, r = root != null ? qc.value(root) : cv;
+    ANodeList list = new ANodeList().check();
+    try {
+      if(r != null) {
+        final Iter ir = qc.iter(r);
+        for(Item it; (it = ir.next()) != null;) {
+          // ensure that root only returns nodes
+          if(root != null && !(it instanceof ANode))
+            throw PATHNODE_X_X_X.get(info, steps[0], it.type, it);
+          qc.value = it;
+          list.add(step(0).checkNode(qc));
+        }
+      } else {
+        qc.value = null;
+        step(0).checkNode(qc);
+      }
+      for(final Expr step : steps) {
+        final ANodeList nodes = new ANodeList().check();
+        iter((Step) step, list, nodes, qc);
+        list = nodes;
+      }
+    } finally {
+      qc.value = cv;
+      qc.size = cs;
+      qc.pos = cp;
+    }
+    return list.iter();
+  }
+
+  /**
+   * Evaluates a step for all context nodes.
+   * @param step step
+   * @param context context nodes
+   * @param nodes resulting nodes
+   * @param qc query context
+   * @throws QueryException query exception
+   */
+  private static void iter(final Step step, final ANodeList context, final ANodeList nodes,
+      final QueryContext qc) throws QueryException {
+
+    if(step.joinable()) {
+      // group the database nodes (nodes of the same database are adjacent in document order)
+      final ANodeList group = new ANodeList();
+      final IntList pres = new IntList();
+      Data data = null;
+      for(final ANode node : context) {
+        if(node instanceof DBNode) {
+          if(node.data() != data) {
+            join(step, data, group, pres, nodes, qc);
+            data = node.data();
+          }
+          group.add(node);
+          pres.add(((DBNode) node).pre());
+        } else {
+          iter(step, node, nodes, qc);
+        }
+      }
+      join(step, data, group, pres, nodes, qc);
+    } else {
+      for(final ANode node : context) iter(step, node, nodes, qc);
+    }
+  }
+
+  /**
+   * Evaluates a step for a single context node.
+   * @param step step
+   * @param node context node
+   * @param nodes resulting nodes
+   * @param qc query context
+   * @throws QueryException query exception
+   */
+  private static void iter(final Step step, final ANode node, final ANodeList nodes,
+      final QueryContext qc) throws QueryException {
+
+    qc.value = node;
+    // cast is safe (steps will always return a {@link NodeIter} instance)
+    final NodeIter ni = (NodeIter) qc.iter(step);
+    for(ANode n; (n = ni.next()) != null;) nodes.add(n);
+  }
+
+  /**
+   * Evaluates a step for the sorted context nodes of a database. The nodes are joined with
+   * index candidates if this is estimated to be cheaper than navigating their subtrees.
+   * The group is reset afterwards.
+   * @param step step
+   * @param data data reference (may be {@code null} if the group is empty)
+   * @param group context nodes
+   * @param pres pre values of the context nodes
+   * @param nodes resulting nodes
+   * @param qc query context
+   * @throws QueryException query exception
+   */
+  private static void join(final Step step, final Data data, final ANodeList group,
+      final IntList pres, final ANodeList nodes, final QueryContext qc) throws QueryException {
+
+    final int gs = group.size();
+    if(gs == 0) return;
+
+    // staircase pruning: descendants of other context nodes add no further results
+    final IntList starts = new IntList(), ends = new IntList();
+    long subtrees = 0;
+    for(int i = 0; i < gs; i++) {
+      final int pre = pres.get(i);
+      if(!ends.isEmpty() && pre < ends.peek()) continue;
+      final int end = pre + data.size(pre, data.kind(pre));
+      starts.add(pre);
+      ends.add(end);
+      subtrees += end - pre;
+    }
+
+    // estimate the costs of navigation and of the joins, and choose the cheapest candidates
+    final int ss = starts.size();
+    final int[] names = data.nameIndex != null ?
+      data.nameIndex.pres(((NameTest) step.test).local) : null;
+    long costs = names != null ? Math.min(subtrees, ss * (long) Step.search(names)) : subtrees;
+    int[] cands = null;
+    if(names != null && ss + names.length < costs) {
+      costs = ss + names.length;
+      cands = names;
+    }
+    final int[] values = values(step, data, costs - ss, qc);
+    if(values != null) cands = values;
+
+    if(cands == null) {
+      for(int i = 0; i < gs; i++) iter(step, group.get(i), nodes, qc);
+    } else {
+      // merge the sorted intervals of the context nodes with the sorted candidates
+      final boolean self = step.axis == Axis.DESCORSELF;
+      int s = 0;
+      for(final int pre : cands) {
+        while(s < ss && ends.get(s) <= pre) s++;
+        if(s == ss) break;
+        final int start = starts.get(s);
+        if(pre > start || self && pre == start) {
+          qc.checkStop();
+          final DBNode node = new DBNode(data, pre);
+          if(step.matches(node, qc)) nodes.add(node.finish());
+        }
+      }
+    }
+    group.reset();
+    pres.reset();
+  }
+
+  /**
+   * Returns the sorted parents of the attributes that are found in the value index for an
+   * equality predicate of the step, if the index lookups are cheaper than the specified costs.
+   * @param step step
+   * @param data data reference
+   * @param max maximum costs
+   * @param qc query context
+   * @return pre values or {@code null}
+   * @throws QueryException query exception
+   */
+  private static int[] values(final Step step, final Data data, final long max,
+      final QueryContext qc) throws QueryException {
+
+    final Index index = data.attrIndex;
+    if(index == null || !data.meta.attrindex || !data.meta.attrinclude.isEmpty()) return null;
+
+    for(final Expr pred : step.preds) {
+      if(!(pred instanceof CmpG)) continue;
+      final CollectionFilter cf = ((CmpG) pred).filter(step, qc);
+      // the compared path must select the attributes of the candidates
+      final Expr expr = ((CmpG) pred).exprs[0];
+      if(cf == null || cf.text || !(expr instanceof AxisPath) ||
+         ((AxisPath) expr).steps.length != 1 || ((AxisPath) expr).step(0).axis != Axis.ATTR) continue;
+
+      long costs = 0;
+      final int vs = cf.values.size();
+      final StringToken[] tokens = new StringToken[vs];
+      for(int v = 0; v < vs; v++) {
+        final byte[] value = cf.values.get(v);
+        // longer values are not indexed
+        if(value.length > data.meta.maxlen) return null;
+        tokens[v] = new StringToken(false, value);
+        costs += index.costs(tokens[v]);
+      }
+      if(costs >= max) return null;
+
+      final IntList pres = new IntList();
+      for(final StringToken token : tokens) {
+        final IndexIterator ii = index.iter(token);
+        while(ii.more()) {
+          final int pre = ii.pre();
+          pres.add(data.parent(pre, data.kind(pre)));
+        }
+      }
+      return pres.sort().distinct().finish();
+    }
+    return null;
+  }
+
+  @Override
+  public AxisPath copy(final QueryContext qc, final VarScope scp, final IntObjMap<Var> vs) {
+    final Expr rt = root == null ? null : root.copy(qc, scp, vs);
+    return copyType(new JoinPath(info, rt, Arr.copyAll(qc, scp, vs, steps)));
+  }
+}
@@ -108,6 +108,7 @@ public abstract class Path extends ParseExpr {
 
     // choose best implementation
     return axes ? iterative(rt, st) ? new IterPath(info, rt, st) :
+      JoinPath.joinable(st) ? new JoinPath(info, rt, st) :
       new CachedPath(info, rt, st) : new MixedPath(info, rt, st);
   }
 
@@ -164,6 +165,15 @@ public abstract class Path extends ParseExpr {
     Expr e = mergeSteps(qc);
     if(e != this) return e.optimize(qc, scp);
 
+    // let the collection skip documents without the compared values
+    if(root instanceof FnCollection) {
+      final CollectionFilter cf = CollectionFilter.get(this, qc);
+      if(cf != null) {
+        qc.compInfo(OPTCOLLFILTER, cf);
+        ((FnCollection) root).filter(cf);
+      }
+    }
+
     if(v != null && v.type == NodeType.DOC) {
       // check index access
       e = index(qc, v);
@@ -187,6 +197,15 @@ public abstract class Path extends ParseExpr {
       }
     }
 
+    // evaluate the documents of a collection in parallel
+    if(root instanceof FnCollection) {
+      final Path rel = get(info, null, steps);
+      rel.size = rel.size(qc);
+      rel.seqType = SeqType.get(steps[steps.length - 1].seqType().type, rel.size);
+      final Expr pm = ParallelMap.get(info, root, null, rel, qc);
+      if(pm != null) return pm;
+    }
+
     // choose best path implementation and set type information
     final Path path = get(info, root, steps);
     path.size = path.size(qc);
@@ -12,6 +12,7 @@ import org.basex.query.*;
 import org.basex.query.expr.*;
 import org.basex.query.expr.path.Test.Kind;
 import org.basex.query.func.*;
+import org.basex.query.iter.*;
 import org.basex.query.util.*;
 import org.basex.query.value.*;
 import org.basex.query.value.node.*;
@@ -20,6 +21,7 @@ import org.basex.query.value.type.*;
 import org.basex.query.var.*;
 import org.basex.util.*;
 import org.basex.util.hash.*;
+import org.basex.util.list.*;
 
 /**
  * Abstract axis step expression.
@@ -192,6 +194,67 @@ public abstract class Step extends Preds {
     return get(info, axis, test, preds);
   }
 
+  /**
+   * Returns an iterator for the nodes on the axis of this step. Descendant elements of database
+   * nodes are looked up in the element-name index of the database, if it exists and if the
+   * subtree of the node is larger than the costs of searching the index.
+   * @param node context node
+   * @return iterator
+   */
+  final BasicNodeIter iter(final ANode node) {
+    if(named() && node instanceof DBNode) {
+      final Data data = node.data();
+      if(data.nameIndex != null) {
+        final DBNode dbnode = (DBNode) node;
+        final int pre = dbnode.pre();
+        final int[] pres = data.nameIndex.pres(((NameTest) test).local);
+        if(data.size(pre, data.kind(pre)) > search(pres)) {
+          return dbnode.descendant(pres, axis == Axis.DESCORSELF);
+        }
+      }
+    }
+    return axis.iter(node);
+  }
+
+  /**
+   * Checks if this step selects descendant elements by their name.
+   * @return result of check
+   */
+  final boolean named() {
+    return (axis == Axis.DESC || axis == Axis.DESCORSELF) && test.type == NodeType.ELM &&
+      (test.kind == Kind.NAME || test.kind == Kind.URI_NAME);
+  }
+
+  /**
+   * Checks if the results of this step can be computed by a structural join, see {@link JoinPath}.
+   * Positional predicates require the nodes of each context node in document order.
+   * @return result of check
+   */
+  final boolean joinable() {
+    return this instanceof IterStep && named();
+  }
+
+  /**
+   * Checks if a node on the axis of this step is accepted by the node test and the predicates.
+   * @param node node
+   * @param qc query context
+   * @return result of check
+   * @throws QueryException query exception
+   */
+  final boolean matches(final ANode node, final QueryContext qc) throws QueryException {
+    return test.eq(node) && preds(node, qc);
+  }
+
+  /**
+   * Returns the estimated costs of finding the first descendant of a node in the pre values
+   * of the element-name index.
+   * @param pres pre values
+   * @return costs of a binary search
+   */
+  static int search(final int[] pres) {
+    return 32 - Integer.numberOfLeadingZeros(pres.length);
+  }
+
   /**
    * Throws an exception if the context value is not a node.
    * @param qc query context
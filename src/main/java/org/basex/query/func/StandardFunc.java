@@ -76,9 +76,11 @@ public abstract class StandardFunc extends Arr {
 
   @Override
   public final Expr optimize(final QueryContext qc, final VarScope scp) throws QueryException {
-    // skip context-based or non-deterministic functions, and non-values
+    // skip context-based or non-deterministic functions, and non-values. collections are opened
+    // at runtime, as paths and FLWOR expressions may narrow or distribute their documents
     return optPre(has(Flag.CTX) || has(Flag.NDT) || has(Flag.HOF) || has(Flag.UPD) ||
-        !allAreValues() ? opt(qc, scp) : sig.ret.zeroOrOne() ? item(qc, info) : value(qc), qc);
+        !allAreValues() || sig == Function.COLLECTION ? opt(qc, scp) :
+        sig.ret.zeroOrOne() ? item(qc, info) : value(qc), qc);
   }
 
   /**
@@ -389,7 +391,7 @@ public abstract class StandardFunc extends Arr {
       throws QueryException {
 
     for(Item it; (it = iter.next()) != null;) {
-//      qc.checkStop();
+      qc.checkStop();
       if(it instanceof FItem) throw FISTRING_X.get(info, it.type);
       cache.add(it.materialize(info));
     }
@@ -5,6 +5,7 @@ import org.basex.query.QueryContext;
 import org.basex.query.QueryException;
 import org.basex.query.func.StandardFunc;
 import org.basex.query.util.ASTVisitor;
+import org.basex.query.util.CollectionFilter;
 import org.basex.query.value.Value;
 import org.basex.query.value.item.Item;
 import org.basex.query.value.item.Str;
@@ -35,6 +36,17 @@ public abstract class Docs extends StandardFunc {
    * @throws QueryException query exception
    */
   Value collection(final QueryContext qc) throws QueryException {
+    return collection(qc, null);
+  }
+
+  /**
+   * Returns a collection.
+   * @param qc query context
+   * @param filter values the returned documents must contain (can be {@code null})
+   * @return collection
+   * @throws QueryException query exception
+   */
+  Value collection(final QueryContext qc, final CollectionFilter filter) throws QueryException {
     // return default collection
     final Item it = exprs.length == 0 ? null : exprs[0].atomItem(qc, info);
     if(it == null) return qc.resources.collection(info);
@@ -42,7 +54,7 @@ public abstract class Docs extends StandardFunc {
     // check if reference is valid
     final byte[] in = toToken(it);
     if(!Uri.uri(in).isValid()) throw INVCOLL_X.get(info, in);
-    return qc.resources.collection(new QueryInput(string(in)), sc.baseIO(), info);
+    return qc.resources.collection(new QueryInput(string(in)), sc.baseIO(), info, filter);
   }
 
   /**
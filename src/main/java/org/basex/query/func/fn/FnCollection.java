@@ -2,6 +2,7 @@ package org.basex.query.func.fn;
 
 import org.basex.query.*;
 import org.basex.query.iter.*;
+import org.basex.query.util.*;
 import org.basex.query.value.*;
 
 /**
@@ -11,6 +12,18 @@ import org.basex.query.value.*;
  * @author Christian Gruen
  */
 public final class FnCollection extends Docs {
+  /** Values the returned documents must contain, set by a path on this collection. */
+  private CollectionFilter filter;
+
+  /**
+   * Sets the values the returned documents must contain. Documents without these values
+   * may, but need not, be skipped.
+   * @param cf filter
+   */
+  public void filter(final CollectionFilter cf) {
+    filter = cf;
+  }
+
   @Override
   public Iter iter(final QueryContext qc) throws QueryException {
     return value(qc).iter();
@@ -18,7 +31,7 @@ public final class FnCollection extends Docs {
 
   @Override
   public Value value(final QueryContext qc) throws QueryException {
-    return collection(qc);
+    return collection(qc, filter);
   }
 
   @Override
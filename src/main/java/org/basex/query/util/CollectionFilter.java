@@ -0,0 +1,79 @@
+package org.basex.query.util;
+
+import org.basex.query.*;
+import org.basex.query.expr.*;
+import org.basex.query.expr.path.*;
+import org.basex.query.value.type.*;
+import org.basex.util.list.*;
+
+/**
+ * Values that a document must contain to yield results for a path on a collection.
+ * A path like {@code collection('c')//item[@id = 'x']} has no results in documents without an
+ * attribute value {@code x}, so the query resources may skip these documents, e.g. by consulting
+ * a collection-wide value index.
+ */
+public final class CollectionFilter {
+  /** Text nodes and element values are compared (otherwise attribute values). */
+  public final boolean text;
+  /** Compared strings; a document qualifies if it contains at least one of them. */
+  public final TokenList values;
+
+  /**
+   * Constructor.
+   * @param text text flag
+   * @param values compared strings
+   */
+  public CollectionFilter(final boolean text, final TokenList values) {
+    this.text = text;
+    this.values = values;
+  }
+
+  /**
+   * Returns a filter for the specified path. Only the axis steps up to the first other
+   * expression are considered, as later steps may leave the documents of the collection.
+   * @param path path on a collection
+   * @param qc query context
+   * @return filter or {@code null}
+   * @throws QueryException query exception
+   */
+  public static CollectionFilter get(final Path path, final QueryContext qc) throws QueryException {
+    for(final Expr expr : path.steps) {
+      if(!(expr instanceof Step)) break;
+      final Step step = (Step) expr;
+      for(final Expr pred : step.preds) {
+        if(!(pred instanceof CmpG)) continue;
+        final CollectionFilter cf = ((CmpG) pred).filter(step, qc);
+        if(cf != null) return cf;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks if the nodes compared by the specified expression are text nodes or elements,
+   * or attributes.
+   * @param expr compared expression (must be {@link ContextValue} or relative {@link AxisPath})
+   * @param step step containing the predicate
+   * @return {@link NodeType#TXT}, {@link NodeType#ATT} or {@code null}
+   */
+  public static NodeType kind(final Expr expr, final Step step) {
+    final Step last;
+    if(expr instanceof ContextValue) {
+      last = step;
+    } else if(expr instanceof AxisPath && ((AxisPath) expr).root == null) {
+      final AxisPath path = (AxisPath) expr;
+      last = path.step(path.steps.length - 1);
+    } else {
+      return null;
+    }
+    // comments and processing instructions are not part of element values
+    final NodeType type = last.test.type;
+    return type == NodeType.ELM || type == NodeType.TXT ? NodeType.TXT :
+      type == NodeType.ATT ? NodeType.ATT : null;
+  }
+
+  @Override
+  public String toString() {
+    return (text ? "text" : "attribute") + ' ' + values;
+  }
+}
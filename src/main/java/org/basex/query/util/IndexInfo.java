@@ -108,6 +108,16 @@ public final class IndexInfo {
     info = opt;
   }
 
+  /**
+   * Returns the local name of the elements or attributes whose values are compared.
+   * Must be called after {@link #check}.
+   * @return local name, or {@code null} if the compared nodes have no single name
+   */
+  public byte[] name() {
+    final byte[][] qname = qname();
+    return qname == null ? null : qname[0];
+  }
+
   /**
    * Returns the local name and namespace uri of the last name test.
    * If the returned name or uri is null, it represents a wildcard.
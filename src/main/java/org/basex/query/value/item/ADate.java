@@ -402,6 +402,14 @@ public abstract class ADate extends ADateDur {
       tz == Short.MAX_VALUE ? Integer.MIN_VALUE : tz);
   }
 
+  /**
+   * Returns the position of the date on the timeline, in seconds, as used for comparisons.
+   * @return seconds
+   */
+  public final double timeline() {
+    return seconds().add(days().multiply(DAYSECONDS)).doubleValue();
+  }
+
   /**
    * Returns the date in seconds.
    * @return seconds
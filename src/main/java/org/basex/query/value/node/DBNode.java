@@ -27,6 +27,7 @@ import org.basex.util.hash.IntObjMap;
 import org.basex.util.list.ByteList;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import static org.basex.query.QueryText.BASE;
 import static org.basex.query.QueryText.NAM;
@@ -389,6 +390,32 @@ public class DBNode extends ANode {
     };
   }
 
+  /**
+   * Returns the descendant elements with the specified pre values.
+   * @param pres ascending pre values of elements, e.g. from the {@link Data#nameIndex}
+   * @param self include the node itself
+   * @return iterator
+   */
+  public final BasicNodeIter descendant(final int[] pres, final boolean self) {
+    return new BasicNodeIter() {
+      final DBNode node = copy();
+      final int last = pre + data.size(pre, data.kind(pre));
+      int curr = start(self ? pre : pre + 1);
+
+      @Override
+      public ANode next() {
+        if(curr == pres.length || pres[curr] >= last) return null;
+        node.set(pres[curr++], Data.ELEM);
+        return node;
+      }
+
+      private int start(final int p) {
+        final int i = Arrays.binarySearch(pres, p);
+        return i < 0 ? -i - 1 : i;
+      }
+    };
+  }
+
   @Override
   public final BasicNodeIter following() {
     return new BasicNodeIter() {
@@ -48,6 +48,18 @@ public final class QueryStack {
     end = s + size;
   }
 
+  /**
+   * Enters a new stack frame with a copy of the current frame of another stack. The other stack
+   * is only read, so several threads can copy the same frame.
+   * @param qs stack to copy from
+   */
+  public void copyFrame(final QueryStack qs) {
+    final int size = qs.end - qs.start;
+    enterFrame(size);
+    System.arraycopy(qs.stack, qs.start, stack, start, size);
+    System.arraycopy(qs.vars, qs.start, vars, start, size);
+  }
+
   /**
    * Exits a stack frame and makes all bound variables eligible for garbage collection.
    * @param frame frame pointer of the underlying stack frame
@@ -89,12 +89,14 @@ public final class Levenshtein {
       matrix = mx;
     }
 
+    // the matrix is indexed by characters, the tokens by bytes
+    final int tb = tk.length, sbl = sb.length;
     int e2 = -1, f2 = -1;
-    for(int t = 0; t < tl; t += cl(tk, t)) {
-      final int e = noDiacritics(lc(cp(tk, t)));
+    for(int t = 0, ti = 0; ti < tb; ti += cl(tk, ti), t++) {
+      final int e = noDiacritics(lc(cp(tk, ti)));
       int d = Integer.MAX_VALUE;
-      for(int s = 0; s < sl; s += cl(sb, s)) {
-        final int f = noDiacritics(lc(cp(sb, s)));
+      for(int s = 0, si = 0; si < sbl; si += cl(sb, si), s++) {
+        final int f = noDiacritics(lc(cp(sb, si)));
         int c = m(mx[t][s + 1] + 1, mx[t + 1][s] + 1, mx[t][s] + (e == f ? 0 : 1));
         if(e == f2 && f == e2) c = mx[t][s];
         mx[t + 1][s + 1] = c;
@@ -128,7 +130,7 @@ public final class Levenshtein {
   private static boolean same(final byte[] tk, final byte[] sb) {
     final int tl = tk.length, sl = sb.length;
     for(int s = 0, t = 0; t < tl && s < sl; t += cl(tk, t), s += cl(sb, s)) {
-      if(lc(noDiacritics(cp(tk, t))) != lc(noDiacritics(cp(sb, t)))) return false;
+      if(lc(noDiacritics(cp(tk, t))) != lc(noDiacritics(cp(sb, s)))) return false;
     }
     return true;
   }
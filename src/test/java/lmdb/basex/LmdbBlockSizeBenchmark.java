@@ -0,0 +1,82 @@
+package lmdb.basex;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Stat;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import static lmdb.basex.LmdbDataManager.env;
+import static lmdb.basex.LmdbDataManager.tableaccessdb;
+import static lmdb.basex.LmdbDataManager.txtindexldb;
+import static lmdb.basex.LmdbDataManager.txtindexrdb;
+
+/**
+ * Compares storage size and scan throughput of the table and index block sizes.
+ * Not a unit test, run it with an XML file as argument (defaults to the factbook).
+ */
+public class LmdbBlockSizeBenchmark {
+
+    static {
+        System.setProperty("log4j.defaultInitOverride", "true");
+        LogManager.resetConfiguration();
+        LogManager.getRootLogger().removeAllAppenders();
+        LogManager.getRootLogger().setLevel(Level.toLevel("off"));
+    }
+
+    private static final String HOME = "./db/bench";
+    private static final String COLLECTION = "bench";
+    private static final int[] POWERS = { 10, 12, 14, 16 };
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) throws Exception {
+        final String xml = args.length > 0 ? args[0] : "./db/xml/etc/factbook.xml";
+        new File(HOME).mkdirs();
+        LmdbDataManager.config(HOME);
+        LmdbDataManager.start(false);
+        LmdbPageCache.capacity(0);
+        try {
+            LmdbDataManager.createCollection(COLLECTION);
+            System.out.println("power    table pages  (overflow)  index pages  (overflow)    build ms     scan ms");
+            for(int p : POWERS) {
+                final String name = COLLECTION + "/p" + p;
+                LmdbDataManager.storage(p, p);
+                final Stat t0 = stat(tableaccessdb), l0 = stat(txtindexldb), r0 = stat(txtindexrdb);
+                long time = System.nanoTime();
+                LmdbDataManager.createDocument(name, new FileInputStream(xml));
+                LmdbDataManager.indexDocument(name);
+                final long build = (System.nanoTime() - time) / 1000000;
+                final Stat t1 = stat(tableaccessdb), l1 = stat(txtindexldb), r1 = stat(txtindexrdb);
+
+                final String query = "count(doc('" + name + "')//*) + count(doc('" + name + "')//text()[. = 'x'])";
+                LmdbQueryContext.queryString(query);
+                time = System.nanoTime();
+                for(int r = 0; r < RUNS; r++) LmdbQueryContext.queryString(query);
+                final long scan = (System.nanoTime() - time) / 1000000 / RUNS;
+
+                System.out.println(String.format("%5d %14d %11d %12d %11d %11d %11d", p,
+                        pages(t1) - pages(t0), t1.ms_overflow_pages - t0.ms_overflow_pages,
+                        pages(l1) + pages(r1) - pages(l0) - pages(r0),
+                        l1.ms_overflow_pages + r1.ms_overflow_pages - l0.ms_overflow_pages - r0.ms_overflow_pages,
+                        build, scan));
+            }
+        } finally {
+            LmdbDataManager.stop();
+            FileUtils.deleteQuietly(new File(HOME));
+        }
+    }
+
+    private static Stat stat(Database db) {
+        try(Transaction tx = env.createReadTransaction()) {
+            return db.stat(tx);
+        }
+    }
+
+    private static long pages(Stat s) {
+        return s.ms_branch_pages + s.ms_leaf_pages + s.ms_overflow_pages;
+    }
+}
@@ -3,20 +3,46 @@ package lmdb.basex;
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
+import org.basex.core.MainOptions;
+import org.basex.io.serial.SerialMethod;
+import org.basex.io.serial.SerializerOptions;
 import org.basex.query.QueryException;
+import org.basex.query.util.CollectionFilter;
+import org.basex.util.Token;
+import org.basex.util.options.Options;
+import org.basex.util.list.TokenList;
+import org.fusesource.lmdbjni.Constants;
+import org.fusesource.lmdbjni.Transaction;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class LmdbDataManagerTest {
 
@@ -97,4 +123,508 @@ public class LmdbDataManagerTest {
         LmdbDataManager.removeCollection(TEST_COLLECTION);
         assertFalse(result.isEmpty());
     }
+
+    @Test
+    public void documentCacheTest() throws IOException, QueryException {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/books", new FileInputStream(XML_DIR + "books.xml"));
+        LmdbQueryContext.queryString("doc('" + TEST_COLLECTION + "/books')");
+        long hits = LmdbDataCache.hits();
+        String result = LmdbQueryContext.queryString("count(doc('" + TEST_COLLECTION + "/books')//*)");
+        assertTrue(LmdbDataCache.hits() > hits);
+        LmdbQueryContext.queryString("insert node <book/> into doc('" + TEST_COLLECTION + "/books')/*");
+        assertEquals(Integer.parseInt(result) + 1, Integer.parseInt(LmdbQueryContext.queryString("count(doc('" + TEST_COLLECTION + "/books')//*)")));
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/books");
+    }
+
+    @Test
+    public void storageMigrationTest() throws IOException, QueryException {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/books", new FileInputStream(XML_DIR + "books.xml"));
+        LmdbDataManager.indexDocument(TEST_COLLECTION + "/books");
+        String query = "doc('" + TEST_COLLECTION + "/books')";
+        String result = LmdbQueryContext.queryString(query);
+        String count = LmdbQueryContext.queryString("count(" + query + "//*)");
+        LmdbStorageMigration.migrate(TEST_COLLECTION + "/books", 10, 9);
+        assertEquals(result, LmdbQueryContext.queryString(query));
+        LmdbQueryContext.queryString("insert node <book/> into " + query + "/*");
+        assertEquals(Integer.parseInt(count) + 1, Integer.parseInt(LmdbQueryContext.queryString("count(" + query + "//*)")));
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/books");
+    }
+
+    @Test
+    public void bulkLoadTest() throws IOException, QueryException {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/single", new FileInputStream(XML_DIR + "books.xml"));
+        LmdbBulkLoader.Report report = new LmdbBulkLoader(TEST_COLLECTION, 2).batch(2, 1 << 20)
+                .load(LmdbBulkLoader.directory(new File(XML_DIR)));
+        assertEquals(report.read.get(), report.stored.get());
+        assertTrue(LmdbDataManager.listDocuments(TEST_COLLECTION).containsAll(Arrays.asList("auction", "books", "factbook")));
+        assertEquals(LmdbQueryContext.queryString("doc('" + TEST_COLLECTION + "/single')"),
+                LmdbQueryContext.queryString("doc('" + TEST_COLLECTION + "/books')"));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try(ZipOutputStream zip = new ZipOutputStream(bos)) {
+            for(String[] doc : new String[][] { { "a.xml", "<a>1</a>" }, { "bad.xml", "<a>" }, { "books.xml", "<b/>" } }) {
+                zip.putNextEntry(new ZipEntry(doc[0]));
+                zip.write(doc[1].getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        report = new LmdbBulkLoader(TEST_COLLECTION, 2).load(LmdbBulkLoader.zip(new ByteArrayInputStream(bos.toByteArray())));
+        assertEquals(1, report.stored.get());
+        assertEquals(2, report.failed.get());
+        assertEquals("1", LmdbQueryContext.queryString("string(doc('" + TEST_COLLECTION + "/a'))"));
+        for(String d : LmdbDataManager.listDocuments(TEST_COLLECTION, true)) LmdbDataManager.removeDocument(d);
+    }
+
+    @Test
+    public void groupCommitTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Object>> writes = new ArrayList<Future<Object>>();
+        for(int i = 0; i < 20; i++) {
+            final int n = i;
+            writes.add(pool.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    if(n % 5 != 4) {
+                        LmdbDataManager.createDocument(TEST_COLLECTION + "/gc" + n,
+                                new ByteArrayInputStream(("<a>" + n + "</a>").getBytes(StandardCharsets.UTF_8)));
+                        return null;
+                    }
+                    // fails after writing, which must not affect the other writes of its group
+                    return LmdbGroupCommit.execute(new LmdbGroupCommit.Work<Object>() {
+                        @Override
+                        public Object run(Transaction tx) throws IOException {
+                            LmdbDataManager.coldb.put(tx, Constants.bytes(TEST_COLLECTION + "/failed" + n), new byte[4]);
+                            throw new IOException("failed " + n);
+                        }
+                    });
+                }
+            }));
+        }
+        for(int i = 0; i < writes.size(); i++) {
+            try {
+                writes.get(i).get();
+                assertTrue(i % 5 != 4);
+            } catch(ExecutionException e) {
+                assertEquals("failed " + i, e.getCause().getMessage());
+            }
+        }
+        pool.shutdown();
+        List<String> docs = LmdbDataManager.listDocuments(TEST_COLLECTION);
+        assertEquals(16, docs.size());
+        assertFalse(docs.contains("failed4"));
+        assertEquals("7", LmdbQueryContext.queryString("string(doc('" + TEST_COLLECTION + "/gc7'))"));
+        for(String d : LmdbDataManager.listDocuments(TEST_COLLECTION, true)) LmdbDataManager.removeDocument(d);
+    }
+
+    @Test
+    public void indexPolicyTest() throws Exception {
+        LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.parse("text attribute", "load"));
+        try {
+            LmdbDataManager.createCollection(TEST_COLLECTION);
+            String name = TEST_COLLECTION + "/factbook";
+            LmdbDataManager.createDocument(name, new FileInputStream(XML_DIR + "factbook.xml"));
+            assertTrue(LmdbIndexer.missing(name).isEmpty());
+            String query = "doc('" + name + "')//lake[@id='f0_39401']/@name/string()";
+            String result = LmdbQueryContext.queryString(query);
+            assertFalse(result.isEmpty());
+
+            // updates clear the index flags, the background indexer restores them
+            LmdbQueryContext.queryString("insert node <lake id='new'/> into doc('" + name + "')/*");
+            for(int i = 0; i < 600 && !LmdbIndexer.missing(name).isEmpty(); i++) Thread.sleep(100);
+            assertTrue(LmdbIndexer.missing(name).isEmpty());
+            assertEquals(result, LmdbQueryContext.queryString(query));
+            assertEquals("1", LmdbQueryContext.queryString("count(doc('" + name + "')//lake[@id='new'])"));
+            LmdbDataManager.removeDocument(name);
+        } finally {
+            LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.NONE);
+        }
+    }
+
+    @Test
+    public void postingsTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        String name = TEST_COLLECTION + "/factbook";
+        LmdbDataManager.createDocument(name, new FileInputStream(XML_DIR + "factbook.xml"));
+        String query = "doc('" + name + "')//lake[@id='f0_39401']/@name/string()";
+        String result = LmdbQueryContext.queryString(query);
+        LmdbDataManager.indexDocument(name);
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction();
+            LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, new MainOptions(), tx)) {
+            assertTrue(data.attrIndex instanceof LmdbPostings);
+            assertTrue(data.textIndex instanceof LmdbPostings);
+            assertTrue(data.attrIndex.size() > 0);
+        }
+        assertEquals(result, LmdbQueryContext.queryString(query));
+        LmdbQueryContext.queryString("insert node <lake id='new'/> into doc('" + name + "')/*");
+        assertEquals("1", LmdbQueryContext.queryString("count(doc('" + name + "')//lake[@id='new'])"));
+        LmdbDataManager.removeDocument(name);
+    }
+
+    @Test
+    public void rangeIndexTest() throws Exception {
+        LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.parse("text attribute range", "load"));
+        try {
+            LmdbDataManager.createCollection(TEST_COLLECTION);
+            String name = TEST_COLLECTION + "/items";
+            StringBuilder xml = new StringBuilder("<items>");
+            for(int i = 0; i < 100; i++) {
+                xml.append("<item date='2020-01-").append(i % 20 + 10).append("'><price>").append((i - 50) / 2.0)
+                        .append("</price></item>");
+            }
+            LmdbDataManager.createDocument(name, new ByteArrayInputStream(
+                    xml.append("</items>").toString().getBytes(StandardCharsets.UTF_8)));
+            try(Transaction tx = LmdbDataManager.env.createReadTransaction();
+                LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, new MainOptions(), tx)) {
+                assertTrue(((LmdbMetaData) data.meta).ranges(true));
+                assertTrue(((LmdbMetaData) data.meta).ranges(false));
+            }
+            String doc = "doc('" + name + "')";
+            assertEquals("20", LmdbQueryContext.queryString("count(" + doc + "//item[price > 14.5])"));
+            assertEquals("10", LmdbQueryContext.queryString("count(" + doc + "//item[price >= -5 and price < 0])"));
+            assertEquals("5", LmdbQueryContext.queryString(
+                    "count(" + doc + "//item[@date = xs:date('2020-01-12')])"));
+            assertEquals("10", LmdbQueryContext.queryString(
+                    "count(" + doc + "//item[@date < xs:date('2020-01-12')])"));
+            LmdbDataManager.removeDocument(name);
+        } finally {
+            LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.NONE);
+        }
+    }
+
+    @Test
+    public void fullTextUpdateTest() throws Exception {
+        LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.parse("fulltext", "load"));
+        LmdbDataManager.updindex(true);
+        try {
+            LmdbDataManager.createCollection(TEST_COLLECTION);
+            String name = TEST_COLLECTION + "/notes";
+            LmdbDataManager.createDocument(name, new ByteArrayInputStream(
+                    "<notes><p>apple pie</p><p>pear cake</p><p>apple juice</p></notes>".getBytes(StandardCharsets.UTF_8)));
+            String doc = "doc('" + name + "')";
+            String query = "count(" + doc + "//p[text() contains text 'apple'])";
+            assertEquals("2", LmdbQueryContext.queryString(query));
+
+            // the full-text index is updated in place and stays valid
+            LmdbQueryContext.queryString("insert node <p>green apple</p> into " + doc + "/*");
+            LmdbQueryContext.queryString("delete node " + doc + "//p[1]");
+            LmdbQueryContext.queryString("replace value of node " + doc + "//p[. = 'pear cake']/text() with 'apple tart'");
+            assertTrue(LmdbIndexer.missing(name).isEmpty());
+            try(Transaction tx = LmdbDataManager.env.createReadTransaction();
+                LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, new MainOptions(), tx)) {
+                assertTrue(data.ftxtIndex instanceof LmdbFTPostings);
+            }
+            assertEquals("3", LmdbQueryContext.queryString(query));
+            assertEquals("0", LmdbQueryContext.queryString("count(" + doc + "//p[text() contains text 'pie'])"));
+            assertEquals("1", LmdbQueryContext.queryString("count(" + doc + "//p[text() contains text 'tar.*' using wildcards])"));
+            LmdbDataManager.removeDocument(name);
+        } finally {
+            LmdbDataManager.updindex(false);
+            LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.NONE);
+        }
+    }
+
+    @Test
+    public void fuzzySearchTest() throws Exception {
+        LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.parse("fulltext", "load"));
+        try {
+            LmdbDataManager.createCollection(TEST_COLLECTION);
+            String name = TEST_COLLECTION + "/words";
+            LmdbDataManager.createDocument(name, new ByteArrayInputStream(("<words><p>apple</p><p>apply</p>"
+                    + "<p>ample</p><p>maple</p><p>banana</p><p>pineapple</p></words>").getBytes(StandardCharsets.UTF_8)));
+            String doc = "doc('" + name + "')";
+            assertEquals("apple apply ample", LmdbQueryContext.queryString(
+                    "string-join(" + doc + "//p[text() contains text 'apple' using fuzzy], ' ')"));
+            assertEquals("2", LmdbQueryContext.queryString(
+                    "count(" + doc + "//p[text() contains text 'ap.*' using wildcards])"));
+            assertEquals("4", LmdbQueryContext.queryString(
+                    "count(" + doc + "//p[text() contains text '.*ple' using wildcards])"));
+            assertEquals("0", LmdbQueryContext.queryString(
+                    "count(" + doc + "//p[text() contains text 'cherry' using fuzzy])"));
+            LmdbDataManager.removeDocument(name);
+        } finally {
+            LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.NONE);
+        }
+    }
+
+    @Test
+    public void nameIndexTest() throws Exception {
+        LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.parse("names", "load"));
+        try {
+            LmdbDataManager.createCollection(TEST_COLLECTION);
+            String name = TEST_COLLECTION + "/shop";
+            LmdbDataManager.createDocument(name, new ByteArrayInputStream(("<shop><product id='1'/><group>"
+                    + "<product id='2'/><item/><product id='3'/></group><product id='4'/></shop>")
+                    .getBytes(StandardCharsets.UTF_8)));
+            String doc = "doc('" + name + "')";
+            assertEquals("1 2 3 4", LmdbQueryContext.queryString("string-join(" + doc + "//product/@id, ' ')"));
+            assertEquals("2 3", LmdbQueryContext.queryString("string-join(" + doc + "//group//product/@id, ' ')"));
+
+            // the index is kept current by updates
+            LmdbQueryContext.queryString("insert node <product id='5'><product id='6'/></product> into " + doc + "//group");
+            LmdbQueryContext.queryString("delete node " + doc + "//product[@id = '1']");
+            LmdbQueryContext.queryString("rename node " + doc + "//item as 'product'");
+            assertTrue(LmdbIndexer.missing(name).isEmpty());
+            try(Transaction tx = LmdbDataManager.env.createReadTransaction();
+                LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, new MainOptions(), tx)) {
+                assertTrue(data.nameIndex instanceof LmdbNameIndex);
+            }
+            assertEquals("2  3 5 6 4", LmdbQueryContext.queryString(
+                    "string-join(" + doc + "//product/string(@id), ' ')"));
+            assertEquals("0", LmdbQueryContext.queryString("count(" + doc + "//item)"));
+            assertEquals("2", LmdbQueryContext.queryString("count(" + doc + "//product[@id = '5']/descendant-or-self::product)"));
+            LmdbDataManager.removeDocument(name);
+        } finally {
+            LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.NONE);
+        }
+    }
+
+    @Test
+    public void structuralJoinTest() throws Exception {
+        LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.parse("names attribute", "load"));
+        try {
+            LmdbDataManager.createCollection(TEST_COLLECTION);
+            String name = TEST_COLLECTION + "/orders";
+            StringBuilder sb = new StringBuilder("<orders>");
+            for(int i = 0; i < 50; i++) {
+                sb.append("<order id='o").append(i).append("'><line sku='s").append(i % 5).append("'/>");
+                if(i % 10 == 0) sb.append("<order id='n").append(i).append("'><line sku='s9'/></order>");
+                sb.append("</order><line sku='x'/>");
+            }
+            LmdbDataManager.createDocument(name, new ByteArrayInputStream(sb.append("</orders>").toString()
+                    .getBytes(StandardCharsets.UTF_8)));
+            String doc = "doc('" + name + "')";
+            assertEquals("55", LmdbQueryContext.queryString("count(" + doc + "//order//line)"));
+            assertEquals("10", LmdbQueryContext.queryString("count(" + doc + "//order//line[@sku = 's2'])"));
+            assertEquals("5", LmdbQueryContext.queryString("count(" + doc + "//order//line[@sku = 's9'])"));
+            assertEquals("0", LmdbQueryContext.queryString("count(" + doc + "//order//line[@sku = 'x'])"));
+            assertEquals("o10 n10", LmdbQueryContext.queryString(
+                    "string-join(" + doc + "//order[@id = 'o10']//descendant-or-self::order/@id, ' ')"));
+            assertEquals("o10 n10", LmdbQueryContext.queryString(
+                    "string-join(" + doc + "//order//line[@sku = ('s9', 's0')][../@id = ('o10', 'n10')]/../@id, ' ')"));
+            LmdbDataManager.removeDocument(name);
+        } finally {
+            LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.NONE);
+        }
+    }
+
+    @Test
+    public void planCacheTest() throws Exception {
+        String query = "declare variable $n external; $n * 2";
+        long hits = LmdbPlanCache.hits();
+        for(int i = 0; i < 20; i++) {
+            // parsed instances are shared, external variables are bound per request; a query is cached when
+            // it is seen the second time, and options are compared by their values
+            try(LmdbQueryContext ctx = LmdbPlanCache.context(query, null,
+                    Collections.<String, Object>singletonMap("n", i), new MainOptions(), null)) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                ctx.run(bos, false);
+                assertEquals(String.valueOf(i * 2), bos.toString());
+            }
+            for(int j = 0; j < 100 && LmdbPlanCache.hits() == hits && i > 0; j++) Thread.sleep(10);
+        }
+        assertTrue(LmdbPlanCache.hits() > hits);
+    }
+
+    @Test
+    public void resultCacheTest() throws Exception {
+        LmdbResultCache.capacity(1 << 20);
+        try {
+            LmdbDataManager.createCollection(TEST_COLLECTION);
+            LmdbDataManager.createDocument(TEST_COLLECTION + "/a", new ByteArrayInputStream("<a/>".getBytes(StandardCharsets.UTF_8)));
+            String query = "count(collection('" + TEST_COLLECTION + "')//a)";
+            assertEquals("1", cached(query));
+            long hits = LmdbResultCache.hits();
+            assertEquals("1", cached(query));
+            assertEquals(hits + 1, LmdbResultCache.hits());
+
+            // a commit to the collection invalidates the result
+            LmdbDataManager.createDocument(TEST_COLLECTION + "/b", new ByteArrayInputStream("<a/>".getBytes(StandardCharsets.UTF_8)));
+            assertEquals("2", cached(query));
+            LmdbQueryContext.queryString("insert node <a/> into doc('" + TEST_COLLECTION + "/b')/a");
+            assertEquals("3", cached(query));
+            assertEquals("3", cached(query));
+            assertEquals(hits + 2, LmdbResultCache.hits());
+
+            // results depending on the current time are not cached
+            cached("current-dateTime()");
+            assertEquals(hits + 2, LmdbResultCache.hits());
+            cached("current-dateTime()");
+            assertEquals(hits + 2, LmdbResultCache.hits());
+        } finally {
+            LmdbResultCache.capacity(0);
+        }
+    }
+
+    private static String cached(String query) throws Exception {
+        byte[] result = LmdbResultCache.get(query, null, "text/plain", "false", "basic");
+        if(result != null) return new String(result, StandardCharsets.UTF_8);
+        long generation = LmdbResultCache.generation();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try(LmdbQueryContext ctx = new LmdbQueryContext(query)) {
+            LmdbResultCache.Recorder rec = LmdbResultCache.recorder(bos);
+            ctx.run(rec, "text/plain", false);
+            LmdbResultCache.put(query, null, "text/plain", "false", "basic", generation, ctx, rec);
+        }
+        return bos.toString();
+    }
+
+    @Test
+    public void queryServiceTest() throws Exception {
+        int concurrency = LmdbQueryService.concurrency(), queue = LmdbQueryService.queue(), heap = LmdbQueryService.heap();
+        long timeout = LmdbQueryService.timeout(), memory = LmdbQueryService.memory();
+        LmdbQueryService.config(1, 0, 0, 0, 100);
+        try {
+            // a query exceeding its time budget is stopped and releases its slot
+            try(LmdbQueryContext ctx = new LmdbQueryContext("sum(for $i in 1 to 100000000000 return $i * $i)")) {
+                ctx.limit(LmdbQueryService.admit(200, null));
+                try {
+                    ctx.run(new ByteArrayOutputStream());
+                    fail("query not stopped");
+                } catch(QueryException qe) {
+                    assertTrue(qe.getMessage().contains("timeout"));
+                }
+                // the only slot is taken and no request may wait
+                try {
+                    LmdbQueryService.admit(0, null).close();
+                    fail("query admitted");
+                } catch(RejectedExecutionException ree) {
+                }
+            }
+            LmdbQueryService.admit(0, null).close();
+        } finally {
+            LmdbQueryService.config(concurrency, queue, timeout, memory, heap);
+        }
+    }
+
+    @Test
+    public void parallelQueryTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        for(int i = 0; i < 20; i++) {
+            LmdbDataManager.createDocument(TEST_COLLECTION + "/p" + i, new ByteArrayInputStream(
+                    ("<orders n='" + i + "'><order>" + i + "</order><order>" + i * 10 + "</order></orders>")
+                            .getBytes(StandardCharsets.UTF_8)));
+        }
+        String col = "collection('" + TEST_COLLECTION + "')";
+        String[] queries = {
+                "string-join(" + col + "//order, ' ')",
+                "let $m := 50 return string-join(for $d in " + col + " let $n := $d/*/@n " +
+                        "where $d//order > $m return $n * 2, ' ')",
+                "declare ordering unordered; sum(for $d in " + col + " return $d//order)",
+        };
+        try {
+            LmdbQueryService.parallelism(1);
+            String[] expected = new String[queries.length];
+            for(int q = 0; q < queries.length; q++) expected[q] = LmdbQueryContext.queryString(queries[q]);
+            LmdbQueryService.parallelism(4);
+            for(int q = 0; q < queries.length; q++) assertEquals(expected[q], LmdbQueryContext.queryString(queries[q]));
+            assertEquals("2090", expected[2]);
+        } finally {
+            LmdbQueryService.parallelism(Runtime.getRuntime().availableProcessors());
+            for(int i = 0; i < 20; i++) LmdbDataManager.removeDocument(TEST_COLLECTION + "/p" + i);
+        }
+    }
+
+    @Test
+    public void documentSequenceTest() throws Exception {
+        String name = "sequence";
+        LmdbDataManager.createCollection(name);
+        try {
+            for(int i = 0; i < 5; i++) {
+                LmdbDataManager.createDocument(name + "/s" + i, new ByteArrayInputStream(
+                        ("<doc>" + i + "</doc>").getBytes(StandardCharsets.UTF_8)));
+            }
+            String col = "collection('" + name + "')";
+            assertEquals("5", LmdbQueryContext.queryString("count(" + col + ")"));
+            String[] n = LmdbQueryContext.queryString("string-join(" + col + ", ' ')").split(" ");
+            assertEquals(n[4] + " " + n[3] + " " + n[2] + " " + n[1] + " " + n[0],
+                    LmdbQueryContext.queryString("string-join(reverse(" + col + "), ' ')"));
+            assertEquals(n[1] + " " + n[2],
+                    LmdbQueryContext.queryString("string-join(subsequence(" + col + ", 2, 2), ' ')"));
+            assertEquals(n[0] + n[1] + n[3] + n[4],
+                    LmdbQueryContext.queryString("string-join(remove(" + col + ", 3))"));
+            // a document is opened once per query, so all its nodes are identical
+            assertEquals("true", LmdbQueryContext.queryString(
+                    "let $d := doc('" + name + "/s3') return exists(" + col + "[. is $d])"));
+        } finally {
+            LmdbDataManager.removeCollection(name);
+        }
+    }
+
+    @Test
+    public void resultStreamTest() throws Exception {
+        // many small items, and a single item that is larger than all buffers of the stream
+        SerializerOptions options = new SerializerOptions();
+        options.set(SerializerOptions.METHOD, SerialMethod.XML);
+        options.set(SerializerOptions.INDENT, Options.YesNo.NO);
+        for(String query : new String[] { "for $i in 1 to 1000 return <item id='{$i}'>{$i}</item>",
+                "<items>{ for $i in 1 to 100000 return <item id='{$i}'>{$i}</item> }</items>" }) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try(InputStream in = new LmdbResultStream(new LmdbQueryContext(query), options)) {
+                byte[] b = new byte[7];
+                for(int l; (l = in.read(b, 0, b.length)) != -1;) bos.write(b, 0, l);
+            }
+            assertEquals(LmdbQueryContext.queryString(query), bos.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void serializerTest() throws Exception {
+        String name = TEST_COLLECTION + "/serial";
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(name, new ByteArrayInputStream(
+                ("<r a='x&quot;&lt;&amp;&gt;&#10;&#13;'><e/><t>a&amp;b&lt;c&gt;\"q\"&#9;&#13;&#x85;&#x2028;</t>" +
+                        "<!--c--><?p v?><?q?><m x='1'>t<k/>u</m>tail</r>").getBytes(StandardCharsets.UTF_8)));
+        try {
+            // nodes of the document are written directly, copies by the serializer
+            String doc = "doc('" + name + "')";
+            assertEquals(LmdbQueryContext.queryString("(document { " + doc + "/node() }, 1, 2, <x/>, " + doc + "//@a)"),
+                    LmdbQueryContext.queryString("(" + doc + ", 1, 2, " + doc + "//e/<x/>, " + doc + "//@a)"));
+            assertEquals("<t>a&amp;b&lt;c&gt;\"q\"\t&#xD;&#x85;&#x2028;</t>",
+                    LmdbQueryContext.queryString(doc + "//t"));
+        } finally {
+            LmdbDataManager.removeDocument(name);
+        }
+    }
+
+    @Test
+    public void collectionIndexTest() throws Exception {
+        LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.parse("text attribute", "load"));
+        try {
+            LmdbDataManager.createCollection(TEST_COLLECTION);
+            for(int i = 0; i < 10; i++) {
+                LmdbDataManager.createDocument(TEST_COLLECTION + "/d" + i, new ByteArrayInputStream(
+                        ("<items><item id='i" + i + "'><name>n" + i + "</name><a>x<b>y</b></a></item></items>")
+                                .getBytes(StandardCharsets.UTF_8)));
+            }
+            assertEquals(Arrays.asList(TEST_COLLECTION + "/d3"), documents(false, "i3"));
+            assertEquals(Arrays.asList(TEST_COLLECTION + "/d4"), documents(true, "n4"));
+            assertEquals(10, documents(true, "xy").size());
+            assertTrue(documents(false, "i99").isEmpty());
+            assertEquals("n3", LmdbQueryContext.queryString(
+                    "collection('" + TEST_COLLECTION + "')//item[@id = 'i3']/name/string()"));
+
+            // changed documents are returned until they have been indexed again
+            LmdbQueryContext.queryString("insert node <item id='i99'/> into doc('" + TEST_COLLECTION + "/d5')/*");
+            assertEquals("1", LmdbQueryContext.queryString(
+                    "count(collection('" + TEST_COLLECTION + "')//item[@id = 'i99'])"));
+            for(int i = 0; i < 600 && !LmdbIndexer.missing(TEST_COLLECTION + "/d5").isEmpty(); i++) Thread.sleep(100);
+            assertEquals(Arrays.asList(TEST_COLLECTION + "/d5"), documents(false, "i99"));
+
+            LmdbDataManager.removeDocument(TEST_COLLECTION + "/d3");
+            assertTrue(documents(false, "i3").isEmpty());
+        } finally {
+            LmdbIndexer.policy(TEST_COLLECTION, LmdbIndexer.Policy.NONE);
+        }
+    }
+
+    private static List<String> documents(boolean text, String value) {
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction()) {
+            return LmdbCollectionIndex.documents(tx, TEST_COLLECTION,
+                    new CollectionFilter(text, new TokenList(Token.token(value))));
+        }
+    }
 }
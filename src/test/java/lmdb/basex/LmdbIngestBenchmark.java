@@ -0,0 +1,48 @@
+package lmdb.basex;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+/**
+ * Measures document ingest throughput of the builder.
+ * Not a unit test, run it with an XML file and the number of copies as arguments.
+ */
+public class LmdbIngestBenchmark {
+
+    static {
+        System.setProperty("log4j.defaultInitOverride", "true");
+        LogManager.resetConfiguration();
+        LogManager.getRootLogger().removeAllAppenders();
+        LogManager.getRootLogger().setLevel(Level.toLevel("off"));
+    }
+
+    private static final String HOME = "./db/bench";
+    private static final String COLLECTION = "bench";
+
+    public static void main(String[] args) throws Exception {
+        final File xml = new File(args.length > 0 ? args[0] : "./db/xml/etc/factbook.xml");
+        final int copies = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        new File(HOME).mkdirs();
+        LmdbDataManager.config(HOME);
+        LmdbDataManager.start(false);
+        try {
+            LmdbDataManager.createCollection(COLLECTION);
+            // warm up
+            LmdbDataManager.createDocument(COLLECTION + "/warmup", new FileInputStream(xml));
+            final long time = System.nanoTime();
+            for(int c = 0; c < copies; c++) {
+                LmdbDataManager.createDocument(COLLECTION + "/doc" + c, new FileInputStream(xml));
+            }
+            final double secs = (System.nanoTime() - time) / 1e9;
+            System.out.println(String.format("%d documents, %.1f MB in %.2f s: %.1f documents/s, %.1f MB/s",
+                    copies, xml.length() * copies / 1e6, secs, copies / secs, xml.length() * copies / 1e6 / secs));
+        } finally {
+            LmdbDataManager.stop();
+            FileUtils.deleteQuietly(new File(HOME));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package lmdb.basex;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class LmdbPageCacheTest {
+
+    private static final byte[] DOC = new byte[]{0,0,0,1};
+
+    @After
+    public void tearDown() {
+        LmdbPageCache.capacity(4096);
+    }
+
+    @Test
+    public void clockEvictionTest() {
+        LmdbPageCache.capacity(2);
+        LmdbPageCache.put(null, DOC, 0, 0, new byte[]{0});
+        assertNotNull(LmdbPageCache.get(null, DOC, 0, 0));
+        LmdbPageCache.put(null, DOC, 0, 1, new byte[]{1});
+        // page 0 was hit again and survives, the scanned page 1 is evicted
+        LmdbPageCache.put(null, DOC, 0, 2, new byte[]{2});
+        assertNotNull(LmdbPageCache.get(null, DOC, 0, 0));
+        assertNull(LmdbPageCache.get(null, DOC, 0, 1));
+        assertNotNull(LmdbPageCache.get(null, DOC, 0, 2));
+        assertEquals(2, LmdbPageCache.size());
+    }
+
+    @Test
+    public void generationTest() {
+        LmdbPageCache.capacity(8);
+        LmdbPageCache.put(null, DOC, 0, 0, new byte[]{0});
+        assertNull(LmdbPageCache.get(null, DOC, 1, 0));
+        LmdbPageCache.invalidate(DOC);
+        assertNull(LmdbPageCache.get(null, DOC, 0, 0));
+    }
+}
@@ -0,0 +1,53 @@
+package lmdb.basex;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LmdbValueCodecTest {
+
+    private static final byte[][] VALUES = {
+            new byte[0],
+            "x".getBytes(),
+            "The quick brown fox".getBytes(),
+            new String(new char[100]).replace("\0", "jumps over the lazy dog. ").getBytes(),
+            new byte[] {(byte) 0xC3, (byte) 0xA4, 0, (byte) 0xFF, 0x7F}
+    };
+
+    @Test
+    public void roundTripTest() {
+        for(int mode : new int[] {LmdbValueCodec.NONE, LmdbValueCodec.PACK, LmdbValueCodec.DEFLATE}) {
+            for(byte[] v : VALUES) {
+                final byte[] stored = LmdbValueCodec.encode(v, mode);
+                assertTrue(Arrays.equals(v, LmdbValueCodec.decode(stored, mode)));
+                assertEquals(v.length, LmdbValueCodec.length(stored, mode));
+            }
+        }
+    }
+
+    @Test
+    public void longValueTest() {
+        final byte[] v = VALUES[3];
+        assertTrue(LmdbValueCodec.encode(v, LmdbValueCodec.DEFLATE).length < LmdbValueCodec.encode(v, LmdbValueCodec.PACK).length);
+        assertTrue(LmdbValueCodec.encode(v, LmdbValueCodec.PACK).length < v.length);
+    }
+
+    @Test
+    public void inlineTest() {
+        for(String v : new String[] {"", "0", "42", "999999999", "true", "a b", "\u00e4\u00f6"}) {
+            final long ref = LmdbValueCodec.inline(v.getBytes(UTF_8));
+            assertTrue(LmdbValueCodec.inlined(ref));
+            // references fit into the 5 bytes of a table record
+            assertEquals(0, ref >>> 40);
+            assertEquals(v, new String(LmdbValueCodec.inlineValue(ref), UTF_8));
+        }
+        assertEquals(-1, LmdbValueCodec.inline("01234".getBytes()));
+        assertEquals(-1, LmdbValueCodec.inline("1234567890".getBytes()));
+        assertTrue(LmdbValueCodec.number(LmdbValueCodec.inline("1234".getBytes())));
+        assertTrue(!LmdbValueCodec.inlined(Integer.MAX_VALUE));
+    }
+}